@@ -1,7 +1,12 @@
 package PingPong;
+import rmi.Batch;
 import rmi.RMIException;
 import rmi.Stub;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Created by saurabh on 30/04/16.
@@ -13,23 +18,37 @@ public class PingPongClient {
         }
         InetSocketAddress address = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
         PingPongFactoryInterface factoryStub = Stub.create(PingPongFactoryInterface.class, address);
-        PingPongInterface pingStub = null;
-        try {
-            pingStub = factoryStub.makePingServer();
-        } catch (RMIException e) {
-            e.printStackTrace();
+
+        // Create the ping server and ping it in a single round trip: the pings
+        // are pipelined on the server returned by makePingServer.
+        Batch<PingPongFactoryInterface> batch = Stub.createBatch(factoryStub);
+        CompletableFuture<PingPongInterface> pingStub = batch.add(f -> f.makePingServer());
+        List<CompletableFuture<String>> pongs = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            final int value = i;
+            pongs.add(batch.add(pingStub, p -> p.ping(value)));
         }
+        batch.execute();
+
         int total = 0;
         int fail = 0;
         for (int i = 1; i <= 4; i++) {
             total++;
-            String result = pingStub.ping(i);
+            String result;
+            try {
+                result = pongs.get(i - 1).get();
+            } catch (InterruptedException | ExecutionException e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                System.out.println("Ping " + i + " failed: " + cause);
+                fail++;
+                continue;
+            }
             System.out.println(result);
-            if (!result.equals("Pong" + i)) {
+            if (!("Pong" + i).equals(result)) {
                 fail++;
             }
 
         }
         System.out.println(total +" Tests Completed, " + fail + " Tests Failed");
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,9 @@
 package PingPong;
 
+import rmi.Idempotent;
 import rmi.RMIException;
 
 public interface PingPongInterface {
+    @Idempotent
     public String ping(int idNumber) throws RMIException;
 }
@@ -3,7 +3,6 @@ package PingPong;
 
 import rmi.RMIException;
 import rmi.Skeleton;
-import rmi.Stub;
 
 import java.net.InetSocketAddress;
 
@@ -21,17 +20,9 @@ public class PingServerFactory implements PingPongFactoryInterface{
 
     }
 
+    /** Returns a new ping server. The factory's skeleton exports the server
+     when it is returned, so calls to it share the factory's port. */
     public PingPongInterface makePingServer() {
-        PingPongServer server = new PingPongServer();
-        Skeleton<PingPongInterface> skeleton = new Skeleton<PingPongInterface>(PingPongInterface.class, server);
-
-        try {
-            skeleton.start();
-        } catch (RMIException e) {
-            e.printStackTrace();
-        }
-
-        PingPongInterface newStub = Stub.create(PingPongInterface.class, skeleton);
-        return newStub;
+        return new PingPongServer();
     }
 }
@@ -0,0 +1,205 @@
+package benchmark;
+
+import rmi.Codec;
+import rmi.Codecs;
+import rmi.RMIException;
+import rmi.Skeleton;
+import rmi.Stub;
+
+import java.io.Serializable;
+
+/** Compares the binary codec with Java serialization.
+
+    <p>
+    The first table gives, for payloads typical of calls and replies, the
+    encoded size in bytes and the time to encode and to decode the payload
+    with each codec. Each time is the best of several runs, each preceded by
+    a warm-up run. The second table gives the mean time of a complete call
+    over a loopback connection with each codec negotiated.
+
+    <p>
+    Usage: <code>java benchmark.CodecBenchmark [iterations [calls]]</code>
+ */
+public class CodecBenchmark
+{
+    /** Number of timed runs of each measurement. */
+    private static final int    RUNS = 5;
+    /** ID under which the benchmark registers its data class. */
+    private static final int    QUOTE_ID = 1;
+
+    /** Value combined with every result, so that work is not optimized
+        away. */
+    private static int          sink;
+
+    /** Runs the benchmark.
+
+        @param arguments Optional number of iterations of each codec
+                         measurement, and number of calls per codec.
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        int         iterations = arguments.length > 0 ?
+                                 Integer.parseInt(arguments[0]) : 200000;
+        int         calls = arguments.length > 1 ?
+                            Integer.parseInt(arguments[1]) : 20000;
+
+        Codecs.BINARY.register(QUOTE_ID, Quote.class);
+
+        String[]    names = {"int argument", "two int arguments",
+                             "long and double arguments", "string argument",
+                             "string result", "data object argument",
+                             "1 KiB byte array argument"};
+        Object[]    payloads =
+            {new Object[] {42}, new Object[] {3, 4},
+             new Object[] {5L, 1.5}, new Object[] {"hello, world"}, "Pong42",
+             new Object[] {new Quote("ACME", 1234.5, 100, 17)},
+             new Object[] {new byte[1024]}};
+
+        System.out.println("codec benchmark: " + iterations + " iterations " +
+                           "per run, best of " + RUNS + " runs");
+        System.out.printf("%-28s %-7s %8s %12s %12s%n", "payload", "codec",
+                          "bytes", "encode ns", "decode ns");
+
+        for(int index = 0; index < payloads.length; ++index)
+        {
+            for(Codec codec : new Codec[] {Codecs.JAVA, Codecs.BINARY})
+            {
+                byte[]  encoded = codec.encode(payloads[index]);
+                System.out.printf("%-28s %-7s %8d %12.1f %12.1f%n",
+                                  names[index], codec.name(), encoded.length,
+                                  encodeTime(codec, payloads[index],
+                                             iterations),
+                                  decodeTime(codec, encoded, iterations));
+            }
+        }
+
+        System.out.println();
+        System.out.println("call benchmark: " + calls + " calls of " +
+                           "echo(Quote) per codec");
+        System.out.printf("%-7s %12s%n", "codec", "mean us");
+        for(Codec codec : new Codec[] {Codecs.JAVA, Codecs.BINARY})
+            System.out.printf("%-7s %12.1f%n", codec.name(),
+                              callTime(codec, calls));
+
+        System.out.println("(sink " + sink + ")");
+        System.exit(0);
+    }
+
+    /** Returns the best time to encode a payload, in nanoseconds. */
+    private static double encodeTime(Codec codec, Object payload,
+                                     int iterations) throws Exception
+    {
+        long        best = Long.MAX_VALUE;
+        for(int run = 0; run <= RUNS; ++run)
+        {
+            long    start = System.nanoTime();
+            int     hash = 0;
+            for(int iteration = 0; iteration < iterations; ++iteration)
+                hash += codec.encode(payload).length;
+            long    elapsed = System.nanoTime() - start;
+
+            sink += hash;
+            if(run > 0)
+                best = Math.min(best, elapsed);
+        }
+
+        return (double)best / iterations;
+    }
+
+    /** Returns the best time to decode an encoded payload, in
+        nanoseconds. */
+    private static double decodeTime(Codec codec, byte[] encoded,
+                                     int iterations) throws Exception
+    {
+        long        best = Long.MAX_VALUE;
+        for(int run = 0; run <= RUNS; ++run)
+        {
+            long    start = System.nanoTime();
+            int     hash = 0;
+            for(int iteration = 0; iteration < iterations; ++iteration)
+            {
+                Object  value = codec.decode(encoded, 0, encoded.length);
+                hash += value == null ? 0 : 1;
+            }
+            long    elapsed = System.nanoTime() - start;
+
+            sink += hash;
+            if(run > 0)
+                best = Math.min(best, elapsed);
+        }
+
+        return (double)best / iterations;
+    }
+
+    /** Returns the mean time of a call over a connection using the given
+        codec, in microseconds. */
+    private static double callTime(Codec codec, int calls) throws Exception
+    {
+        Codecs.setPreference(codec.name());
+
+        // A new skeleton has a new address, so that its stubs open new
+        // connections, which negotiate the preferred codec.
+        Skeleton<QuoteInterface>    skeleton =
+            new Skeleton<QuoteInterface>(QuoteInterface.class,
+                                         new QuoteServer());
+        skeleton.start();
+
+        try
+        {
+            QuoteInterface  stub = Stub.create(QuoteInterface.class, skeleton);
+            Quote           quote = new Quote("ACME", 1234.5, 100, 17);
+
+            for(int call = 0; call < calls; ++call)
+                sink += stub.echo(quote).size;
+
+            long            start = System.nanoTime();
+            for(int call = 0; call < calls; ++call)
+                sink += stub.echo(quote).size;
+
+            return (System.nanoTime() - start) / 1000.0 / calls;
+        }
+        finally
+        {
+            skeleton.stop();
+        }
+    }
+
+    /** Remote interface used for the call benchmark. */
+    public interface QuoteInterface
+    {
+        Quote echo(Quote quote) throws RMIException;
+    }
+
+    /** Server used for the call benchmark. */
+    private static class QuoteServer implements QuoteInterface
+    {
+        @Override
+        public Quote echo(Quote quote)
+        {
+            return quote;
+        }
+    }
+
+    /** Small data object, registered with the binary codec. */
+    public static class Quote implements Serializable
+    {
+        private static final long   serialVersionUID = 1L;
+
+        String      symbol;
+        double      price;
+        int         size;
+        int         exchange;
+
+        public Quote()
+        {
+        }
+
+        Quote(String symbol, double price, int size, int exchange)
+        {
+            this.symbol = symbol;
+            this.price = price;
+            this.size = size;
+            this.exchange = exchange;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package benchmark;
+
+import java.util.Arrays;
+
+/** Recorder of call latencies.
+
+    <p>
+    Latencies are recorded in nanoseconds into a fixed-size array, so that
+    recording does not allocate while a benchmark is running. Recording is not
+    thread-safe; each thread should use its own recorder, and recorders may be
+    merged once the threads have finished.
+ */
+class Latency
+{
+    private long[]      samples;
+    private int         count;
+
+    /** Creates a recorder with room for the given number of samples. */
+    Latency(int capacity)
+    {
+        samples = new long[capacity];
+    }
+
+    /** Records a latency, in nanoseconds. Samples beyond the recorder's
+        capacity are dropped. */
+    void record(long nanoseconds)
+    {
+        if(count < samples.length)
+            samples[count++] = nanoseconds;
+    }
+
+    /** Adds the samples of another recorder to this one. */
+    void merge(Latency other)
+    {
+        long[]  merged = Arrays.copyOf(samples, count + other.count);
+        System.arraycopy(other.samples, 0, merged, count, other.count);
+        samples = merged;
+        count = merged.length;
+    }
+
+    /** Returns the given percentile of the recorded latencies, in
+        microseconds.
+
+        @param percentile The percentile, between <code>0</code> and
+                          <code>100</code>.
+     */
+    double percentile(double percentile)
+    {
+        if(count == 0)
+            return Double.NaN;
+
+        long[]  sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+
+        int     index = (int)Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+
+    /** Returns the mean of the recorded latencies, in microseconds. */
+    double mean()
+    {
+        long    total = 0;
+        for(int index = 0; index < count; ++index)
+            total += samples[index];
+
+        return count == 0 ? Double.NaN : total / 1000.0 / count;
+    }
+}
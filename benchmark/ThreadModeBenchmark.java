@@ -0,0 +1,153 @@
+package benchmark;
+
+import PingPong.PingPongInterface;
+import PingPong.PingPongServer;
+import rmi.RMIException;
+import rmi.Skeleton;
+import rmi.Stub;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Compares skeleton thread modes.
+
+    <p>
+    For each thread mode supported by the Java runtime, the benchmark starts a
+    <code>PingPongServer</code> skeleton, opens a number of idle connections
+    to it, and records how many platform threads the process then has. It
+    then measures the latency of <code>ping</code> calls made concurrently from
+    several client threads while the idle connections remain open.
+
+    <p>
+    Usage: <code>java benchmark.ThreadModeBenchmark [idle-connections
+    [client-threads [calls-per-thread]]]</code>
+ */
+public class ThreadModeBenchmark
+{
+    /** Runs the benchmark.
+
+        @param arguments Optional idle connection count, client thread count,
+                         and number of calls per client thread.
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        int     idle = arguments.length > 0 ? Integer.parseInt(arguments[0])
+                                            : 2000;
+        int     clients = arguments.length > 1 ? Integer.parseInt(arguments[1])
+                                               : 16;
+        int     calls = arguments.length > 2 ? Integer.parseInt(arguments[2])
+                                             : 2000;
+
+        System.out.println("thread mode benchmark: " + idle +
+                           " idle connections, " + clients + " clients, " +
+                           calls + " calls per client");
+        System.out.printf("%-10s %16s %10s %10s %10s%n", "mode",
+                          "platform threads", "mean us", "p50 us", "p99 us");
+
+        for(Skeleton.ThreadMode mode : Skeleton.ThreadMode.values())
+        {
+            if(mode == Skeleton.ThreadMode.VIRTUAL &&
+               !Skeleton.virtualThreadsSupported())
+            {
+                System.out.printf("%-10s %16s%n", mode,
+                                  "(not supported by this runtime)");
+                continue;
+            }
+
+            run(mode, idle, clients, calls);
+        }
+
+        System.exit(0);
+    }
+
+    /** Runs the benchmark for one thread mode. */
+    private static void run(Skeleton.ThreadMode mode, int idle, int clients,
+                            final int calls) throws Exception
+    {
+        ThreadMXBean                    threads =
+            ManagementFactory.getThreadMXBean();
+        Skeleton<PingPongInterface>     skeleton =
+            new Skeleton<PingPongInterface>(PingPongInterface.class,
+                                            new PingPongServer());
+        skeleton.setThreadMode(mode);
+        skeleton.start();
+
+        InetSocketAddress               address = skeleton.getSocketAddress();
+        final PingPongInterface         stub =
+            Stub.create(PingPongInterface.class, skeleton);
+        List<Socket>                    sockets = new ArrayList<>();
+
+        try
+        {
+            // Warm up the call path before measuring.
+            for(int call = 0; call < calls; ++call)
+                stub.ping(call);
+
+            int                 before = threads.getThreadCount();
+            for(int connection = 0; connection < idle; ++connection)
+                sockets.add(new Socket(address.getAddress(), address.getPort()));
+
+            // Give the skeleton time to accept the connections.
+            Thread.sleep(500);
+            int                 during = threads.getThreadCount() - before;
+
+            final Latency[]     latencies = new Latency[clients];
+            Thread[]            workers = new Thread[clients];
+            for(int client = 0; client < clients; ++client)
+            {
+                final Latency   latency = new Latency(calls);
+                latencies[client] = latency;
+                workers[client] = new Thread(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            try
+                            {
+                                for(int call = 0; call < calls; ++call)
+                                {
+                                    long    start = System.nanoTime();
+                                    stub.ping(call);
+                                    latency.record(System.nanoTime() - start);
+                                }
+                            }
+                            catch(RMIException e)
+                            {
+                                e.printStackTrace();
+                            }
+                        }
+                    });
+                workers[client].start();
+            }
+
+            Latency             total = new Latency(0);
+            for(int client = 0; client < clients; ++client)
+            {
+                workers[client].join();
+                total.merge(latencies[client]);
+            }
+
+            System.out.printf("%-10s %16d %10.1f %10.1f %10.1f%n", mode,
+                              during, total.mean(), total.percentile(50),
+                              total.percentile(99));
+        }
+        finally
+        {
+            for(Socket socket : sockets)
+            {
+                try
+                {
+                    socket.close();
+                }
+                catch(IOException e) { }
+            }
+
+            skeleton.stop();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package benchmark;
+
+import PingPong.PingPongInterface;
+import PingPong.PingPongServer;
+import rmi.Skeleton;
+import rmi.SharedMemoryAddress;
+import rmi.Stub;
+import rmi.WaitStrategy;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Compares transports between a stub and a skeleton on the same host.
+
+    <p>
+    The benchmark starts a <code>PingPongServer</code> skeleton listening on
+    both loopback TCP and a Unix domain socket. It then makes
+    <code>ping</code> calls from a single client thread through a stub for
+    each transport, and prints the latency of the calls and the resulting
+    call rate. It then calls skeletons accepting shared memory connections,
+    one for each wait strategy, with both ends of the connection using that
+    strategy, and a skeleton accepting calls to <code>ping</code>, which is
+    idempotent, in UDP datagrams. For comparison, it also calls a skeleton that accepts direct
+    calls from stubs in the same process, which involve no transport at all.
+
+    <p>
+    With <code>BUSY_SPIN</code>, the stub's reader thread and the skeleton's
+    connection handler each occupy a processor while they wait. On a host
+    with fewer than about four processors, the spinning threads compete with
+    the calling and worker threads, and the strategy performs poorly.
+
+    <p>
+    Usage: <code>java benchmark.TransportBenchmark [calls]</code>
+ */
+public class TransportBenchmark
+{
+    /** Runs the benchmark.
+
+        @param arguments Optional number of calls measured per transport.
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        int     calls = arguments.length > 0 ? Integer.parseInt(arguments[0])
+                                             : 50000;
+
+        Path                            directory =
+            Files.createTempDirectory("rmi-bench-");
+        Path                            socket = directory.resolve("ping.sock");
+        Skeleton<PingPongInterface>     skeleton =
+            new Skeleton<PingPongInterface>(PingPongInterface.class,
+                                            new PingPongServer());
+        skeleton.setUnixSocket(socket);
+        skeleton.start();
+
+        Skeleton<PingPongInterface>     local =
+            new Skeleton<PingPongInterface>(PingPongInterface.class,
+                                            new PingPongServer());
+        local.setLocalCalls(Skeleton.LocalCalls.SHARE_IMMUTABLE);
+        local.start();
+
+        Skeleton<PingPongInterface>     datagram =
+            new Skeleton<PingPongInterface>(PingPongInterface.class,
+                                            new PingPongServer());
+        datagram.setDatagramCalls(true);
+        datagram.start();
+
+        try
+        {
+            // The skeleton listens on all interfaces. A stub given only its
+            // TCP address connects over TCP.
+            InetSocketAddress   loopback =
+                new InetSocketAddress("127.0.0.1",
+                                      skeleton.getSocketAddress().getPort());
+
+            System.out.println("transport benchmark: " + calls +
+                               " calls per transport");
+            System.out.printf("%-10s %10s %10s %10s %12s%n", "transport",
+                              "mean us", "p50 us", "p99 us", "calls/s");
+
+            run("tcp", Stub.create(PingPongInterface.class, loopback), calls);
+            run("unix", Stub.create(PingPongInterface.class,
+                                    skeleton.getUnixSocketAddress()), calls);
+            for(WaitStrategy strategy : WaitStrategy.values())
+                runSharedMemory(directory, strategy, calls);
+            run("udp", Stub.create(PingPongInterface.class,
+                                   new InetSocketAddress("127.0.0.1",
+                                       datagram.getSocketAddress().getPort())),
+                calls);
+            run("in-process", Stub.create(PingPongInterface.class, local),
+                calls);
+        }
+        finally
+        {
+            skeleton.stop();
+            local.stop();
+            datagram.stop();
+            for(WaitStrategy strategy : WaitStrategy.values())
+                Files.deleteIfExists(directory.resolve(strategy.name()));
+            Files.deleteIfExists(directory);
+        }
+
+        System.exit(0);
+    }
+
+    /** Measures calls over shared memory with one wait strategy. The
+        skeleton is stopped afterwards, which closes the connection, so that
+        spinning threads do not disturb later measurements. */
+    private static void runSharedMemory(Path directory, WaitStrategy strategy,
+                                        int calls) throws Exception
+    {
+        Skeleton<PingPongInterface>     skeleton =
+            new Skeleton<PingPongInterface>(PingPongInterface.class,
+                                            new PingPongServer());
+        skeleton.setSharedMemory(directory.resolve(strategy.name()), strategy);
+        skeleton.start();
+
+        try
+        {
+            run("shm-" + strategy.name().toLowerCase().replace("busy_", ""),
+                Stub.create(PingPongInterface.class,
+                            new SharedMemoryAddress(directory.resolve(
+                                                        strategy.name()),
+                                                    strategy)),
+                calls);
+        }
+        finally
+        {
+            skeleton.stop();
+        }
+    }
+
+    /** Measures calls through one stub. */
+    private static void run(String transport, PingPongInterface stub,
+                            int calls) throws Exception
+    {
+        // Warm up the call path before measuring.
+        for(int call = 0; call < calls; ++call)
+            stub.ping(call);
+
+        Latency     latency = new Latency(calls);
+        long        start = System.nanoTime();
+        for(int call = 0; call < calls; ++call)
+        {
+            long    before = System.nanoTime();
+            stub.ping(call);
+            latency.record(System.nanoTime() - before);
+        }
+        double      seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%-10s %10.1f %10.1f %10.1f %12.0f%n", transport,
+                          latency.mean(), latency.percentile(50),
+                          latency.percentile(99), calls / seconds);
+    }
+}
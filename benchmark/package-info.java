@@ -0,0 +1,9 @@
+/** Performance benchmarks.
+
+    <p>
+    Benchmarks are stand-alone programs that measure the RMI library under
+    load and print their results. They are not part of the main project code,
+    and are not run as part of the tests. To run all benchmarks, execute
+    <code>make bench</code> from the project base directory.
+ */
+package benchmark;
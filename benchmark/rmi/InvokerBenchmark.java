@@ -0,0 +1,163 @@
+package rmi;
+
+import java.lang.reflect.Method;
+
+/** Compares the skeleton's method-handle invokers with reflection.
+
+    <p>
+    The benchmark calls several methods of a server object through the
+    invokers a skeleton uses, and through reflective invokers equivalent to
+    dispatching with <code>Method.invoke</code>. Calls are made directly,
+    without a network or serialization, so that the measured times are those
+    of dispatch alone. Each measurement is preceded by a warm-up run, and the
+    best of several runs is reported.
+
+    <p>
+    A skeleton dispatches calls to all methods of its interface from the same
+    place, so the final row measures calls to the methods in rotation, which
+    is closest to the skeleton's own workload.
+
+    <p>
+    The benchmark is in package <code>rmi</code> so that it can use the
+    package-private <code>Invoker</code> class. Run it with
+    <code>java -cp .:benchmark rmi.InvokerBenchmark [calls]</code>.
+ */
+public class InvokerBenchmark
+{
+    /** Number of timed runs of each measurement. */
+    private static final int    RUNS = 5;
+
+    /** Value combined with every result, so that calls are not optimized
+        away. */
+    private static int          sink;
+
+    /** Runs the benchmark.
+
+        @param arguments Optional number of calls in each run.
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        int                 calls = arguments.length > 0 ?
+                                    Integer.parseInt(arguments[0]) : 5000000;
+        BenchmarkServer     server = new BenchmarkServer();
+
+        System.out.println("invoker benchmark: " + calls + " calls per run, " +
+                           "best of " + RUNS + " runs");
+        System.out.printf("%-28s %14s %14s %8s%n", "method", "reflect ns",
+                          "invoker ns", "speedup");
+
+        Method[]            methods =
+            {BenchmarkInterface.class.getMethod("noop"),
+             BenchmarkInterface.class.getMethod("add", int.class, int.class),
+             BenchmarkInterface.class.getMethod("scale", long.class,
+                                                double.class),
+             BenchmarkInterface.class.getMethod("echo", String.class)};
+        Object[][]          values =
+            {new Object[0], new Object[] {3, 4}, new Object[] {5L, 1.5},
+             new Object[] {"ping"}};
+
+        Invoker[]           reflective = new Invoker[methods.length];
+        Invoker[]           generated = new Invoker[methods.length];
+        for(int index = 0; index < methods.length; ++index)
+        {
+            reflective[index] = new Invoker(methods[index], false);
+            generated[index] = Invoker.create(methods[index], false);
+        }
+
+        for(int index = 0; index < methods.length; ++index)
+        {
+            print(MethodTable.signature(methods[index]),
+                  time(new Invoker[] {reflective[index]}, server,
+                       new Object[][] {values[index]}, calls),
+                  time(new Invoker[] {generated[index]}, server,
+                       new Object[][] {values[index]}, calls));
+        }
+
+        print("all, in rotation", time(reflective, server, values, calls),
+              time(generated, server, values, calls));
+
+        System.out.println("(sink " + sink + ")");
+    }
+
+    /** Prints a row of the results table. */
+    private static void print(String name, double reflectTime,
+                              double handleTime)
+    {
+        System.out.printf("%-28s %14.2f %14.2f %7.2fx%n", name, reflectTime,
+                          handleTime, reflectTime / handleTime);
+    }
+
+    /** Returns the best time per call, in nanoseconds, over several runs. */
+    private static double time(Invoker[] invokers, Object server,
+                               Object[][] arguments, int calls)
+        throws Exception
+    {
+        run(invokers, server, arguments, calls);
+
+        long        best = Long.MAX_VALUE;
+        for(int run = 0; run < RUNS; ++run)
+        {
+            long    start = System.nanoTime();
+            run(invokers, server, arguments, calls);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        return (double)best / calls;
+    }
+
+    /** Makes the given number of calls, rotating through the invokers. */
+    private static void run(Invoker[] invokers, Object server,
+                            Object[][] arguments, int calls)
+        throws Exception
+    {
+        int     hash = 0;
+        int     next = 0;
+        for(int call = 0; call < calls; ++call)
+        {
+            Object  result = invokers[next].invoke(server, arguments[next]);
+            if(result != null)
+                hash += result.hashCode();
+
+            if(++next == invokers.length)
+                next = 0;
+        }
+
+        sink += hash;
+    }
+
+    /** Remote interface used by the benchmark. */
+    public interface BenchmarkInterface
+    {
+        void noop() throws RMIException;
+        int add(int first, int second) throws RMIException;
+        double scale(long value, double factor) throws RMIException;
+        String echo(String value) throws RMIException;
+    }
+
+    /** Server used by the benchmark. */
+    private static class BenchmarkServer implements BenchmarkInterface
+    {
+        @Override
+        public void noop()
+        {
+        }
+
+        @Override
+        public int add(int first, int second)
+        {
+            return first + second;
+        }
+
+        @Override
+        public double scale(long value, double factor)
+        {
+            return value * factor;
+        }
+
+        @Override
+        public String echo(String value)
+        {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package rmi;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/** Compares calls encoded by <code>PrimitiveCall</code> with calls encoded
+    by the binary codec.
+
+    <p>
+    For each method, the benchmark performs the work of both ends of a call
+    without a network: the stub encodes the call, the skeleton decodes it,
+    calls the server object and encodes the result, and the stub decodes the
+    result. It reports the time per call, and the number of bytes allocated
+    per call, measured with the per-thread allocation counter of the virtual
+    machine. The allocation includes the call and reply payloads themselves,
+    and, for the primitive encoding, any boxing of the result done for the
+    stub's caller.
+
+    <p>
+    The benchmark is in package <code>rmi</code> so that it can use
+    package-private classes. Run it with
+    <code>java -cp .:benchmark rmi.PrimitiveCallBenchmark [calls]</code>.
+ */
+public class PrimitiveCallBenchmark
+{
+    /** Number of timed runs of each measurement. */
+    private static final int    RUNS = 5;
+
+    /** Value combined with every result, so that calls are not optimized
+        away. */
+    private static int          sink;
+
+    /** Runs the benchmark.
+
+        @param arguments Optional number of calls in each run.
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        int                 calls = arguments.length > 0 ?
+                                    Integer.parseInt(arguments[0]) : 1000000;
+        BenchmarkServer     server = new BenchmarkServer();
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        System.out.println("primitive call benchmark: " + calls + " calls " +
+                           "per run, best of " + RUNS + " runs");
+        System.out.printf("%-28s %12s %12s %12s %12s%n", "method",
+                          "codec ns", "codec bytes", "direct ns",
+                          "direct bytes");
+
+        Method[]            methods =
+            {BenchmarkInterface.class.getMethod("add", int.class, int.class),
+             BenchmarkInterface.class.getMethod("scale", long.class,
+                                                double.class),
+             BenchmarkInterface.class.getMethod("sum", long[].class),
+             BenchmarkInterface.class.getMethod("echo", String.class)};
+        Object[][]          values =
+            {new Object[] {3, 4}, new Object[] {5L, 1.5},
+             new Object[] {new long[16]}, new Object[] {"ping"}};
+
+        for(int index = 0; index < methods.length; ++index)
+        {
+            Invoker         invoker = Invoker.create(methods[index], false);
+            double[]        codec = measure(threads, invoker, server,
+                                            values[index], false, calls);
+            double[]        direct = measure(threads, invoker, server,
+                                             values[index], true, calls);
+            System.out.printf("%-28s %12.1f %12.1f %12.1f %12.1f%n",
+                              MethodTable.signature(methods[index]),
+                              codec[0], codec[1], direct[0], direct[1]);
+        }
+
+        System.out.println("(sink " + sink + ")");
+    }
+
+    /** Returns the best time per call, in nanoseconds, and the number of
+        bytes allocated per call in the same run. */
+    private static double[] measure(com.sun.management.ThreadMXBean threads,
+                                    Invoker invoker, Object server,
+                                    Object[] values, boolean primitive,
+                                    int calls) throws Exception
+    {
+        long        thread = Thread.currentThread().getId();
+        long        best = Long.MAX_VALUE;
+        long        allocated = 0;
+
+        for(int run = 0; run <= RUNS; ++run)
+        {
+            long    bytes = threads.getThreadAllocatedBytes(thread);
+            long    start = System.nanoTime();
+            for(int call = 0; call < calls; ++call)
+            {
+                Object  result = primitive ?
+                                 direct(invoker, server, values) :
+                                 encoded(invoker, server, values);
+                sink += result == null ? 0 : 1;
+            }
+            long    elapsed = System.nanoTime() - start;
+            bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            if(run > 0 && elapsed < best)
+            {
+                best = elapsed;
+                allocated = bytes;
+            }
+        }
+
+        return new double[] {(double)best / calls, (double)allocated / calls};
+    }
+
+    /** Makes a call encoded by the binary codec. */
+    private static Object encoded(Invoker invoker, Object server,
+                                  Object[] values) throws Exception
+    {
+        Codec       codec = Codecs.BINARY;
+        byte[]      call = Frame.encodeCall(codec, ObjectTable.PRIMARY_ID, 0,
+                                            invoker.method, values);
+        Object[]    arguments = (Object[])Frame.decodeCall(codec, call);
+        byte[]      reply = codec.encode(invoker.invoke(server, arguments));
+        return codec.decode(reply, 0, reply.length);
+    }
+
+    /** Makes a call encoded by <code>PrimitiveCall</code>. */
+    private static Object direct(Invoker invoker, Object server,
+                                 Object[] values) throws Exception
+    {
+        PrimitiveCall   primitive = invoker.primitive;
+        byte[]          call = primitive.encodeCall(ObjectTable.PRIMARY_ID, 0,
+                                                    values);
+        byte[]          reply = primitive.invoke(server, call, invoker);
+        return primitive.decodeResult(reply);
+    }
+
+    /** Interface whose methods are called by the benchmark. */
+    public interface BenchmarkInterface
+    {
+        int add(int a, int b) throws RMIException;
+        double scale(long value, double factor) throws RMIException;
+        long sum(long[] values) throws RMIException;
+        String echo(String value) throws RMIException;
+    }
+
+    /** Server called by the benchmark. */
+    public static class BenchmarkServer implements BenchmarkInterface
+    {
+        @Override
+        public int add(int a, int b)
+        {
+            return a + b;
+        }
+
+        @Override
+        public double scale(long value, double factor)
+        {
+            return value * factor;
+        }
+
+        @Override
+        public long sum(long[] values)
+        {
+            long    sum = 0;
+            for(long value : values)
+                sum += value;
+            return sum;
+        }
+
+        @Override
+        public String echo(String value)
+        {
+            return value;
+        }
+    }
+}
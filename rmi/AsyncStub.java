@@ -0,0 +1,170 @@
+package rmi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+
+/** Asynchronous view of a remote interface.
+
+    <p>
+    An asynchronous stub makes calls to the same skeleton as the stub returned
+    by <code>getStub</code>, but does not wait for their replies. Each call
+    is written as a function applied to the remote interface, for example
+    <code>async.call(s -&gt; s.ping(1))</code>, and returns at once with a
+    <code>CompletableFuture</code> for the call's result. The function is
+    applied to a recording proxy, not to the remote object, and must make
+    exactly one call to a method of the remote interface.
+
+    <p>
+    Calls share the pooled, multiplexed connections used by ordinary stubs,
+    and their futures are completed as replies arrive. No thread is created
+    or blocked per call. The future completes exceptionally with the
+    exception thrown by the remote method if the method declares it, and
+    with an <code>RMIException</code> otherwise.
+
+    <p>
+    Replies are read by event loop threads shared by all connections in the
+    process, but futures are not completed on them: they are completed on a
+    small, fixed pool of callback threads, also shared by all asynchronous
+    stubs. Dependent actions added with the non-asynchronous methods of
+    <code>CompletableFuture</code> run on these threads, so a dependent
+    action that blocks delays the completion of other asynchronous calls,
+    though not the reading of replies. Dependent actions that block should
+    therefore be run with the asynchronous methods of
+    <code>CompletableFuture</code>, on another executor. A call with a
+    streamed argument reads the argument on a thread of a shared upload
+    pool instead.
+
+    <p>
+    Asynchronous stubs are created with <code>Stub.createAsync</code>.
+ */
+public final class AsyncStub<T>
+{
+    /** A call to a method of the remote interface.
+
+        @param <T> The remote interface.
+        @param <R> The method's result type.
+     */
+    public interface Call<T, R>
+    {
+        /** Makes the call on the given stub. */
+        R invoke(T stub) throws Exception;
+    }
+
+    private final Class<T>  remoteInterface;
+    private final T         stub;
+
+    /** Creates an asynchronous view of a stub. */
+    AsyncStub(Class<T> remoteInterface, T stub)
+    {
+        this.remoteInterface = remoteInterface;
+        this.stub = stub;
+    }
+
+    /** Returns the synchronous stub for the same remote object. */
+    public T getStub()
+    {
+        return stub;
+    }
+
+    /** Starts a remote call.
+
+        @param call Function that makes one call to a method of the remote
+                    interface. Its result is ignored.
+        @return A future for the call's result.
+        @throws IllegalArgumentException If <code>call</code> does not make
+                                         exactly one remote call.
+        @throws NullPointerException If <code>call</code> is
+                                     <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> CompletableFuture<R> call(Call<? super T, R> call)
+    {
+        if(call == null)
+            throw new NullPointerException("call is null");
+
+        Recorder    recorder = record(remoteInterface, call);
+        return (CompletableFuture<R>)Stub.invokeAsync(stub, recorder.method,
+                                                      recorder.arguments);
+    }
+
+    /** Applies a call function to a recording proxy and returns the recorded
+        method and arguments. */
+    static <T> Recorder record(Class<T> remoteInterface,
+                               Call<? super T, ?> call)
+    {
+        Recorder    recorder = new Recorder();
+        T           proxy = remoteInterface.cast(
+            Proxy.newProxyInstance(remoteInterface.getClassLoader(),
+                                   new Class<?>[] {remoteInterface},
+                                   recorder));
+
+        try
+        {
+            call.invoke(proxy);
+        }
+        catch(Exception e)
+        {
+            throw new IllegalArgumentException("call function failed", e);
+        }
+
+        if(recorder.calls != 1)
+        {
+            throw new IllegalArgumentException("call function made " +
+                                               recorder.calls + " remote " +
+                                               "calls, expected one");
+        }
+
+        return recorder;
+    }
+
+    /** Invocation handler that records the call made on a proxy. */
+    static final class Recorder implements InvocationHandler
+    {
+        /** Method called. */
+        Method      method;
+        /** Arguments to the call. */
+        Object[]    arguments;
+        /** Number of calls made. */
+        int         calls;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] arguments)
+        {
+            if(method.getDeclaringClass() == Object.class)
+            {
+                throw new IllegalArgumentException(
+                    "cannot call " + method.getName() + " asynchronously");
+            }
+
+            this.method = method;
+            this.arguments = arguments;
+            ++calls;
+
+            return defaultValue(method.getReturnType());
+        }
+
+        /** Returns the value of an uninitialized field of the given type. */
+        private static Object defaultValue(Class<?> type)
+        {
+            if(!type.isPrimitive() || type == void.class)
+                return null;
+            if(type == boolean.class)
+                return false;
+            if(type == char.class)
+                return (char)0;
+            if(type == byte.class)
+                return (byte)0;
+            if(type == short.class)
+                return (short)0;
+            if(type == int.class)
+                return 0;
+            if(type == long.class)
+                return 0L;
+            if(type == float.class)
+                return 0f;
+            return 0d;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package rmi;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/** Sequence of calls sent to a remote object in a single round trip.
+
+    <p>
+    Calls are added to a batch with <code>add</code>, in the same form as for
+    <code>AsyncStub</code>: a function that makes one call on the remote
+    interface, for example <code>batch.add(s -&gt; s.ping(1))</code>. Nothing
+    is sent until <code>execute</code> is called. The calls are then sent to
+    the skeleton in one request and executed there in the order in which they
+    were added, on one thread. All outcomes are returned in one reply.
+
+    <p>
+    Calls may be pipelined. If a call in the batch returns a remote object,
+    further calls on that object can be added before the batch is executed,
+    by passing the first call's future to <code>add</code>:
+
+    <pre>
+    Batch&lt;PingPongFactoryInterface&gt; batch = Stub.createBatch(factory);
+    CompletableFuture&lt;PingPongInterface&gt; server =
+        batch.add(f -&gt; f.makePingServer());
+    CompletableFuture&lt;String&gt; pong = batch.add(server, s -&gt; s.ping(1));
+    batch.execute();
+    </pre>
+
+    The skeleton makes the pipelined call directly on the object returned by
+    the earlier call, so the whole chain completes in one round trip. If the
+    earlier call fails, or returns <code>null</code>, the pipelined call fails
+    with an <code>RMIException</code>.
+
+    <p>
+    Each call's outcome is delivered through the future returned by
+    <code>add</code>. A call that throws an exception does not prevent later
+    calls in the batch from being executed. The futures are completed before
+    <code>execute</code> returns.
+
+    <p>
+    Once executed, a batch is empty and may be reused. Batches are not safe
+    for use by several threads at once.
+
+    <p>
+    Batches are created with <code>Stub.createBatch</code>.
+ */
+public final class Batch<T>
+{
+    /** Target index of calls made on the batch's stub. */
+    private static final int                        NO_TARGET = -1;
+
+    private final Class<T>                          remoteInterface;
+    private final T                                 stub;
+    private final List<Method>                      methods = new ArrayList<>();
+    private final List<Object[]>                    arguments = new ArrayList<>();
+    /** Index of the call whose result each call targets, or
+        <code>NO_TARGET</code> for calls on the batch's stub. */
+    private final List<Integer>                     targets = new ArrayList<>();
+    private final List<CompletableFuture<Object>>   results = new ArrayList<>();
+
+    /** Creates an empty batch for the remote object of the given stub. */
+    Batch(Class<T> remoteInterface, T stub)
+    {
+        this.remoteInterface = remoteInterface;
+        this.stub = stub;
+    }
+
+    /** Adds a call to the batch.
+
+        @param call Function that makes one call to a method of the remote
+                    interface. Its result is ignored.
+        @return A future for the call's result, completed when the batch is
+                executed.
+        @throws IllegalArgumentException If <code>call</code> does not make
+                                         exactly one remote call, or calls a
+                                         method with a streamed argument, a
+                                         byte buffer or file region argument,
+                                         or a byte buffer or file region
+                                         result.
+        @throws NullPointerException If <code>call</code> is
+                                     <code>null</code>.
+     */
+    public <R> CompletableFuture<R> add(AsyncStub.Call<? super T, R> call)
+    {
+        if(call == null)
+            throw new NullPointerException("call is null");
+
+        return add(NO_TARGET, AsyncStub.record(remoteInterface, call));
+    }
+
+    /** Adds a call pipelined on the result of an earlier call in the batch.
+
+        @param target The future returned by <code>add</code> for an earlier
+                      call in the batch that has not yet been executed. The
+                      call's method must return a remote interface.
+        @param call Function that makes one call to a method of the remote
+                    interface returned by the earlier call. Its result is
+                    ignored.
+        @return A future for the call's result, completed when the batch is
+                executed.
+        @throws IllegalArgumentException If <code>target</code> is not the
+                                         future of a call awaiting execution
+                                         in this batch, if that call does not
+                                         return a remote interface, or if
+                                         <code>call</code> does not make
+                                         exactly one remote call or calls a
+                                         method with a streamed argument, a
+                                         byte buffer or file region argument,
+                                         or a byte buffer or file region
+                                         result.
+        @throws NullPointerException If either argument is <code>null</code>.
+     */
+    public <S, R> CompletableFuture<R> add(CompletableFuture<S> target,
+                                           AsyncStub.Call<? super S, R> call)
+    {
+        if(target == null)
+            throw new NullPointerException("target is null");
+        if(call == null)
+            throw new NullPointerException("call is null");
+
+        int             index = indexOf(target);
+        if(index < 0)
+        {
+            throw new IllegalArgumentException("target is not a call in " +
+                                               "this batch");
+        }
+
+        Class<?>        returned = methods.get(index).getReturnType();
+        if(!Skeleton.isRemoteInterface(returned))
+        {
+            throw new IllegalArgumentException("target call does not return " +
+                                               "a remote interface");
+        }
+
+        @SuppressWarnings("unchecked")
+        Class<S>        targetInterface = (Class<S>)returned;
+        return add(index, AsyncStub.record(targetInterface, call));
+    }
+
+    /** Adds a recorded call with the given target index. */
+    @SuppressWarnings("unchecked")
+    private <R> CompletableFuture<R> add(int target,
+                                         AsyncStub.Recorder recorder)
+    {
+        RemoteMethod    remote = RemoteMethod.of(recorder.method);
+        if(remote.upload >= 0)
+        {
+            throw new IllegalArgumentException("calls with streamed " +
+                                               "arguments cannot be batched");
+        }
+
+        if(remote.bulkArguments ||
+           Bulk.isBulk(recorder.method.getReturnType()))
+        {
+            throw new IllegalArgumentException("calls passing byte buffers " +
+                                               "or file regions cannot be " +
+                                               "batched");
+        }
+
+        CompletableFuture<Object>   result = new CompletableFuture<>();
+
+        methods.add(recorder.method);
+        arguments.add(recorder.arguments);
+        targets.add(target);
+        results.add(result);
+
+        return (CompletableFuture<R>)(CompletableFuture<?>)result;
+    }
+
+    /** Returns the index of the call with the given future, or -1 if it is
+        not in the batch. */
+    private int indexOf(CompletableFuture<?> result)
+    {
+        for(int index = 0; index < results.size(); ++index)
+        {
+            if(results.get(index) == result)
+                return index;
+        }
+
+        return -1;
+    }
+
+    /** Returns the number of calls in the batch. */
+    public int size()
+    {
+        return methods.size();
+    }
+
+    /** Sends the calls in the batch to the skeleton and waits for their
+        outcomes. The batch is then empty.
+
+        @throws RMIException If the batch could not be sent or its reply could
+                             not be received. The futures of all the calls in
+                             the batch are then completed with the same
+                             exception. Some or all of the calls may have been
+                             executed.
+     */
+    public void execute() throws RMIException
+    {
+        if(methods.isEmpty())
+            return;
+
+        final List<Method>                  sentMethods =
+            new ArrayList<>(methods);
+        final List<Object[]>                sentArguments =
+            new ArrayList<>(arguments);
+        final List<Integer>                 sentTargets =
+            new ArrayList<>(targets);
+        List<CompletableFuture<Object>>     sentResults =
+            new ArrayList<>(results);
+
+        methods.clear();
+        arguments.clear();
+        targets.clear();
+        results.clear();
+
+        // Calls are encoded with the method IDs of the connection over which
+        // the batch is sent.
+        Stub.Payload                        request = new Stub.Payload()
+        {
+            @Override
+            public byte[] encode(Connection connection) throws IOException
+            {
+                Object[]    calls = new Object[sentMethods.size()];
+                for(int index = 0; index < calls.length; ++index)
+                {
+                    int     target = sentTargets.get(index);
+                    if(target == NO_TARGET)
+                    {
+                        calls[index] =
+                            Stub.encodeCall(stub, connection,
+                                            sentMethods.get(index),
+                                            sentArguments.get(index));
+                    }
+                    else
+                    {
+                        // The skeleton's method table for the returned
+                        // interface is not known, so methods of pipelined
+                        // calls are named in full.
+                        calls[index] =
+                            Frame.encodeCall(connection.codec,
+                                             Frame.pipelinedId(target),
+                                             Frame.NO_METHOD_ID,
+                                             sentMethods.get(index),
+                                             sentArguments.get(index));
+                    }
+                }
+
+                return connection.codec.encode(calls);
+            }
+
+            @Override
+            public Object[] attachments()
+            {
+                return null;
+            }
+        };
+
+        Object[]                            outcome;
+        try
+        {
+            Frame   reply = Stub.exchange(stub, Frame.BATCH, request);
+            Object  value = reply.decode();
+            if(reply.type != Frame.BATCH)
+                throw (Exception)value;
+
+            outcome = (Object[])value;
+        }
+        catch(Exception e)
+        {
+            RMIException    error = e instanceof RMIException ?
+                                    (RMIException)e : new RMIException(e);
+            for(CompletableFuture<Object> result : sentResults)
+                result.completeExceptionally(error);
+            throw error;
+        }
+
+        byte[]      types = (byte[])outcome[0];
+        Object[]    values = (Object[])outcome[1];
+        for(int index = 0; index < sentResults.size(); ++index)
+        {
+            RemoteMethod    remote = RemoteMethod.of(sentMethods.get(index));
+            if(types[index] == Frame.RETURN)
+            {
+                Object  value = values[index];
+                if(remote.streamedResult)
+                    value = StreamedResult.open(remote.method, value);
+                sentResults.get(index).complete(value);
+            }
+            else
+            {
+                sentResults.get(index).completeExceptionally(
+                    Stub.wrap(remote, (Throwable)values[index]));
+            }
+        }
+    }
+}
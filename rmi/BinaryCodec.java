@@ -0,0 +1,890 @@
+package rmi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Compact binary codec.
+
+    <p>
+    Each value is encoded as a one-byte tag followed by the value's data.
+    Integral primitives are encoded as variable-length integers, so small
+    values take one byte; <code>int</code>, <code>short</code> and
+    <code>long</code> values are zigzag-encoded first so that small negative
+    values are also short. Floating-point values take four or eight bytes.
+    Strings are encoded as their UTF-8 length followed by their UTF-8 bytes.
+    Arrays are encoded as their component type, their length and their
+    elements; elements of primitive arrays carry no tags.
+
+    <p>
+    Classes are referred to by small IDs. The boxed primitive types,
+    <code>String</code>, <code>Object</code> and a few other common classes
+    have built-in IDs. Other classes can be registered with
+    <code>register</code> under IDs chosen by the application; stubs and
+    skeletons must register the same classes under the same IDs. Classes
+    without an ID are referred to by name.
+
+    <p>
+    Registered classes, other than enums, are encoded field by field: each
+    non-static, non-transient field, of the class and its superclasses, is
+    encoded in turn, without field names. Such classes must have a
+    constructor with no parameters, which is used to create instances while
+    decoding. This is intended for small data transfer objects; the encoding
+    does not preserve shared references, and values must not contain cycles.
+
+    <p>
+    Values of all other types, including stubs and exceptions, are encoded
+    with Java serialization.
+ */
+public final class BinaryCodec implements Codec
+{
+    /** Name of the codec. */
+    static final String     NAME = "binary";
+
+    // Value tags.
+    private static final byte   NULL = 0;
+    private static final byte   TRUE = 1;
+    private static final byte   FALSE = 2;
+    private static final byte   BYTE = 3;
+    private static final byte   SHORT = 4;
+    private static final byte   CHAR = 5;
+    private static final byte   INT = 6;
+    private static final byte   LONG = 7;
+    private static final byte   FLOAT = 8;
+    private static final byte   DOUBLE = 9;
+    private static final byte   STRING = 10;
+    private static final byte   ARRAY = 11;
+    private static final byte   ENUM = 12;
+    private static final byte   CLASS = 13;
+    private static final byte   OBJECT = 14;
+    private static final byte   SERIALIZED = 15;
+
+    /** Classes with built-in IDs. The ID of each class is its index plus
+        one; ID zero introduces a class name. */
+    private static final Class<?>[] BUILTIN =
+        {Object.class, String.class, Boolean.class, Byte.class, Short.class,
+         Character.class, Integer.class, Long.class, Float.class,
+         Double.class, boolean.class, byte.class, short.class, char.class,
+         int.class, long.class, float.class, double.class, Class.class,
+         Object[].class, String[].class, byte[].class, int[].class,
+         long[].class, double[].class};
+
+    /** Class ID corresponding to registered ID zero. Registered IDs are
+        offset so that they do not collide with built-in IDs. */
+    private static final int    FIRST_REGISTERED = 64;
+
+    /** Deepest nesting of arrays and registered objects accepted. */
+    private static final int    MAX_DEPTH = 256;
+
+    /** Class IDs, by class. */
+    private final Map<Class<?>, Integer>    classIds =
+        new ConcurrentHashMap<>();
+    /** Classes, by class ID. */
+    private final Map<Integer, Class<?>>    classes = new ConcurrentHashMap<>();
+    /** Field layouts of registered classes. */
+    private final Map<Class<?>, Layout>     layouts = new ConcurrentHashMap<>();
+    /** Classes referred to by name, by name. */
+    private final Map<String, Class<?>>     named = new ConcurrentHashMap<>();
+
+    /** Creates a binary codec with no registered classes. */
+    BinaryCodec()
+    {
+        for(int index = 0; index < BUILTIN.length; ++index)
+        {
+            classIds.put(BUILTIN[index], index + 1);
+            classes.put(index + 1, BUILTIN[index]);
+        }
+    }
+
+    /** Registers a class under an ID.
+
+        <p>
+        Instances of registered classes other than enums are encoded field by
+        field. References to registered classes, including in the component
+        types of arrays and the classes of enum constants, use the ID instead
+        of the class name.
+
+        @param id The ID. Stubs and skeletons must register the same classes
+                  under the same IDs.
+        @param type The class.
+        @throws IllegalArgumentException If <code>id</code> is negative or
+                                         already used for another class, if
+                                         <code>type</code> is already
+                                         registered under another ID, or if
+                                         <code>type</code> is not an enum and
+                                         has no constructor with no
+                                         parameters.
+        @throws NullPointerException If <code>type</code> is
+                                     <code>null</code>.
+     */
+    public synchronized void register(int id, Class<?> type)
+    {
+        if(type == null)
+            throw new NullPointerException("class is null");
+        if(id < 0)
+            throw new IllegalArgumentException("class ID is negative");
+
+        int         classId = FIRST_REGISTERED + id;
+        Class<?>    existing = classes.get(classId);
+        Integer     existingId = classIds.get(type);
+        if(existing == type && existingId == classId)
+            return;
+        if(existing != null)
+        {
+            throw new IllegalArgumentException("class ID " + id + " is used " +
+                                               "for " + existing.getName());
+        }
+        if(existingId != null)
+        {
+            throw new IllegalArgumentException(type.getName() + " already " +
+                                               "has an ID");
+        }
+
+        if(!type.isEnum() && !type.isArray() && !type.isInterface())
+            layouts.put(type, new Layout(type));
+
+        classIds.put(type, classId);
+        classes.put(classId, type);
+    }
+
+    @Override
+    public String name()
+    {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException
+    {
+        Output  out = new Output();
+        write(out, value, 0);
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int offset, int length)
+        throws IOException, ClassNotFoundException
+    {
+        Input   in = new Input(bytes, offset, offset + length);
+        Object  value = read(in, 0);
+        if(in.position != in.limit)
+            throw new IOException("trailing bytes after value");
+        return value;
+    }
+
+    /** Writes a tagged value. */
+    private void write(Output out, Object value, int depth) throws IOException
+    {
+        if(value == null)
+        {
+            out.write(NULL);
+            return;
+        }
+
+        Class<?>    type = value.getClass();
+        if(type == String.class)
+        {
+            out.write(STRING);
+            out.writeString((String)value);
+        }
+        else if(type == Integer.class)
+        {
+            out.write(INT);
+            out.writeVarint(zigzag((Integer)value));
+        }
+        else if(type == Long.class)
+        {
+            out.write(LONG);
+            out.writeVarlong(zigzag((Long)value));
+        }
+        else if(type == Boolean.class)
+            out.write((Boolean)value ? TRUE : FALSE);
+        else if(type == Double.class)
+        {
+            out.write(DOUBLE);
+            out.writeFixedLong(Double.doubleToRawLongBits((Double)value));
+        }
+        else if(type == Float.class)
+        {
+            out.write(FLOAT);
+            out.writeFixedInt(Float.floatToRawIntBits((Float)value));
+        }
+        else if(type == Byte.class)
+        {
+            out.write(BYTE);
+            out.write((Byte)value);
+        }
+        else if(type == Short.class)
+        {
+            out.write(SHORT);
+            out.writeVarint(zigzag((Short)value));
+        }
+        else if(type == Character.class)
+        {
+            out.write(CHAR);
+            out.writeVarint((Character)value);
+        }
+        else if(type.isArray())
+        {
+            out.write(ARRAY);
+            writeArray(out, value, depth + 1);
+        }
+        else if(value instanceof Enum)
+        {
+            Enum<?>     constant = (Enum<?>)value;
+            out.write(ENUM);
+            writeClass(out, constant.getDeclaringClass());
+            out.writeString(constant.name());
+        }
+        else if(type == Class.class)
+        {
+            out.write(CLASS);
+            writeClass(out, (Class<?>)value);
+        }
+        else
+        {
+            Layout  layout = layouts.get(type);
+            if(layout != null)
+            {
+                out.write(OBJECT);
+                out.writeVarint(classIds.get(type));
+                writeFields(out, layout, value, depth + 1);
+            }
+            else
+            {
+                byte[]  serialized = Codecs.JAVA.encode(value);
+                out.write(SERIALIZED);
+                out.writeVarint(serialized.length);
+                out.write(serialized, 0, serialized.length);
+            }
+        }
+    }
+
+    /** Writes a reference to a class. */
+    private void writeClass(Output out, Class<?> type)
+    {
+        Integer     id = classIds.get(type);
+        if(id != null)
+            out.writeVarint(id);
+        else
+        {
+            out.writeVarint(0);
+            out.writeString(type.getName());
+        }
+    }
+
+    /** Writes an array's component type, length and elements. */
+    private void writeArray(Output out, Object array, int depth)
+        throws IOException
+    {
+        checkDepth(depth);
+
+        Class<?>    component = array.getClass().getComponentType();
+        int         length = Array.getLength(array);
+        writeClass(out, component);
+        out.writeVarint(length);
+
+        if(component == byte.class)
+            out.write((byte[])array, 0, length);
+        else if(component == int.class)
+        {
+            for(int element : (int[])array)
+                out.writeVarint(zigzag(element));
+        }
+        else if(component == long.class)
+        {
+            for(long element : (long[])array)
+                out.writeVarlong(zigzag(element));
+        }
+        else if(component == double.class)
+        {
+            for(double element : (double[])array)
+                out.writeFixedLong(Double.doubleToRawLongBits(element));
+        }
+        else if(component.isPrimitive())
+        {
+            for(int index = 0; index < length; ++index)
+                writePrimitive(out, component, Array.get(array, index));
+        }
+        else
+        {
+            for(Object element : (Object[])array)
+                write(out, element, depth);
+        }
+    }
+
+    /** Writes the fields of an instance of a registered class. */
+    private void writeFields(Output out, Layout layout, Object value,
+                             int depth) throws IOException
+    {
+        checkDepth(depth);
+
+        try
+        {
+            for(Field field : layout.fields)
+            {
+                Class<?>    type = field.getType();
+                if(type.isPrimitive())
+                    writePrimitive(out, type, field.get(value));
+                else
+                    write(out, field.get(value), depth);
+            }
+        }
+        catch(IllegalAccessException e)
+        {
+            throw new IOException("cannot read field of " +
+                                  layout.type.getName(), e);
+        }
+    }
+
+    /** Writes an untagged primitive value of the given type. */
+    private static void writePrimitive(Output out, Class<?> type, Object value)
+    {
+        if(type == int.class)
+            out.writeVarint(zigzag((Integer)value));
+        else if(type == long.class)
+            out.writeVarlong(zigzag((Long)value));
+        else if(type == boolean.class)
+            out.write((Boolean)value ? 1 : 0);
+        else if(type == double.class)
+            out.writeFixedLong(Double.doubleToRawLongBits((Double)value));
+        else if(type == float.class)
+            out.writeFixedInt(Float.floatToRawIntBits((Float)value));
+        else if(type == byte.class)
+            out.write((Byte)value);
+        else if(type == short.class)
+            out.writeVarint(zigzag((Short)value));
+        else
+            out.writeVarint((Character)value);
+    }
+
+    /** Reads a tagged value. */
+    private Object read(Input in, int depth)
+        throws IOException, ClassNotFoundException
+    {
+        byte    tag = in.read();
+        switch(tag)
+        {
+        case NULL:
+            return null;
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        case BYTE:
+            return in.read();
+        case SHORT:
+            return (short)unzigzag(in.readVarint());
+        case CHAR:
+            return (char)in.readVarint();
+        case INT:
+            return unzigzag(in.readVarint());
+        case LONG:
+            return unzigzag(in.readVarlong());
+        case FLOAT:
+            return Float.intBitsToFloat(in.readFixedInt());
+        case DOUBLE:
+            return Double.longBitsToDouble(in.readFixedLong());
+        case STRING:
+            return in.readString();
+        case ARRAY:
+            return readArray(in, depth + 1);
+        case ENUM:
+            return readEnum(in);
+        case CLASS:
+            return readClass(in);
+        case OBJECT:
+            return readObject(in, depth + 1);
+        case SERIALIZED:
+            int     length = in.readLength(1);
+            Object  value = Codecs.JAVA.decode(in.bytes, in.position, length);
+            in.position += length;
+            return value;
+        default:
+            throw new IOException("unknown value tag " + tag);
+        }
+    }
+
+    /** Reads a reference to a class. */
+    private Class<?> readClass(Input in)
+        throws IOException, ClassNotFoundException
+    {
+        int         id = in.readVarint();
+        if(id != 0)
+        {
+            Class<?>    type = classes.get(id);
+            if(type == null)
+                throw new IOException("unknown class ID " + id);
+            return type;
+        }
+
+        String      name = in.readString();
+        Class<?>    type = named.get(name);
+        if(type == null)
+        {
+            type = resolve(name);
+            named.put(name, type);
+        }
+
+        return type;
+    }
+
+    /** Finds a class by name, preferring the calling thread's context class
+        loader. */
+    private static Class<?> resolve(String name) throws ClassNotFoundException
+    {
+        ClassLoader     loader = Thread.currentThread().getContextClassLoader();
+        if(loader != null)
+        {
+            try
+            {
+                return Class.forName(name, false, loader);
+            }
+            catch(ClassNotFoundException e)
+            {
+                // Try the codec's own class loader.
+            }
+        }
+
+        return Class.forName(name, false, BinaryCodec.class.getClassLoader());
+    }
+
+    /** Reads an array. */
+    private Object readArray(Input in, int depth)
+        throws IOException, ClassNotFoundException
+    {
+        checkDepth(depth);
+
+        Class<?>    component = readClass(in);
+        if(component == void.class)
+            throw new IOException("array of void");
+
+        // Every element takes at least one byte, so the length cannot exceed
+        // the bytes remaining.
+        int         length = in.readLength(1);
+
+        if(component == byte.class)
+        {
+            byte[]  array = Arrays.copyOfRange(in.bytes, in.position,
+                                               in.position + length);
+            in.position += length;
+            return array;
+        }
+
+        if(component == int.class)
+        {
+            int[]   array = new int[length];
+            for(int index = 0; index < length; ++index)
+                array[index] = unzigzag(in.readVarint());
+            return array;
+        }
+
+        if(component == long.class)
+        {
+            long[]  array = new long[length];
+            for(int index = 0; index < length; ++index)
+                array[index] = unzigzag(in.readVarlong());
+            return array;
+        }
+
+        if(component == double.class)
+        {
+            double[]    array = new double[length];
+            for(int index = 0; index < length; ++index)
+                array[index] = Double.longBitsToDouble(in.readFixedLong());
+            return array;
+        }
+
+        Object      array = Array.newInstance(component, length);
+        if(component.isPrimitive())
+        {
+            for(int index = 0; index < length; ++index)
+                Array.set(array, index, readPrimitive(in, component));
+        }
+        else
+        {
+            Object[]    elements = (Object[])array;
+            for(int index = 0; index < length; ++index)
+                elements[index] = checkType(component, read(in, depth));
+        }
+
+        return array;
+    }
+
+    /** Reads an enum constant. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readEnum(Input in)
+        throws IOException, ClassNotFoundException
+    {
+        Class<?>    type = readClass(in);
+        String      name = in.readString();
+        if(!type.isEnum())
+            throw new IOException(type.getName() + " is not an enum");
+
+        try
+        {
+            return Enum.valueOf((Class<? extends Enum>)type, name);
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new IOException("no constant " + name + " in " +
+                                  type.getName());
+        }
+    }
+
+    /** Reads an instance of a registered class. */
+    private Object readObject(Input in, int depth)
+        throws IOException, ClassNotFoundException
+    {
+        checkDepth(depth);
+
+        int         id = in.readVarint();
+        Class<?>    type = classes.get(id);
+        Layout      layout = type == null ? null : layouts.get(type);
+        if(layout == null)
+            throw new IOException("unknown object class ID " + id);
+
+        try
+        {
+            Object  value = layout.constructor.newInstance();
+            for(Field field : layout.fields)
+            {
+                Class<?>    fieldType = field.getType();
+                if(fieldType.isPrimitive())
+                    field.set(value, readPrimitive(in, fieldType));
+                else
+                    field.set(value, checkType(fieldType, read(in, depth)));
+            }
+
+            return value;
+        }
+        catch(ReflectiveOperationException e)
+        {
+            throw new IOException("cannot create instance of " +
+                                  type.getName(), e);
+        }
+    }
+
+    /** Reads an untagged primitive value of the given type. */
+    private static Object readPrimitive(Input in, Class<?> type)
+        throws IOException
+    {
+        if(type == int.class)
+            return unzigzag(in.readVarint());
+        if(type == long.class)
+            return unzigzag(in.readVarlong());
+        if(type == boolean.class)
+            return in.read() != 0;
+        if(type == double.class)
+            return Double.longBitsToDouble(in.readFixedLong());
+        if(type == float.class)
+            return Float.intBitsToFloat(in.readFixedInt());
+        if(type == byte.class)
+            return in.read();
+        if(type == short.class)
+            return (short)unzigzag(in.readVarint());
+        return (char)in.readVarint();
+    }
+
+    /** Checks that a decoded value may be stored in a variable of the given
+        type. */
+    private static Object checkType(Class<?> type, Object value)
+        throws IOException
+    {
+        if(value != null && !type.isInstance(value))
+        {
+            throw new IOException(value.getClass().getName() + " is not a " +
+                                  type.getName());
+        }
+
+        return value;
+    }
+
+    /** Fails if values are nested too deeply. */
+    private static void checkDepth(int depth) throws IOException
+    {
+        if(depth > MAX_DEPTH)
+            throw new IOException("value is nested too deeply");
+    }
+
+    private static int zigzag(int value)
+    {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unzigzag(int value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** Fields of a registered class, in encoding order. */
+    private static final class Layout
+    {
+        final Class<?>          type;
+        final Constructor<?>    constructor;
+        final Field[]           fields;
+
+        Layout(Class<?> type)
+        {
+            this.type = type;
+
+            try
+            {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            }
+            catch(NoSuchMethodException e)
+            {
+                throw new IllegalArgumentException(type.getName() + " has no " +
+                                                   "constructor without " +
+                                                   "parameters");
+            }
+
+            // Superclass fields come first; fields of each class are ordered
+            // by name, since reflection does not define an order.
+            List<Class<?>>  hierarchy = new ArrayList<>();
+            for(Class<?> c = type; c != null && c != Object.class;
+                c = c.getSuperclass())
+            {
+                hierarchy.add(0, c);
+            }
+
+            List<Field>     ordered = new ArrayList<>();
+            for(Class<?> c : hierarchy)
+            {
+                List<Field> declared = new ArrayList<>();
+                for(Field field : c.getDeclaredFields())
+                {
+                    int     modifiers = field.getModifiers();
+                    if(Modifier.isStatic(modifiers) ||
+                       Modifier.isTransient(modifiers))
+                    {
+                        continue;
+                    }
+
+                    field.setAccessible(true);
+                    declared.add(field);
+                }
+
+                declared.sort(new Comparator<Field>()
+                    {
+                        @Override
+                        public int compare(Field first, Field second)
+                        {
+                            return first.getName().compareTo(
+                                second.getName());
+                        }
+                    });
+                ordered.addAll(declared);
+            }
+
+            fields = ordered.toArray(new Field[0]);
+        }
+    }
+
+    /** Growable output buffer. */
+    private static final class Output
+    {
+        private byte[]  bytes = new byte[64];
+        private int     size;
+
+        /** Makes room for the given number of further bytes. */
+        private void reserve(int count)
+        {
+            if(size + count > bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2,
+                                                      size + count));
+            }
+        }
+
+        void write(int value)
+        {
+            reserve(1);
+            bytes[size++] = (byte)value;
+        }
+
+        void write(byte[] source, int offset, int length)
+        {
+            reserve(length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        void writeVarint(int value)
+        {
+            reserve(5);
+            while((value & ~0x7f) != 0)
+            {
+                bytes[size++] = (byte)((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte)value;
+        }
+
+        void writeVarlong(long value)
+        {
+            reserve(10);
+            while((value & ~0x7fL) != 0)
+            {
+                bytes[size++] = (byte)((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte)value;
+        }
+
+        void writeFixedInt(int value)
+        {
+            reserve(4);
+            bytes[size++] = (byte)(value >>> 24);
+            bytes[size++] = (byte)(value >>> 16);
+            bytes[size++] = (byte)(value >>> 8);
+            bytes[size++] = (byte)value;
+        }
+
+        void writeFixedLong(long value)
+        {
+            writeFixedInt((int)(value >>> 32));
+            writeFixedInt((int)value);
+        }
+
+        /** Writes a string's UTF-8 length and bytes. Strings of ASCII
+            characters, the common case, are copied without an intermediate
+            array. */
+        void writeString(String value)
+        {
+            int     length = value.length();
+            int     start = size;
+
+            writeVarint(length);
+            reserve(length);
+            for(int index = 0; index < length; ++index)
+            {
+                char    c = value.charAt(index);
+                if(c >= 0x80)
+                {
+                    size = start;
+                    byte[]  encoded = value.getBytes(StandardCharsets.UTF_8);
+                    writeVarint(encoded.length);
+                    write(encoded, 0, encoded.length);
+                    return;
+                }
+
+                bytes[size++] = (byte)c;
+            }
+        }
+
+        byte[] toByteArray()
+        {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /** Input buffer. */
+    private static final class Input
+    {
+        final byte[]    bytes;
+        int             position;
+        final int       limit;
+
+        Input(byte[] bytes, int position, int limit)
+        {
+            this.bytes = bytes;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        byte read() throws IOException
+        {
+            if(position >= limit)
+                throw new EOFException("value is truncated");
+            return bytes[position++];
+        }
+
+        int readVarint() throws IOException
+        {
+            int     value = 0;
+            for(int shift = 0; shift < 35; shift += 7)
+            {
+                byte    b = read();
+                value |= (b & 0x7f) << shift;
+                if(b >= 0)
+                    return value;
+            }
+
+            throw new IOException("malformed variable-length integer");
+        }
+
+        long readVarlong() throws IOException
+        {
+            long    value = 0;
+            for(int shift = 0; shift < 70; shift += 7)
+            {
+                byte    b = read();
+                value |= (long)(b & 0x7f) << shift;
+                if(b >= 0)
+                    return value;
+            }
+
+            throw new IOException("malformed variable-length integer");
+        }
+
+        int readFixedInt() throws IOException
+        {
+            if(limit - position < 4)
+                throw new EOFException("value is truncated");
+
+            int     value = ((bytes[position] & 0xff) << 24) |
+                            ((bytes[position + 1] & 0xff) << 16) |
+                            ((bytes[position + 2] & 0xff) << 8) |
+                            (bytes[position + 3] & 0xff);
+            position += 4;
+            return value;
+        }
+
+        long readFixedLong() throws IOException
+        {
+            long    high = readFixedInt();
+            return (high << 32) | (readFixedInt() & 0xffffffffL);
+        }
+
+        /** Reads a length, checking that the given number of bytes per unit
+            remain. */
+        int readLength(int unit) throws IOException
+        {
+            int     length = readVarint();
+            if(length < 0 || length > (limit - position) / unit)
+                throw new EOFException("value is truncated");
+            return length;
+        }
+
+        String readString() throws IOException
+        {
+            int     length = readLength(1);
+            String  value = new String(bytes, position, length,
+                                       StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
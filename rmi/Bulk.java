@@ -0,0 +1,420 @@
+package rmi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/** Transfer of byte buffers and file regions outside the codec.
+
+    <p>
+    Values of type <code>ByteBuffer</code> and <code>FileRegion</code> passed
+    to or returned from remote methods are attached to the frame carrying the
+    call or reply (see <code>Frame.attachments</code>). In the frame's payload
+    each such value is replaced by its <code>Integer</code> index among the
+    attachments. Each attachment is sent just before the frame, in a
+    <code>BULK</code> frame giving its kind and length, followed directly by
+    its bytes, which are not part of any frame. A frame and its attachments
+    are always written together, so the receiver holds the attachments it has
+    read until the next frame of another type, to which they belong.
+
+    <p>
+    Buffers are sent from position to limit, without changing the sender's
+    buffer, and received into direct buffers, so that neither end copies the
+    bytes through the Java heap. File regions are sent with
+    <code>FileChannel.transferTo</code>, or, by the <code>NIO</code> engine,
+    from a mapping of the file. They are received with
+    <code>FileChannel.transferFrom</code> into temporary files.
+
+    <p>
+    Buffers and regions are recognized by the declared types of parameters,
+    and by the run-time type of results. Calls carrying them cannot be
+    batched.
+ */
+final class Bulk
+{
+    /** Kind of an attached <code>ByteBuffer</code>. */
+    static final byte   BUFFER = 0;
+    /** Kind of an attached <code>FileRegion</code>. */
+    static final byte   FILE = 1;
+
+    /** Length of the payload of a <code>BULK</code> frame. */
+    private static final int    HEADER_PAYLOAD = 9;
+    /** Largest file region mapped at once by the <code>NIO</code>
+        engine. */
+    private static final long   MAX_MAPPING = 1L << 30;
+
+    /** Prevents instantiation. */
+    private Bulk()
+    {
+    }
+
+    /** Returns <code>true</code> if values of the given declared type are
+        sent as attachments. */
+    static boolean isBulk(Class<?> type)
+    {
+        return type == ByteBuffer.class || type == FileRegion.class;
+    }
+
+    /** Returns <code>true</code> if a value is sent as an attachment when it
+        is returned by a method. */
+    static boolean isBulkValue(Object value)
+    {
+        return value instanceof ByteBuffer || value instanceof FileRegion;
+    }
+
+    /** Returns <code>true</code> if a method has a parameter sent as an
+        attachment. */
+    static boolean hasBulkParameter(Method method)
+    {
+        for(Class<?> type : method.getParameterTypes())
+        {
+            if(isBulk(type))
+                return true;
+        }
+
+        return false;
+    }
+
+    /** Replaces the values of a method's bulk parameters with their indices
+        among the attachments.
+
+        @param method The method.
+        @param args The arguments. The array is modified.
+        @return The attachments, or <code>null</code> if all bulk arguments
+                are <code>null</code>.
+     */
+    static Object[] extract(Method method, Object[] args)
+    {
+        Class<?>[]      types = method.getParameterTypes();
+        List<Object>    attachments = new ArrayList<>();
+        for(int index = 0; index < types.length; ++index)
+        {
+            if(isBulk(types[index]) && args[index] != null)
+            {
+                attachments.add(args[index]);
+                args[index] = attachments.size() - 1;
+            }
+        }
+
+        return attachments.isEmpty() ? null : attachments.toArray();
+    }
+
+    /** Replaces the indices in a method's bulk parameters with the
+        corresponding attachments.
+
+        @param method The method.
+        @param args The decoded arguments. The array is modified.
+        @param attachments The attachments received with the call, or
+                           <code>null</code>.
+        @throws RMIException If an index does not name an attachment.
+     */
+    static void insert(Method method, Object[] args, Object[] attachments)
+        throws RMIException
+    {
+        Class<?>[]  types = method.getParameterTypes();
+        for(int index = 0; index < types.length; ++index)
+        {
+            if(isBulk(types[index]) && args[index] != null)
+                args[index] = attachment(args[index], attachments);
+        }
+    }
+
+    /** Returns the attachment named by an index decoded from a payload.
+
+        @throws RMIException If the index does not name an attachment.
+     */
+    static Object attachment(Object index, Object[] attachments)
+        throws RMIException
+    {
+        if(!(index instanceof Integer) || attachments == null ||
+           (Integer)index < 0 || (Integer)index >= attachments.length)
+        {
+            throw new RMIException("missing attachment " + index);
+        }
+
+        return attachments[(Integer)index];
+    }
+
+    /** Writes the attachments of a frame to a blocking channel.
+
+        @param requestId The frame's request ID.
+        @param attachments The attachments.
+        @param out The output of the channel.
+     */
+    static void write(int requestId, Object[] attachments, ChannelOutput out)
+        throws IOException
+    {
+        for(Object attachment : attachments)
+        {
+            if(attachment instanceof ByteBuffer)
+            {
+                ByteBuffer  data = (ByteBuffer)attachment;
+                writeHeader(out, requestId, BUFFER, data.remaining());
+                out.write(data);
+            }
+            else
+            {
+                FileRegion  region = (FileRegion)attachment;
+                writeHeader(out, requestId, FILE, region.count());
+                out.transfer(region.channel(), region.position(),
+                             region.count());
+            }
+        }
+    }
+
+    /** Writes a <code>BULK</code> frame. */
+    private static void writeHeader(ChannelOutput out, int requestId,
+                                    byte kind, long count) throws IOException
+    {
+        out.writeInt(Frame.HEADER_LENGTH + HEADER_PAYLOAD);
+        out.writeByte(Frame.BULK);
+        out.writeInt(requestId);
+        out.writeByte(kind);
+        out.writeLong(count);
+    }
+
+    /** Queues the attachments of a frame for writing to a non-blocking
+        channel. Buffers are queued as they are, and file regions as
+        read-only mappings of the file.
+
+        @param requestId The frame's request ID.
+        @param attachments The attachments.
+        @param output The queue of buffers to be written.
+     */
+    static void queue(int requestId, Object[] attachments,
+                      Queue<ByteBuffer> output) throws IOException
+    {
+        for(Object attachment : attachments)
+        {
+            if(attachment instanceof ByteBuffer)
+            {
+                ByteBuffer  data = ((ByteBuffer)attachment).duplicate();
+                output.add(header(requestId, BUFFER, data.remaining()));
+                output.add(data);
+                continue;
+            }
+
+            FileRegion      region = (FileRegion)attachment;
+            FileChannel     file = region.channel();
+            long            end = region.position() + region.count();
+            if(end > file.size())
+            {
+                throw new IOException("file region extends past the end " +
+                                      "of the file");
+            }
+
+            output.add(header(requestId, FILE, region.count()));
+            for(long position = region.position(); position < end;
+                position += MAX_MAPPING)
+            {
+                output.add(file.map(FileChannel.MapMode.READ_ONLY, position,
+                                    Math.min(MAX_MAPPING, end - position)));
+            }
+        }
+    }
+
+    /** Returns a <code>BULK</code> frame as a buffer in read mode. */
+    private static ByteBuffer header(int requestId, byte kind, long count)
+    {
+        ByteBuffer  header = ByteBuffer.allocate(4 + Frame.HEADER_LENGTH +
+                                                 HEADER_PAYLOAD);
+        header.putInt(Frame.HEADER_LENGTH + HEADER_PAYLOAD);
+        header.put(Frame.BULK);
+        header.putInt(requestId);
+        header.put(kind);
+        header.putLong(count);
+        header.flip();
+        return header;
+    }
+
+    /** Closes the file regions among the attachments of a reply, once they
+        have been sent. Failures are ignored. */
+    static void closeRegions(Object[] attachments)
+    {
+        for(Object attachment : attachments)
+        {
+            if(attachment instanceof FileRegion)
+            {
+                try
+                {
+                    ((FileRegion)attachment).close();
+                }
+                catch(IOException e) { }
+            }
+        }
+    }
+
+    /** Receiver of the bytes following one <code>BULK</code> frame. */
+    static final class Receiver
+    {
+        private final byte          kind;
+        private final long          count;
+        /** Buffer receiving the bytes, for kind <code>BUFFER</code>. */
+        private final ByteBuffer    buffer;
+        /** File receiving the bytes, for kind <code>FILE</code>. */
+        private final FileChannel   file;
+        /** Number of bytes received so far. */
+        private long                received;
+
+        /** Prepares to receive the bytes announced by a <code>BULK</code>
+            frame.
+
+            @throws IOException If the frame is malformed, or a temporary file
+                                cannot be created.
+         */
+        Receiver(Frame frame) throws IOException
+        {
+            if(frame.payload.length != HEADER_PAYLOAD)
+                throw new IOException("malformed bulk header");
+
+            ByteBuffer  header = ByteBuffer.wrap(frame.payload);
+            kind = header.get();
+            count = header.getLong();
+            if(count < 0 ||
+               (kind == BUFFER && count > Integer.MAX_VALUE) ||
+               (kind != BUFFER && kind != FILE))
+            {
+                throw new IOException("malformed bulk header");
+            }
+
+            if(kind == BUFFER)
+            {
+                buffer = ByteBuffer.allocateDirect((int)count);
+                file = null;
+            }
+            else
+            {
+                buffer = null;
+                file = temporaryFile();
+            }
+        }
+
+        /** Receives all the bytes from a blocking channel.
+
+            @return The received value.
+         */
+        Object receive(ChannelInput in) throws IOException
+        {
+            try
+            {
+                if(buffer != null)
+                    in.readFully(buffer);
+                else
+                    in.readFully(file, count);
+            }
+            catch(IOException e)
+            {
+                discard();
+                throw e;
+            }
+
+            received = count;
+            return value();
+        }
+
+        /** Receives bytes already read from a non-blocking channel.
+
+            @param input Buffer of received bytes, in read mode. Bytes are
+                         taken from it up to the end of the attachment.
+            @return <code>true</code> if all bytes have been received.
+         */
+        boolean receive(ByteBuffer input) throws IOException
+        {
+            int     taken = (int)Math.min(input.remaining(), count - received);
+            ByteBuffer  slice = input.duplicate();
+            slice.limit(slice.position() + taken);
+            input.position(input.position() + taken);
+
+            if(buffer != null)
+                buffer.put(slice);
+            else
+            {
+                while(slice.hasRemaining())
+                    file.write(slice, received + (taken - slice.remaining()));
+            }
+
+            received += taken;
+            return received == count;
+        }
+
+        /** Receives bytes directly from a non-blocking channel, as many as
+            are available.
+
+            @return <code>true</code> if all bytes have been received.
+            @throws EOFException If the channel has ended.
+         */
+        boolean receive(SocketChannel channel) throws IOException
+        {
+            long    read;
+            if(buffer != null)
+                read = channel.read(buffer);
+            else
+            {
+                read = file.transferFrom(channel, received, count - received);
+
+                // A transfer from a channel that has ended also returns zero.
+                if(read == 0)
+                {
+                    ByteBuffer  probe = ByteBuffer.allocate(1);
+                    read = channel.read(probe);
+                    if(read > 0)
+                    {
+                        probe.flip();
+                        file.write(probe, received);
+                    }
+                }
+            }
+
+            if(read < 0)
+                throw new EOFException("connection closed within bulk data");
+
+            received += read;
+            return received == count;
+        }
+
+        /** Returns the received value: a direct buffer with position zero,
+            or a region covering the whole temporary file. */
+        Object value()
+        {
+            if(buffer != null)
+            {
+                buffer.flip();
+                return buffer;
+            }
+
+            return new FileRegion(file, 0, count);
+        }
+
+        /** Releases the temporary file of an attachment that will not be
+            delivered. */
+        void discard()
+        {
+            if(file == null)
+                return;
+
+            try
+            {
+                file.close();
+            }
+            catch(IOException e) { }
+        }
+
+        /** Opens a temporary file, deleted when it is closed. */
+        private static FileChannel temporaryFile() throws IOException
+        {
+            Path    path = Files.createTempFile("rmi-region-", null);
+            return FileChannel.open(path, StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE,
+                                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package rmi;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/** Buffered input read from a blocking socket channel.
+
+    <p>
+    Frames are read through the <code>DataInputStream</code> methods, from a
+    buffer refilled from the channel as needed, as with a
+    <code>BufferedInputStream</code>. Unlike a stream obtained from the
+    socket, the input can also read a given number of bytes directly into a
+    buffer or a file. The bytes already buffered are moved first, and the
+    rest are read from the channel without passing through the buffer.
+ */
+final class ChannelInput extends DataInputStream
+{
+    /** Buffer and the channel it is filled from. */
+    private final Source    source;
+
+    /** Creates the input of a blocking socket channel. */
+    ChannelInput(SocketChannel channel)
+    {
+        this(new Source(channel));
+    }
+
+    private ChannelInput(Source source)
+    {
+        super(source);
+        this.source = source;
+    }
+
+    /** Reads bytes until the buffer is full.
+
+        @throws EOFException If the channel ends first.
+     */
+    void readFully(ByteBuffer destination) throws IOException
+    {
+        source.drain(destination);
+        while(destination.hasRemaining())
+        {
+            if(source.channel.read(destination) < 0)
+                throw new EOFException("connection closed within bulk data");
+        }
+    }
+
+    /** Reads the given number of bytes into a file, starting at its current
+        size.
+
+        @throws EOFException If the channel ends first.
+     */
+    void readFully(FileChannel file, long count) throws IOException
+    {
+        long    position = file.size();
+        long    end = position + count;
+
+        ByteBuffer  buffered = source.take(count);
+        while(buffered.hasRemaining())
+            position += file.write(buffered, position);
+
+        while(position < end)
+        {
+            long    received = file.transferFrom(source.channel, position,
+                                                 end - position);
+            if(received <= 0)
+                throw new EOFException("connection closed within bulk data");
+            position += received;
+        }
+    }
+
+    /** Stream reading a channel through a buffer. */
+    private static final class Source extends InputStream
+    {
+        private static final int    BUFFER_SIZE = 8192;
+
+        final SocketChannel         channel;
+        /** Buffer in read mode. */
+        private final ByteBuffer    buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        Source(SocketChannel channel)
+        {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        /** Refills the buffer, if it is empty.
+
+            @return <code>false</code> if the channel has ended.
+         */
+        private boolean fill() throws IOException
+        {
+            if(buffer.hasRemaining())
+                return true;
+
+            buffer.clear();
+            int     read = channel.read(buffer);
+            buffer.flip();
+            return read >= 0;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if(!fill())
+                return -1;
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length)
+            throws IOException
+        {
+            if(length == 0)
+                return 0;
+
+            // Large reads go straight to the channel once the buffer is
+            // empty.
+            if(!buffer.hasRemaining() && length >= BUFFER_SIZE)
+                return channel.read(ByteBuffer.wrap(bytes, offset, length));
+
+            if(!fill())
+                return -1;
+
+            int     count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+
+        /** Moves buffered bytes into a buffer, as many as fit. */
+        void drain(ByteBuffer destination)
+        {
+            int     count = Math.min(buffer.remaining(),
+                                     destination.remaining());
+            ByteBuffer  slice = buffer.duplicate();
+            slice.limit(slice.position() + count);
+            destination.put(slice);
+            buffer.position(buffer.position() + count);
+        }
+
+        /** Takes up to the given number of buffered bytes, returning them as
+            a buffer in read mode. */
+        ByteBuffer take(long count)
+        {
+            int     taken = (int)Math.min(buffer.remaining(), count);
+            ByteBuffer  slice = buffer.duplicate();
+            slice.limit(slice.position() + taken);
+            buffer.position(buffer.position() + taken);
+            return slice;
+        }
+    }
+}
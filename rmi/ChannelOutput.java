@@ -0,0 +1,137 @@
+package rmi;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/** Buffered output written to a blocking socket channel.
+
+    <p>
+    Frames are written through the <code>DataOutputStream</code> methods,
+    and collected in a buffer until the stream is flushed, as with a
+    <code>BufferedOutputStream</code>. Unlike a stream obtained from the
+    socket, the output can also write bytes to the channel directly: a
+    buffer is written together with the bytes already collected, in a single
+    gathering write, and a file region is transferred to the channel by the
+    operating system. Neither is copied into the collecting buffer.
+ */
+final class ChannelOutput extends DataOutputStream
+{
+    /** Collecting buffer and the channel it is written to. */
+    private final Sink  sink;
+
+    /** Creates the output of a blocking socket channel. */
+    ChannelOutput(SocketChannel channel)
+    {
+        this(new Sink(channel));
+    }
+
+    private ChannelOutput(Sink sink)
+    {
+        super(sink);
+        this.sink = sink;
+    }
+
+    /** Writes the remaining bytes of a buffer after the bytes already
+        collected, and flushes the output. The buffer's position is not
+        changed. */
+    void write(ByteBuffer data) throws IOException
+    {
+        sink.write(data.duplicate());
+    }
+
+    /** Flushes the output, and then transfers a region of a file to the
+        channel. */
+    void transfer(FileChannel file, long position, long count)
+        throws IOException
+    {
+        flush();
+        sink.transfer(file, position, count);
+    }
+
+    /** Stream collecting bytes for a channel. */
+    private static final class Sink extends OutputStream
+    {
+        private static final int    BUFFER_SIZE = 8192;
+
+        private final SocketChannel channel;
+        private final ByteBuffer    buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        Sink(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int value) throws IOException
+        {
+            if(!buffer.hasRemaining())
+                flush();
+            buffer.put((byte)value);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length)
+            throws IOException
+        {
+            if(length > buffer.remaining())
+            {
+                write(ByteBuffer.wrap(bytes, offset, length));
+                return;
+            }
+
+            buffer.put(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            buffer.flip();
+            try
+            {
+                while(buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            finally
+            {
+                buffer.clear();
+            }
+        }
+
+        /** Writes the collected bytes and a buffer in one gathering
+            write. */
+        void write(ByteBuffer data) throws IOException
+        {
+            buffer.flip();
+            try
+            {
+                ByteBuffer[]    buffers = {buffer, data};
+                while(buffer.hasRemaining() || data.hasRemaining())
+                    channel.write(buffers);
+            }
+            finally
+            {
+                buffer.clear();
+            }
+        }
+
+        /** Transfers a region of a file to the channel. */
+        void transfer(FileChannel file, long position, long count)
+            throws IOException
+        {
+            long    end = position + count;
+            while(position < end)
+            {
+                long    sent = file.transferTo(position, end - position,
+                                               channel);
+                if(sent <= 0 && position >= file.size())
+                    throw new IOException("file region extends past the " +
+                                          "end of the file");
+                position += sent;
+            }
+        }
+    }
+}
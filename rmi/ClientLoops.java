@@ -0,0 +1,236 @@
+package rmi;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** Event loop threads shared by the connections of all stubs in the
+    process.
+
+    <p>
+    Rather than each connection dedicating a thread to reading replies, the
+    connections of all stubs are served by a small, fixed number of event
+    loops, each owning a <code>Selector</code>. Connections are assigned to
+    the loops in turn when they are opened. A loop reads replies from its
+    connections without blocking and completes the futures of the calls
+    waiting for them. It also writes out frames that calling threads could
+    not write at once because the socket was full (see
+    <code>Connection</code>). The number of threads used by a client thus
+    stays constant, however many skeletons it calls.
+
+    <p>
+    The loops are started when the first connection is opened, and run as
+    daemon threads for the life of the process. A loop that fails, whether
+    its selector fails or serving a connection throws an unexpected
+    exception, closes its connections and is replaced when the next
+    connection is opened.
+
+    <p>
+    Loop threads must never block, since every connection assigned to a
+    loop waits while it does. Futures of asynchronous calls are therefore
+    completed, and failed calls sent again, on a separate fixed pool of
+    callback threads (see <code>callbacks</code>), rather than on the loop
+    that received the reply.
+ */
+final class ClientLoops
+{
+    private static int          threads =
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static Loop[]       loops;
+    private static int          nextLoop;
+    private static ExecutorService  callbacks;
+
+    /** Prevents instantiation. */
+    private ClientLoops()
+    {
+    }
+
+    /** Sets the number of event loop threads.
+
+        @throws IllegalArgumentException If <code>count</code> is not
+                                         positive.
+        @throws IllegalStateException If the loops have already started.
+     */
+    static synchronized void setThreads(int count)
+    {
+        if(count < 1)
+        {
+            throw new IllegalArgumentException("number of event loop " +
+                                               "threads must be positive");
+        }
+
+        if(loops != null)
+            throw new IllegalStateException("event loops already started");
+
+        threads = count;
+    }
+
+    /** Returns the loop to which the next connection is assigned, starting
+        the loops if necessary.
+
+        @throws IOException If a selector cannot be opened.
+     */
+    static synchronized Loop next() throws IOException
+    {
+        if(loops == null)
+            loops = new Loop[threads];
+
+        int     index = nextLoop;
+        nextLoop = (nextLoop + 1) % loops.length;
+
+        if(loops[index] == null || !loops[index].running)
+        {
+            loops[index] = new Loop(index);
+            loops[index].thread.start();
+        }
+
+        return loops[index];
+    }
+
+    /** Returns the executor on which asynchronous calls are completed, and
+        on which dependent actions of their futures run unless given an
+        executor of their own. It has a fixed number of daemon threads, at
+        least two, and at most one per available processor. */
+    static synchronized Executor callbacks()
+    {
+        if(callbacks == null)
+        {
+            callbacks = Executors.newFixedThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()),
+                new ThreadFactory()
+                {
+                    private int     created;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable runnable)
+                    {
+                        Thread  thread =
+                            new Thread(runnable,
+                                       "rmi-client-callback-" + created++);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+
+        return callbacks;
+    }
+
+    /** Event loop thread and its selector. */
+    static final class Loop implements Runnable
+    {
+        final Selector                  selector;
+        final Thread                    thread;
+        private final Queue<Runnable>   tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean        running = true;
+
+        private Loop(int index) throws IOException
+        {
+            selector = Selector.open();
+            thread = new Thread(this, "rmi-client-loop-" + index);
+            thread.setDaemon(true);
+        }
+
+        /** Runs a task on the loop thread. Once the loop has failed, the task
+            runs on the calling thread instead, and finds the selector
+            closed. */
+        void execute(Runnable task)
+        {
+            if(!running)
+            {
+                task.run();
+                return;
+            }
+
+            tasks.add(task);
+            selector.wakeup();
+
+            // The loop may have failed after the check, and no longer runs
+            // its tasks.
+            if(!running && tasks.remove(task))
+                task.run();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while(true)
+                {
+                    Runnable    task;
+                    while((task = tasks.poll()) != null)
+                        task.run();
+
+                    selector.select();
+
+                    Iterator<SelectionKey>  keys =
+                        selector.selectedKeys().iterator();
+                    while(keys.hasNext())
+                    {
+                        SelectionKey    key = keys.next();
+                        keys.remove();
+
+                        if(!key.isValid())
+                            continue;
+
+                        Connection      connection =
+                            (Connection)key.attachment();
+                        if(key.isReadable())
+                            connection.read();
+                        if(key.isValid() && key.isWritable())
+                            connection.flush();
+                    }
+                }
+            }
+            catch(Throwable e)
+            {
+                IOException     cause = e instanceof IOException ?
+                    (IOException)e :
+                    new IOException("client event loop failed", e);
+                for(SelectionKey key : selector.keys())
+                    close((Connection)key.attachment(), cause);
+
+                // The selector is closed before the loop is marked as
+                // failed, so that every registration task, whether queued
+                // here or run by its caller, finds it closed and closes its
+                // connection.
+                try
+                {
+                    selector.close();
+                }
+                catch(IOException closing) { }
+
+                running = false;
+
+                Runnable    task;
+                while((task = tasks.poll()) != null)
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    catch(RuntimeException failed) { }
+                }
+            }
+        }
+
+        /** Closes a connection of a failed loop. A failure to close one
+            connection does not prevent the others from being closed. */
+        private static void close(Connection connection, IOException cause)
+        {
+            try
+            {
+                connection.close(cause);
+            }
+            catch(RuntimeException e) { }
+        }
+    }
+}
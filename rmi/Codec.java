@@ -0,0 +1,46 @@
+package rmi;
+
+import java.io.IOException;
+
+/** Encoding of call arguments, results and exceptions.
+
+    <p>
+    Stubs and skeletons encode the values they exchange with a codec chosen
+    for each connection. When a connection is opened, the skeleton lists the
+    codecs it supports, and the stub chooses the first codec in its order of
+    preference that the skeleton also supports (see <code>Codecs</code>).
+    Both ends must therefore have a codec registered under the chosen name,
+    and the two codecs must agree on the encoding.
+
+    <p>
+    A codec must be able to encode any value that Java serialization can
+    encode, including stubs and exceptions. Codecs that have a more compact
+    encoding for some types can fall back on Java serialization for the
+    others. Codecs are used by many threads at once, and must be thread-safe.
+ */
+public interface Codec
+{
+    /** Returns the name under which the codec is negotiated. */
+    String name();
+
+    /** Encodes a value.
+
+        @param value The value, which may be <code>null</code>.
+        @return The encoding.
+        @throws IOException If the value cannot be encoded.
+     */
+    byte[] encode(Object value) throws IOException;
+
+    /** Decodes a value.
+
+        @param bytes Array holding the encoding.
+        @param offset Offset of the encoding in <code>bytes</code>.
+        @param length Length of the encoding.
+        @return The value.
+        @throws IOException If the encoding is malformed.
+        @throws ClassNotFoundException If the encoding refers to a class that
+                                       cannot be found.
+     */
+    Object decode(byte[] bytes, int offset, int length)
+        throws IOException, ClassNotFoundException;
+}
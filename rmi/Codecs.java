@@ -0,0 +1,131 @@
+package rmi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/** Registry of the codecs available to stubs and skeletons.
+
+    <p>
+    Two codecs are always registered: <code>BINARY</code>, a compact binary
+    encoding, and <code>JAVA</code>, which uses Java serialization. Further
+    codecs may be registered with <code>register</code>. Skeletons offer all
+    registered codecs on each connection. Stubs choose among the codecs a
+    skeleton offers according to the order set with
+    <code>setPreference</code>, which by default prefers the binary codec.
+    Java serialization is used if no preferred codec is offered.
+
+    <p>
+    Codecs should be registered, and preferences set, before stubs and
+    skeletons are used. Connections that are already open keep the codec they
+    negotiated.
+ */
+public final class Codecs
+{
+    /** Codec using Java serialization. */
+    public static final Codec           JAVA = new JavaCodec();
+    /** Compact binary codec. */
+    public static final BinaryCodec     BINARY = new BinaryCodec();
+
+    private static final Map<String, Codec>     codecs =
+        new ConcurrentHashMap<>();
+    private static final List<String>           names =
+        new CopyOnWriteArrayList<>();
+    private static volatile List<String>        preference =
+        Arrays.asList(BINARY.name(), JAVA.name());
+
+    static
+    {
+        register(BINARY);
+        register(JAVA);
+    }
+
+    private Codecs()
+    {
+    }
+
+    /** Registers a codec.
+
+        @param codec The codec.
+        @throws IllegalArgumentException If a codec with the same name is
+                                         already registered.
+        @throws NullPointerException If <code>codec</code> or its name is
+                                     <code>null</code>.
+     */
+    public static void register(Codec codec)
+    {
+        if(codec == null || codec.name() == null)
+            throw new NullPointerException("codec or codec name is null");
+
+        if(codecs.putIfAbsent(codec.name(), codec) != null)
+        {
+            throw new IllegalArgumentException("codec " + codec.name() +
+                                               " is already registered");
+        }
+
+        names.add(codec.name());
+    }
+
+    /** Sets the order in which stubs prefer codecs. Codecs not named are not
+        used by stubs, except for Java serialization, which is used when no
+        named codec is offered by the skeleton.
+
+        @param codecNames The names of the codecs, most preferred first.
+        @throws NullPointerException If any name is <code>null</code>.
+     */
+    public static void setPreference(String... codecNames)
+    {
+        for(String name : codecNames)
+        {
+            if(name == null)
+                throw new NullPointerException("codec name is null");
+        }
+
+        preference = new ArrayList<>(Arrays.asList(codecNames));
+    }
+
+    /** Returns the registered codec with the given name, or
+        <code>null</code> if there is none. */
+    static Codec get(String name)
+    {
+        return codecs.get(name);
+    }
+
+    /** Returns the names of all registered codecs. */
+    static String[] names()
+    {
+        return names.toArray(new String[0]);
+    }
+
+    /** Chooses a codec among those offered by a skeleton.
+
+        @param offered The names of the codecs offered.
+        @return The most preferred registered codec that is offered, or
+                <code>JAVA</code> if there is none.
+     */
+    static Codec choose(String[] offered)
+    {
+        List<String>    available = Arrays.asList(offered);
+        for(String name : preference)
+        {
+            Codec       codec = codecs.get(name);
+            if(codec != null && available.contains(name))
+                return codec;
+        }
+
+        return JAVA;
+    }
+
+    /** Returns the codec to be used by one end of a new connection on which
+        the given codec was negotiated. Java serialization is given a codec of
+        its own for each connection, which sends each class descriptor over
+        the connection only once (see <code>JavaStreamCodec</code>). Other
+        codecs are shared by all connections. */
+    static Codec forConnection(Codec codec)
+    {
+        return codec == JAVA ? new JavaStreamCodec() : codec;
+    }
+}
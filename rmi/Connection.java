@@ -0,0 +1,898 @@
+package rmi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Client end of a multiplexed connection to a skeleton.
+
+    <p>
+    A connection carries any number of concurrent calls. Calling threads send
+    <code>CALL</code> frames under a write lock, each with a fresh request ID,
+    and receive a future for the reply, on which a blocking stub then waits.
+    Replies are read as they arrive, and complete the matching futures, so
+    replies may arrive in any order. <code>CREDIT</code> frames granted to
+    uploads in progress are applied as they are read (see
+    <code>Upload</code>).
+
+    <p>
+    Once the skeleton's method table has been received, socket connections
+    are switched to non-blocking mode and served by one of the event loops
+    shared by all connections (see <code>ClientLoops</code>). Frames are
+    converted to buffers and added to the connection's write queue. The
+    calling thread writes the queue out at once if the socket accepts it, and
+    otherwise leaves the rest to the event loop. The event loop also reads
+    the replies. Shared memory connections cannot be selected. They are read
+    by a thread of their own, and calling threads write to them directly.
+
+    <p>
+    Connections are handed out by <code>ConnectionPool</code>, which tracks how
+    many calls have reserved each connection.
+ */
+class Connection implements Runnable
+{
+    private static final int        BUFFER_SIZE = 8192;
+
+    /** Address of the skeleton at the other end of the connection: a TCP
+        address, a Unix domain socket, or a shared memory directory. */
+    final SocketAddress             address;
+    /** Codec negotiated for the connection. */
+    final Codec                     codec;
+
+    private final SocketChannel     channel;
+    private final ChannelOutput     out;
+    private final ChannelInput      in;
+    /** Event loop serving the connection, or <code>null</code> if the
+        connection is read by a thread of its own. */
+    private final ClientLoops.Loop  loop;
+    private final ReentrantLock     writeLock = new ReentrantLock();
+    /** Signalled as the event loop writes queued buffers. */
+    private final Condition         written = writeLock.newCondition();
+    private final Map<Integer, CompletableFuture<Frame>>    pending =
+        new ConcurrentHashMap<>();
+    /** Uploads whose calls have not yet been answered, by request ID. */
+    private final Map<Integer, Upload>  uploads = new ConcurrentHashMap<>();
+    /** IDs of methods in the skeleton's method table, by signature. */
+    private final Map<String, Integer>  methodTable = new HashMap<>();
+    /** IDs of the methods called over the connection so far. */
+    private final Map<Method, Integer>  methodIds = new ConcurrentHashMap<>();
+
+    // Guarded by writeLock.
+    private int                     nextRequestId;
+    private boolean                 draining;
+    /** Buffers waiting to be written, for connections served by an event
+        loop. */
+    private final Queue<ByteBuffer> output = new ArrayDeque<>();
+    /** Numbers of buffers queued and written so far. */
+    private long                    queuedBuffers;
+    private long                    writtenBuffers;
+
+    private final AtomicBoolean     flushScheduled = new AtomicBoolean();
+
+    // Used only by the event loop.
+    private SelectionKey            key;
+    private ByteBuffer              input = ByteBuffer.allocate(BUFFER_SIZE);
+    /** Receiver of the bytes following the last <code>BULK</code> frame,
+        while they are still arriving, or <code>null</code>. */
+    private Bulk.Receiver           receiving;
+    /** Attachments received for the next frame. */
+    private final List<Object>      received = new ArrayList<>();
+
+    // Guarded by the ConnectionPool lock for the connection's address.
+    private int                     reservations;
+    private long                    lastUsed;
+    private long                    completed;
+
+    private volatile boolean        closed;
+
+    /** Opens a new connection to the given address, receives the skeleton's
+        method table, chooses a codec, and hands the connection to an event
+        loop, or starts its reader thread.
+
+        @param address The skeleton address: a TCP address, a Unix domain
+                       socket, or a shared memory directory.
+        @throws IOException If the connection cannot be established.
+     */
+    Connection(SocketAddress address) throws IOException
+    {
+        this.address = address;
+
+        SocketAddress   target = address;
+        if(target instanceof InetSocketAddress &&
+           ((InetSocketAddress)target).isUnresolved())
+        {
+            InetSocketAddress   unresolved = (InetSocketAddress)target;
+            target = new InetSocketAddress(unresolved.getHostName(),
+                                           unresolved.getPort());
+        }
+
+        if(target instanceof SharedMemoryAddress)
+            channel = SharedMemoryChannel.connect((SharedMemoryAddress)target);
+        else
+            channel = UnixSockets.connect(target);
+        try
+        {
+            out = new ChannelOutput(channel);
+            in = new ChannelInput(channel);
+
+            out.writeInt(Frame.MAGIC);
+            out.flush();
+
+            Frame   table = Frame.read(in, Codecs.JAVA);
+            if(table == null)
+                throw new EOFException("connection closed by skeleton");
+            if(table.type != Frame.METHODS)
+                throw new IOException("expected method table");
+
+            Object[]    contents = (Object[])table.decode();
+            String[]    signatures = (String[])contents[0];
+            for(int id = 0; id < signatures.length; ++id)
+                methodTable.put(signatures[id], id);
+
+            Codec       chosen = Codecs.choose((String[])contents[1]);
+            if(chosen != Codecs.JAVA)
+            {
+                new Frame(Frame.CODEC, nextRequestId++,
+                          Frame.encodeCodec(chosen)).write(out);
+                out.flush();
+            }
+
+            codec = Codecs.forConnection(chosen);
+
+            if(address instanceof InetSocketAddress)
+                advertise(contents);
+
+            if(channel instanceof SharedMemoryChannel)
+                loop = null;
+            else
+            {
+                // Frames the skeleton sent after the method table, such as
+                // GOAWAY from a skeleton that is stopping, are read by the
+                // event loop once it registers the connection.
+                byte[]  buffered = new byte[in.available()];
+                in.readFully(buffered);
+                input.put(buffered);
+
+                channel.configureBlocking(false);
+                loop = ClientLoops.next();
+            }
+        }
+        catch(ClassNotFoundException | ClassCastException e)
+        {
+            channel.close();
+            throw new IOException("malformed method table", e);
+        }
+        catch(IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+
+        lastUsed = System.currentTimeMillis();
+
+        if(loop != null)
+        {
+            loop.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        register();
+                    }
+                });
+            return;
+        }
+
+        Thread  reader = new Thread(this, "rmi-connection-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /** Registers the connection with its event loop's selector. Called by
+        the event loop. */
+    private void register()
+    {
+        writeLock.lock();
+        try
+        {
+            int     interest = SelectionKey.OP_READ;
+            if(!output.isEmpty())
+                interest |= SelectionKey.OP_WRITE;
+            key = channel.register(loop.selector, interest, this);
+        }
+        catch(ClosedChannelException | ClosedSelectorException e)
+        {
+            close(new IOException("connection closed", e));
+            return;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+
+        if(input.position() > 0)
+            process();
+    }
+
+    /** Records whether the skeleton accepts datagram calls, given the
+        contents of its method table (see <code>DatagramCalls</code>). */
+    private void advertise(Object[] table) throws IOException
+    {
+        int                 port =
+            table.length > 2 ? (Integer)table[2] : 0;
+        InetSocketAddress   target = null;
+        if(port != 0)
+        {
+            InetSocketAddress   remote =
+                (InetSocketAddress)channel.getRemoteAddress();
+            target = new InetSocketAddress(remote.getAddress(), port);
+        }
+
+        DatagramCalls.advertise(address, this, target);
+    }
+
+    /** Returns the ID of a method in the skeleton's method table, or
+        <code>Frame.NO_METHOD_ID</code> if the skeleton's remote interface
+        has no method with the same signature. */
+    int methodId(Method method)
+    {
+        Integer     id = methodIds.get(method);
+        if(id == null)
+        {
+            id = methodTable.get(MethodTable.signature(method));
+            if(id == null)
+                id = Frame.NO_METHOD_ID;
+            methodIds.put(method, id);
+        }
+
+        return id;
+    }
+
+    /** Sends a frame and returns a future for the reply.
+
+        @param type The frame type.
+        @param payload The encoded payload.
+        @return A future that is completed with the reply frame, or
+                exceptionally with an <code>IOException</code> if the
+                connection fails first. If the skeleton refuses the call while
+                shutting the connection down, the exception is a
+                <code>Retry</code>.
+        @throws Retry If the connection is closed or draining, and the frame
+                      was not sent.
+        @throws IOException If the frame cannot be sent.
+     */
+    CompletableFuture<Frame> send(byte type, byte[] payload) throws IOException
+    {
+        return send(type, payload, null);
+    }
+
+    /** Sends a frame with attachments and returns a future for the reply.
+
+        @param type The frame type.
+        @param payload The encoded payload.
+        @param attachments The byte buffers and file regions sent with the
+                           frame, or <code>null</code>.
+        @return A future for the reply, as for <code>send</code>.
+        @throws Retry If the connection is closed or draining, and the frame
+                      was not sent.
+        @throws IOException If the frame cannot be sent.
+     */
+    CompletableFuture<Frame> send(byte type, byte[] payload,
+                                  Object[] attachments) throws IOException
+    {
+        CompletableFuture<Frame>    reply = new CompletableFuture<>();
+        write(type, payload, attachments, reply, null);
+        return reply;
+    }
+
+    /** Sends an <code>UPLOAD</code> frame and returns a future for the
+        reply. The caller then sends the streamed argument with
+        <code>upload.send</code>.
+
+        @param payload The encoded call payload.
+        @param attachments The byte buffers and file regions sent with the
+                           call, or <code>null</code>.
+        @param upload The upload of the call's streamed argument.
+        @return A future for the reply, as for <code>send</code>.
+        @throws Retry If the connection is closed or draining, and the frame
+                      was not sent.
+        @throws IOException If the frame cannot be sent.
+     */
+    CompletableFuture<Frame> upload(byte[] payload, Object[] attachments,
+                                    Upload upload) throws IOException
+    {
+        CompletableFuture<Frame>    reply = new CompletableFuture<>();
+        write(Frame.UPLOAD, payload, attachments, reply, upload);
+        return reply;
+    }
+
+    /** Sends a <code>DATA</code> frame for an upload in progress. Unlike
+        calls, data is sent over a draining connection, since the skeleton
+        has accepted the call it belongs to.
+
+        @param requestId The request ID of the call.
+        @param payload The payload.
+        @throws IOException If the connection is closed, or the frame cannot
+                            be sent.
+     */
+    void data(int requestId, byte[] payload) throws IOException
+    {
+        writeLock.lock();
+        try
+        {
+            if(closed)
+                throw new IOException("connection closed during upload");
+
+            try
+            {
+                transmit(new Frame(Frame.DATA, requestId, payload, codec),
+                         null);
+            }
+            catch(IOException e)
+            {
+                close(e);
+                throw e;
+            }
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /** Sends a frame that is not answered.
+
+        @param type The frame type.
+        @param payload The encoded payload.
+        @throws Retry If the connection is closed or draining, and the frame
+                      was not sent.
+        @throws IOException If the frame cannot be sent.
+     */
+    void post(byte type, byte[] payload) throws IOException
+    {
+        post(type, payload, null);
+    }
+
+    /** Sends a frame with attachments that is not answered.
+
+        @param type The frame type.
+        @param payload The encoded payload.
+        @param attachments The byte buffers and file regions sent with the
+                           frame, or <code>null</code>.
+        @throws Retry If the connection is closed or draining, and the frame
+                      was not sent.
+        @throws IOException If the frame cannot be sent.
+     */
+    void post(byte type, byte[] payload, Object[] attachments)
+        throws IOException
+    {
+        write(type, payload, attachments, null, null);
+    }
+
+    /** Writes a frame with a fresh request ID, registering the future for
+        its reply and its upload, if any. */
+    private void write(byte type, byte[] payload, Object[] attachments,
+                       CompletableFuture<Frame> reply, Upload upload)
+        throws IOException
+    {
+        writeLock.lock();
+        try
+        {
+            if(closed || draining)
+                throw new Retry();
+
+            int     requestId = nextRequestId++;
+
+            // Attachments are prepared first, so that one that cannot be
+            // sent fails only its call.
+            Queue<ByteBuffer>   buffers = null;
+            if(attachments != null && loop != null)
+            {
+                buffers = new ArrayDeque<>();
+                Bulk.queue(requestId, attachments, buffers);
+            }
+
+            if(reply != null)
+                pending.put(requestId, reply);
+            if(upload != null)
+            {
+                upload.opened(this, requestId);
+                uploads.put(requestId, upload);
+            }
+
+            try
+            {
+                transmit(new Frame(type, requestId, payload, codec,
+                                   attachments), buffers);
+            }
+            catch(IOException e)
+            {
+                pending.remove(requestId);
+                uploads.remove(requestId);
+                close(e);
+                throw e;
+            }
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /** Sends a frame. Called with the write lock held.
+
+        <p>
+        With a blocking channel, the frame is written to the channel. With an
+        event loop, the frame is queued, and as much of the queue is written
+        as the socket accepts. The rest is written by the event loop. A frame
+        with attachments is written in full before the method returns, so
+        that the caller may then modify or close the values it attached.
+
+        @param frame The frame.
+        @param attachments The frame's attachments, already queued as
+                           buffers, or <code>null</code>. Unused with a
+                           blocking channel.
+     */
+    private void transmit(Frame frame, Queue<ByteBuffer> attachments)
+        throws IOException
+    {
+        if(loop == null)
+        {
+            frame.write(out);
+            out.flush();
+            return;
+        }
+
+        if(attachments != null)
+        {
+            queuedBuffers += attachments.size();
+            output.addAll(attachments);
+        }
+
+        output.add(frame.toBuffer());
+        queuedBuffers++;
+
+        if(!writeQueued())
+            scheduleFlush();
+
+        if(attachments != null)
+        {
+            long    target = queuedBuffers;
+            while(writtenBuffers < target)
+            {
+                if(closed)
+                    throw new IOException("connection closed while sending " +
+                                          "attachments");
+                written.awaitUninterruptibly();
+            }
+        }
+    }
+
+    /** Writes queued buffers until the queue is empty or the socket is full.
+        Called with the write lock held.
+
+        @return <code>true</code> if the queue has been written.
+     */
+    private boolean writeQueued() throws IOException
+    {
+        boolean     progress = false;
+        try
+        {
+            ByteBuffer  buffer;
+            while((buffer = output.peek()) != null)
+            {
+                channel.write(buffer);
+                if(buffer.hasRemaining())
+                    return false;
+
+                output.poll();
+                writtenBuffers++;
+                progress = true;
+            }
+
+            return true;
+        }
+        finally
+        {
+            if(progress)
+                written.signalAll();
+        }
+    }
+
+    /** Arranges for queued buffers to be written by the event loop. */
+    private void scheduleFlush()
+    {
+        if(!flushScheduled.compareAndSet(false, true))
+            return;
+
+        loop.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flushScheduled.set(false);
+                    flush();
+                }
+            });
+    }
+
+    /** Writes queued buffers, and selects the socket for writing while any
+        remain. Called by the event loop. */
+    void flush()
+    {
+        writeLock.lock();
+        try
+        {
+            if(closed || key == null)
+                return;
+
+            boolean     done = writeQueued();
+            key.interestOps(done ? SelectionKey.OP_READ
+                                 : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+        catch(IOException | CancelledKeyException e)
+        {
+            close(e instanceof IOException ? (IOException)e
+                  : new IOException("connection closed", e));
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /** Waits for a reply.
+
+        @param reply The future returned by <code>send</code>.
+        @return The reply frame.
+        @throws IOException If the connection failed before the reply arrived.
+        @throws RMIException If the calling thread is interrupted.
+     */
+    static Frame await(CompletableFuture<Frame> reply)
+        throws IOException, RMIException
+    {
+        try
+        {
+            return reply.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RMIException("interrupted while waiting for reply", e);
+        }
+        catch(ExecutionException e)
+        {
+            Throwable   cause = e.getCause();
+            if(cause instanceof IOException)
+                throw (IOException)cause;
+            throw new RMIException(cause);
+        }
+    }
+
+    /** Reads replies until the connection closes. Runs in the reader thread
+        of a connection without an event loop. */
+    @Override
+    public void run()
+    {
+        try
+        {
+            Frame           frame;
+            List<Object>    attachments = new ArrayList<>();
+            while((frame = Frame.read(in, codec)) != null)
+            {
+                if(frame.type == Frame.BULK)
+                {
+                    attachments.add(new Bulk.Receiver(frame).receive(in));
+                    continue;
+                }
+
+                if(!attachments.isEmpty())
+                {
+                    frame = frame.attach(attachments.toArray());
+                    attachments.clear();
+                }
+
+                receive(frame);
+            }
+
+            close(new EOFException("connection closed by skeleton"));
+        }
+        catch(IOException e)
+        {
+            close(e);
+        }
+    }
+
+    /** Reads available bytes and handles any complete frames. Called by the
+        event loop. */
+    void read()
+    {
+        try
+        {
+            // The rest of an attachment is read directly from the channel,
+            // without passing through the input buffer.
+            if(receiving != null)
+            {
+                if(!receiving.receive(channel))
+                    return;
+
+                received.add(receiving.value());
+                receiving = null;
+            }
+
+            if(channel.read(input) < 0)
+            {
+                endOfInput(new EOFException("connection closed by skeleton"));
+                return;
+            }
+        }
+        catch(IOException e)
+        {
+            endOfInput(e);
+            return;
+        }
+
+        process();
+    }
+
+    /** Handles the complete frames in the input buffer. */
+    private void process()
+    {
+        try
+        {
+            input.flip();
+            try
+            {
+                Frame   frame;
+                while((frame = Frame.read(input, codec)) != null)
+                {
+                    if(frame.type == Frame.BULK)
+                    {
+                        receiving = new Bulk.Receiver(frame);
+                        if(!receiving.receive(input))
+                            break;
+
+                        received.add(receiving.value());
+                        receiving = null;
+                        continue;
+                    }
+
+                    if(!received.isEmpty())
+                    {
+                        frame = frame.attach(received.toArray());
+                        received.clear();
+                    }
+
+                    receive(frame);
+                }
+            }
+            finally
+            {
+                input.compact();
+            }
+
+            // Make room for a frame larger than the buffer.
+            if(!input.hasRemaining())
+            {
+                ByteBuffer  larger = ByteBuffer.allocate(input.capacity() * 2);
+                input.flip();
+                larger.put(input);
+                input = larger;
+            }
+        }
+        catch(IOException e)
+        {
+            endOfInput(e);
+        }
+    }
+
+    /** Closes a connection served by an event loop whose input has ended or
+        failed. Attachments of a frame that will not arrive are dropped. */
+    private void endOfInput(IOException cause)
+    {
+        if(receiving != null)
+        {
+            receiving.discard();
+            receiving = null;
+        }
+
+        Bulk.closeRegions(received.toArray());
+        received.clear();
+        close(cause);
+    }
+
+    /** Handles a frame received from the skeleton.
+
+        @throws IOException If a <code>CREDIT</code> frame is malformed.
+     */
+    private void receive(Frame frame) throws IOException
+    {
+        if(frame.type == Frame.GOAWAY)
+        {
+            drain(frame.requestId);
+            return;
+        }
+
+        if(frame.type == Frame.CREDIT)
+        {
+            Upload  upload = uploads.get(frame.requestId);
+            if(upload != null)
+                upload.grant(frame.decodeCredit());
+            return;
+        }
+
+        Upload                      upload = uploads.remove(frame.requestId);
+        if(upload != null)
+            upload.stop();
+
+        CompletableFuture<Frame>    reply = pending.remove(frame.requestId);
+        if(reply != null)
+            reply.complete(frame);
+        else if(frame.attachments != null)
+            Bulk.closeRegions(frame.attachments);
+    }
+
+    /** Handles a <code>GOAWAY</code> frame. No further calls are sent over the
+        connection, and calls the skeleton did not accept are failed with
+        <code>Retry</code>. */
+    private void drain(int lastAccepted)
+    {
+        writeLock.lock();
+        try
+        {
+            draining = true;
+
+            Iterator<Map.Entry<Integer, CompletableFuture<Frame>>> iterator =
+                pending.entrySet().iterator();
+            while(iterator.hasNext())
+            {
+                Map.Entry<Integer, CompletableFuture<Frame>>    entry =
+                    iterator.next();
+
+                // Request IDs are assigned in sending order under the write
+                // lock, so the skeleton accepted exactly those calls sent no
+                // later than the last accepted one.
+                if(entry.getKey() - lastAccepted > 0)
+                {
+                    iterator.remove();
+                    Upload  upload = uploads.remove(entry.getKey());
+                    if(upload != null)
+                        upload.stop();
+                    entry.getValue().completeExceptionally(new Retry());
+                }
+            }
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /** Returns <code>true</code> if new calls may be sent over the
+        connection. */
+    boolean usable()
+    {
+        return !closed && !draining;
+    }
+
+    /** Returns <code>true</code> if the connection has been closed. */
+    boolean closed()
+    {
+        return closed;
+    }
+
+    /** Reserves the connection for a call. Must be called with the pool
+        lock for the connection's address held.
+
+        @return <code>true</code> if the connection had completed calls and
+                was idle until this reservation. A failure on such a
+                connection may be caused by the skeleton having closed it
+                while it was idle.
+     */
+    boolean reserve()
+    {
+        boolean     idle = completed > 0 && reservations == 0;
+        reservations++;
+        return idle;
+    }
+
+    /** Releases a reservation made by <code>reserve</code>. */
+    void unreserve()
+    {
+        reservations--;
+        completed++;
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /** Returns the number of calls currently reserving the connection. */
+    int reservations()
+    {
+        return reservations;
+    }
+
+    /** Returns the time, in milliseconds, at which the connection was last
+        used. */
+    long lastUsed()
+    {
+        return lastUsed;
+    }
+
+    /** Closes the connection and fails all calls awaiting replies. */
+    void close(IOException cause)
+    {
+        closed = true;
+
+        try
+        {
+            channel.close();
+        }
+        catch(IOException e) { }
+
+        // Wake calling threads waiting for their attachments to be written.
+        // The channel is closed first, since a thread writing to a blocking
+        // channel holds the lock until the write fails.
+        if(loop != null)
+        {
+            writeLock.lock();
+            try
+            {
+                output.clear();
+                written.signalAll();
+            }
+            finally
+            {
+                writeLock.unlock();
+            }
+        }
+
+        Iterator<CompletableFuture<Frame>>  iterator =
+            pending.values().iterator();
+        while(iterator.hasNext())
+        {
+            CompletableFuture<Frame>    reply = iterator.next();
+            iterator.remove();
+            reply.completeExceptionally(cause);
+        }
+
+        Iterator<Upload>    uploading = uploads.values().iterator();
+        while(uploading.hasNext())
+        {
+            Upload      upload = uploading.next();
+            uploading.remove();
+            upload.stop();
+        }
+    }
+
+    /** Indicates that a call was not executed by the skeleton, and may safely
+        be sent again over another connection. */
+    static class Retry extends IOException
+    {
+        private static final long   serialVersionUID = 1L;
+
+        Retry()
+        {
+            super("connection is shutting down");
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Per-address pool of shared client connections.
+
+    <p>
+    Stubs acquire a connection from the pool before each call and release it
+    afterwards. Connections are multiplexed: many calls, from any number of
+    threads, may share one connection at the same time. The pool hands out the
+    connection to an address that has the fewest calls in flight. A new
+    connection is opened only when every existing connection already carries
+    <code>maxCalls</code> calls, and at most <code>maxConnections</code>
+    connections are opened to one address while the others are busy.
+
+    <p>
+    Connections that have carried no calls for longer than
+    <code>idleTimeout</code> milliseconds are closed by a background evictor.
+    Connections closed or drained by the skeleton are noticed as their
+    replies are read, and are never handed out again.
+
+    <p>
+    When keep-alive is disabled, every call opens a private connection, which
+    is closed when the call is released.
+ */
+class ConnectionPool
+{
+    private static volatile boolean keepAlive = true;
+    private static volatile int     maxConnections = 4;
+    private static volatile int     maxCalls = 64;
+    private static volatile long    idleTimeout = 30000;
+
+    private static final ConcurrentMap<SocketAddress, Pool>
+                                    pools = new ConcurrentHashMap<>();
+    private static final AtomicLong opened = new AtomicLong();
+    private static ScheduledExecutorService evictor;
+
+    private ConnectionPool()
+    {
+    }
+
+    /** Enables or disables keep-alive. Disabling keep-alive closes all
+        currently pooled connections that have no calls in flight. */
+    static void setKeepAlive(boolean enabled)
+    {
+        keepAlive = enabled;
+        if(!enabled)
+            evict(Long.MAX_VALUE);
+    }
+
+    /** Sets the maximum number of connections opened to each address. */
+    static void setMaxConnections(int connections)
+    {
+        if(connections < 1)
+            throw new IllegalArgumentException("pool size must be positive");
+
+        maxConnections = connections;
+    }
+
+    /** Sets the number of in-flight calls on each connection above which the
+        pool opens another connection to the same address. */
+    static void setMaxCalls(int calls)
+    {
+        if(calls < 1)
+        {
+            throw new IllegalArgumentException("calls per connection must " +
+                                               "be positive");
+        }
+
+        maxCalls = calls;
+    }
+
+    /** Sets the time, in milliseconds, after which an idle pooled connection
+        is closed. */
+    static void setIdleTimeout(long milliseconds)
+    {
+        if(milliseconds <= 0)
+            throw new IllegalArgumentException("idle timeout must be positive");
+
+        idleTimeout = milliseconds;
+    }
+
+    /** Returns the total number of connections opened by the pool. */
+    static long opened()
+    {
+        return opened.get();
+    }
+
+    /** Returns a connection to the given address, reserved for one call.
+
+        @param address The skeleton address.
+        @return The reservation. Its connection must be passed to
+                <code>release</code> once the call completes.
+        @throws IOException If a new connection cannot be opened.
+     */
+    static Reservation acquire(SocketAddress address) throws IOException
+    {
+        if(!keepAlive)
+        {
+            Connection  connection = open(address);
+            return new Reservation(connection, connection.reserve());
+        }
+
+        Pool                pool = pool(address);
+
+        pool.lock.lock();
+        try
+        {
+            Connection      best = null;
+
+            Iterator<Connection>    iterator = pool.connections.iterator();
+            while(iterator.hasNext())
+            {
+                Connection  connection = iterator.next();
+                if(!connection.usable())
+                {
+                    iterator.remove();
+                    continue;
+                }
+
+                if(best == null ||
+                   connection.reservations() < best.reservations())
+                {
+                    best = connection;
+                }
+            }
+
+            if(best != null && (best.reservations() < maxCalls ||
+                                pool.connections.size() >= maxConnections))
+            {
+                return new Reservation(best, best.reserve());
+            }
+
+            // Connect while holding the pool lock, so that callers arriving
+            // meanwhile share the new connection rather than each opening
+            // their own.
+            Connection  connection = open(address);
+            Reservation reservation =
+                new Reservation(connection, connection.reserve());
+            pool.connections.add(connection);
+            startEvictor();
+            return reservation;
+        }
+        finally
+        {
+            pool.lock.unlock();
+        }
+    }
+
+    /** Releases a connection reserved by <code>acquire</code>.
+
+        @param connection The connection.
+     */
+    static void release(Connection connection)
+    {
+        if(!keepAlive)
+        {
+            connection.unreserve();
+            connection.close(new IOException("connection released"));
+            return;
+        }
+
+        Pool                pool = pool(connection.address);
+
+        pool.lock.lock();
+        try
+        {
+            connection.unreserve();
+        }
+        finally
+        {
+            pool.lock.unlock();
+        }
+    }
+
+    /** Opens a new connection, bypassing the pool. */
+    private static Connection open(SocketAddress address)
+        throws IOException
+    {
+        Connection  connection = new Connection(address);
+        opened.incrementAndGet();
+        return connection;
+    }
+
+    /** Returns the pool for an address, creating it if necessary. */
+    private static Pool pool(SocketAddress address)
+    {
+        Pool                pool = pools.get(address);
+        if(pool == null)
+        {
+            Pool                created = new Pool();
+            pool = pools.putIfAbsent(address, created);
+            if(pool == null)
+                pool = created;
+        }
+
+        return pool;
+    }
+
+    /** Closes pooled connections that have carried no calls for longer than
+        the given time. */
+    static void evict(long idle)
+    {
+        long    now = System.currentTimeMillis();
+
+        for(Pool pool : pools.values())
+        {
+            pool.lock.lock();
+            try
+            {
+                Iterator<Connection>    iterator = pool.connections.iterator();
+                while(iterator.hasNext())
+                {
+                    Connection  connection = iterator.next();
+                    if(connection.closed())
+                        iterator.remove();
+                    else if(connection.reservations() == 0 &&
+                            now - connection.lastUsed() >= idle)
+                    {
+                        iterator.remove();
+                        connection.close(new IOException("connection idle"));
+                    }
+                }
+            }
+            finally
+            {
+                pool.lock.unlock();
+            }
+        }
+    }
+
+    /** Starts the background evictor if it is not already running. */
+    private static synchronized void startEvictor()
+    {
+        if(evictor != null)
+            return;
+
+        evictor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread  thread = new Thread(runnable,
+                                                "rmi-connection-evictor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+        evictor.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    evict(idleTimeout);
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /** Connection reserved for one call by <code>acquire</code>. */
+    static final class Reservation
+    {
+        /** The connection. */
+        final Connection        connection;
+        /** <code>true</code> if the connection had completed calls and was
+            idle until this reservation, as seen under the pool lock. A
+            failure on such a connection may be caused by the skeleton having
+            closed it while it was idle. */
+        final boolean           reusedIdle;
+
+        private Reservation(Connection connection, boolean reusedIdle)
+        {
+            this.connection = connection;
+            this.reusedIdle = reusedIdle;
+        }
+    }
+
+    /** Connections to one address. */
+    private static class Pool
+    {
+        /** Lock guarding the list, and the reservation counts of the
+            connections in it. A <code>ReentrantLock</code> is used rather
+            than a monitor so that virtual threads calling through stubs
+            do not pin their carrier threads while waiting. */
+        final ReentrantLock     lock = new ReentrantLock();
+        /** Connections to the address. */
+        final List<Connection>  connections = new ArrayList<>();
+    }
+}
@@ -0,0 +1,235 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Calls to idempotent methods sent in UDP datagrams.
+
+    <p>
+    A skeleton that accepts datagram calls (see
+    <code>Skeleton.setDatagramCalls</code>) advertises its UDP port in the
+    method table it sends at the start of each connection. The port is
+    recorded here for the skeleton's address, together with the connection,
+    whose method table gives the IDs of the methods called. Stubs then send
+    each call to a method marked <code>Idempotent</code> as a single
+    <code>CALL</code> frame in a datagram, and wait for the reply in a
+    datagram of its own, without using a connection.
+
+    <p>
+    Calls are encoded with Java serialization, which, unlike the codec of a
+    connection, keeps no state between calls, or by
+    <code>PrimitiveCall</code>. Each call has a request ID unique in the
+    process. If no reply arrives within <code>FIRST_TIMEOUT</code>
+    milliseconds, the call is sent again, with the wait doubling each time,
+    up to <code>ATTEMPTS</code> times in all. The skeleton recognizes the
+    copies of a call and executes it only once (see
+    <code>DatagramServer</code>).
+
+    <p>
+    A call is instead made over a connection if it does not fit in a
+    datagram of <code>MAX_DATAGRAM</code> bytes, if the skeleton answers that
+    its reply does not fit in one, or if no reply arrives after the last
+    attempt.
+ */
+final class DatagramCalls
+{
+    /** Largest datagram sent or accepted, small enough to avoid IP
+        fragmentation on common networks. */
+    static final int    MAX_DATAGRAM = 1400;
+    /** Milliseconds to wait for the reply to the first copy of a call. */
+    static final int    FIRST_TIMEOUT = 50;
+    /** Number of copies of a call sent before it is made over a connection
+        instead. */
+    static final int    ATTEMPTS = 4;
+    /** Milliseconds after sending the first copy of a call at which a stub
+        stops waiting for a reply in a datagram. No copy is sent later. */
+    static final long   RETRANSMIT_WINDOW =
+        FIRST_TIMEOUT * ((1L << ATTEMPTS) - 1);
+
+    /** Skeletons accepting datagram calls, by the address at which stubs
+        connect to them. */
+    private static final ConcurrentMap<SocketAddress, Endpoint> endpoints =
+        new ConcurrentHashMap<>();
+    /** Sockets not in use by a call. */
+    private static final Queue<DatagramSocket>  sockets =
+        new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger  nextRequestId = new AtomicInteger();
+    private static final AtomicLong     answered = new AtomicLong();
+    private static final AtomicLong     resent = new AtomicLong();
+
+    /** Prevents instantiation. */
+    private DatagramCalls()
+    {
+    }
+
+    /** Records the UDP port advertised by a skeleton in the method table of
+        a new connection.
+
+        @param address The address at which stubs connect to the skeleton.
+        @param connection The connection.
+        @param target The skeleton's UDP address, or <code>null</code> if it
+                      does not accept datagram calls.
+     */
+    static void advertise(SocketAddress address, Connection connection,
+                          InetSocketAddress target)
+    {
+        if(target == null)
+            endpoints.remove(address);
+        else
+            endpoints.put(address, new Endpoint(target, connection));
+    }
+
+    /** Returns the skeleton at the given address, if it accepts datagram
+        calls, or <code>null</code>. */
+    static Endpoint endpoint(SocketAddress address)
+    {
+        return endpoints.get(address);
+    }
+
+    /** Returns the number of calls answered in datagrams. */
+    static long answered()
+    {
+        return answered.get();
+    }
+
+    /** Returns the number of copies of calls sent after no reply arrived in
+        time. */
+    static long resent()
+    {
+        return resent.get();
+    }
+
+    /** Sends a call in datagrams and waits for the reply.
+
+        @param endpoint The skeleton.
+        @param payload The call payload, encoded with
+                       <code>Codecs.JAVA</code> or by
+                       <code>PrimitiveCall</code>.
+        @return The reply, or <code>null</code> if the call must be made over
+                a connection instead.
+     */
+    static Frame call(Endpoint endpoint, byte[] payload)
+    {
+        ByteBuffer      request =
+            new Frame(Frame.CALL, nextRequestId.incrementAndGet(), payload)
+                .toBuffer();
+        if(request.remaining() > MAX_DATAGRAM)
+            return null;
+
+        DatagramSocket  socket = sockets.poll();
+        try
+        {
+            if(socket == null)
+                socket = new DatagramSocket();
+
+            Frame       reply = exchange(socket, endpoint.target,
+                                         request.array());
+            sockets.add(socket);
+            socket = null;
+
+            if(reply == null || reply.type == Frame.OVERSIZE)
+                return null;
+
+            answered.incrementAndGet();
+            return reply;
+        }
+        catch(IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            if(socket != null)
+                socket.close();
+        }
+    }
+
+    /** Sends a call, and copies of it, until the reply arrives or the last
+        attempt times out.
+
+        @return The reply, or <code>null</code> if none arrived.
+     */
+    private static Frame exchange(DatagramSocket socket,
+                                  InetSocketAddress target, byte[] request)
+        throws IOException
+    {
+        int             requestId = ByteBuffer.wrap(request).getInt(5);
+        byte[]          received = new byte[MAX_DATAGRAM];
+        DatagramPacket  packet = new DatagramPacket(received, received.length);
+        long            timeout = FIRST_TIMEOUT;
+
+        for(int attempt = 0; attempt < ATTEMPTS; ++attempt, timeout *= 2)
+        {
+            if(attempt > 0)
+                resent.incrementAndGet();
+
+            socket.send(new DatagramPacket(request, request.length, target));
+
+            long        deadline = System.nanoTime() + timeout * 1000000;
+            while(true)
+            {
+                long    remaining = (deadline - System.nanoTime()) / 1000000;
+                if(remaining <= 0)
+                    break;
+
+                socket.setSoTimeout((int)remaining);
+                packet.setLength(received.length);
+                try
+                {
+                    socket.receive(packet);
+                }
+                catch(SocketTimeoutException e)
+                {
+                    break;
+                }
+
+                Frame   reply;
+                try
+                {
+                    reply = Frame.read(ByteBuffer.wrap(received, 0,
+                                                       packet.getLength()),
+                                       Codecs.JAVA);
+                }
+                catch(IOException e)
+                {
+                    continue;
+                }
+
+                // Late replies to earlier calls on the socket are skipped.
+                // The sender is not checked, since a skeleton on a host
+                // with several addresses may reply from another one.
+                if(reply != null && reply.requestId == requestId)
+                    return reply;
+            }
+        }
+
+        return null;
+    }
+
+    /** Skeleton accepting datagram calls. */
+    static final class Endpoint
+    {
+        /** The skeleton's UDP address. */
+        final InetSocketAddress target;
+        /** Connection to the skeleton whose method table gives the IDs of
+            the methods called. */
+        final Connection        connection;
+
+        private Endpoint(InetSocketAddress target, Connection connection)
+        {
+            this.target = target;
+            this.connection = connection;
+        }
+    }
+}
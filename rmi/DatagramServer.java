@@ -0,0 +1,361 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/** Receives calls to idempotent methods in UDP datagrams for a skeleton
+    (see <code>Skeleton.setDatagramCalls</code>).
+
+    <p>
+    Each datagram holds one <code>CALL</code> frame. The call is executed
+    as if it had been received over a connection, and its reply is sent back
+    to the datagram's sender in a datagram of its own, or replaced by an
+    <code>OVERSIZE</code> frame if it does not fit in one.
+
+    <p>
+    Stubs send a call again when its reply does not arrive in time (see
+    <code>DatagramCalls</code>). Copies of a call are recognized by their
+    sender and request ID: a copy received while the call is executing is
+    dropped, and a copy received after it has completed is answered with the
+    reply already sent. Replies are kept for <code>REPLY_LIFETIME</code>,
+    twice the time for which a stub waits for them, and are removed by a
+    timer. At most <code>MAX_REPLIES</code> calls are remembered; beyond
+    that, the oldest are forgotten, and a late copy of one of them would be
+    executed again, which idempotent methods allow.
+
+    <p>
+    Calls to methods not marked <code>Idempotent</code> are refused, since a
+    datagram, unlike a connection, may be delivered more than once.
+ */
+final class DatagramServer implements Runnable
+{
+    /** Milliseconds for which a reply is kept to answer copies of its
+        call. */
+    static final long               REPLY_LIFETIME =
+        2 * DatagramCalls.RETRANSMIT_WINDOW;
+    /** Largest number of calls remembered. */
+    static final int                MAX_REPLIES = 8192;
+
+    /** Removes expired replies, for all datagram servers. */
+    private static ScheduledExecutorService sweeper;
+
+    private static final byte[]     EMPTY = new byte[0];
+
+    private final Skeleton<?>       skeleton;
+    private final DatagramChannel   channel;
+    private final Thread            thread;
+    /** Calls executing or recently answered, oldest first. Guarded by
+        itself. */
+    private final LinkedHashMap<Request, Reply> replies =
+        new LinkedHashMap<Request, Reply>()
+        {
+            private static final long   serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Request, Reply> eldest)
+            {
+                return size() > MAX_REPLIES;
+            }
+        };
+    private ScheduledFuture<?>      sweeping;
+
+    /** Opens the datagram socket on the given port, or on any free port if
+        that one is in use.
+
+        @throws IOException If the socket cannot be opened.
+     */
+    DatagramServer(Skeleton<?> skeleton, int port) throws IOException
+    {
+        this.skeleton = skeleton;
+
+        DatagramChannel     opened = DatagramChannel.open();
+        try
+        {
+            try
+            {
+                opened.bind(new InetSocketAddress(port));
+            }
+            catch(BindException e)
+            {
+                opened.bind(new InetSocketAddress(0));
+            }
+        }
+        catch(IOException e)
+        {
+            opened.close();
+            throw e;
+        }
+
+        channel = opened;
+        thread = new Thread(this, "rmi-datagram-server");
+        thread.setDaemon(true);
+    }
+
+    /** Returns the port on which datagrams are received. */
+    int port()
+    {
+        return channel.socket().getLocalPort();
+    }
+
+    /** Starts receiving calls. */
+    void start()
+    {
+        thread.start();
+        sweeping = sweeper().scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    sweep(System.currentTimeMillis());
+                }
+            }, REPLY_LIFETIME, REPLY_LIFETIME, TimeUnit.MILLISECONDS);
+    }
+
+    /** Returns the executor shared by all datagram servers for removing
+        expired replies, creating it if necessary. */
+    private static synchronized ScheduledExecutorService sweeper()
+    {
+        if(sweeper == null)
+        {
+            sweeper = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable runnable)
+                    {
+                        Thread  thread =
+                            new Thread(runnable, "rmi-datagram-sweeper");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+
+        return sweeper;
+    }
+
+    /** Stops receiving calls and waits for the receiving thread to exit.
+        Calls already executing complete, but their replies may not be
+        sent. */
+    void close()
+    {
+        if(sweeping != null)
+            sweeping.cancel(false);
+
+        synchronized(replies)
+        {
+            replies.clear();
+        }
+
+        try
+        {
+            channel.close();
+        }
+        catch(IOException e) { }
+
+        try
+        {
+            thread.join();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        ByteBuffer  buffer = ByteBuffer.allocate(DatagramCalls.MAX_DATAGRAM);
+
+        try
+        {
+            while(true)
+            {
+                buffer.clear();
+                SocketAddress   sender = channel.receive(buffer);
+                buffer.flip();
+
+                Frame           call;
+                try
+                {
+                    call = Frame.read(buffer, Codecs.JAVA);
+                }
+                catch(IOException e)
+                {
+                    // Not a frame, or truncated: ignore it.
+                    continue;
+                }
+
+                if(call != null && call.type == Frame.CALL)
+                    receive(sender, call);
+            }
+        }
+        catch(ClosedChannelException e)
+        {
+            // The skeleton is stopping.
+        }
+        catch(IOException e)
+        {
+            skeleton.service_error(new RMIException("datagram socket failed",
+                                                    e));
+        }
+    }
+
+    /** Executes a call received from a stub, unless it is a copy of a call
+        already received. */
+    private void receive(final SocketAddress sender, final Frame call)
+    {
+        final Request   request = new Request(sender, call.requestId);
+        final Reply     reply = new Reply();
+        Reply           existing;
+        synchronized(replies)
+        {
+            existing = replies.putIfAbsent(request, reply);
+        }
+
+        if(existing != null)
+        {
+            byte[]      sent = existing.bytes;
+            if(sent != null)
+                send(sender, sent);
+            return;
+        }
+
+        if(!skeleton.idempotent(call.payload))
+        {
+            RMIException    error =
+                new RMIException("datagram call to a method not marked " +
+                                 "idempotent");
+            skeleton.service_error(error);
+            complete(sender, reply,
+                     Skeleton.failure(call.requestId, error, Codecs.JAVA));
+            return;
+        }
+
+        try
+        {
+            skeleton.dispatch(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    complete(sender, reply, skeleton.serve(call));
+                }
+            }, false);
+        }
+        catch(RMIException e)
+        {
+            complete(sender, reply,
+                     Skeleton.failure(call.requestId, e, Codecs.JAVA));
+        }
+    }
+
+    /** Sends the reply to a call, and keeps it for copies of the call. */
+    private void complete(SocketAddress sender, Reply reply, Frame frame)
+    {
+        ByteBuffer  buffer = frame.toBuffer();
+        byte[]      bytes;
+        if(buffer.remaining() > DatagramCalls.MAX_DATAGRAM)
+        {
+            bytes = new Frame(Frame.OVERSIZE, frame.requestId, EMPTY)
+                        .toBuffer().array();
+        }
+        else
+            bytes = buffer.array();
+
+        reply.completed = System.currentTimeMillis();
+        reply.bytes = bytes;
+        send(sender, bytes);
+    }
+
+    /** Sends a datagram. Failures are ignored: the stub sends the call
+        again, or makes it over a connection. */
+    private void send(SocketAddress target, byte[] bytes)
+    {
+        try
+        {
+            channel.send(ByteBuffer.wrap(bytes), target);
+        }
+        catch(IOException e) { }
+    }
+
+    /** Removes replies kept for longer than <code>REPLY_LIFETIME</code>.
+        Calls still executing are kept. */
+    private void sweep(long now)
+    {
+        synchronized(replies)
+        {
+            Iterator<Reply>     iterator = replies.values().iterator();
+            while(iterator.hasNext())
+            {
+                Reply           reply = iterator.next();
+                // Calls are in the order received, and none received later
+                // can have expired.
+                if(now - reply.received <= REPLY_LIFETIME)
+                    break;
+                if(reply.bytes != null &&
+                   now - reply.completed > REPLY_LIFETIME)
+                {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /** Identity of a call: its sender and request ID. */
+    private static final class Request
+    {
+        private final SocketAddress sender;
+        private final int           requestId;
+
+        Request(SocketAddress sender, int requestId)
+        {
+            this.sender = sender;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if(!(other instanceof Request))
+                return false;
+
+            Request     request = (Request)other;
+            return requestId == request.requestId &&
+                   sender.equals(request.sender);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(sender, requestId);
+        }
+    }
+
+    /** Reply to a call, once it has completed. */
+    private static final class Reply
+    {
+        /** Time at which the call was received. */
+        final long                  received = System.currentTimeMillis();
+        /** The encoded reply, or <code>null</code> while the call is
+            executing. */
+        volatile byte[]             bytes;
+        /** Time at which the call completed. */
+        volatile long               completed;
+    }
+}
@@ -0,0 +1,83 @@
+package rmi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/** Region of a file passed to or returned from a remote method.
+
+    <p>
+    A remote method may declare parameters and return values of type
+    <code>FileRegion</code> or <code>ByteBuffer</code>. Such values are not
+    encoded by the connection's codec. Their bytes are written to the
+    connection directly from the file or buffer, and read from it directly
+    into a file or a direct buffer at the other end (see <code>Bulk</code>).
+    The sending end uses <code>FileChannel.transferTo</code>, which lets the
+    operating system move the bytes from the file to the socket without
+    copying them through the Java heap.
+
+    <p>
+    A region received from the other end is held in a temporary file, which
+    is deleted when the region is closed. The receiver owns such regions, and
+    should close them once it no longer needs them. A region passed as an
+    argument remains open after the call, and belongs to the caller. A region
+    returned by a server method is closed by the skeleton once it has been
+    sent.
+ */
+public final class FileRegion implements Closeable
+{
+    private final FileChannel   channel;
+    private final long          position;
+    private final long          count;
+
+    /** Creates a region of a file.
+
+        @param channel A channel open for reading the file.
+        @param position The offset of the region in the file.
+        @param count The length of the region, in bytes.
+        @throws NullPointerException If <code>channel</code> is
+                                     <code>null</code>.
+        @throws IllegalArgumentException If <code>position</code> or
+                                         <code>count</code> is negative.
+     */
+    public FileRegion(FileChannel channel, long position, long count)
+    {
+        if(channel == null)
+            throw new NullPointerException("channel is null");
+        if(position < 0 || count < 0)
+        {
+            throw new IllegalArgumentException("negative position or " +
+                                               "count");
+        }
+
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+    }
+
+    /** Returns the channel of the file. */
+    public FileChannel channel()
+    {
+        return channel;
+    }
+
+    /** Returns the offset of the region in the file. */
+    public long position()
+    {
+        return position;
+    }
+
+    /** Returns the length of the region, in bytes. */
+    public long count()
+    {
+        return count;
+    }
+
+    /** Closes the file's channel. A region received from the other end of a
+        connection is then deleted. */
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
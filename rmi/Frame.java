@@ -0,0 +1,593 @@
+package rmi;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Unit of the stub-skeleton wire protocol.
+
+    <p>
+    A connection begins with the stub sending the four-byte value
+    <code>MAGIC</code>. After that, both ends exchange frames. Each frame
+    consists of a four-byte length, counting the bytes that follow it, a
+    one-byte frame type, a four-byte request ID, and a payload. Payloads are
+    objects encoded with the connection's codec (see <code>Codec</code>).
+
+    <p>
+    The skeleton then sends a <code>METHODS</code> frame listing the methods
+    of its remote interface (see <code>MethodTable</code>) and the codecs it
+    supports. Calls refer to methods by their index in this list. Java
+    serialization is used until the stub chooses another codec by sending a
+    <code>CODEC</code> frame, which it does before sending any calls.
+
+    <p>
+    A stub sends a <code>CALL</code> frame for each call, with a request ID
+    that is unique among the calls in flight on the connection. The skeleton
+    answers each call with exactly one <code>RETURN</code>,
+    <code>EXCEPTION</code> or <code>FAILURE</code> frame carrying the same
+    request ID. Calls may be answered in any order, so many calls can be in
+    flight on one connection at once.
+
+    <p>
+    A stub may instead send several calls in one <code>BATCH</code> frame.
+    The skeleton executes them in order and answers with a single
+    <code>BATCH</code> frame holding the outcome of each call, or with a
+    <code>FAILURE</code> frame if the batch as a whole could not be executed.
+
+    <p>
+    Later calls in a batch may be pipelined on the remote objects returned by
+    earlier calls in the batch, so that a chain of dependent calls completes
+    in one round trip.
+
+    <p>
+    Calls to one-way methods are sent in <code>ONEWAY</code> frames, which
+    are not answered.
+
+    <p>
+    A stub holding references to objects exported by the skeleton (see
+    <code>ObjectTable</code>) periodically sends <code>RENEW</code> frames to
+    renew its leases on them, and a <code>RELEASE</code> frame once it no
+    longer holds them. These frames are not answered, and are not counted as
+    calls.
+
+    <p>
+    A call with an <code>InputStream</code> or
+    <code>ReadableByteChannel</code> argument is sent in an
+    <code>UPLOAD</code> frame, followed by <code>DATA</code> frames carrying
+    the argument's bytes. The skeleton grants the stub further bytes with
+    <code>CREDIT</code> frames as the server method consumes them (see
+    <code>Upload</code>), so the data of an upload is interleaved with the
+    frames of other calls on the connection.
+
+    <p>
+    Byte buffers and file regions passed to or returned from remote methods
+    are sent as attachments of the frame carrying the call or reply: each is
+    sent in a <code>BULK</code> frame followed by its raw bytes, just before
+    the frame it belongs to (see <code>Bulk</code>).
+
+    <p>
+    Calls to idempotent methods may also be sent outside any connection, each
+    as a single frame in a UDP datagram, encoded with Java serialization or
+    by <code>PrimitiveCall</code> (see <code>DatagramCalls</code>). The
+    skeleton answers in a datagram with the same request ID, or with an
+    <code>OVERSIZE</code> frame if the reply does not fit in one.
+
+    <p>
+    A skeleton that is shutting down a connection sends a <code>GOAWAY</code>
+    frame whose request ID is the ID of the last call it accepted. Calls with
+    later IDs have not been executed and will not be answered; the stub may
+    send them again over another connection.
+ */
+final class Frame
+{
+    /** Value sent by the stub at the start of each connection. */
+    static final int    MAGIC = 0x524d4931;
+    /** Largest frame length accepted from the network. */
+    static final int    MAX_LENGTH = 64 << 20;
+    /** Length of the type and request ID fields. */
+    static final int    HEADER_LENGTH = 5;
+
+    /** Call request. The payload is a four-byte object ID (see
+        <code>ObjectTable</code>) and a four-byte method ID, followed by the
+        encoded argument array. If the method is not in the method table of
+        the object's interface, the method ID is <code>NO_METHOD_ID</code>
+        and it is followed instead by the encoded array
+        <code>{methodName, parameterTypes, arguments}</code>. If the method ID
+        carries <code>PrimitiveCall.FLAG</code>, the arguments are instead
+        encoded by <code>PrimitiveCall</code>, as is the payload of the
+        <code>RETURN</code> frame answering the call. */
+    static final byte   CALL = 1;
+    /** Successful call. The payload is the return value. */
+    static final byte   RETURN = 2;
+    /** Call that threw an exception. The payload is the exception. */
+    static final byte   EXCEPTION = 3;
+    /** Call that the skeleton could not execute. The payload is an
+        <code>RMIException</code> describing the problem. */
+    static final byte   FAILURE = 4;
+    /** Connection shutdown notice. */
+    static final byte   GOAWAY = 5;
+    /** Sequence of calls. The request payload is an array of call payloads,
+        each a byte array as carried by a <code>CALL</code> frame. The reply payload is the array
+        <code>{types, values}</code>, where <code>types</code> is a byte array
+        holding the reply frame type for each call, and <code>values</code>
+        holds the corresponding reply payloads. Within a batch, a call whose
+        object ID is <code>pipelinedId(k)</code> is made on the remote object
+        returned by call <code>k</code> of the same batch. */
+    static final byte   BATCH = 6;
+    /** Call to a one-way method. The payload is as for <code>CALL</code>. No
+        reply is sent. */
+    static final byte   ONEWAY = 7;
+    /** Method table, sent by the skeleton at the start of each connection.
+        The payload is the array <code>{signatures, codecs, datagramPort}</code>,
+        encoded with Java serialization, where <code>signatures</code> holds
+        the method signatures, indexed by method ID, <code>codecs</code> holds
+        the names of the codecs the skeleton supports, and
+        <code>datagramPort</code> is the UDP port on which it accepts calls in
+        datagrams, or 0 if it accepts none. */
+    static final byte   METHODS = 8;
+
+    /** Lease renewal. The payload is as for <code>RELEASE</code>. No reply
+        is sent. */
+    static final byte   RENEW = 9;
+    /** Lease release. The payload is the eight-byte ID of the client holding
+        the leases, followed by the four-byte IDs of the objects. No reply is
+        sent. */
+    static final byte   RELEASE = 10;
+    /** Codec selection, sent by the stub after receiving the method table.
+        The payload is the UTF-8 name of the codec used for all later
+        payloads on the connection, in both directions. */
+    static final byte   CODEC = 11;
+    /** Class descriptors used by later payloads encoded with Java
+        serialization (see <code>JavaStreamCodec</code>). No reply is sent.
+        Such frames are written and read by <code>write</code>,
+        <code>toBuffer</code> and <code>read</code>, and are not seen by
+        their callers. */
+    static final byte   CLASSES = 12;
+    /** Call with a streamed argument. The payload is as for
+        <code>CALL</code>, with <code>null</code> in place of the streamed
+        argument, whose bytes follow in <code>DATA</code> frames with the same
+        request ID. The call is answered as for <code>CALL</code>. */
+    static final byte   UPLOAD = 13;
+    /** Bytes of a streamed argument. The payload is a one-byte state, one of
+        <code>Upload.MORE</code>, <code>Upload.END</code> and
+        <code>Upload.ABORT</code>, followed by the bytes, or, for
+        <code>ABORT</code>, by the UTF-8 description of the failure. No reply
+        is sent. */
+    static final byte   DATA = 14;
+    /** Permission to send further bytes of a streamed argument, sent by the
+        skeleton. The payload is the four-byte number of bytes. No reply is
+        sent. */
+    static final byte   CREDIT = 15;
+
+    /** Attachment of the next frame of another type. The payload is a
+        one-byte kind, <code>Bulk.BUFFER</code> or <code>Bulk.FILE</code>,
+        and the eight-byte length of the attachment, whose bytes follow the
+        frame directly. The request ID is that of the frame to which the
+        attachment belongs. Such frames are returned by <code>read</code>,
+        and the caller must then read the attachment's bytes. */
+    static final byte   BULK = 16;
+    /** Reply to a call received in a datagram, sent instead of the reply
+        when that does not fit in a datagram. The payload is empty. The stub
+        makes the call again over a connection. */
+    static final byte   OVERSIZE = 17;
+
+    /** Method ID of calls that identify their method by name. */
+    static final int    NO_METHOD_ID = -1;
+
+    /** Frame type. */
+    final byte          type;
+    /** Request ID. */
+    final int           requestId;
+    /** Encoded payload. */
+    final byte[]        payload;
+    /** Codec with which the payload is encoded. */
+    final Codec         codec;
+    /** Byte buffers and file regions sent with the frame, or
+        <code>null</code>. */
+    final Object[]      attachments;
+
+    /** Creates a frame whose payload is encoded with Java serialization.
+
+        @param type The frame type.
+        @param requestId The request ID.
+        @param payload The encoded payload.
+     */
+    Frame(byte type, int requestId, byte[] payload)
+    {
+        this(type, requestId, payload, Codecs.JAVA);
+    }
+
+    /** Creates a frame.
+
+        @param type The frame type.
+        @param requestId The request ID.
+        @param payload The encoded payload.
+        @param codec The codec with which the payload is encoded.
+     */
+    Frame(byte type, int requestId, byte[] payload, Codec codec)
+    {
+        this(type, requestId, payload, codec, null);
+    }
+
+    /** Creates a frame with attachments.
+
+        @param type The frame type.
+        @param requestId The request ID.
+        @param payload The encoded payload.
+        @param codec The codec with which the payload is encoded.
+        @param attachments The byte buffers and file regions sent with the
+                           frame, or <code>null</code>.
+     */
+    Frame(byte type, int requestId, byte[] payload, Codec codec,
+          Object[] attachments)
+    {
+        this.type = type;
+        this.requestId = requestId;
+        this.payload = payload;
+        this.codec = codec;
+        this.attachments = attachments;
+    }
+
+    /** Returns a copy of this frame with the given attachments, as
+        received before it. */
+    Frame attach(Object[] received)
+    {
+        return new Frame(type, requestId, payload, codec, received);
+    }
+
+    /** Returns <code>true</code> if frames of the given type are sent by
+        stubs to request work from a skeleton. */
+    static boolean isRequest(byte type)
+    {
+        return type == CALL || type == BATCH || type == ONEWAY ||
+               type == UPLOAD;
+    }
+
+    /** Returns <code>true</code> if frames of the given type carry leases on
+        exported objects. */
+    static boolean isLease(byte type)
+    {
+        return type == RENEW || type == RELEASE;
+    }
+
+    /** Writes the frame to a stream. The stream is not flushed.
+
+        <p>
+        If the frame's codec has class descriptors queued for the peer, a
+        <code>CLASSES</code> frame carrying them is written first. Frames must
+        therefore be written to a connection one at a time, in the order in
+        which this method is called. The frame's attachments, if any, are
+        written before it, and the stream must then be a
+        <code>ChannelOutput</code>.
+     */
+    void write(DataOutputStream out) throws IOException
+    {
+        if(attachments != null)
+        {
+            if(!(out instanceof ChannelOutput))
+                throw new IOException("attachments require a channel");
+            Bulk.write(requestId, attachments, (ChannelOutput)out);
+        }
+
+        byte[]  definitions = definitions();
+        if(definitions != null)
+            new Frame(CLASSES, 0, definitions).write(out);
+
+        out.writeInt(HEADER_LENGTH + payload.length);
+        out.writeByte(type);
+        out.writeInt(requestId);
+        out.write(payload);
+    }
+
+    /** Reads a frame from a stream.
+
+        @param in The stream.
+        @param codec The codec with which the payload is encoded.
+        @return The frame, or <code>null</code> if the stream ended cleanly
+                before the start of a frame.
+        @throws IOException If the stream ends within a frame, or the frame is
+                            malformed.
+     */
+    static Frame read(DataInputStream in, Codec codec) throws IOException
+    {
+        Frame   frame;
+        do
+        {
+            frame = readFrame(in, codec);
+        }
+        while(frame != null && frame.defined());
+
+        return frame;
+    }
+
+    /** Reads a frame of any type from a stream. */
+    private static Frame readFrame(DataInputStream in, Codec codec)
+        throws IOException
+    {
+        int     first = in.read();
+        if(first < 0)
+            return null;
+
+        int     length = (first << 24) | (in.readUnsignedByte() << 16) |
+                         (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        if(length < HEADER_LENGTH || length > MAX_LENGTH)
+            throw new IOException("bad frame length " + length);
+
+        byte    type = in.readByte();
+        int     requestId = in.readInt();
+        byte[]  payload = new byte[length - HEADER_LENGTH];
+        in.readFully(payload);
+
+        return new Frame(type, requestId, payload, codec);
+    }
+
+    /** Encodes the frame into a buffer, ready for writing to a channel. As
+        with <code>write</code>, a <code>CLASSES</code> frame is placed
+        first if needed, and frames must be queued for a channel in the order
+        in which this method is called. Attachments are not included: they
+        are queued separately by <code>Bulk.queue</code>.
+     */
+    ByteBuffer toBuffer()
+    {
+        byte[]      definitions = definitions();
+        int         prefix = definitions == null ? 0 :
+                             4 + HEADER_LENGTH + definitions.length;
+        ByteBuffer  buffer = ByteBuffer.allocate(prefix + 4 + HEADER_LENGTH +
+                                                 payload.length);
+        if(definitions != null)
+        {
+            buffer.putInt(HEADER_LENGTH + definitions.length);
+            buffer.put(CLASSES);
+            buffer.putInt(0);
+            buffer.put(definitions);
+        }
+
+        buffer.putInt(HEADER_LENGTH + payload.length);
+        buffer.put(type);
+        buffer.putInt(requestId);
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Takes a frame from a buffer of received bytes.
+
+        @param buffer A buffer in read mode. If the buffer holds a complete
+                      frame, its position is advanced past the frame.
+                      Otherwise, the position is left unchanged.
+        @param codec The codec with which the payload is encoded.
+        @return The frame, or <code>null</code> if the buffer does not hold a
+                complete frame.
+        @throws IOException If the frame is malformed.
+     */
+    static Frame read(ByteBuffer buffer, Codec codec) throws IOException
+    {
+        Frame   frame;
+        do
+        {
+            frame = readFrame(buffer, codec);
+        }
+        while(frame != null && frame.defined());
+
+        return frame;
+    }
+
+    /** Takes a frame of any type from a buffer. */
+    private static Frame readFrame(ByteBuffer buffer, Codec codec)
+        throws IOException
+    {
+        if(buffer.remaining() < 4)
+            return null;
+
+        int     length = buffer.getInt(buffer.position());
+        if(length < HEADER_LENGTH || length > MAX_LENGTH)
+            throw new IOException("bad frame length " + length);
+
+        if(buffer.remaining() < 4 + length)
+            return null;
+
+        buffer.getInt();
+        byte    type = buffer.get();
+        int     requestId = buffer.getInt();
+        byte[]  payload = new byte[length - HEADER_LENGTH];
+        buffer.get(payload);
+
+        return new Frame(type, requestId, payload, codec);
+    }
+
+    /** Returns the class descriptors queued for the peer by the frame's
+        codec, or <code>null</code> if there are none. */
+    private byte[] definitions()
+    {
+        if(codec instanceof JavaStreamCodec)
+            return ((JavaStreamCodec)codec).takeDefinitions();
+        return null;
+    }
+
+    /** Records the class descriptors carried by a <code>CLASSES</code>
+        frame.
+
+        @return <code>true</code> if the frame is a <code>CLASSES</code>
+                frame, <code>false</code> if it is of another type.
+        @throws IOException If the frame is malformed, or the connection's
+                            codec does not use class descriptors.
+     */
+    private boolean defined() throws IOException
+    {
+        if(type != CLASSES)
+            return false;
+
+        if(!(codec instanceof JavaStreamCodec))
+            throw new IOException("unexpected class descriptors");
+
+        ((JavaStreamCodec)codec).define(payload);
+        return true;
+    }
+
+    /** Reads and checks the value sent at the start of a connection.
+
+        @throws EOFException If the stream ends before the value is read.
+        @throws IOException If the value is not <code>MAGIC</code>.
+     */
+    static void readMagic(DataInputStream in) throws IOException
+    {
+        int     magic = in.readInt();
+        if(magic != MAGIC)
+            throw new IOException("not an RMI stub connection");
+    }
+
+    /** Encodes a call payload.
+
+        @param codec The connection's codec.
+        @param objectId The ID of the object called.
+        @param methodId The method's ID in the method table of the object's
+                        interface, or <code>NO_METHOD_ID</code>.
+        @param method The method.
+        @param arguments The arguments.
+     */
+    static byte[] encodeCall(Codec codec, int objectId, int methodId,
+                             Method method, Object[] arguments)
+        throws IOException
+    {
+        byte[]      body;
+        if(methodId == NO_METHOD_ID)
+        {
+            body = codec.encode(new Object[] {method.getName(),
+                                              method.getParameterTypes(),
+                                              arguments});
+        }
+        else
+            body = codec.encode(arguments);
+
+        ByteBuffer  call = ByteBuffer.allocate(8 + body.length);
+        call.putInt(objectId);
+        call.putInt(methodId);
+        call.put(body);
+        return call.array();
+    }
+
+    /** Returns the object ID naming, within a batch, the remote object
+        returned by the call at the given index. */
+    static int pipelinedId(int index)
+    {
+        return -1 - index;
+    }
+
+    /** Returns the index of the call named by a pipelined object ID. */
+    static int pipelinedIndex(int objectId)
+    {
+        return -1 - objectId;
+    }
+
+    /** Returns the object ID of a call payload. */
+    static int objectId(byte[] call)
+    {
+        return getInt(call, 0);
+    }
+
+    /** Returns the method ID of a call payload. */
+    static int methodId(byte[] call)
+    {
+        return getInt(call, 4);
+    }
+
+    /** Reads a big-endian integer from a byte array. */
+    private static int getInt(byte[] bytes, int offset)
+    {
+        return ((bytes[offset] & 0xff) << 24) |
+               ((bytes[offset + 1] & 0xff) << 16) |
+               ((bytes[offset + 2] & 0xff) << 8) |
+               (bytes[offset + 3] & 0xff);
+    }
+
+    /** Decodes the object following the IDs in a call payload. */
+    static Object decodeCall(Codec codec, byte[] call)
+        throws IOException, ClassNotFoundException
+    {
+        return codec.decode(call, 8, call.length - 8);
+    }
+
+    /** Encodes the payload of a <code>RENEW</code> or <code>RELEASE</code>
+        frame.
+
+        @param client The ID of the client holding the leases.
+        @param objectIds The IDs of the objects.
+     */
+    static byte[] encodeLease(long client, int[] objectIds)
+    {
+        ByteBuffer  buffer = ByteBuffer.allocate(8 + 4 * objectIds.length);
+        buffer.putLong(client);
+        for(int objectId : objectIds)
+            buffer.putInt(objectId);
+        return buffer.array();
+    }
+
+    /** Returns the client ID of a lease payload. */
+    static long leaseClient(byte[] lease)
+    {
+        return ByteBuffer.wrap(lease).getLong(0);
+    }
+
+    /** Returns the object IDs of a lease payload. */
+    static int[] leaseObjects(byte[] lease) throws IOException
+    {
+        if(lease.length < 8 || (lease.length - 8) % 4 != 0)
+            throw new IOException("malformed lease");
+
+        ByteBuffer  buffer = ByteBuffer.wrap(lease, 8, lease.length - 8);
+        int[]       objectIds = new int[buffer.remaining() / 4];
+        for(int index = 0; index < objectIds.length; ++index)
+            objectIds[index] = buffer.getInt();
+        return objectIds;
+    }
+
+    /** Encodes the payload of a <code>CREDIT</code> frame. */
+    static byte[] encodeCredit(int bytes)
+    {
+        return ByteBuffer.allocate(4).putInt(bytes).array();
+    }
+
+    /** Returns the number of bytes granted by a <code>CREDIT</code> frame.
+
+        @throws IOException If the frame is malformed.
+     */
+    int decodeCredit() throws IOException
+    {
+        if(payload.length != 4)
+            throw new IOException("malformed credit");
+
+        int     bytes = getInt(payload, 0);
+        if(bytes <= 0)
+            throw new IOException("malformed credit");
+        return bytes;
+    }
+
+    /** Encodes the payload of a <code>CODEC</code> frame. */
+    static byte[] encodeCodec(Codec codec)
+    {
+        return codec.name().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns the codec named by a <code>CODEC</code> frame.
+
+        @throws IOException If no codec of that name is registered.
+     */
+    Codec decodeCodec() throws IOException
+    {
+        String  name = new String(payload, StandardCharsets.UTF_8);
+        Codec   chosen = Codecs.get(name);
+        if(chosen == null)
+            throw new IOException("unknown codec " + name);
+        return chosen;
+    }
+
+    /** Decodes the payload of this frame. */
+    Object decode() throws IOException, ClassNotFoundException
+    {
+        return codec.decode(payload, 0, payload.length);
+    }
+}
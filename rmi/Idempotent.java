@@ -0,0 +1,43 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a remote method as idempotent: calling it several times with the
+    same arguments has the same effect as calling it once.
+
+    <p>
+    Calls to idempotent methods may be sent in UDP datagrams rather than
+    over a connection, if the skeleton accepts them (see
+    <code>Skeleton.setDatagramCalls</code>). A stub sends such a call again
+    if no reply arrives in time, and the skeleton answers repeated copies of
+    a call with the reply it has already sent, so that each datagram call is
+    normally executed once. A call is nevertheless made again over a
+    connection if its request or reply does not fit in a datagram, or if the
+    skeleton does not answer the datagrams; the method may then be executed
+    twice.
+
+    <p>
+    Calls to idempotent methods are also the only ones sent again when a
+    pooled connection that had been idle fails after the call was sent,
+    since the skeleton may have executed the call before the failure. Calls
+    to other methods are sent again only if the connection was found closed
+    or draining before they were sent.
+
+    <p>
+    Datagrams suit small calls that complete quickly, such as health checks
+    and lookups. Calls whose results are streamed, with streamed or
+    <code>ByteBuffer</code> arguments, and calls to one-way methods are
+    always made over a connection. The skeleton executes a call received in
+    a datagram only if the method in its remote interface carries this
+    annotation.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Idempotent
+{
+}
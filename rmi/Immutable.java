@@ -0,0 +1,31 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a class whose instances are never modified.
+
+    <p>
+    A skeleton that accepts direct calls from stubs in the same process
+    copies arguments and results, so that the caller and the server never
+    share an object, as when calls are made over a connection. With
+    <code>Skeleton.LocalCalls.SHARE_IMMUTABLE</code>, values that cannot be
+    modified are passed without copying. Strings, boxed primitives, enums,
+    <code>BigInteger</code>, <code>BigDecimal</code> and <code>UUID</code>
+    are known to be immutable; other classes can be marked with this
+    annotation. The annotation is not inherited: subclasses must be marked
+    separately.
+
+    <p>
+    A class should be marked only if its instances, and every object
+    reachable from them, are never modified once constructed.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Immutable
+{
+}
@@ -0,0 +1,305 @@
+package rmi;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/** Calls one method of a remote interface on a server object.
+
+    <p>
+    A skeleton creates an invoker for each entry of its interface's
+    <code>MethodTable</code> when it is constructed, and dispatches calls by
+    indexing the resulting array with the call's method ID.
+
+    <p>
+    Invokers returned by <code>create</code> avoid <code>Method.invoke</code>
+    where they can. For methods with up to <code>MAX_DIRECT_ARITY</code>
+    parameters, <code>LambdaMetafactory</code> generates a class whose single
+    method calls the server method directly, unboxing the arguments and
+    boxing the result. Such a call can be inlined by the JIT compiler like
+    ordinary code. Methods with more parameters are called through a
+    <code>MethodHandle</code> that spreads the argument array. If the
+    interface is not accessible to this package, the invoker falls back to
+    reflection.
+ */
+class Invoker
+{
+    /** Largest number of parameters of methods called through generated
+        classes. */
+    static final int    MAX_DIRECT_ARITY = 3;
+
+    /** Method called by the invoker. */
+    final Method        method;
+    /** <code>true</code> if the method is marked <code>OneWay</code>. */
+    final boolean       oneWay;
+    /** <code>true</code> if the method is marked <code>Idempotent</code>. */
+    final boolean       idempotent;
+    /** <code>true</code> if the method's results are remote objects, to be
+        returned to the caller as stubs. */
+    final boolean       remoteResult;
+    /** <code>true</code> if the method's results are iterators or streams,
+        to be returned to the caller in chunks. */
+    final boolean       streamedResult;
+    /** Index of the method's streamed parameter (see <code>Upload</code>),
+        or -1 if it has none. */
+    final int           upload;
+    /** <code>true</code> if the method has a parameter of type
+        <code>ByteBuffer</code> or <code>FileRegion</code> (see
+        <code>Bulk</code>). */
+    final boolean       bulkArguments;
+    /** Encoding of calls to the method without a codec, or <code>null</code>
+        if the method's values are not all primitives, strings or primitive
+        arrays. */
+    final PrimitiveCall primitive;
+
+    /** Creates an invoker that calls the method using reflection.
+
+        @param method The method.
+        @param remoteResult <code>true</code> if the method's return type is a
+                            remote interface.
+     */
+    Invoker(Method method, boolean remoteResult)
+    {
+        this.method = method;
+        this.oneWay = method.isAnnotationPresent(OneWay.class);
+        this.idempotent = method.isAnnotationPresent(Idempotent.class);
+        this.remoteResult = remoteResult;
+        this.streamedResult = StreamedResult.isStreamed(method.getReturnType());
+        this.upload = Upload.parameter(method);
+        this.bulkArguments = Bulk.hasBulkParameter(method);
+        this.primitive = PrimitiveCall.create(method);
+    }
+
+    /** Creates the fastest available invoker for a method.
+
+        @param method The method.
+        @param remoteResult <code>true</code> if the method's return type is a
+                            remote interface.
+     */
+    static Invoker create(Method method, boolean remoteResult)
+    {
+        MethodHandles.Lookup    lookup = MethodHandles.lookup();
+        MethodHandle            handle;
+        try
+        {
+            handle = lookup.unreflect(method);
+        }
+        catch(IllegalAccessException e)
+        {
+            return new Invoker(method, remoteResult);
+        }
+
+        if(method.getParameterCount() <= MAX_DIRECT_ARITY)
+        {
+            try
+            {
+                return new DirectInvoker(method, remoteResult, lookup, handle);
+            }
+            catch(Throwable t)
+            {
+                // The generated class cannot be defined, for instance because
+                // the interface is not visible from this class loader. Use
+                // the method handle itself.
+            }
+        }
+
+        return new HandleInvoker(method, remoteResult, handle);
+    }
+
+    /** Calls the method.
+
+        @param server The server object.
+        @param arguments The arguments, or <code>null</code> if there are none.
+        @return The method's result.
+        @throws InvocationTargetException If the method throws an exception.
+        @throws Exception If the method cannot be called with the given
+                          arguments.
+     */
+    Object invoke(Object server, Object[] arguments) throws Exception
+    {
+        return method.invoke(server, arguments);
+    }
+
+    /** Invoker whose calls bypass reflection, and which must therefore check
+        arguments itself. */
+    private abstract static class CheckedInvoker extends Invoker
+    {
+        /** Parameter types, with primitive types replaced by their wrapper
+            classes. */
+        private final Class<?>[]    parameters;
+        /** Whether each parameter is of primitive type. */
+        private final boolean[]     primitive;
+
+        CheckedInvoker(Method method, boolean remoteResult)
+        {
+            super(method, remoteResult);
+            parameters = method.getParameterTypes();
+            primitive = new boolean[parameters.length];
+            for(int index = 0; index < parameters.length; ++index)
+            {
+                primitive[index] = parameters[index].isPrimitive();
+                parameters[index] = MethodType.methodType(parameters[index])
+                                              .wrap().returnType();
+            }
+        }
+
+        @Override
+        final Object invoke(Object server, Object[] arguments)
+            throws Exception
+        {
+            // Check the arguments as Method.invoke would, so that a malformed
+            // call is reported as a failure to call the method, and not as an
+            // exception thrown by it.
+            int     count = arguments == null ? 0 : arguments.length;
+            if(count != parameters.length)
+            {
+                throw new IllegalArgumentException("expected " +
+                                                   parameters.length +
+                                                   " arguments, got " + count);
+            }
+
+            for(int index = 0; index < count; ++index)
+            {
+                Object      argument = arguments[index];
+                if(argument == null ? primitive[index] :
+                                      !parameters[index].isInstance(argument))
+                {
+                    throw new IllegalArgumentException(
+                        "argument " + index + " is not of type " +
+                        method.getParameterTypes()[index].getName());
+                }
+            }
+
+            try
+            {
+                return call(server, arguments);
+            }
+            catch(Throwable t)
+            {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        /** Calls the method with checked arguments. */
+        abstract Object call(Object server, Object[] arguments)
+            throws Throwable;
+    }
+
+    /** Invoker calling its method through a method handle. */
+    private static final class HandleInvoker extends CheckedInvoker
+    {
+        /** Type of the adapted handle: server object and argument array in,
+            boxed result out. */
+        private static final MethodType SPREAD_TYPE =
+            MethodType.methodType(Object.class, Object.class, Object[].class);
+
+        private final MethodHandle      handle;
+
+        HandleInvoker(Method method, boolean remoteResult, MethodHandle handle)
+        {
+            super(method, remoteResult);
+            this.handle = handle.asSpreader(Object[].class,
+                                            method.getParameterCount())
+                                .asType(SPREAD_TYPE);
+        }
+
+        @Override
+        Object call(Object server, Object[] arguments) throws Throwable
+        {
+            return handle.invokeExact(server, arguments);
+        }
+    }
+
+    /** Invoker calling its method from a class generated by
+        <code>LambdaMetafactory</code>. The generated class implements one of
+        the functional interfaces below, chosen by the method's arity and by
+        whether it returns a value. */
+    private static final class DirectInvoker extends CheckedInvoker
+    {
+        /** Functional interfaces, indexed by arity. */
+        private static final Class<?>[]     VALUE_CALLS =
+            {Call0.class, Call1.class, Call2.class, Call3.class};
+        private static final Class<?>[]     VOID_CALLS =
+            {VoidCall0.class, VoidCall1.class, VoidCall2.class,
+             VoidCall3.class};
+
+        private final Object                target;
+        private final int                   arity;
+        private final boolean               returnsValue;
+
+        DirectInvoker(Method method, boolean remoteResult,
+                      MethodHandles.Lookup lookup, MethodHandle handle)
+            throws Throwable
+        {
+            super(method, remoteResult);
+            arity = method.getParameterCount();
+            returnsValue = method.getReturnType() != void.class;
+
+            Class<?>        call = returnsValue ? VALUE_CALLS[arity]
+                                                : VOID_CALLS[arity];
+            Class<?>        returnType = returnsValue ? Object.class
+                                                      : void.class;
+
+            // The erased type takes Object for the server and each argument.
+            // The instantiated type gives the actual types, boxed; the
+            // generated class casts and unboxes the arguments, and boxes the
+            // result.
+            MethodType      erased = MethodType.genericMethodType(arity + 1)
+                                               .changeReturnType(returnType);
+            MethodType      instantiated =
+                handle.type().wrap().changeReturnType(
+                    returnsValue ? handle.type().wrap().returnType()
+                                 : void.class);
+
+            target = LambdaMetafactory.metafactory(
+                lookup, "call", MethodType.methodType(call), erased, handle,
+                instantiated).getTarget().invoke();
+        }
+
+        @Override
+        Object call(Object server, Object[] arguments) throws Throwable
+        {
+            if(returnsValue)
+            {
+                switch(arity)
+                {
+                case 0: return ((Call0)target).call(server);
+                case 1: return ((Call1)target).call(server, arguments[0]);
+                case 2: return ((Call2)target).call(server, arguments[0],
+                                                    arguments[1]);
+                default: return ((Call3)target).call(server, arguments[0],
+                                                     arguments[1],
+                                                     arguments[2]);
+                }
+            }
+
+            switch(arity)
+            {
+            case 0: ((VoidCall0)target).call(server); break;
+            case 1: ((VoidCall1)target).call(server, arguments[0]); break;
+            case 2: ((VoidCall2)target).call(server, arguments[0],
+                                             arguments[1]); break;
+            default: ((VoidCall3)target).call(server, arguments[0],
+                                              arguments[1], arguments[2]);
+            }
+
+            return null;
+        }
+    }
+
+    interface Call0 { Object call(Object s) throws Throwable; }
+    interface Call1 { Object call(Object s, Object a) throws Throwable; }
+    interface Call2 { Object call(Object s, Object a, Object b)
+                          throws Throwable; }
+    interface Call3 { Object call(Object s, Object a, Object b, Object c)
+                          throws Throwable; }
+    interface VoidCall0 { void call(Object s) throws Throwable; }
+    interface VoidCall1 { void call(Object s, Object a) throws Throwable; }
+    interface VoidCall2 { void call(Object s, Object a, Object b)
+                              throws Throwable; }
+    interface VoidCall3 { void call(Object s, Object a, Object b, Object c)
+                              throws Throwable; }
+}
@@ -0,0 +1,46 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/** Codec using Java serialization.
+
+    <p>
+    This is the codec used on a connection until another is negotiated, and
+    the codec that other codecs fall back on for types they do not encode
+    themselves.
+ */
+final class JavaCodec implements Codec
+{
+    /** Name of the codec. */
+    static final String     NAME = "java";
+
+    @Override
+    public String name()
+    {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException
+    {
+        ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+        ObjectOutputStream      out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int offset, int length)
+        throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream   in =
+            new ObjectInputStream(new ByteArrayInputStream(bytes, offset,
+                                                           length));
+        return in.readObject();
+    }
+}
@@ -0,0 +1,542 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Java serialization codec for one connection.
+
+    <p>
+    <code>JavaCodec</code> encodes each payload with a new object stream,
+    which writes a stream header and then a full descriptor for every class
+    in the payload: its name, serial version UID and fields. For a typical
+    call, the descriptors of the argument array and the argument classes are
+    most of the payload. Each end of a connection that negotiated Java
+    serialization instead uses an instance of this class, which sends each
+    descriptor over the connection once.
+
+    <p>
+    The first time a class is encoded, the codec gives its descriptor the next
+    ID and queues the descriptor itself for the peer. Payloads then carry only
+    the ID. Queued descriptors are sent in a <code>CLASSES</code> frame just
+    before the next frame the connection writes (see
+    <code>Frame.write</code>), so they always precede the first frame that
+    uses them, and the peer records them as it reads them, before it decodes
+    any later frame. Payloads can therefore still be decoded in any order, and
+    by any thread. At most <code>MAX_DESCRIPTORS</code> descriptors are
+    recorded per direction; further classes are described in full in every
+    payload, as by <code>JavaCodec</code>.
+
+    <p>
+    Payloads carry no stream header, and the object streams are kept by each
+    thread and reused from payload to payload. A stream is reset after each
+    payload, so that no payload refers back to objects in an earlier one, and
+    the objects of a payload are not kept reachable by the stream once it has
+    been encoded or decoded.
+ */
+final class JavaStreamCodec implements Codec
+{
+    /** Largest number of descriptors recorded in each direction. */
+    static final int            MAX_DESCRIPTORS = 4096;
+    /** ID written in place of a descriptor that is written in full. */
+    private static final int    INLINE = 0;
+    /** Size above which a thread's encoding buffer is not kept. */
+    private static final int    MAX_RETAINED_BUFFER = 64 << 10;
+    /** Bytes fed to a decoder after each payload to reset it: a reset marker
+        followed by a <code>null</code> reference. */
+    private static final byte[] RESET = {ObjectStreamConstants.TC_RESET,
+                                         ObjectStreamConstants.TC_NULL};
+
+    /** Bytes of descriptors not sent because the peer already had them. */
+    private static final AtomicLong     bytesSaved = new AtomicLong();
+    /** Number of descriptors sent in <code>CLASSES</code> frames. */
+    private static final AtomicLong     descriptorsSent = new AtomicLong();
+
+    /** Object streams of each thread, and whether they are in use. */
+    private static final ThreadLocal<Encoder>   encoders =
+        new ThreadLocal<Encoder>();
+    private static final ThreadLocal<Decoder>   decoders =
+        new ThreadLocal<Decoder>();
+
+    private final ReentrantLock         lock = new ReentrantLock();
+    /** IDs of the descriptors sent to the peer, or queued for it, by
+        class. Guarded by <code>lock</code>. */
+    private final Map<Class<?>, Integer>    sent = new HashMap<>();
+    /** Encoded size of each descriptor sent to the peer, indexed by ID.
+        Guarded by <code>lock</code>. */
+    private int[]                       sizes = new int[16];
+    /** Stream holding descriptors queued for the peer, and the array it
+        writes to, or <code>null</code> if none are queued. Guarded by
+        <code>lock</code>. */
+    private DescriptorOutput            queued;
+    private ByteArrayOutputStream       queuedBytes;
+    /** Descriptors received from the peer, by ID. */
+    private final Map<Integer, ObjectStreamClass>   received =
+        new ConcurrentHashMap<>();
+
+    @Override
+    public String name()
+    {
+        return JavaCodec.NAME;
+    }
+
+    /** Returns the number of bytes of class descriptors not sent, over all
+        connections, because the peer already had the descriptors. */
+    static long bytesSaved()
+    {
+        return bytesSaved.get();
+    }
+
+    /** Returns the number of class descriptors sent in <code>CLASSES</code>
+        frames over all connections. */
+    static long descriptorsSent()
+    {
+        return descriptorsSent.get();
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException
+    {
+        // A payload may be encoded while another is being encoded on the
+        // same thread, for instance by a writeObject method. The inner
+        // payload then uses a stream of its own.
+        Encoder     out = encoders.get();
+        boolean     pooled = out == null || !out.busy;
+        if(out == null || out.busy)
+            out = new Encoder(new ByteArrayOutputStream());
+
+        out.busy = true;
+        out.codec = this;
+        try
+        {
+            out.writeObject(value);
+            out.flush();
+            byte[]  encoded = out.bytes.toByteArray();
+
+            out.reset();
+            out.bytes.reset();
+            if(pooled && encoded.length <= MAX_RETAINED_BUFFER)
+                encoders.set(out);
+            else if(pooled)
+                encoders.remove();
+
+            return encoded;
+        }
+        catch(IOException | RuntimeException e)
+        {
+            // The stream may have been left part of the way through an
+            // object, and cannot be reused.
+            if(pooled)
+                encoders.remove();
+            throw e;
+        }
+        finally
+        {
+            out.codec = null;
+            out.busy = false;
+        }
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int offset, int length)
+        throws IOException, ClassNotFoundException
+    {
+        Decoder     in = decoders.get();
+        boolean     pooled = in == null || !in.busy;
+        if(in == null || in.busy)
+            in = new Decoder(new Source());
+
+        in.busy = true;
+        in.codec = this;
+        try
+        {
+            in.source.set(bytes, offset, offset + length);
+            Object  value;
+            try
+            {
+                value = in.readObject();
+            }
+            catch(IOException | ClassNotFoundException | RuntimeException e)
+            {
+                if(pooled)
+                    decoders.remove();
+                throw e;
+            }
+
+            if(pooled)
+            {
+                if(clear(in))
+                    decoders.set(in);
+                else
+                    decoders.remove();
+            }
+
+            return value;
+        }
+        finally
+        {
+            in.source.set(null, 0, 0);
+            in.codec = null;
+            in.busy = false;
+        }
+    }
+
+    /** Resets a decoder, so that it no longer refers to the objects it has
+        read.
+
+        @return <code>true</code> if the decoder can be reused.
+     */
+    private static boolean clear(Decoder in)
+    {
+        in.source.set(RESET, 0, RESET.length);
+        try
+        {
+            return in.readObject() == null &&
+                   in.source.position == RESET.length;
+        }
+        catch(IOException | ClassNotFoundException | RuntimeException e)
+        {
+            // The payload left the decoder part of the way through an
+            // object.
+            return false;
+        }
+    }
+
+    /** Takes the descriptors queued for the peer.
+
+        <p>
+        The caller must write the returned definitions to the connection
+        before any frame whose payload was encoded after this call, and must
+        not write them after another call's definitions. Connections satisfy
+        this by calling this method under their write lock.
+
+        @return The payload of a <code>CLASSES</code> frame, or
+                <code>null</code> if no descriptors are queued.
+     */
+    byte[] takeDefinitions()
+    {
+        lock.lock();
+        try
+        {
+            if(queued == null)
+                return null;
+
+            queued.writeBoolean(false);
+            queued.close();
+            byte[]  definitions = queuedBytes.toByteArray();
+            queued = null;
+            queuedBytes = null;
+            return definitions;
+        }
+        catch(IOException e)
+        {
+            // Writing to a byte array does not fail.
+            throw new IllegalStateException(e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Records the descriptors in a <code>CLASSES</code> frame received from
+        the peer.
+
+        @throws IOException If the frame is malformed, or does not continue
+                            the sequence of IDs.
+     */
+    void define(byte[] definitions) throws IOException
+    {
+        DescriptorInput     in = new DescriptorInput(
+            new ByteArrayInputStream(definitions));
+        int                 id = in.readInt();
+        if(id != received.size() + 1)
+            throw new StreamCorruptedException("class descriptor IDs skipped");
+
+        try
+        {
+            while(in.readBoolean())
+            {
+                if(id > MAX_DESCRIPTORS)
+                {
+                    throw new StreamCorruptedException("too many class " +
+                                                       "descriptors");
+                }
+
+                received.put(id++, in.readDescriptor());
+            }
+        }
+        catch(ClassNotFoundException e)
+        {
+            // Descriptors are read without loading their classes.
+            throw new StreamCorruptedException(e.toString());
+        }
+    }
+
+    /** Writes the ID of a descriptor in place of the descriptor, queuing the
+        descriptor for the peer if it has not been sent before. */
+    private void writeDescriptor(Encoder out, ObjectStreamClass descriptor)
+        throws IOException
+    {
+        Class<?>    type = descriptor.forClass();
+        int         id;
+        boolean     known;
+        int         saved = 0;
+
+        lock.lock();
+        try
+        {
+            Integer     existing = sent.get(type);
+            known = existing != null;
+            if(known)
+            {
+                id = existing;
+                saved = sizes[id] - varintSize(id);
+            }
+            else if(type == null || sent.size() >= MAX_DESCRIPTORS)
+                id = INLINE;
+            else
+                id = queue(type, descriptor);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        writeVarint(out, id);
+        if(id == INLINE)
+            out.writeFullDescriptor(descriptor);
+        else if(known)
+            bytesSaved.addAndGet(saved);
+    }
+
+    /** Gives a descriptor the next ID and queues it for the peer. The caller
+        must hold <code>lock</code>. */
+    private int queue(Class<?> type, ObjectStreamClass descriptor)
+        throws IOException
+    {
+        int         id = sent.size() + 1;
+        if(queued == null)
+        {
+            queuedBytes = new ByteArrayOutputStream();
+            queued = new DescriptorOutput(queuedBytes);
+            queued.writeInt(id);
+        }
+
+        queued.flush();
+        int         start = queuedBytes.size();
+        queued.writeBoolean(true);
+        queued.writeDescriptor(descriptor);
+        queued.flush();
+
+        if(id >= sizes.length)
+            sizes = java.util.Arrays.copyOf(sizes, sizes.length * 2);
+        sizes[id] = queuedBytes.size() - start;
+        sent.put(type, id);
+        descriptorsSent.incrementAndGet();
+        return id;
+    }
+
+    /** Reads the ID written in place of a descriptor, and returns the
+        descriptor. */
+    private ObjectStreamClass readDescriptor(Decoder in)
+        throws IOException, ClassNotFoundException
+    {
+        int                 id = readVarint(in);
+        if(id == INLINE)
+            return in.readFullDescriptor();
+
+        ObjectStreamClass   descriptor = received.get(id);
+        if(descriptor == null)
+        {
+            throw new StreamCorruptedException("unknown class descriptor " +
+                                               id);
+        }
+
+        return descriptor;
+    }
+
+    private static int varintSize(int value)
+    {
+        int     size = 1;
+        while((value & ~0x7f) != 0)
+        {
+            value >>>= 7;
+            ++size;
+        }
+        return size;
+    }
+
+    private static void writeVarint(ObjectOutputStream out, int value)
+        throws IOException
+    {
+        while((value & ~0x7f) != 0)
+        {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(ObjectInputStream in) throws IOException
+    {
+        int     value = 0;
+        for(int shift = 0; shift < 35; shift += 7)
+        {
+            byte    b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if(b >= 0)
+                return value;
+        }
+
+        throw new StreamCorruptedException("malformed class descriptor ID");
+    }
+
+    /** Object stream writing payloads, without a stream header, and with
+        descriptor IDs in place of descriptors. */
+    private static final class Encoder extends ObjectOutputStream
+    {
+        final ByteArrayOutputStream bytes;
+        /** Codec of the payload being encoded. */
+        JavaStreamCodec             codec;
+        boolean                     busy;
+
+        Encoder(ByteArrayOutputStream bytes) throws IOException
+        {
+            super(bytes);
+            this.bytes = bytes;
+        }
+
+        @Override
+        protected void writeStreamHeader()
+        {
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass descriptor)
+            throws IOException
+        {
+            codec.writeDescriptor(this, descriptor);
+        }
+
+        void writeFullDescriptor(ObjectStreamClass descriptor)
+            throws IOException
+        {
+            super.writeClassDescriptor(descriptor);
+        }
+    }
+
+    /** Object stream reading payloads written by <code>Encoder</code>. */
+    private static final class Decoder extends ObjectInputStream
+    {
+        final Source                source;
+        /** Codec of the payload being decoded. */
+        JavaStreamCodec             codec;
+        boolean                     busy;
+
+        Decoder(Source source) throws IOException
+        {
+            super(source);
+            this.source = source;
+        }
+
+        @Override
+        protected void readStreamHeader()
+        {
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+            throws IOException, ClassNotFoundException
+        {
+            return codec.readDescriptor(this);
+        }
+
+        ObjectStreamClass readFullDescriptor()
+            throws IOException, ClassNotFoundException
+        {
+            return super.readClassDescriptor();
+        }
+    }
+
+    /** Stream writing descriptors for a <code>CLASSES</code> frame. */
+    private static final class DescriptorOutput extends ObjectOutputStream
+    {
+        DescriptorOutput(ByteArrayOutputStream bytes) throws IOException
+        {
+            super(bytes);
+        }
+
+        void writeDescriptor(ObjectStreamClass descriptor) throws IOException
+        {
+            writeClassDescriptor(descriptor);
+        }
+    }
+
+    /** Stream reading descriptors from a <code>CLASSES</code> frame. */
+    private static final class DescriptorInput extends ObjectInputStream
+    {
+        DescriptorInput(InputStream in) throws IOException
+        {
+            super(in);
+        }
+
+        ObjectStreamClass readDescriptor()
+            throws IOException, ClassNotFoundException
+        {
+            return readClassDescriptor();
+        }
+    }
+
+    /** Input stream over the payload being decoded. */
+    private static final class Source extends InputStream
+    {
+        byte[]      bytes;
+        int         position;
+        int         end;
+
+        void set(byte[] bytes, int position, int end)
+        {
+            this.bytes = bytes;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read()
+        {
+            return position < end ? bytes[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+        {
+            if(length == 0)
+                return 0;
+            if(position >= end)
+                return -1;
+
+            int     count = Math.min(length, end - position);
+            System.arraycopy(bytes, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return end - position;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package rmi;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.net.SocketAddress;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Client side of the leases on exported remote objects.
+
+    <p>
+    A stub for an object exported by a skeleton (see <code>ObjectTable</code>)
+    is registered here when it is deserialized. While at least one such stub
+    for an object is reachable, a background thread renews this process's
+    lease on the object, about twice per lease duration. The first renewal is
+    sent as soon as the object is registered, so that the object is leased
+    even if the stub was passed on by another client that later releases it.
+
+    <p>
+    Stubs are tracked with a <code>Cleaner</code>. Once the last stub for an
+    object has been garbage collected, the lease is released, so that the
+    skeleton can unexport the object without waiting for the lease to expire.
+
+    <p>
+    Renewals and releases are sent, batched per skeleton address, over the
+    pooled connections used for calls. The frames for each address are sent
+    by a task of their own, so that a skeleton that cannot be reached, whose
+    connection attempts take until they time out, does not delay the
+    renewals of leases held at other skeletons. A renewal that cannot be
+    sent is attempted again after a fraction of the lease duration; the
+    skeleton unexports the object only if the lease expires first.
+ */
+final class LeaseRenewer
+{
+    /** ID identifying this process to skeletons. */
+    static final long   CLIENT_ID = new SecureRandom().nextLong();
+
+    /** Fraction of the lease duration after which a failed renewal is
+        attempted again. */
+    private static final int    RETRY_DIVISOR = 8;
+
+    private static final ThreadFactory      daemons = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread  thread = new Thread(runnable, "rmi-lease-renewer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+    private static final ThreadFactory      senders = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread  thread = new Thread(runnable, "rmi-lease-sender");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+    private static final Cleaner            cleaner = Cleaner.create(daemons);
+    private static final ScheduledExecutorService   executor =
+        Executors.newSingleThreadScheduledExecutor(daemons);
+    /** Sends the frames for each skeleton address. Threads are created as
+        needed, one per address being sent to at once, and exit when
+        idle. */
+    private static final ExecutorService    sender =
+        Executors.newCachedThreadPool(senders);
+
+    private static final ReentrantLock      lock = new ReentrantLock();
+    /** Leased objects, by skeleton address and object ID. Guarded by
+        <code>lock</code>. */
+    private static final Map<SocketAddress, Map<Integer, Lease>>
+                                            leases = new HashMap<>();
+    /** Released object IDs not yet sent, by skeleton address. Guarded by
+        <code>lock</code>. */
+    private static final Map<SocketAddress, List<Integer>>
+                                            releases = new HashMap<>();
+    /** Next scheduled renewal, and the time at which it runs. Guarded by
+        <code>lock</code>. */
+    private static ScheduledFuture<?>       nextRenewal;
+    private static long                     nextRenewalTime = Long.MAX_VALUE;
+
+    private LeaseRenewer()
+    {
+    }
+
+    /** Registers a stub for an exported object.
+
+        @param stub The object whose reachability tracks the stub. It must not
+                    be reachable from the lease bookkeeping.
+        @param address The address through which the stub reaches the
+                       skeleton exporting the object.
+        @param objectId The object's ID.
+        @param duration The lease duration granted by the skeleton, in
+                        milliseconds.
+     */
+    static void register(Object stub, SocketAddress address, int objectId,
+                         long duration)
+    {
+        lock.lock();
+        try
+        {
+            Map<Integer, Lease>     byObject = leases.get(address);
+            if(byObject == null)
+            {
+                byObject = new HashMap<>();
+                leases.put(address, byObject);
+            }
+
+            Lease                   lease = byObject.get(objectId);
+            if(lease == null)
+            {
+                lease = new Lease(duration, System.currentTimeMillis());
+                byObject.put(objectId, lease);
+                schedule(lease.due);
+            }
+
+            lease.stubs++;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        cleaner.register(stub, new Release(address, objectId));
+    }
+
+    /** Returns the number of objects on which this process holds leases. */
+    static int leasedCount()
+    {
+        lock.lock();
+        try
+        {
+            int     count = 0;
+            for(Map<Integer, Lease> byObject : leases.values())
+                count += byObject.size();
+            return count;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Arranges for renewals to run no later than the given time. The
+        caller must hold <code>lock</code>. */
+    private static void schedule(long time)
+    {
+        if(time >= nextRenewalTime)
+            return;
+
+        if(nextRenewal != null)
+            nextRenewal.cancel(false);
+
+        nextRenewalTime = time;
+        nextRenewal = executor.schedule(
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    renew();
+                }
+            },
+            Math.max(0, time - System.currentTimeMillis()),
+            TimeUnit.MILLISECONDS);
+    }
+
+    /** Sends renewals for all leases that are due. */
+    private static void renew()
+    {
+        Map<SocketAddress, List<Integer>>   due = new HashMap<>();
+        long                                    now =
+            System.currentTimeMillis();
+
+        lock.lock();
+        try
+        {
+            nextRenewal = null;
+            nextRenewalTime = Long.MAX_VALUE;
+
+            for(Map.Entry<SocketAddress, Map<Integer, Lease>> byAddress :
+                    leases.entrySet())
+            {
+                for(Map.Entry<Integer, Lease> entry :
+                        byAddress.getValue().entrySet())
+                {
+                    Lease   lease = entry.getValue();
+                    if(lease.due > now)
+                        continue;
+
+                    List<Integer>   objectIds = due.get(byAddress.getKey());
+                    if(objectIds == null)
+                    {
+                        objectIds = new ArrayList<>();
+                        due.put(byAddress.getKey(), objectIds);
+                    }
+
+                    objectIds.add(entry.getKey());
+                    lease.due = now + lease.duration / 2;
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        for(final Map.Entry<SocketAddress, List<Integer>> entry :
+                due.entrySet())
+        {
+            sender.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            send(Frame.RENEW, entry.getKey(),
+                                 entry.getValue());
+                        }
+                        catch(IOException e)
+                        {
+                            retry(entry.getKey(), entry.getValue(),
+                                  System.currentTimeMillis());
+                        }
+                    }
+                });
+        }
+
+        lock.lock();
+        try
+        {
+            long    earliest = Long.MAX_VALUE;
+            for(Map<Integer, Lease> byObject : leases.values())
+            {
+                for(Lease lease : byObject.values())
+                    earliest = Math.min(earliest, lease.due);
+            }
+
+            schedule(earliest);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Brings forward the next renewal of leases whose renewal failed. */
+    private static void retry(SocketAddress address,
+                              List<Integer> objectIds, long now)
+    {
+        lock.lock();
+        try
+        {
+            Map<Integer, Lease>     byObject = leases.get(address);
+            if(byObject == null)
+                return;
+
+            long                    earliest = Long.MAX_VALUE;
+            for(Integer objectId : objectIds)
+            {
+                Lease   lease = byObject.get(objectId);
+                if(lease != null)
+                {
+                    lease.due = Math.min(lease.due,
+                                         now + lease.duration / RETRY_DIVISOR);
+                    earliest = Math.min(earliest, lease.due);
+                }
+            }
+
+            // The renewal was sent after the next renewal was scheduled.
+            schedule(earliest);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Sends all pending releases. Releases that cannot be sent are dropped:
+        the leases then expire at the skeleton instead. */
+    private static void sendReleases()
+    {
+        Map<SocketAddress, List<Integer>>   pending;
+
+        lock.lock();
+        try
+        {
+            pending = new HashMap<>(releases);
+            releases.clear();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        for(final Map.Entry<SocketAddress, List<Integer>> entry :
+                pending.entrySet())
+        {
+            sender.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            send(Frame.RELEASE, entry.getKey(),
+                                 entry.getValue());
+                        }
+                        catch(IOException e)
+                        {
+                            // The skeleton is unreachable; its lease will
+                            // expire.
+                        }
+                    }
+                });
+        }
+    }
+
+    /** Sends a lease frame for the given objects. */
+    private static void send(byte type, SocketAddress address,
+                             List<Integer> objectIds) throws IOException
+    {
+        int[]       ids = new int[objectIds.size()];
+        for(int index = 0; index < ids.length; ++index)
+            ids[index] = objectIds.get(index);
+
+        Connection  connection = ConnectionPool.acquire(address).connection;
+        try
+        {
+            connection.post(type, Frame.encodeLease(CLIENT_ID, ids));
+        }
+        finally
+        {
+            ConnectionPool.release(connection);
+        }
+    }
+
+    /** Lease held on one object. */
+    private static final class Lease
+    {
+        /** Lease duration granted by the skeleton, in milliseconds. */
+        final long  duration;
+        /** Time at which the lease is next to be renewed. */
+        long        due;
+        /** Number of reachable stubs for the object. */
+        int         stubs;
+
+        Lease(long duration, long due)
+        {
+            this.duration = duration;
+            this.due = due;
+        }
+    }
+
+    /** Cleaning action run when a stub for an exported object becomes
+        unreachable. */
+    private static final class Release implements Runnable
+    {
+        private final SocketAddress     address;
+        private final int                   objectId;
+
+        Release(SocketAddress address, int objectId)
+        {
+            this.address = address;
+            this.objectId = objectId;
+        }
+
+        @Override
+        public void run()
+        {
+            lock.lock();
+            try
+            {
+                Map<Integer, Lease>     byObject = leases.get(address);
+                Lease                   lease = byObject.get(objectId);
+                if(--lease.stubs > 0)
+                    return;
+
+                byObject.remove(objectId);
+                if(byObject.isEmpty())
+                    leases.remove(address);
+
+                List<Integer>           objectIds = releases.get(address);
+                if(objectIds == null)
+                {
+                    objectIds = new ArrayList<>();
+                    releases.put(address, objectIds);
+                }
+
+                objectIds.add(objectId);
+
+                // Hand releases to the sending threads from the renewal
+                // thread, so that the cleaner thread does not block.
+                if(releases.size() == 1 && objectIds.size() == 1)
+                {
+                    executor.execute(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                sendReleases();
+                            }
+                        });
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+}
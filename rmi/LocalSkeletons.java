@@ -0,0 +1,155 @@
+package rmi;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Registry of the skeletons in this process that accept direct calls.
+
+    <p>
+    A skeleton whose local call mode is not <code>NETWORK</code> (see
+    <code>Skeleton.setLocalCalls</code>) is registered here while it runs,
+    under its TCP port and its Unix domain socket, if it has one. Before
+    making a call over a connection, a stub looks for its skeleton here. If
+    the skeleton is found, the stub calls it directly, on the calling thread,
+    and the call is neither encoded nor sent.
+
+    <p>
+    Direct calls keep the semantics of calls over a connection: arguments
+    and results are copied through the codec the stub would have chosen, so
+    that the caller and the server never share mutable objects, and remote
+    objects returned by the server are exported and returned as stubs.
+ */
+final class LocalSkeletons
+{
+    /** Skeletons by TCP port. A skeleton listens on all of the host's
+        addresses, so the port alone identifies it among local addresses. */
+    private static final Map<Integer, Skeleton<?>>  byPort =
+        new ConcurrentHashMap<>();
+    /** Skeletons by Unix domain socket. */
+    private static final Map<UnixDomainSocketAddress, Skeleton<?>>  bySocket =
+        new ConcurrentHashMap<>();
+
+    /** Classes whose instances are known to be immutable. */
+    private static final Set<Class<?>>  immutable = new HashSet<>(Arrays.asList(
+        String.class, Boolean.class, Character.class, Byte.class, Short.class,
+        Integer.class, Long.class, Float.class, Double.class, BigInteger.class,
+        BigDecimal.class, UUID.class));
+
+    /** Prevents instantiation. */
+    private LocalSkeletons()
+    {
+    }
+
+    /** Registers a running skeleton.
+
+        @param skeleton The skeleton.
+        @param port The skeleton's TCP port.
+        @param socket The skeleton's Unix domain socket, or
+                      <code>null</code>.
+     */
+    static void register(Skeleton<?> skeleton, int port,
+                         UnixDomainSocketAddress socket)
+    {
+        byPort.put(port, skeleton);
+        if(socket != null)
+            bySocket.put(socket, skeleton);
+    }
+
+    /** Removes a skeleton that is stopping. Calls already made directly run
+        to completion. */
+    static void unregister(Skeleton<?> skeleton)
+    {
+        byPort.values().remove(skeleton);
+        bySocket.values().remove(skeleton);
+    }
+
+    /** Returns the skeleton in this process at a stub's addresses, or
+        <code>null</code> if there is none.
+
+        @param address The skeleton's TCP address, or <code>null</code>.
+        @param socket The skeleton's Unix domain socket, or
+                      <code>null</code>.
+     */
+    static Skeleton<?> find(InetSocketAddress address,
+                            UnixDomainSocketAddress socket)
+    {
+        if(socket != null)
+        {
+            Skeleton<?>     skeleton = bySocket.get(socket);
+            if(skeleton != null || address == null)
+                return skeleton;
+        }
+
+        if(address == null || byPort.isEmpty() || address.isUnresolved() ||
+           !UnixSockets.isLocal(address.getAddress()))
+        {
+            return null;
+        }
+
+        return byPort.get(address.getPort());
+    }
+
+    /** Copies a value through the codec stubs prefer, as if it had been sent
+        over a connection.
+
+        @param value The value.
+        @param shareImmutable If <code>true</code>, a value that is
+                              immutable, or an array of such values, is
+                              returned without copying.
+        @throws IOException If the value cannot be encoded.
+        @throws ClassNotFoundException If the copy refers to a class that
+                                       cannot be found.
+     */
+    static Object copy(Object value, boolean shareImmutable)
+        throws IOException, ClassNotFoundException
+    {
+        if(value == null || (shareImmutable && isImmutable(value)))
+            return value;
+
+        // An argument array is itself never shared with the server, so only
+        // its elements need to be immutable.
+        if(shareImmutable && value instanceof Object[] &&
+           allImmutable((Object[])value))
+        {
+            return ((Object[])value).clone();
+        }
+
+        Codec       codec = Codecs.choose(Codecs.names());
+        byte[]      encoding = codec.encode(value);
+        return codec.decode(encoding, 0, encoding.length);
+    }
+
+    /** Returns <code>true</code> if every element of an array is
+        immutable. */
+    private static boolean allImmutable(Object[] values)
+    {
+        for(Object value : values)
+        {
+            if(!isImmutable(value))
+                return false;
+        }
+
+        return true;
+    }
+
+    /** Returns <code>true</code> if a value is known never to be
+        modified. */
+    static boolean isImmutable(Object value)
+    {
+        if(value == null)
+            return true;
+
+        Class<?>    type = value.getClass();
+        return immutable.contains(type) || value instanceof Enum ||
+               type.isAnnotationPresent(Immutable.class);
+    }
+}
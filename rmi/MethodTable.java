@@ -0,0 +1,124 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Numbered table of the methods of a remote interface.
+
+    <p>
+    Methods are identified by their signature: the method name followed by
+    the names of the parameter types. The table lists the signatures of all
+    public methods of the interface, including inherited and overloaded ones,
+    in sorted order, and numbers them from zero. The numbering therefore
+    depends only on the interface's signatures, and not on the order in which
+    the Java runtime reports its methods.
+
+    <p>
+    A skeleton sends its table to each stub that connects to it. The stub
+    then identifies the method of each call by its number in the table, and
+    the skeleton finds the method by indexing an array, rather than by
+    transmitting and looking up the method's name and parameter types.
+ */
+final class MethodTable
+{
+    /** Tables already built, by interface. */
+    private static final Map<Class<?>, MethodTable> tables =
+        new ConcurrentHashMap<>();
+
+    /** Methods, indexed by ID. */
+    final Method[]                  methods;
+    /** Signatures, indexed by ID. */
+    final String[]                  signatures;
+    /** Hash of the signatures. Two tables with the same hash are taken to
+        list the same methods. */
+    final int                       hash;
+    /** IDs, by signature. */
+    private final Map<String, Integer>  ids = new ConcurrentHashMap<>();
+    /** IDs, by method. */
+    private final Map<Method, Integer>  methodIds = new ConcurrentHashMap<>();
+
+    /** Builds the table for an interface. */
+    private MethodTable(Class<?> remoteInterface)
+    {
+        TreeMap<String, Method>     sorted = new TreeMap<>();
+        for(Method method : remoteInterface.getMethods())
+        {
+            String  signature = signature(method);
+            Method  previous = sorted.get(signature);
+
+            // An interface may inherit the same signature from several
+            // superinterfaces, or redeclare it. Keep the most specific
+            // declaration.
+            if(previous == null ||
+               previous.getDeclaringClass().isAssignableFrom(
+                   method.getDeclaringClass()))
+            {
+                sorted.put(signature, method);
+            }
+        }
+
+        methods = sorted.values().toArray(new Method[sorted.size()]);
+        signatures = sorted.keySet().toArray(new String[sorted.size()]);
+        for(int id = 0; id < signatures.length; ++id)
+            ids.put(signatures[id], id);
+
+        hash = Arrays.hashCode(signatures);
+    }
+
+    /** Returns the table for the given interface. */
+    static MethodTable of(Class<?> remoteInterface)
+    {
+        MethodTable     table = tables.get(remoteInterface);
+        if(table == null)
+        {
+            MethodTable created = new MethodTable(remoteInterface);
+            table = tables.putIfAbsent(remoteInterface, created);
+            if(table == null)
+                table = created;
+        }
+
+        return table;
+    }
+
+    /** Returns the ID of the method with the given signature, or
+        <code>-1</code> if there is no such method in the table. */
+    int id(String signature)
+    {
+        Integer     id = ids.get(signature);
+        return id == null ? -1 : id;
+    }
+
+    /** Returns the ID of a method with the same signature as the given
+        method, or <code>-1</code> if there is no such method in the table. */
+    int id(Method method)
+    {
+        Integer     id = methodIds.get(method);
+        if(id == null)
+        {
+            id = id(signature(method));
+            methodIds.put(method, id);
+        }
+
+        return id;
+    }
+
+    /** Returns the signature of a method. */
+    static String signature(Method method)
+    {
+        StringBuilder   signature = new StringBuilder(method.getName());
+        signature.append('(');
+
+        Class<?>[]      parameters = method.getParameterTypes();
+        for(int index = 0; index < parameters.length; ++index)
+        {
+            if(index > 0)
+                signature.append(',');
+            signature.append(parameters[index].getTypeName());
+        }
+
+        return signature.append(')').toString();
+    }
+}
@@ -0,0 +1,748 @@
+package rmi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/** Selector-based server engine for skeletons.
+
+    <p>
+    The engine serves all of a skeleton's connections from a small, fixed
+    number of event loop threads, instead of dedicating a thread to each
+    connection. Each event loop owns a <code>Selector</code>. The first loop
+    also accepts connections from the listening channels (the skeleton's TCP
+    socket, and its Unix domain socket if it has one), and hands accepted
+    connections to the loops in turn. Loops read frames from their connections
+    without blocking, and pass each decoded call to
+    <code>Skeleton.dispatch</code> for execution on a worker thread. Workers
+    queue their replies on the connection, and the connection's loop writes
+    them out as the socket accepts them.
+
+    <p>
+    The engine reports to the skeleton through the same hooks as the blocking
+    listening thread: accept failures are passed to <code>listen_error</code>,
+    connection failures to <code>service_error</code>, and a fatal accept
+    failure stops the engine and is passed to <code>stopped</code>.
+ */
+class NioEngine
+{
+    private final Skeleton<?>           skeleton;
+    private final List<ServerSocketChannel> listeners;
+    private final EventLoop[]           loops;
+    private final Set<NioConnection>    connections =
+        ConcurrentHashMap.newKeySet();
+    private final ReentrantLock         lock = new ReentrantLock();
+    private final Condition             allClosed = lock.newCondition();
+    private final AtomicBoolean         stopping = new AtomicBoolean();
+    private int                         nextLoop;
+
+    /** Creates an engine.
+
+        @param skeleton The skeleton whose calls the engine serves.
+        @param listeners The bound listening channels.
+        @param threads The number of event loop threads.
+        @throws IOException If a selector cannot be opened.
+     */
+    NioEngine(Skeleton<?> skeleton, List<ServerSocketChannel> listeners,
+              int threads) throws IOException
+    {
+        this.skeleton = skeleton;
+        this.listeners = listeners;
+
+        loops = new EventLoop[threads];
+        try
+        {
+            for(int index = 0; index < threads; ++index)
+                loops[index] = new EventLoop(index);
+        }
+        catch(IOException e)
+        {
+            for(EventLoop loop : loops)
+            {
+                if(loop != null)
+                    loop.selector.close();
+            }
+
+            throw e;
+        }
+    }
+
+    /** Starts the event loop threads and begins accepting connections.
+
+        @throws IOException If a listening channel cannot be registered.
+     */
+    void start() throws IOException
+    {
+        for(ServerSocketChannel listener : listeners)
+        {
+            listener.configureBlocking(false);
+            listener.register(loops[0].selector, SelectionKey.OP_ACCEPT,
+                              listener);
+        }
+
+        for(EventLoop loop : loops)
+            loop.thread.start();
+    }
+
+    /** Returns <code>true</code> until the engine begins stopping. */
+    boolean running()
+    {
+        return !stopping.get();
+    }
+
+    /** Stops the engine.
+
+        <p>
+        The listening channels are closed, and each connection stops accepting
+        calls and sends <code>GOAWAY</code>. The method returns once all calls
+        already accepted have been answered, all connections are closed, and
+        the event loop threads have exited. Calling <code>stop</code> on an
+        engine that is already stopped has no effect.
+     */
+    void stop()
+    {
+        if(!stopping.compareAndSet(false, true))
+            return;
+
+        for(ServerSocketChannel listener : listeners)
+        {
+            try
+            {
+                listener.close();
+            }
+            catch(IOException e) { }
+        }
+
+        for(final NioConnection connection : connections)
+        {
+            connection.loop.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        connection.retire();
+                    }
+                });
+        }
+
+        lock.lock();
+        try
+        {
+            while(!connections.isEmpty())
+                allClosed.awaitUninterruptibly();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        for(EventLoop loop : loops)
+            loop.shutdown();
+    }
+
+    /** Accepts pending connections. Called by the first event loop when a
+        listening channel is ready. */
+    private void accept(ServerSocketChannel listener)
+    {
+        while(true)
+        {
+            SocketChannel   channel;
+
+            try
+            {
+                channel = listener.accept();
+                if(channel == null)
+                    return;
+
+                channel.configureBlocking(false);
+                UnixSockets.setNoDelay(channel);
+            }
+            catch(final IOException e)
+            {
+                if(stopping.get() || skeleton.listen_error(e))
+                    return;
+
+                // The engine cannot be stopped from one of its own loops,
+                // because stopping waits for the loops to exit.
+                new Thread(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            stop();
+                            LocalSkeletons.unregister(skeleton);
+                            skeleton.stopped(e);
+                        }
+                    }, "rmi-nio-shutdown").start();
+                return;
+            }
+
+            EventLoop                   loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+
+            final NioConnection         connection =
+                new NioConnection(channel, loop);
+            connections.add(connection);
+
+            loop.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        connection.register();
+                    }
+                });
+        }
+    }
+
+    /** Event loop thread and its selector. */
+    private class EventLoop implements Runnable
+    {
+        final Selector                  selector;
+        final Thread                    thread;
+        private final Queue<Runnable>   tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean        running = true;
+
+        EventLoop(int index) throws IOException
+        {
+            selector = Selector.open();
+            thread = new Thread(this, "rmi-nio-loop-" + index);
+        }
+
+        /** Runs a task on the loop thread. */
+        void execute(Runnable task)
+        {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /** Stops the loop and waits for its thread to exit. */
+        void shutdown()
+        {
+            running = false;
+            selector.wakeup();
+
+            if(Thread.currentThread() == thread)
+                return;
+
+            try
+            {
+                thread.join();
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while(running)
+                {
+                    Runnable    task;
+                    while((task = tasks.poll()) != null)
+                        task.run();
+
+                    selector.select();
+
+                    Iterator<SelectionKey>  keys =
+                        selector.selectedKeys().iterator();
+                    while(keys.hasNext())
+                    {
+                        SelectionKey    key = keys.next();
+                        keys.remove();
+
+                        if(!key.isValid())
+                            continue;
+
+                        if(key.isAcceptable())
+                        {
+                            accept((ServerSocketChannel)key.attachment());
+                            continue;
+                        }
+
+                        NioConnection   connection =
+                            (NioConnection)key.attachment();
+                        if(key.isReadable())
+                            connection.read();
+                        if(key.isValid() && key.isWritable())
+                            connection.flush();
+                    }
+                }
+            }
+            catch(IOException e)
+            {
+                skeleton.service_error(new RMIException(
+                    "event loop failed", e));
+            }
+            finally
+            {
+                try
+                {
+                    selector.close();
+                }
+                catch(IOException e) { }
+            }
+        }
+    }
+
+    /** State of one accepted connection. Fields not otherwise marked are
+        accessed only by the connection's event loop thread. */
+    private class NioConnection
+    {
+        private static final int        BUFFER_SIZE = 8192;
+
+        final SocketChannel             channel;
+        final EventLoop                 loop;
+        private SelectionKey            key;
+        private ByteBuffer              input = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean                 magicSeen;
+        /** Codec chosen by the stub. */
+        private Codec                   codec =
+            Codecs.forConnection(Codecs.JAVA);
+        private int                     lastAccepted = -1;
+        private boolean                 inputClosed;
+        private boolean                 retiring;
+        private boolean                 closed;
+        /** Receiver of the bytes following the last <code>BULK</code> frame,
+            while they are still arriving, or <code>null</code>. */
+        private Bulk.Receiver           receiving;
+        /** Attachments received for the next frame. */
+        private final List<Object>      attachments = new ArrayList<>();
+
+        // Shared with worker threads.
+        private final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+        /** Held while a frame is converted to a buffer and queued, so that
+            class descriptors are queued before the frames that use them (see
+            <code>Frame.toBuffer</code>). */
+        private final ReentrantLock     sendLock = new ReentrantLock();
+        private final AtomicInteger     inFlight = new AtomicInteger();
+        private final AtomicBoolean     flushScheduled = new AtomicBoolean();
+        /** Streams of the streamed arguments of calls in progress, by
+            request ID. */
+        private final Map<Integer, UploadStream>    uploads =
+            new ConcurrentHashMap<>();
+        /** Sends the <code>CREDIT</code> frames of uploads. */
+        private final Consumer<Frame>   credits = new Consumer<Frame>()
+        {
+            @Override
+            public void accept(Frame frame)
+            {
+                send(frame);
+                scheduleFlush();
+            }
+        };
+
+        NioConnection(SocketChannel channel, EventLoop loop)
+        {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        /** Registers the connection with its loop's selector. */
+        void register()
+        {
+            try
+            {
+                key = channel.register(loop.selector, SelectionKey.OP_READ,
+                                       this);
+            }
+            catch(ClosedChannelException e)
+            {
+                close();
+                return;
+            }
+
+            // The engine may have begun stopping before the connection was
+            // registered, in which case it was not asked to retire.
+            if(stopping.get())
+                retire();
+        }
+
+        /** Reads available bytes and dispatches any complete calls. */
+        void read()
+        {
+            try
+            {
+                // The rest of an attachment is read directly from the
+                // channel, without passing through the input buffer.
+                if(receiving != null)
+                {
+                    if(!receiving.receive(channel))
+                        return;
+
+                    attachments.add(receiving.value());
+                    receiving = null;
+                }
+
+                if(channel.read(input) < 0)
+                {
+                    if(!magicSeen && !retiring)
+                    {
+                        skeleton.service_error(new RMIException(
+                            new EOFException("connection closed before " +
+                                             "the protocol header")));
+                    }
+
+                    endOfInput();
+                    return;
+                }
+
+                input.flip();
+                try
+                {
+                    if(!magicSeen)
+                    {
+                        if(input.remaining() < 4)
+                            return;
+
+                        if(input.getInt() != Frame.MAGIC)
+                            throw new IOException("not an RMI stub connection");
+
+                        magicSeen = true;
+                        send(skeleton.methodTableFrame());
+                        flush();
+                    }
+
+                    Frame   frame;
+                    while(!retiring && (frame = Frame.read(input, codec)) != null)
+                    {
+                        if(frame.type == Frame.BULK)
+                        {
+                            receiving = new Bulk.Receiver(frame);
+                            if(!receiving.receive(input))
+                                break;
+
+                            attachments.add(receiving.value());
+                            receiving = null;
+                            continue;
+                        }
+
+                        if(!attachments.isEmpty())
+                        {
+                            frame = frame.attach(attachments.toArray());
+                            attachments.clear();
+                        }
+
+                        if(frame.type == Frame.CODEC)
+                        {
+                            codec = Codecs.forConnection(
+                                frame.decodeCodec());
+                            continue;
+                        }
+
+                        if(Frame.isLease(frame.type))
+                        {
+                            skeleton.lease(frame);
+                            continue;
+                        }
+
+                        if(frame.type == Frame.DATA)
+                        {
+                            UploadStream    upload =
+                                uploads.get(frame.requestId);
+                            if(upload != null)
+                                upload.receive(frame.payload);
+                            continue;
+                        }
+
+                        if(!Frame.isRequest(frame.type))
+                        {
+                            throw new IOException("unexpected frame type " +
+                                                  frame.type);
+                        }
+
+                        lastAccepted = frame.requestId;
+                        inFlight.incrementAndGet();
+                        UploadStream    upload = null;
+                        if(frame.type == Frame.UPLOAD)
+                        {
+                            upload = new UploadStream(frame.requestId,
+                                                      credits);
+                            uploads.put(frame.requestId, upload);
+                        }
+
+                        try
+                        {
+                            skeleton.dispatch(new Call(frame, upload), false);
+                        }
+                        catch(RMIException e)
+                        {
+                            // The worker pool refused the call.
+                            uploads.remove(frame.requestId);
+                            if(frame.attachments != null)
+                                Bulk.closeRegions(frame.attachments);
+                            send(Skeleton.failure(frame.requestId, e, codec));
+                            inFlight.decrementAndGet();
+                            scheduleFlush();
+                        }
+                    }
+                }
+                finally
+                {
+                    input.compact();
+                }
+
+                // Make room for a frame larger than the buffer.
+                if(!input.hasRemaining())
+                {
+                    ByteBuffer  larger =
+                        ByteBuffer.allocate(input.capacity() * 2);
+                    input.flip();
+                    larger.put(input);
+                    input = larger;
+                }
+            }
+            catch(IOException e)
+            {
+                if(!retiring)
+                    skeleton.service_error(new RMIException(e));
+
+                endOfInput();
+            }
+        }
+
+        /** Stops reading from the connection. The connection is closed once
+            the calls already accepted have been answered. */
+        private void endOfInput()
+        {
+            if(!inputClosed)
+            {
+                inputClosed = true;
+                if(key.isValid())
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+                // No further data arrives for uploads still in progress.
+                for(UploadStream upload : uploads.values())
+                {
+                    upload.fail(new EOFException("connection closed " +
+                                                 "during upload"));
+                }
+
+                // Attachments of a frame that will not arrive are dropped.
+                if(receiving != null)
+                {
+                    receiving.discard();
+                    receiving = null;
+                }
+
+                Bulk.closeRegions(attachments.toArray());
+                attachments.clear();
+            }
+
+            closeIfDone();
+        }
+
+        /** Stops accepting calls, and tells the stub which calls will still be
+            answered. */
+        void retire()
+        {
+            // A connection not yet registered retires when it registers.
+            if(retiring || closed || key == null)
+                return;
+
+            retiring = true;
+            output.add(new Frame(Frame.GOAWAY, lastAccepted,
+                                 new byte[0]).toBuffer());
+            endOfInput();
+            flush();
+        }
+
+        /** Queues a frame for sending. May be called from any thread.
+
+            <p>
+            The frame's attachments are queued before it. If they cannot be
+            (for instance, because a file region extends past the end of its
+            file), a <code>FAILURE</code> frame is queued in place of the
+            frame.
+         */
+        void send(Frame frame)
+        {
+            Queue<ByteBuffer>   buffers = new ArrayDeque<>();
+            if(frame.attachments != null)
+            {
+                try
+                {
+                    Bulk.queue(frame.requestId, frame.attachments, buffers);
+                }
+                catch(IOException e)
+                {
+                    RMIException    error = new RMIException(
+                        "unable to send attachment", e);
+                    skeleton.service_error(error);
+                    frame = Skeleton.failure(frame.requestId, error,
+                                             frame.codec);
+                    buffers.clear();
+                }
+            }
+
+            sendLock.lock();
+            try
+            {
+                output.addAll(buffers);
+                output.add(frame.toBuffer());
+            }
+            finally
+            {
+                sendLock.unlock();
+            }
+        }
+
+        /** Arranges for queued frames to be written by the loop thread. May be
+            called from any thread. */
+        void scheduleFlush()
+        {
+            if(!flushScheduled.compareAndSet(false, true))
+                return;
+
+            loop.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        flushScheduled.set(false);
+                        flush();
+                    }
+                });
+        }
+
+        /** Writes as many queued frames as the socket accepts. */
+        void flush()
+        {
+            if(closed)
+                return;
+
+            try
+            {
+                ByteBuffer  buffer;
+                while((buffer = output.peek()) != null)
+                {
+                    channel.write(buffer);
+                    if(buffer.hasRemaining())
+                    {
+                        key.interestOps(key.interestOps() |
+                                        SelectionKey.OP_WRITE);
+                        return;
+                    }
+
+                    output.poll();
+                }
+
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+            catch(IOException e)
+            {
+                // The stub has gone away, and will not read the replies.
+                output.clear();
+                inputClosed = true;
+            }
+
+            closeIfDone();
+        }
+
+        /** Closes the connection if its input has ended and every accepted
+            call has been answered. */
+        private void closeIfDone()
+        {
+            if(inputClosed && inFlight.get() == 0 && output.isEmpty())
+                close();
+        }
+
+        /** Closes the connection. */
+        private void close()
+        {
+            if(closed)
+                return;
+
+            closed = true;
+            if(key != null)
+                key.cancel();
+
+            try
+            {
+                channel.close();
+            }
+            catch(IOException e) { }
+
+            lock.lock();
+            try
+            {
+                connections.remove(this);
+                if(connections.isEmpty())
+                    allClosed.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /** Executes one call on a worker thread and queues its reply. */
+        private class Call implements Runnable
+        {
+            private final Frame         frame;
+            private final UploadStream  upload;
+
+            Call(Frame frame, UploadStream upload)
+            {
+                this.frame = frame;
+                this.upload = upload;
+            }
+
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Frame   reply = skeleton.serve(frame, upload);
+                    if(reply != null)
+                    {
+                        send(reply);
+
+                        // Returned file regions have been mapped, and are
+                        // no longer needed.
+                        if(reply.attachments != null)
+                            Bulk.closeRegions(reply.attachments);
+                    }
+                }
+                finally
+                {
+                    if(upload != null)
+                    {
+                        // Data still arriving for the call is discarded.
+                        uploads.remove(frame.requestId);
+                        upload.close();
+                    }
+
+                    // The count is decremented before the flush is scheduled,
+                    // so that the flush sees the final count and can close a
+                    // connection whose input has ended.
+                    inFlight.decrementAndGet();
+                    scheduleFlush();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package rmi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Table of the objects served by a skeleton.
+
+    <p>
+    Every skeleton serves its own server object under the ID
+    <code>PRIMARY_ID</code>. When a remote method returns an object whose
+    declared type is a remote interface, the skeleton exports the object: it
+    enters the object in its table under a new ID, and returns to the caller
+    a stub carrying the skeleton's address and the object ID. Calls made
+    through that stub name the object ID, and are served by the same
+    skeleton, over the same connections, as calls to the primary object. An
+    object returned several times under the same interface keeps its ID.
+
+    <p>
+    Invokers are shared by all objects exported under the same interface, so
+    exporting an object costs only a table entry.
+
+    <p>
+    Exported objects are kept only while clients hold leases on them. Each
+    client that receives a stub for an exported object renews a lease on it
+    periodically, and releases the lease once the stub is garbage collected.
+    Exporting an object also grants it one lease period, which covers the
+    time the stub spends in transit to its first holder. <code>reap</code>
+    unexports objects with no current leases, after which the table no longer
+    refers to them. The primary object is never unexported. Cursors over
+    streamed results are closed when they are unexported, so that results
+    abandoned by their clients release their sources.
+ */
+final class ObjectTable
+{
+    /** ID of the skeleton's own server object. */
+    static final int    PRIMARY_ID = 0;
+
+    /** Invokers for each remote interface, indexed by method ID. */
+    private static final Map<Class<?>, Invoker[]>   invokers =
+        new ConcurrentHashMap<>();
+
+    /** Entries, by object ID. */
+    private final Map<Integer, Entry>   entries = new ConcurrentHashMap<>();
+    /** Exported entries, by server object identity and then by interface.
+        Guarded by <code>lock</code>. */
+    private final Map<Object, Map<Class<?>, Entry>> exported =
+        new IdentityHashMap<>();
+    private final ReentrantLock         lock = new ReentrantLock();
+    /** Next object ID to assign. Guarded by <code>lock</code>. */
+    private int                         nextId = PRIMARY_ID + 1;
+    /** Number of objects unexported so far. Guarded by <code>lock</code>. */
+    private long                        reclaimed;
+    /** Lease duration, in milliseconds. */
+    private volatile long               leaseDuration = 60000;
+
+    /** Creates a table holding the given primary object. */
+    ObjectTable(Object server, Class<?> remoteInterface)
+    {
+        entries.put(PRIMARY_ID,
+                    new Entry(PRIMARY_ID, server, remoteInterface));
+    }
+
+    /** Returns the entry with the given ID, or <code>null</code> if there is
+        no such object. */
+    Entry get(int id)
+    {
+        return entries.get(id);
+    }
+
+    /** Exports an object, unless it has already been exported under the
+        same interface.
+
+        @param server The object.
+        @param remoteInterface The remote interface through which the object
+                               is to be called.
+        @return The object's entry.
+     */
+    Entry export(Object server, Class<?> remoteInterface)
+    {
+        lock.lock();
+        try
+        {
+            Map<Class<?>, Entry>    byInterface = exported.get(server);
+            if(byInterface == null)
+            {
+                byInterface = new ConcurrentHashMap<>();
+                exported.put(server, byInterface);
+            }
+
+            Entry                   entry = byInterface.get(remoteInterface);
+            if(entry == null)
+            {
+                entry = new Entry(nextId++, server, remoteInterface);
+                byInterface.put(remoteInterface, entry);
+                entries.put(entry.id, entry);
+            }
+
+            entry.exportExpiry = System.currentTimeMillis() + leaseDuration;
+            return entry;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Renews the leases of a client on the given objects. IDs of objects
+        that are not exported are ignored.
+
+        @param client The client ID.
+        @param objectIds The object IDs.
+     */
+    void renew(long client, int[] objectIds)
+    {
+        long    expiry = System.currentTimeMillis() + leaseDuration;
+
+        lock.lock();
+        try
+        {
+            for(int objectId : objectIds)
+            {
+                Entry   entry = entries.get(objectId);
+                if(entry != null && entry.leases != null)
+                    entry.leases.put(client, expiry);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Releases the leases of a client on the given objects. Objects left
+        with no leases are unexported at once.
+
+        @param client The client ID.
+        @param objectIds The object IDs.
+     */
+    void release(long client, int[] objectIds)
+    {
+        long                now = System.currentTimeMillis();
+        List<ResultCursor>  cursors = new ArrayList<>();
+
+        lock.lock();
+        try
+        {
+            for(int objectId : objectIds)
+            {
+                Entry   entry = entries.get(objectId);
+                if(entry != null && entry.leases != null)
+                {
+                    entry.leases.remove(client);
+                    if(!entry.leased(now))
+                        unexport(entry, cursors);
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        close(cursors);
+    }
+
+    /** Unexports all objects whose leases have expired.
+
+        @return The number of objects unexported.
+     */
+    int reap()
+    {
+        long                now = System.currentTimeMillis();
+        int                 count = 0;
+        List<ResultCursor>  cursors = new ArrayList<>();
+
+        lock.lock();
+        try
+        {
+            Iterator<Entry>     iterator = entries.values().iterator();
+            while(iterator.hasNext())
+            {
+                Entry   entry = iterator.next();
+                if(entry.leases != null && !entry.leased(now))
+                {
+                    unexport(entry, cursors);
+                    ++count;
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        close(cursors);
+        return count;
+    }
+
+    /** Removes an entry from the table. The caller must hold
+        <code>lock</code>.
+
+        @param entry The entry.
+        @param cursors List to which the entry's server object is added if
+                       it is a <code>ResultCursor</code>. The caller closes
+                       the cursors after releasing <code>lock</code>, since
+                       closing a cursor waits for any call producing its
+                       elements.
+     */
+    private void unexport(Entry entry, List<ResultCursor> cursors)
+    {
+        if(entry.server instanceof ResultCursor)
+            cursors.add((ResultCursor)entry.server);
+
+        entries.remove(entry.id);
+
+        Map<Class<?>, Entry>    byInterface = exported.get(entry.server);
+        byInterface.remove(entry.remoteInterface);
+        if(byInterface.isEmpty())
+            exported.remove(entry.server);
+
+        ++reclaimed;
+    }
+
+    /** Closes cursors unexported from the table. */
+    private static void close(List<ResultCursor> cursors)
+    {
+        for(ResultCursor cursor : cursors)
+            cursor.close();
+    }
+
+    /** Sets the lease duration granted to clients. */
+    void setLeaseDuration(long milliseconds)
+    {
+        leaseDuration = milliseconds;
+    }
+
+    /** Returns the lease duration granted to clients, in milliseconds. */
+    long leaseDuration()
+    {
+        return leaseDuration;
+    }
+
+    /** Returns the number of exported objects, not counting the primary
+        object. */
+    int exportedCount()
+    {
+        return entries.size() - 1;
+    }
+
+    /** Returns the number of objects unexported since the table was
+        created. */
+    long reclaimedCount()
+    {
+        lock.lock();
+        try
+        {
+            return reclaimed;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the invokers for a remote interface, indexed by method ID. */
+    private static Invoker[] invokers(Class<?> remoteInterface)
+    {
+        Invoker[]   result = invokers.get(remoteInterface);
+        if(result == null)
+        {
+            MethodTable     table = MethodTable.of(remoteInterface);
+            Invoker[]       created = new Invoker[table.methods.length];
+            for(int id = 0; id < created.length; ++id)
+            {
+                created[id] = Invoker.create(
+                    table.methods[id],
+                    Skeleton.isRemoteInterface(
+                        table.methods[id].getReturnType()));
+            }
+
+            result = invokers.putIfAbsent(remoteInterface, created);
+            if(result == null)
+                result = created;
+        }
+
+        return result;
+    }
+
+    /** Object served by a skeleton. */
+    static final class Entry
+    {
+        /** Object ID. */
+        final int           id;
+        /** Server object. */
+        final Object        server;
+        /** Remote interface through which the object is called. */
+        final Class<?>      remoteInterface;
+        /** Method table of the remote interface. */
+        final MethodTable   methods;
+        /** Invokers, indexed by method ID. */
+        final Invoker[]     invokers;
+        /** Lease expiry times, in milliseconds, by client ID, or
+            <code>null</code> for the primary object. Guarded by the table's
+            lock. */
+        final Map<Long, Long>   leases;
+        /** Time at which the lease granted by the latest export expires.
+            Guarded by the table's lock. */
+        long                exportExpiry;
+
+        Entry(int id, Object server, Class<?> remoteInterface)
+        {
+            this.id = id;
+            this.server = server;
+            this.remoteInterface = remoteInterface;
+            this.methods = MethodTable.of(remoteInterface);
+            this.invokers = ObjectTable.invokers(remoteInterface);
+            this.leases = id == PRIMARY_ID ? null : new HashMap<Long, Long>();
+        }
+
+        /** Returns <code>true</code> if the object has a lease that expires
+            after <code>now</code>. Expired client leases are removed. */
+        boolean leased(long now)
+        {
+            Iterator<Long>  expiries = leases.values().iterator();
+            while(expiries.hasNext())
+            {
+                if(expiries.next() <= now)
+                    expiries.remove();
+            }
+
+            return exportExpiry > now || !leases.isEmpty();
+        }
+    }
+}
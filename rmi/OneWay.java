@@ -0,0 +1,34 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a remote method as one-way.
+
+    <p>
+    A stub calling a one-way method returns as soon as the call has been
+    written to the connection, without waiting for the skeleton to execute
+    it. The skeleton sends no reply. The caller therefore learns nothing of
+    the call's outcome: exceptions thrown by the method, and problems that
+    prevent it from being executed, are reported to the skeleton's
+    <code>service_error</code> method instead. A stub throws
+    <code>RMIException</code> only if the call cannot be sent.
+
+    <p>
+    One-way calls are delivered at most once. A call sent over a connection
+    that the skeleton is closing may be dropped.
+
+    <p>
+    One-way methods must return <code>void</code>. The skeleton executes a
+    call as one-way only if the method in its remote interface carries this
+    annotation.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OneWay
+{
+}
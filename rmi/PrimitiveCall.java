@@ -0,0 +1,1030 @@
+package rmi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+
+/** Encoding of calls to methods whose values are all primitives, strings or
+    primitive arrays.
+
+    <p>
+    Calls to such methods do not need a codec: both ends know the types of
+    the arguments and the result from the method table. When the stub knows
+    the method's ID, it sets <code>FLAG</code> in the method ID of the call
+    payload, and writes the arguments one after another, without tags or
+    class descriptors, in the form used for primitive values by
+    <code>BinaryCodec</code>. Strings and arrays are preceded by their length
+    plus one, with zero standing for <code>null</code>. The skeleton answers
+    such a call with a <code>RETURN</code> frame whose payload is the result
+    in the same form, or is empty for a <code>void</code> method. Exceptions
+    are encoded with the connection's codec as usual.
+
+    <p>
+    The skeleton reads the arguments into a per-thread scratch area, and
+    calls the method through a method handle that takes each argument from
+    the scratch area with its own type and stores the result there. Neither
+    the arguments nor the result are boxed, and no argument array is
+    created. Encoding and decoding allocate only the payload array itself,
+    and the strings and arrays that are values of the call.
+ */
+final class PrimitiveCall
+{
+    /** Flag set in the method ID of calls encoded by this class. It never
+        appears in method IDs otherwise, which are small, or in
+        <code>Frame.NO_METHOD_ID</code>, which is negative. */
+    static final int    FLAG = 1 << 30;
+
+    // Kinds of value.
+    private static final byte   VOID = 0;
+    private static final byte   BOOLEAN = 1;
+    private static final byte   BYTE = 2;
+    private static final byte   CHAR = 3;
+    private static final byte   SHORT = 4;
+    private static final byte   INT = 5;
+    private static final byte   LONG = 6;
+    private static final byte   FLOAT = 7;
+    private static final byte   DOUBLE = 8;
+    private static final byte   STRING = 9;
+    /** Offset added to the kind of an array's elements to give the kind of
+        the array. */
+    private static final byte   ARRAY = 16;
+
+    /** Type of the handles that make calls: the server object and the
+        scratch area holding the arguments. */
+    private static final MethodType     CALL_TYPE =
+        MethodType.methodType(void.class, Object.class, Scratch.class);
+
+    /** Scratch area of each thread. */
+    private static final ThreadLocal<Scratch>   scratch =
+        new ThreadLocal<Scratch>()
+        {
+            @Override
+            protected Scratch initialValue()
+            {
+                return new Scratch();
+            }
+        };
+
+    /** The method. */
+    final Method                method;
+    /** Kind of each parameter. */
+    private final byte[]        parameters;
+    /** Kind of the result. */
+    private final byte          result;
+    /** Handle calling the method with arguments from a scratch area, or
+        <code>null</code> if the method cannot be called through a method
+        handle. Created when first needed, since stubs never use it. */
+    private volatile MethodHandle   handle;
+    private volatile boolean        handleResolved;
+
+    private PrimitiveCall(Method method, byte[] parameters, byte result)
+    {
+        this.method = method;
+        this.parameters = parameters;
+        this.result = result;
+    }
+
+    /** Describes a method, if its calls can be encoded by this class.
+
+        @param method The method.
+        @return The description, or <code>null</code> if some parameter or
+                the result is not a primitive, a string or a primitive
+                array.
+     */
+    static PrimitiveCall create(Method method)
+    {
+        Class<?>[]  types = method.getParameterTypes();
+        byte[]      kinds = new byte[types.length];
+        for(int index = 0; index < types.length; ++index)
+        {
+            kinds[index] = kind(types[index]);
+            if(kinds[index] < 0 || kinds[index] == VOID)
+                return null;
+        }
+
+        byte        result = kind(method.getReturnType());
+        if(result < 0)
+            return null;
+
+        return new PrimitiveCall(method, kinds, result);
+    }
+
+    /** Returns <code>true</code> if a method ID carries
+        <code>FLAG</code>. */
+    static boolean flagged(int methodId)
+    {
+        return methodId >= 0 && (methodId & FLAG) != 0;
+    }
+
+    /** Returns the kind of values of the given type, or -1 if values of the
+        type are not encoded by this class. */
+    private static byte kind(Class<?> type)
+    {
+        if(type.isArray())
+        {
+            Class<?>    component = type.getComponentType();
+            if(!component.isPrimitive())
+                return -1;
+            return (byte)(ARRAY + kind(component));
+        }
+
+        if(type == void.class)
+            return VOID;
+        if(type == boolean.class)
+            return BOOLEAN;
+        if(type == byte.class)
+            return BYTE;
+        if(type == char.class)
+            return CHAR;
+        if(type == short.class)
+            return SHORT;
+        if(type == int.class)
+            return INT;
+        if(type == long.class)
+            return LONG;
+        if(type == float.class)
+            return FLOAT;
+        if(type == double.class)
+            return DOUBLE;
+        if(type == String.class)
+            return STRING;
+        return -1;
+    }
+
+    /** Encodes a call.
+
+        @param objectId The ID of the object called.
+        @param methodId The method's ID in the skeleton's method table.
+        @param arguments The arguments, or <code>null</code> if there are
+                         none.
+        @return The call payload.
+     */
+    byte[] encodeCall(int objectId, int methodId, Object[] arguments)
+    {
+        int         size = 8;
+        for(int index = 0; index < parameters.length; ++index)
+            size += size(parameters[index], arguments[index]);
+
+        Buffer      out = new Buffer(new byte[size], 0);
+        out.writeFixedInt(objectId);
+        out.writeFixedInt(methodId | FLAG);
+        for(int index = 0; index < parameters.length; ++index)
+            write(out, parameters[index], arguments[index]);
+
+        return out.bytes;
+    }
+
+    /** Decodes the payload of the <code>RETURN</code> frame answering a
+        call.
+
+        @return The result, boxed if it is primitive.
+        @throws IOException If the payload is malformed.
+     */
+    Object decodeResult(byte[] payload) throws IOException
+    {
+        if(result == VOID)
+            return null;
+
+        Buffer      in = new Buffer(payload, 0);
+        Object      value = read(in, result);
+        in.checkEnd();
+        return value;
+    }
+
+    /** Executes a call and encodes its result.
+
+        @param server The server object.
+        @param call The call payload.
+        @param fallback Invoker used if the method cannot be called through
+                        a method handle.
+        @return The payload of the <code>RETURN</code> frame answering the
+                call.
+        @throws InvocationTargetException If the method throws an exception.
+        @throws Exception If the call is malformed.
+     */
+    byte[] invoke(Object server, byte[] call, Invoker fallback)
+        throws Exception
+    {
+        MethodHandle    target = handle();
+        if(target == null)
+            return invokeBoxed(server, call, fallback);
+
+        // A call may be made from within another on the same thread, for
+        // instance by a server method calling an object in the same
+        // process. The inner call then uses a scratch area of its own.
+        Scratch         area = scratch.get();
+        if(area.busy)
+            area = new Scratch();
+
+        area.busy = true;
+        try
+        {
+            area.reset(call, 8, parameters.length);
+            for(int index = 0; index < parameters.length; ++index)
+                readArgument(area, index);
+            area.checkEnd();
+
+            try
+            {
+                target.invokeExact(server, area);
+            }
+            catch(Throwable t)
+            {
+                throw new InvocationTargetException(t);
+            }
+
+            if(result == VOID)
+                return Buffer.EMPTY;
+
+            Object      reference = area.result;
+            long        bits = area.resultBits;
+            Buffer      out = new Buffer(new byte[size(result, bits,
+                                                       reference)], 0);
+            write(out, result, bits, reference);
+            return out.bytes;
+        }
+        finally
+        {
+            area.clear();
+            area.busy = false;
+        }
+    }
+
+    /** Executes a call through an ordinary invoker, boxing the arguments and
+        the result. */
+    private byte[] invokeBoxed(Object server, byte[] call, Invoker fallback)
+        throws Exception
+    {
+        Buffer      in = new Buffer(call, 8);
+        Object[]    arguments = new Object[parameters.length];
+        for(int index = 0; index < parameters.length; ++index)
+            arguments[index] = read(in, parameters[index]);
+        in.checkEnd();
+
+        Object      value = fallback.invoke(server, arguments);
+        if(result == VOID)
+            return Buffer.EMPTY;
+
+        Buffer      out = new Buffer(new byte[size(result, value)], 0);
+        write(out, result, value);
+        return out.bytes;
+    }
+
+    /** Returns the handle calling the method, creating it if necessary. */
+    private MethodHandle handle()
+    {
+        if(!handleResolved)
+        {
+            handle = createHandle();
+            handleResolved = true;
+        }
+
+        return handle;
+    }
+
+    /** Creates a handle of type <code>CALL_TYPE</code> that calls the
+        method with the arguments held by a scratch area, and stores the
+        result there. Returns <code>null</code> if the method is not
+        accessible through a method handle. */
+    private MethodHandle createHandle()
+    {
+        MethodHandle        target;
+        try
+        {
+            target = MethodHandles.lookup().unreflect(method);
+        }
+        catch(IllegalAccessException e)
+        {
+            return null;
+        }
+
+        target = target.asType(target.type().changeParameterType(
+            0, Object.class));
+
+        // Replace each argument by a read of the scratch area.
+        MethodHandle[]      filters = new MethodHandle[parameters.length];
+        for(int index = 0; index < parameters.length; ++index)
+        {
+            Class<?>        type = method.getParameterTypes()[index];
+            MethodHandle    getter = MethodHandles.insertArguments(
+                Scratch.getter(parameters[index]), 1, index);
+            filters[index] = getter.asType(
+                MethodType.methodType(type, Scratch.class));
+        }
+
+        target = MethodHandles.filterArguments(target, 1, filters);
+
+        // The target now takes the server object, and the scratch area once
+        // for each argument. Store its result in the scratch area.
+        int                 leading = 0;
+        if(result != VOID)
+        {
+            MethodHandle    setter = Scratch.setter(result);
+            setter = setter.asType(MethodType.methodType(
+                void.class, Scratch.class, method.getReturnType()));
+            target = MethodHandles.collectArguments(setter, 1, target);
+            leading = 1;
+        }
+
+        // Pass the same scratch area for every occurrence.
+        int[]               reorder = new int[target.type().parameterCount()];
+        for(int index = 0; index < reorder.length; ++index)
+            reorder[index] = 1;
+        reorder[leading] = 0;
+
+        return MethodHandles.permuteArguments(target, CALL_TYPE, reorder);
+    }
+
+    /** Reads argument <code>index</code> into a scratch area. */
+    private void readArgument(Scratch area, int index) throws IOException
+    {
+        byte    kind = parameters[index];
+        switch(kind)
+        {
+        case BOOLEAN:
+        case BYTE:
+        case CHAR:
+        case SHORT:
+        case INT:
+        case LONG:
+        case FLOAT:
+        case DOUBLE:
+            area.bits[index] = readBits(area, kind);
+            break;
+        default:
+            area.references[index] = read(area, kind);
+        }
+    }
+
+    /** Returns the encoded size of a value given in boxed form. */
+    private static int size(byte kind, Object value)
+    {
+        if(kind < STRING)
+            return size(kind, bits(kind, value), null);
+        return size(kind, 0, value);
+    }
+
+    /** Returns the encoded size of a value. Primitive values are given as
+        bits, and other values as references. */
+    private static int size(byte kind, long bits, Object reference)
+    {
+        switch(kind)
+        {
+        case BOOLEAN:
+        case BYTE:
+            return 1;
+        case CHAR:
+            return Buffer.varintSize((int)bits);
+        case SHORT:
+        case INT:
+            return Buffer.varintSize(zigzag((int)bits));
+        case LONG:
+            return Buffer.varlongSize(zigzag(bits));
+        case FLOAT:
+            return 4;
+        case DOUBLE:
+            return 8;
+        case STRING:
+            if(reference == null)
+                return 1;
+            int     length = Buffer.utf8Length((String)reference);
+            return Buffer.varintSize(length + 1) + length;
+        default:
+            return arraySize((byte)(kind - ARRAY), reference);
+        }
+    }
+
+    /** Returns the encoded size of a primitive array. */
+    private static int arraySize(byte element, Object array)
+    {
+        if(array == null)
+            return 1;
+
+        int     size;
+        switch(element)
+        {
+        case BOOLEAN:
+            size = ((boolean[])array).length;
+            break;
+        case BYTE:
+            size = ((byte[])array).length;
+            break;
+        case CHAR:
+            size = 0;
+            for(char value : (char[])array)
+                size += Buffer.varintSize(value);
+            break;
+        case SHORT:
+            size = 0;
+            for(short value : (short[])array)
+                size += Buffer.varintSize(zigzag(value));
+            break;
+        case INT:
+            size = 0;
+            for(int value : (int[])array)
+                size += Buffer.varintSize(zigzag(value));
+            break;
+        case LONG:
+            size = 0;
+            for(long value : (long[])array)
+                size += Buffer.varlongSize(zigzag(value));
+            break;
+        case FLOAT:
+            size = 4 * ((float[])array).length;
+            break;
+        default:
+            size = 8 * ((double[])array).length;
+        }
+
+        return Buffer.varintSize(length(array) + 1) + size;
+    }
+
+    /** Writes a value given in boxed form. */
+    private static void write(Buffer out, byte kind, Object value)
+    {
+        if(kind < STRING)
+            write(out, kind, bits(kind, value), null);
+        else
+            write(out, kind, 0, value);
+    }
+
+    /** Writes a value. Primitive values are given as bits, and other values
+        as references. */
+    private static void write(Buffer out, byte kind, long bits,
+                              Object reference)
+    {
+        switch(kind)
+        {
+        case BOOLEAN:
+        case BYTE:
+            out.write((int)bits);
+            break;
+        case CHAR:
+            out.writeVarint((int)bits);
+            break;
+        case SHORT:
+        case INT:
+            out.writeVarint(zigzag((int)bits));
+            break;
+        case LONG:
+            out.writeVarlong(zigzag(bits));
+            break;
+        case FLOAT:
+            out.writeFixedInt((int)bits);
+            break;
+        case DOUBLE:
+            out.writeFixedLong(bits);
+            break;
+        case STRING:
+            if(reference == null)
+                out.writeVarint(0);
+            else
+            {
+                String  value = (String)reference;
+                out.writeVarint(Buffer.utf8Length(value) + 1);
+                out.writeUtf8(value);
+            }
+            break;
+        default:
+            writeArray(out, (byte)(kind - ARRAY), reference);
+        }
+    }
+
+    /** Writes a primitive array. */
+    private static void writeArray(Buffer out, byte element, Object array)
+    {
+        if(array == null)
+        {
+            out.writeVarint(0);
+            return;
+        }
+
+        out.writeVarint(length(array) + 1);
+        switch(element)
+        {
+        case BOOLEAN:
+            for(boolean value : (boolean[])array)
+                out.write(value ? 1 : 0);
+            break;
+        case BYTE:
+            byte[]  bytes = (byte[])array;
+            System.arraycopy(bytes, 0, out.bytes, out.position, bytes.length);
+            out.position += bytes.length;
+            break;
+        case CHAR:
+            for(char value : (char[])array)
+                out.writeVarint(value);
+            break;
+        case SHORT:
+            for(short value : (short[])array)
+                out.writeVarint(zigzag(value));
+            break;
+        case INT:
+            for(int value : (int[])array)
+                out.writeVarint(zigzag(value));
+            break;
+        case LONG:
+            for(long value : (long[])array)
+                out.writeVarlong(zigzag(value));
+            break;
+        case FLOAT:
+            for(float value : (float[])array)
+                out.writeFixedInt(Float.floatToRawIntBits(value));
+            break;
+        default:
+            for(double value : (double[])array)
+                out.writeFixedLong(Double.doubleToRawLongBits(value));
+        }
+    }
+
+    /** Reads a primitive value as bits. */
+    private static long readBits(Buffer in, byte kind) throws IOException
+    {
+        switch(kind)
+        {
+        case BOOLEAN:
+            return in.read() != 0 ? 1 : 0;
+        case BYTE:
+            return in.read();
+        case CHAR:
+            return (char)in.readVarint();
+        case SHORT:
+            return (short)unzigzag(in.readVarint());
+        case INT:
+            return unzigzag(in.readVarint());
+        case LONG:
+            return unzigzag(in.readVarlong());
+        case FLOAT:
+            return in.readFixedInt();
+        default:
+            return in.readFixedLong();
+        }
+    }
+
+    /** Reads a value, boxing it if it is primitive. */
+    private static Object read(Buffer in, byte kind) throws IOException
+    {
+        if(kind < STRING)
+            return box(kind, readBits(in, kind));
+
+        int         length = in.readVarint() - 1;
+        if(length < 0)
+            return null;
+
+        if(kind == STRING)
+        {
+            String  value = in.readUtf8(length);
+            return value;
+        }
+
+        // Every element takes at least one byte.
+        byte        element = (byte)(kind - ARRAY);
+        in.require(length);
+        switch(element)
+        {
+        case BOOLEAN:
+            boolean[]   booleans = new boolean[length];
+            for(int index = 0; index < length; ++index)
+                booleans[index] = in.read() != 0;
+            return booleans;
+        case BYTE:
+            byte[]      bytes = new byte[length];
+            System.arraycopy(in.bytes, in.position, bytes, 0, length);
+            in.position += length;
+            return bytes;
+        case CHAR:
+            char[]      chars = new char[length];
+            for(int index = 0; index < length; ++index)
+                chars[index] = (char)in.readVarint();
+            return chars;
+        case SHORT:
+            short[]     shorts = new short[length];
+            for(int index = 0; index < length; ++index)
+                shorts[index] = (short)unzigzag(in.readVarint());
+            return shorts;
+        case INT:
+            int[]       ints = new int[length];
+            for(int index = 0; index < length; ++index)
+                ints[index] = unzigzag(in.readVarint());
+            return ints;
+        case LONG:
+            long[]      longs = new long[length];
+            for(int index = 0; index < length; ++index)
+                longs[index] = unzigzag(in.readVarlong());
+            return longs;
+        case FLOAT:
+            float[]     floats = new float[length];
+            for(int index = 0; index < length; ++index)
+                floats[index] = Float.intBitsToFloat(in.readFixedInt());
+            return floats;
+        default:
+            double[]    doubles = new double[length];
+            for(int index = 0; index < length; ++index)
+                doubles[index] = Double.longBitsToDouble(in.readFixedLong());
+            return doubles;
+        }
+    }
+
+    /** Returns the bits of a boxed primitive value. */
+    private static long bits(byte kind, Object value)
+    {
+        switch(kind)
+        {
+        case BOOLEAN:
+            return (Boolean)value ? 1 : 0;
+        case BYTE:
+            return (Byte)value;
+        case CHAR:
+            return (Character)value;
+        case SHORT:
+            return (Short)value;
+        case INT:
+            return (Integer)value;
+        case LONG:
+            return (Long)value;
+        case FLOAT:
+            return Float.floatToRawIntBits((Float)value);
+        default:
+            return Double.doubleToRawLongBits((Double)value);
+        }
+    }
+
+    /** Boxes a primitive value given as bits. */
+    private static Object box(byte kind, long bits)
+    {
+        switch(kind)
+        {
+        case BOOLEAN:
+            return bits != 0;
+        case BYTE:
+            return (byte)bits;
+        case CHAR:
+            return (char)bits;
+        case SHORT:
+            return (short)bits;
+        case INT:
+            return (int)bits;
+        case LONG:
+            return bits;
+        case FLOAT:
+            return Float.intBitsToFloat((int)bits);
+        default:
+            return Double.longBitsToDouble(bits);
+        }
+    }
+
+    /** Returns the length of a primitive array. */
+    private static int length(Object array)
+    {
+        return java.lang.reflect.Array.getLength(array);
+    }
+
+    private static int zigzag(int value)
+    {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unzigzag(int value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** Array of bytes being read or written at a position. Arrays written
+        are allocated at their final size, so writes are not checked. */
+    private static class Buffer
+    {
+        static final byte[] EMPTY = new byte[0];
+
+        byte[]      bytes;
+        int         position;
+
+        Buffer(byte[] bytes, int position)
+        {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        /** Returns the size of a variable-length integer. */
+        static int varintSize(int value)
+        {
+            int     size = 1;
+            while((value & ~0x7f) != 0)
+            {
+                value >>>= 7;
+                ++size;
+            }
+            return size;
+        }
+
+        /** Returns the size of a variable-length long integer. */
+        static int varlongSize(long value)
+        {
+            int     size = 1;
+            while((value & ~0x7fL) != 0)
+            {
+                value >>>= 7;
+                ++size;
+            }
+            return size;
+        }
+
+        /** Returns the length of a string's UTF-8 encoding. Unpaired
+            surrogates are encoded as question marks, as by
+            <code>String.getBytes</code>. */
+        static int utf8Length(String value)
+        {
+            int     length = value.length();
+            int     size = length;
+            for(int index = 0; index < length; ++index)
+            {
+                char    c = value.charAt(index);
+                if(c < 0x80)
+                    continue;
+                if(c < 0x800)
+                    size += 1;
+                else if(Character.isHighSurrogate(c) && index + 1 < length &&
+                        Character.isLowSurrogate(value.charAt(index + 1)))
+                {
+                    size += 2;
+                    ++index;
+                }
+                else if(Character.isSurrogate(c))
+                    size += 0;
+                else
+                    size += 2;
+            }
+            return size;
+        }
+
+        void write(int value)
+        {
+            bytes[position++] = (byte)value;
+        }
+
+        void writeVarint(int value)
+        {
+            while((value & ~0x7f) != 0)
+            {
+                bytes[position++] = (byte)((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[position++] = (byte)value;
+        }
+
+        void writeVarlong(long value)
+        {
+            while((value & ~0x7fL) != 0)
+            {
+                bytes[position++] = (byte)((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[position++] = (byte)value;
+        }
+
+        void writeFixedInt(int value)
+        {
+            bytes[position++] = (byte)(value >>> 24);
+            bytes[position++] = (byte)(value >>> 16);
+            bytes[position++] = (byte)(value >>> 8);
+            bytes[position++] = (byte)value;
+        }
+
+        void writeFixedLong(long value)
+        {
+            writeFixedInt((int)(value >>> 32));
+            writeFixedInt((int)value);
+        }
+
+        /** Writes a string's UTF-8 encoding. ASCII strings are copied
+            without an intermediate array. */
+        void writeUtf8(String value)
+        {
+            int     length = value.length();
+            for(int index = 0; index < length; ++index)
+            {
+                char    c = value.charAt(index);
+                if(c >= 0x80)
+                {
+                    byte[]  encoded = value.substring(index).getBytes(
+                        StandardCharsets.UTF_8);
+                    System.arraycopy(encoded, 0, bytes, position,
+                                     encoded.length);
+                    position += encoded.length;
+                    return;
+                }
+
+                bytes[position++] = (byte)c;
+            }
+        }
+
+        /** Fails unless the given number of bytes remain. */
+        void require(int count) throws EOFException
+        {
+            if(count < 0 || count > bytes.length - position)
+                throw new EOFException("call is truncated");
+        }
+
+        /** Fails unless all bytes have been read. */
+        void checkEnd() throws IOException
+        {
+            if(position != bytes.length)
+                throw new IOException("trailing bytes in call");
+        }
+
+        byte read() throws EOFException
+        {
+            require(1);
+            return bytes[position++];
+        }
+
+        int readVarint() throws IOException
+        {
+            int     value = 0;
+            for(int shift = 0; shift < 35; shift += 7)
+            {
+                byte    b = read();
+                value |= (b & 0x7f) << shift;
+                if(b >= 0)
+                    return value;
+            }
+
+            throw new IOException("malformed variable-length integer");
+        }
+
+        long readVarlong() throws IOException
+        {
+            long    value = 0;
+            for(int shift = 0; shift < 70; shift += 7)
+            {
+                byte    b = read();
+                value |= (long)(b & 0x7f) << shift;
+                if(b >= 0)
+                    return value;
+            }
+
+            throw new IOException("malformed variable-length integer");
+        }
+
+        int readFixedInt() throws EOFException
+        {
+            require(4);
+            int     value = ((bytes[position] & 0xff) << 24) |
+                            ((bytes[position + 1] & 0xff) << 16) |
+                            ((bytes[position + 2] & 0xff) << 8) |
+                            (bytes[position + 3] & 0xff);
+            position += 4;
+            return value;
+        }
+
+        long readFixedLong() throws EOFException
+        {
+            long    high = readFixedInt();
+            return (high << 32) | (readFixedInt() & 0xffffffffL);
+        }
+
+        String readUtf8(int length) throws EOFException
+        {
+            require(length);
+            String  value = new String(bytes, position, length,
+                                       StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+
+    /** Arguments and result of a call being executed by a skeleton. The
+        arguments are read from the call payload into <code>bits</code>, for
+        primitive values, or <code>references</code>. */
+    static final class Scratch extends Buffer
+    {
+        private static final MethodHandles.Lookup   lookup =
+            MethodHandles.lookup();
+
+        long[]      bits = new long[4];
+        Object[]    references = new Object[4];
+        long        resultBits;
+        Object      result;
+        boolean     busy;
+
+        Scratch()
+        {
+            super(null, 0);
+        }
+
+        /** Prepares to read a call payload. */
+        void reset(byte[] call, int offset, int arguments)
+        {
+            bytes = call;
+            position = offset;
+            if(bits.length < arguments)
+            {
+                bits = new long[arguments];
+                references = new Object[arguments];
+            }
+        }
+
+        /** Drops the references held by the scratch area. */
+        void clear()
+        {
+            bytes = null;
+            result = null;
+            java.util.Arrays.fill(references, null);
+        }
+
+        boolean booleanAt(int index)    { return bits[index] != 0; }
+        byte byteAt(int index)          { return (byte)bits[index]; }
+        char charAt(int index)          { return (char)bits[index]; }
+        short shortAt(int index)        { return (short)bits[index]; }
+        int intAt(int index)            { return (int)bits[index]; }
+        long longAt(int index)          { return bits[index]; }
+        float floatAt(int index)
+        {
+            return Float.intBitsToFloat((int)bits[index]);
+        }
+        double doubleAt(int index)
+        {
+            return Double.longBitsToDouble(bits[index]);
+        }
+        Object referenceAt(int index)   { return references[index]; }
+
+        void setBoolean(boolean value)  { resultBits = value ? 1 : 0; }
+        void setInt(int value)          { resultBits = value; }
+        void setLong(long value)        { resultBits = value; }
+        void setFloat(float value)
+        {
+            resultBits = Float.floatToRawIntBits(value);
+        }
+        void setDouble(double value)
+        {
+            resultBits = Double.doubleToRawLongBits(value);
+        }
+        void setReference(Object value) { result = value; }
+
+        /** Returns a handle reading an argument of the given kind: the
+            scratch area and the argument index in, the argument out. */
+        static MethodHandle getter(byte kind)
+        {
+            switch(kind)
+            {
+            case BOOLEAN: return find("booleanAt", boolean.class, int.class);
+            case BYTE: return find("byteAt", byte.class, int.class);
+            case CHAR: return find("charAt", char.class, int.class);
+            case SHORT: return find("shortAt", short.class, int.class);
+            case INT: return find("intAt", int.class, int.class);
+            case LONG: return find("longAt", long.class, int.class);
+            case FLOAT: return find("floatAt", float.class, int.class);
+            case DOUBLE: return find("doubleAt", double.class, int.class);
+            default: return find("referenceAt", Object.class, int.class);
+            }
+        }
+
+        /** Returns a handle storing a result of the given kind: the scratch
+            area and the result in. Byte, character and short results are
+            widened to <code>int</code>. */
+        static MethodHandle setter(byte kind)
+        {
+            switch(kind)
+            {
+            case BOOLEAN: return find("setBoolean", void.class, boolean.class);
+            case BYTE:
+            case CHAR:
+            case SHORT:
+            case INT: return find("setInt", void.class, int.class);
+            case LONG: return find("setLong", void.class, long.class);
+            case FLOAT: return find("setFloat", void.class, float.class);
+            case DOUBLE: return find("setDouble", void.class, double.class);
+            default: return find("setReference", void.class, Object.class);
+            }
+        }
+
+        private static MethodHandle find(String name, Class<?> returnType,
+                                         Class<?> parameterType)
+        {
+            try
+            {
+                return lookup.findVirtual(Scratch.class, name,
+                                          MethodType.methodType(
+                                              returnType, parameterType));
+            }
+            catch(ReflectiveOperationException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package rmi;
+
+import java.util.concurrent.BlockingQueue;
+
+/** Policy applied by a skeleton when its worker pool is saturated.
+
+    <p>
+    A skeleton with a bounded worker pool (see
+    <code>Skeleton.setWorkerPool</code>) consults its rejection policy when a
+    call arrives while every worker is busy and the pool's queue is full. The
+    policy may wait for room in the queue, run the call some other way, or
+    refuse it by throwing <code>RMIException</code>. A refused call is not
+    executed, and the exception is forwarded to the stub that made the call.
+
+    <p>
+    The policy is invoked by the thread that received the call: the
+    connection's handler thread with the blocking engine, or an event loop
+    thread with the NIO engine. A policy that blocks therefore stops the
+    skeleton reading further calls from the affected connections, which in
+    turn pushes back on the stubs through TCP flow control. Since an event
+    loop serves many connections, a policy must not block with the NIO
+    engine.
+ */
+public interface RejectionPolicy
+{
+    /** Refuses every call that cannot be queued. Stubs see an
+        <code>RMIException</code> immediately. */
+    RejectionPolicy REJECT = new RejectionPolicy()
+    {
+        @Override
+        public void rejected(Runnable call, BlockingQueue<Runnable> queue)
+            throws RMIException
+        {
+            throw new RMIException("Skeleton is busy: call rejected.");
+        }
+    };
+
+    /** Waits until the queue has room for the call. The skeleton stops
+        reading from the connection until the call is queued.
+
+        <p>
+        This policy applies only to the blocking engine, where each
+        connection has a thread of its own; a skeleton using the NIO engine
+        refuses to start with it. Calls that would make a thread wait while
+        it must keep reading, such as calls arriving while a streamed
+        argument is being received on the same connection, or calls received
+        in datagrams, are refused instead, as with <code>REJECT</code>. */
+    RejectionPolicy BLOCK = new RejectionPolicy()
+    {
+        @Override
+        public void rejected(Runnable call, BlockingQueue<Runnable> queue)
+            throws RMIException
+        {
+            try
+            {
+                queue.put(call);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new RMIException("Interrupted while waiting to queue " +
+                                       "call.", e);
+            }
+        }
+    };
+
+    /** Handles a call that the worker pool cannot accept.
+
+        @param call The task that executes the call and sends its reply.
+        @param queue The worker pool's queue. The policy may add the call to
+                     the queue itself.
+        @throws RMIException If the call is refused. The call is then not
+                             executed, and the exception is sent to the stub.
+     */
+    void rejected(Runnable call, BlockingQueue<Runnable> queue)
+        throws RMIException;
+}
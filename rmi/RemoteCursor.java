@@ -0,0 +1,32 @@
+package rmi;
+
+/** Remote interface of the cursors through which streamed results are read.
+
+    <p>
+    A remote method whose declared return type is <code>Iterator</code> or
+    <code>Stream</code> returns its elements a chunk at a time (see
+    <code>StreamedResult</code>). The skeleton sends the first chunk with the
+    reply to the call, and, if there are more elements, exports a cursor over
+    the rest. The client then reads further chunks from the cursor as it
+    consumes the elements.
+ */
+interface RemoteCursor
+{
+    /** Returns the next elements.
+
+        @param count The number of elements the client is ready to receive.
+        @return The next <code>count</code> elements, or the next
+                <code>ResultCursor.MAX_CHUNK</code> elements if
+                <code>count</code> is larger. Fewer elements are returned
+                only if the end of the result has been reached.
+        @throws RMIException If the elements cannot be read. Exceptions
+                             thrown while producing the elements are wrapped
+                             by the stub in an <code>RMIException</code>.
+     */
+    Object[] next(int count) throws RMIException;
+
+    /** Closes the cursor. The source of the elements is closed, and no
+        further elements are produced. */
+    @OneWay
+    void close() throws RMIException;
+}
@@ -0,0 +1,188 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/** Iterator over a streamed result, reading chunks from a remote cursor.
+
+    <p>
+    The iterator holds the chunk being consumed, and requests the next chunk
+    from the cursor as soon as it starts on the current one, so that
+    elements are usually available without waiting. At most one request is
+    outstanding at a time. A chunk shorter than requested is the last.
+
+    <p>
+    Exceptions thrown by the server's iterator or stream while producing
+    further elements are rethrown as they are if they are unchecked, and
+    otherwise wrapped in an <code>UncheckedRMIException</code>, as are
+    failures to reach the skeleton. The iterator ends after such an
+    exception. Elements produced in the same chunk before the exception are
+    not returned.
+
+    <p>
+    Like most iterators, the iterator must not be used by several threads
+    at once.
+ */
+final class RemoteIterator implements Iterator<Object>, AutoCloseable
+{
+    /** Number of elements requested at a time. */
+    private static volatile int         chunkSize = 256;
+
+    /** The <code>next</code> method of <code>RemoteCursor</code>. */
+    private static final Method         NEXT;
+
+    static
+    {
+        try
+        {
+            NEXT = RemoteCursor.class.getMethod("next", int.class);
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Cursor over the remaining elements, or <code>null</code> if all
+        elements were sent with the reply to the call. */
+    private final RemoteCursor          cursor;
+    /** Chunk being consumed. */
+    private Object[]                    chunk;
+    /** Index of the next element of <code>chunk</code>. */
+    private int                         position;
+    /** Request for the next chunk, or <code>null</code> if no chunk has
+        been requested. */
+    private CompletableFuture<Object>   pending;
+    /** Number of elements requested by <code>pending</code>. */
+    private int                         requested;
+    /** <code>true</code> once no further chunks are to be requested. */
+    private boolean                     finished;
+
+    /** Creates an iterator over a streamed result.
+
+        @param first The elements sent with the reply to the call.
+        @param cursor The cursor over the remaining elements, or
+                      <code>null</code> if there are none.
+     */
+    RemoteIterator(Object[] first, RemoteCursor cursor)
+    {
+        this.cursor = cursor;
+        chunk = first;
+        finished = cursor == null;
+        if(!finished)
+            request();
+    }
+
+    /** Sets the number of elements requested at a time.
+
+        @throws IllegalArgumentException If <code>elements</code> is not
+                                         positive, or is larger than
+                                         <code>ResultCursor.MAX_CHUNK</code>.
+     */
+    static void setChunkSize(int elements)
+    {
+        if(elements < 1 || elements > ResultCursor.MAX_CHUNK)
+        {
+            throw new IllegalArgumentException("chunk size must be between " +
+                                               "1 and " +
+                                               ResultCursor.MAX_CHUNK);
+        }
+
+        chunkSize = elements;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        while(position == chunk.length)
+        {
+            if(finished)
+                return false;
+            receive();
+        }
+
+        return true;
+    }
+
+    @Override
+    public Object next()
+    {
+        if(!hasNext())
+            throw new NoSuchElementException();
+
+        // Drop the element from the chunk, so that consumed elements can be
+        // collected before the rest of the chunk.
+        Object      element = chunk[position];
+        chunk[position++] = null;
+        return element;
+    }
+
+    /** Stops reading the result. If the skeleton may still hold elements,
+        the cursor is closed, which closes the server's stream. */
+    @Override
+    public void close()
+    {
+        chunk = new Object[0];
+        position = 0;
+        pending = null;
+        if(finished)
+            return;
+
+        finished = true;
+        try
+        {
+            cursor.close();
+        }
+        catch(RMIException e)
+        {
+            // The cursor is closed by the skeleton when the lease on it
+            // lapses.
+        }
+    }
+
+    /** Requests the next chunk from the cursor. */
+    private void request()
+    {
+        requested = chunkSize;
+        pending = Stub.invokeAsync(cursor, NEXT, new Object[] {requested});
+    }
+
+    /** Waits for the requested chunk, makes it the current chunk, and
+        requests the following one unless the result has ended. */
+    private void receive()
+    {
+        Object[]    received;
+        try
+        {
+            received = (Object[])pending.get();
+        }
+        catch(ExecutionException e)
+        {
+            finished = true;
+            Throwable   cause = e.getCause();
+            if(cause.getCause() instanceof RuntimeException)
+                throw (RuntimeException)cause.getCause();
+            throw new UncheckedRMIException(cause instanceof RMIException ?
+                                            (RMIException)cause :
+                                            new RMIException(cause));
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new UncheckedRMIException(
+                new RMIException("interrupted while reading a streamed " +
+                                 "result", e));
+        }
+
+        chunk = received;
+        position = 0;
+        pending = null;
+        if(received.length < requested)
+            finished = true;
+        else
+            request();
+    }
+}
@@ -0,0 +1,95 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Description of a remote method, as needed by stubs to make calls.
+
+    <p>
+    A stub's invocation handler receives each call as a <code>Method</code>.
+    Properties of the method that decide how the call is made, such as
+    whether it is one-way and which exceptions it declares, are looked up
+    once per method and kept here, so that the stub does not repeat the
+    reflective queries on every call.
+ */
+final class RemoteMethod
+{
+    /** Descriptions already created, by method. */
+    private static final Map<Method, RemoteMethod>  descriptions =
+        new ConcurrentHashMap<>();
+
+    /** The method. */
+    final Method                method;
+    /** <code>true</code> if the method is marked <code>OneWay</code>. */
+    final boolean               oneWay;
+    /** Encoding of calls to the method without a codec, or <code>null</code>
+        if the method's values are not all primitives, strings or primitive
+        arrays. */
+    final PrimitiveCall         primitive;
+    /** <code>true</code> if the method's results are streamed (see
+        <code>StreamedResult</code>). */
+    final boolean               streamedResult;
+    /** Index of the method's streamed parameter (see <code>Upload</code>),
+        or -1 if it has none. */
+    final int                   upload;
+    /** <code>true</code> if the method has a parameter of type
+        <code>ByteBuffer</code> or <code>FileRegion</code> (see
+        <code>Bulk</code>). */
+    final boolean               bulkArguments;
+    /** <code>true</code> if calls to the method may be made directly to a
+        skeleton in the same process (see <code>LocalSkeletons</code>). */
+    final boolean               local;
+    /** <code>true</code> if the method is marked <code>Idempotent</code>. */
+    final boolean               idempotent;
+    /** <code>true</code> if calls to the method may be sent in datagrams
+        (see <code>DatagramCalls</code>). */
+    final boolean               datagram;
+    /** Exception types declared by the method. */
+    private final Class<?>[]    exceptionTypes;
+
+    /** Describes a method. */
+    private RemoteMethod(Method method)
+    {
+        this.method = method;
+        this.oneWay = method.isAnnotationPresent(OneWay.class);
+        this.exceptionTypes = method.getExceptionTypes();
+        this.primitive = PrimitiveCall.create(method);
+        this.streamedResult = StreamedResult.isStreamed(method.getReturnType());
+        this.upload = Upload.parameter(method);
+        this.bulkArguments = Bulk.hasBulkParameter(method);
+        this.local = !oneWay && !streamedResult && upload < 0 &&
+                     !bulkArguments && !Bulk.isBulk(method.getReturnType());
+        this.idempotent = method.isAnnotationPresent(Idempotent.class);
+        this.datagram = local && idempotent;
+    }
+
+    /** Returns the description of a method. */
+    static RemoteMethod of(Method method)
+    {
+        RemoteMethod    description = descriptions.get(method);
+        if(description == null)
+        {
+            RemoteMethod    created = new RemoteMethod(method);
+            description = descriptions.putIfAbsent(method, created);
+            if(description == null)
+                description = created;
+        }
+
+        return description;
+    }
+
+    /** Returns <code>true</code> if the method declares an exception of
+        exactly the given class. Stubs rethrow such exceptions as they are, and
+        wrap all others in <code>RMIException</code>. */
+    boolean declares(Class<?> exceptionClass)
+    {
+        for(Class<?> type : exceptionTypes)
+        {
+            if(type == exceptionClass)
+                return true;
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,146 @@
+package rmi;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/** Cursor over a streamed result, kept by the skeleton that produced it.
+
+    <p>
+    The cursor holds the iterator or stream returned by the server method, and
+    takes elements from it only when the client asks for them, at most
+    <code>MAX_CHUNK</code> at a time. The skeleton therefore holds no more
+    than one chunk of the result at once, however large the result is.
+
+    <p>
+    The source is closed, if it is a stream or an iterator implementing
+    <code>AutoCloseable</code>, when its last element has been taken, when
+    producing an element throws an exception, when the client closes the
+    cursor, and when the cursor is unexported because the client no longer
+    holds a lease on it. Exceptions thrown while closing the source are
+    ignored, since there is no caller to report them to.
+ */
+final class ResultCursor implements RemoteCursor
+{
+    /** Number of elements sent with the reply to the call. */
+    static final int    FIRST_CHUNK = 64;
+    /** Largest number of elements returned by <code>next</code>. */
+    static final int    MAX_CHUNK = 4096;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Iterator over the remaining elements, or <code>null</code> if the
+        cursor is exhausted or closed. Guarded by <code>lock</code>. */
+    private Iterator<?>         source;
+    /** Stream or iterator to close with the cursor, or <code>null</code>.
+        Guarded by <code>lock</code>. */
+    private AutoCloseable       resource;
+
+    /** Creates a cursor over the result of a call.
+
+        @param result An <code>Iterator</code> or a <code>Stream</code>.
+     */
+    ResultCursor(Object result)
+    {
+        if(result instanceof Stream)
+            source = ((Stream<?>)result).iterator();
+        else
+            source = (Iterator<?>)result;
+
+        if(result instanceof AutoCloseable)
+            resource = (AutoCloseable)result;
+    }
+
+    /** Returns <code>true</code> if the cursor has no further elements. */
+    boolean exhausted()
+    {
+        lock.lock();
+        try
+        {
+            return source == null;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** {@inheritDoc}
+
+        <p>
+        Exceptions thrown by the source are thrown by this method, and close
+        the cursor.
+     */
+    @Override
+    public Object[] next(int count)
+    {
+        if(count < 1)
+            throw new IllegalArgumentException("element count not positive");
+
+        lock.lock();
+        try
+        {
+            if(source == null)
+                return new Object[0];
+
+            Object[]    chunk = new Object[Math.min(count, MAX_CHUNK)];
+            int         size = 0;
+            try
+            {
+                while(size < chunk.length && source.hasNext())
+                    chunk[size++] = source.next();
+            }
+            catch(RuntimeException | Error e)
+            {
+                closeSource();
+                throw e;
+            }
+
+            if(size < chunk.length)
+            {
+                closeSource();
+                chunk = Arrays.copyOf(chunk, size);
+            }
+
+            return chunk;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        lock.lock();
+        try
+        {
+            closeSource();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Drops the source, closing it if it can be closed. The caller must
+        hold <code>lock</code>. */
+    private void closeSource()
+    {
+        AutoCloseable   closing = resource;
+        source = null;
+        resource = null;
+        if(closing == null)
+            return;
+
+        try
+        {
+            closing.close();
+        }
+        catch(Exception e)
+        {
+            // The source is dropped all the same.
+        }
+    }
+}
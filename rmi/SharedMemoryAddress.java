@@ -0,0 +1,74 @@
+package rmi;
+
+import java.net.SocketAddress;
+import java.nio.file.Path;
+
+/** Address of a skeleton accepting shared memory connections.
+
+    <p>
+    A skeleton given a directory with <code>Skeleton.setSharedMemory</code>
+    accepts connections from processes on the same host through files
+    created in the directory. The address names the directory, and the wait
+    strategy used by the threads of this end of each connection.
+ */
+public final class SharedMemoryAddress extends SocketAddress
+{
+    private static final long   serialVersionUID = 1L;
+
+    /** The directory, kept as a string since paths are not
+        serializable. */
+    private final String        directory;
+    private final WaitStrategy  strategy;
+
+    /** Creates an address.
+
+        @param directory The directory in which the skeleton accepts
+                         connections.
+        @param strategy The wait strategy for this end of connections.
+        @throws NullPointerException If either argument is
+                                     <code>null</code>.
+     */
+    public SharedMemoryAddress(Path directory, WaitStrategy strategy)
+    {
+        if(directory == null || strategy == null)
+            throw new NullPointerException("directory or strategy is null");
+
+        this.directory = directory.toAbsolutePath().toString();
+        this.strategy = strategy;
+    }
+
+    /** Returns the directory in which the skeleton accepts connections. */
+    public Path getDirectory()
+    {
+        return Path.of(directory);
+    }
+
+    /** Returns the wait strategy for this end of connections. */
+    public WaitStrategy getStrategy()
+    {
+        return strategy;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if(!(other instanceof SharedMemoryAddress))
+            return false;
+
+        SharedMemoryAddress address = (SharedMemoryAddress)other;
+        return directory.equals(address.directory) &&
+               strategy == address.strategy;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return directory.hashCode() * 31 + strategy.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "shm:" + directory + " (" + strategy + ")";
+    }
+}
@@ -0,0 +1,639 @@
+package rmi;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AlreadyConnectedException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/** Connection between a stub and a skeleton through a memory-mapped file.
+
+    <p>
+    Both processes map the same file, which holds a pair of single-producer,
+    single-consumer ring buffers: one carrying bytes from the stub to the
+    skeleton, and the other carrying bytes back. Each ring has a write
+    position, advanced by its producer, and a read position, advanced by its
+    consumer, published with release and read with acquire ordering. Bytes
+    never pass through the kernel once the connection is established, and a
+    waiting thread polls the ring according to a <code>WaitStrategy</code>
+    rather than blocking in a system call.
+
+    <p>
+    The channel presents the rings as a connected, blocking socket channel,
+    so that connections and connection handlers use it as they use TCP and
+    Unix domain socket channels. It cannot be registered with a selector. At
+    most one thread may read, and one write, at a time; connections already
+    serialize their writes.
+
+    <p>
+    The file is laid out as a header followed by the two rings. A stub
+    creates the file in the skeleton's directory under a temporary name, and
+    renames it to end with <code>.ring</code> to offer it to the skeleton
+    (see <code>SharedMemoryListener</code>). The skeleton maps the file,
+    marks it accepted, and removes it; both mappings remain valid. Each end
+    records its process ID, so that a thread waiting on a peer that has
+    exited without closing the connection eventually fails.
+ */
+final class SharedMemoryChannel extends SocketChannel
+{
+    /** Suffix of the names of files offered to a skeleton. */
+    static final String         OFFERED_SUFFIX = ".ring";
+    /** Suffix of the names of files being prepared by a stub. */
+    static final String         PREPARED_SUFFIX = ".tmp";
+    /** Name of the file locked by the skeleton listening in a directory. */
+    static final String         LOCK_FILE = "listening.lock";
+
+    /** Capacity of each ring, in bytes. A power of two. */
+    private static final int    RING_CAPACITY = 1 << 18;
+
+    // Layout of the file header.
+    private static final int    MAGIC = 0x524d4953;
+    private static final int    MAGIC_OFFSET = 0;
+    private static final int    STATE_OFFSET = 4;
+    private static final int    CAPACITY_OFFSET = 8;
+    private static final int    CLIENT_PID_OFFSET = 16;
+    private static final int    SERVER_PID_OFFSET = 24;
+    private static final int    HEADER_SIZE = 64;
+
+    // States of a connection file.
+    private static final int    OFFERED = 0;
+    private static final int    ACCEPTED = 1;
+
+    /** Time a stub waits for the skeleton to accept a connection. */
+    private static final long   ACCEPT_TIMEOUT_NANOS =
+        TimeUnit.SECONDS.toNanos(5);
+    /** Interval at which a stub checks whether its connection has been
+        accepted. */
+    private static final long   ACCEPT_POLL_NANOS =
+        TimeUnit.MICROSECONDS.toNanos(100);
+    /** Interval at which a waiting thread checks that the peer process is
+        still running. */
+    private static final long   LIVENESS_INTERVAL_NANOS =
+        TimeUnit.SECONDS.toNanos(1);
+    /** Polls between checks of the time, while waiting. */
+    private static final int    CLOCK_POLLS = 1024;
+
+    private static final VarHandle  INT =
+        MethodHandles.byteBufferViewVarHandle(int[].class,
+                                              ByteOrder.nativeOrder());
+    private static final VarHandle  LONG =
+        MethodHandles.byteBufferViewVarHandle(long[].class,
+                                              ByteOrder.nativeOrder());
+
+    private final SharedMemoryAddress   address;
+    private final Ring                  input;
+    private final Ring                  output;
+    private final WaitStrategy          strategy;
+    /** Process ID of the other end. */
+    private final long                  peer;
+
+    private volatile boolean            inputShutdown;
+    private volatile boolean            outputShutdown;
+
+    /** Creates one end of a connection over a mapped file. */
+    private SharedMemoryChannel(SharedMemoryAddress address,
+                                MappedByteBuffer mapping, boolean client)
+    {
+        super(SelectorProvider.provider());
+
+        int     capacity = mapping.getInt(CAPACITY_OFFSET);
+        Ring    toServer = new Ring(mapping, HEADER_SIZE, capacity);
+        Ring    toClient = new Ring(mapping, HEADER_SIZE + Ring.size(capacity),
+                                    capacity);
+
+        this.address = address;
+        this.strategy = address.getStrategy();
+        this.input = client ? toClient : toServer;
+        this.output = client ? toServer : toClient;
+        this.peer = mapping.getLong(client ? SERVER_PID_OFFSET
+                                           : CLIENT_PID_OFFSET);
+    }
+
+    /** Opens a connection to the skeleton listening in a directory.
+
+        @throws ConnectException If no skeleton is listening in the
+                                 directory, or it does not accept the
+                                 connection in time.
+        @throws IOException If the connection file cannot be created.
+     */
+    static SharedMemoryChannel connect(SharedMemoryAddress address)
+        throws IOException
+    {
+        Path                directory = address.getDirectory();
+        if(!isListening(directory))
+            throw new ConnectException("no skeleton listening at " + address);
+
+        String              name = UUID.randomUUID().toString();
+        Path                prepared = directory.resolve(name + PREPARED_SUFFIX);
+        Path                offered = directory.resolve(name + OFFERED_SUFFIX);
+        MappedByteBuffer    mapping;
+        try(FileChannel file = FileChannel.open(prepared,
+                                                StandardOpenOption.CREATE_NEW,
+                                                StandardOpenOption.READ,
+                                                StandardOpenOption.WRITE))
+        {
+            mapping = file.map(FileChannel.MapMode.READ_WRITE, 0,
+                               HEADER_SIZE + 2 * Ring.size(RING_CAPACITY));
+        }
+
+        mapping.order(ByteOrder.nativeOrder());
+        mapping.putInt(CAPACITY_OFFSET, RING_CAPACITY);
+        mapping.putLong(CLIENT_PID_OFFSET, ProcessHandle.current().pid());
+        mapping.putInt(MAGIC_OFFSET, MAGIC);
+
+        try
+        {
+            Files.move(prepared, offered, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException e)
+        {
+            Files.deleteIfExists(prepared);
+            throw e;
+        }
+
+        long                deadline = System.nanoTime() + ACCEPT_TIMEOUT_NANOS;
+        while((int)INT.getAcquire(mapping, STATE_OFFSET) != ACCEPTED)
+        {
+            if(System.nanoTime() - deadline > 0 || !isListening(directory))
+            {
+                // The skeleton may accept the file just as the stub gives up.
+                // Closing the stub's end lets such a connection end at once.
+                Files.deleteIfExists(offered);
+                new SharedMemoryChannel(address, mapping, true).close();
+                throw new ConnectException("skeleton at " + address +
+                                           " did not accept connection");
+            }
+
+            LockSupport.parkNanos(ACCEPT_POLL_NANOS);
+        }
+
+        return new SharedMemoryChannel(address, mapping, true);
+    }
+
+    /** Accepts a connection offered by a stub.
+
+        @param address The address of the accepting skeleton.
+        @param offered The connection file.
+        @return The skeleton's end of the connection, or <code>null</code> if
+                the file has been withdrawn by the stub.
+        @throws IOException If the file is not a connection file, or cannot
+                            be mapped. The file is removed.
+     */
+    static SharedMemoryChannel accept(SharedMemoryAddress address, Path offered)
+        throws IOException
+    {
+        MappedByteBuffer    mapping;
+        try
+        {
+            try(FileChannel file = FileChannel.open(offered,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE))
+            {
+                long    size = file.size();
+                if(size < HEADER_SIZE)
+                    throw new IOException("malformed connection file " + offered);
+                mapping = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+        catch(NoSuchFileException e)
+        {
+            return null;
+        }
+        finally
+        {
+            Files.deleteIfExists(offered);
+        }
+
+        mapping.order(ByteOrder.nativeOrder());
+        int     capacity = mapping.getInt(CAPACITY_OFFSET);
+        if(mapping.getInt(MAGIC_OFFSET) != MAGIC || capacity <= 0 ||
+           Integer.bitCount(capacity) != 1 ||
+           mapping.capacity() < HEADER_SIZE + 2L * Ring.size(capacity))
+        {
+            throw new IOException("malformed connection file " + offered);
+        }
+
+        mapping.putLong(SERVER_PID_OFFSET, ProcessHandle.current().pid());
+        INT.setRelease(mapping, STATE_OFFSET, ACCEPTED);
+        return new SharedMemoryChannel(address, mapping, false);
+    }
+
+    /** Returns <code>true</code> if a skeleton holds the lock of a
+        directory. */
+    private static boolean isListening(Path directory) throws IOException
+    {
+        try(FileChannel file = FileChannel.open(directory.resolve(LOCK_FILE),
+                                                StandardOpenOption.WRITE))
+        {
+            FileLock    lock = file.tryLock();
+            if(lock == null)
+                return true;
+
+            lock.release();
+            return false;
+        }
+        catch(OverlappingFileLockException e)
+        {
+            // The lock is held in this process.
+            return true;
+        }
+        catch(NoSuchFileException e)
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException
+    {
+        ensureOpen();
+        if(inputShutdown)
+            return -1;
+        if(!destination.hasRemaining())
+            return 0;
+
+        Waiter      waiter = new Waiter();
+        while(true)
+        {
+            int     read = input.read(destination);
+            if(read > 0)
+                return read;
+
+            // The producer closes its ring after writing its last bytes, so
+            // the ring is read once more after the flag is seen.
+            if(input.producerClosed())
+            {
+                read = input.read(destination);
+                return read > 0 ? read : -1;
+            }
+
+            if(inputShutdown)
+                return -1;
+            ensureOpenWhileWaiting();
+            waiter.idle();
+        }
+    }
+
+    @Override
+    public long read(ByteBuffer[] destinations, int offset, int length)
+        throws IOException
+    {
+        long    total = 0;
+        for(int index = offset; index < offset + length; ++index)
+        {
+            ByteBuffer  destination = destinations[index];
+            if(!destination.hasRemaining())
+                continue;
+
+            // Wait only for the first bytes, and then take what is
+            // available.
+            if(total == 0)
+            {
+                int     read = read(destination);
+                if(read < 0)
+                    return -1;
+                total = read;
+            }
+
+            int         read;
+            while(destination.hasRemaining() &&
+                  (read = input.read(destination)) > 0)
+            {
+                total += read;
+            }
+
+            if(destination.hasRemaining())
+                break;
+        }
+
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer source) throws IOException
+    {
+        ensureOpen();
+        if(outputShutdown)
+            throw new ClosedChannelException();
+
+        int         total = 0;
+        Waiter      waiter = new Waiter();
+        while(source.hasRemaining())
+        {
+            if(output.consumerClosed())
+            {
+                if(input.producerClosed())
+                    throw new IOException("connection closed by peer");
+
+                // The peer has shut down its input but may still write, as
+                // a retiring skeleton does. Bytes it will not read are
+                // discarded, as by a TCP socket.
+                total += source.remaining();
+                source.position(source.limit());
+                break;
+            }
+
+            int     written = output.write(source);
+            if(written > 0)
+            {
+                total += written;
+                waiter = new Waiter();
+                continue;
+            }
+
+            ensureOpenWhileWaiting();
+            waiter.idle();
+        }
+
+        return total;
+    }
+
+    @Override
+    public long write(ByteBuffer[] sources, int offset, int length)
+        throws IOException
+    {
+        long    total = 0;
+        for(int index = offset; index < offset + length; ++index)
+            total += write(sources[index]);
+        return total;
+    }
+
+    @Override
+    public SocketChannel shutdownInput() throws IOException
+    {
+        ensureOpen();
+        inputShutdown = true;
+        input.closeConsumer();
+        return this;
+    }
+
+    @Override
+    public SocketChannel shutdownOutput() throws IOException
+    {
+        ensureOpen();
+        outputShutdown = true;
+        output.closeProducer();
+        return this;
+    }
+
+    @Override
+    protected void implCloseSelectableChannel()
+    {
+        output.closeProducer();
+        input.closeConsumer();
+    }
+
+    @Override
+    protected void implConfigureBlocking(boolean block) throws IOException
+    {
+        if(!block)
+            throw new IOException("shared memory channels are blocking only");
+    }
+
+    @Override
+    public SocketChannel bind(SocketAddress local)
+    {
+        throw new AlreadyConnectedException();
+    }
+
+    @Override
+    public boolean connect(SocketAddress remote)
+    {
+        throw new AlreadyConnectedException();
+    }
+
+    @Override
+    public boolean finishConnect()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        return isOpen();
+    }
+
+    @Override
+    public boolean isConnectionPending()
+    {
+        return false;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() throws IOException
+    {
+        ensureOpen();
+        return address;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() throws IOException
+    {
+        ensureOpen();
+        return address;
+    }
+
+    @Override
+    public Socket socket()
+    {
+        throw new UnsupportedOperationException("no socket for shared memory " +
+                                                "channels");
+    }
+
+    @Override
+    public Set<SocketOption<?>> supportedOptions()
+    {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public <V> SocketChannel setOption(SocketOption<V> name, V value)
+    {
+        throw new UnsupportedOperationException("'" + name + "' not supported");
+    }
+
+    @Override
+    public <V> V getOption(SocketOption<V> name)
+    {
+        throw new UnsupportedOperationException("'" + name + "' not supported");
+    }
+
+    /** Throws if the channel has been closed. */
+    private void ensureOpen() throws ClosedChannelException
+    {
+        if(!isOpen())
+            throw new ClosedChannelException();
+    }
+
+    /** Throws if the channel has been closed by another thread while this
+        thread was waiting. */
+    private void ensureOpenWhileWaiting() throws AsynchronousCloseException
+    {
+        if(!isOpen())
+            throw new AsynchronousCloseException();
+    }
+
+    /** Idles a thread between polls of a ring, and checks from time to time
+        that the peer process is still running. */
+    private final class Waiter
+    {
+        private int     attempt;
+        private long    checked = System.nanoTime();
+
+        void idle() throws IOException
+        {
+            if(++attempt % CLOCK_POLLS == 0)
+            {
+                long    now = System.nanoTime();
+                if(now - checked >= LIVENESS_INTERVAL_NANOS)
+                {
+                    checked = now;
+                    if(!ProcessHandle.of(peer).map(ProcessHandle::isAlive)
+                                     .orElse(false))
+                    {
+                        throw new IOException("process " + peer + " at the " +
+                                              "other end has exited");
+                    }
+                }
+            }
+
+            strategy.idle(attempt);
+        }
+    }
+
+    /** Single-producer, single-consumer ring buffer in a mapped file.
+
+        <p>
+        The producer and consumer each own one position, counting all the
+        bytes written or read so far. Each keeps its own position locally,
+        and publishes it after copying bytes. The bytes between the read and
+        write positions, modulo the capacity, are those written and not yet
+        read.
+     */
+    private static final class Ring
+    {
+        // Offsets within the ring. Positions are kept on separate cache
+        // lines, so that the producer and consumer do not contend.
+        private static final int    WRITE_POSITION = 0;
+        private static final int    READ_POSITION = 64;
+        private static final int    PRODUCER_CLOSED = 128;
+        private static final int    CONSUMER_CLOSED = 132;
+        private static final int    DATA = 192;
+
+        private final ByteBuffer    mapping;
+        private final int           base;
+        private final int           capacity;
+        private final ByteBuffer    data;
+        /** Position owned by this end: the write position of a producer,
+            or the read position of a consumer. */
+        private long                position;
+
+        Ring(ByteBuffer mapping, int base, int capacity)
+        {
+            this.mapping = mapping;
+            this.base = base;
+            this.capacity = capacity;
+            this.data = mapping.slice(base + DATA, capacity);
+        }
+
+        /** Returns the size of a ring with the given capacity. */
+        static int size(int capacity)
+        {
+            return DATA + capacity;
+        }
+
+        /** Copies as many bytes as fit into the ring.
+
+            @return The number of bytes copied.
+         */
+        int write(ByteBuffer source)
+        {
+            long    read = (long)LONG.getAcquire(mapping, base + READ_POSITION);
+            int     count = Math.min(source.remaining(),
+                                     capacity - (int)(position - read));
+            if(count <= 0)
+                return 0;
+
+            int     index = (int)(position & (capacity - 1));
+            int     first = Math.min(count, capacity - index);
+            data.put(index, source, source.position(), first);
+            data.put(0, source, source.position() + first, count - first);
+            source.position(source.position() + count);
+
+            position += count;
+            LONG.setRelease(mapping, base + WRITE_POSITION, position);
+            return count;
+        }
+
+        /** Copies as many bytes as are available from the ring.
+
+            @return The number of bytes copied.
+         */
+        int read(ByteBuffer destination)
+        {
+            long    written = (long)LONG.getAcquire(mapping,
+                                                    base + WRITE_POSITION);
+            int     count = (int)Math.min(destination.remaining(),
+                                          written - position);
+            if(count <= 0)
+                return 0;
+
+            int     index = (int)(position & (capacity - 1));
+            int     first = Math.min(count, capacity - index);
+            destination.put(destination.position(), data, index, first);
+            destination.put(destination.position() + first, data, 0,
+                            count - first);
+            destination.position(destination.position() + count);
+
+            position += count;
+            LONG.setRelease(mapping, base + READ_POSITION, position);
+            return count;
+        }
+
+        /** Marks that the producer will write no more bytes. */
+        void closeProducer()
+        {
+            INT.setRelease(mapping, base + PRODUCER_CLOSED, 1);
+        }
+
+        /** Marks that the consumer will read no more bytes. */
+        void closeConsumer()
+        {
+            INT.setRelease(mapping, base + CONSUMER_CLOSED, 1);
+        }
+
+        boolean producerClosed()
+        {
+            return (int)INT.getAcquire(mapping, base + PRODUCER_CLOSED) != 0;
+        }
+
+        boolean consumerClosed()
+        {
+            return (int)INT.getAcquire(mapping, base + CONSUMER_CLOSED) != 0;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.channels.AlreadyBoundException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Accepts shared memory connections offered in a directory.
+
+    <p>
+    A skeleton listening for shared memory connections (see
+    <code>Skeleton.setSharedMemory</code>) holds a lock on a file in its
+    directory, so that stubs can tell that it is listening and a second
+    skeleton cannot listen in the same directory. Stubs offer connections by
+    creating files in the directory (see <code>SharedMemoryChannel</code>),
+    which the listener notices through a watch service, and by scanning the
+    directory periodically in case an event is lost.
+
+    <p>
+    The listener presents itself as a blocking server socket channel, so
+    that the skeleton accepts connections from it with the same listening
+    thread it uses for sockets. It cannot be registered with a selector.
+ */
+final class SharedMemoryListener extends ServerSocketChannel
+{
+    /** Longest wait for a watch event before the directory is scanned
+        again. */
+    private static final long   SCAN_INTERVAL_MILLISECONDS = 100;
+
+    private final SharedMemoryAddress   address;
+    private final FileChannel           lockFile;
+    private final FileLock              lock;
+    private final WatchService          watcher;
+    /** Connection files found and not yet accepted. Used only by the
+        accepting thread. */
+    private final Queue<Path>           offered = new ArrayDeque<>();
+
+    private SharedMemoryListener(SharedMemoryAddress address,
+                                 FileChannel lockFile, FileLock lock,
+                                 WatchService watcher)
+    {
+        super(SelectorProvider.provider());
+        this.address = address;
+        this.lockFile = lockFile;
+        this.lock = lock;
+        this.watcher = watcher;
+    }
+
+    /** Starts listening in a directory, which is created if necessary.
+
+        <p>
+        Connection files left in the directory by stubs that offered them to
+        a skeleton that has since exited are removed.
+
+        @throws IOException If another skeleton is listening in the
+                            directory, or the directory cannot be watched.
+     */
+    static SharedMemoryListener listen(SharedMemoryAddress address)
+        throws IOException
+    {
+        Path            directory = address.getDirectory();
+        Files.createDirectories(directory);
+
+        FileChannel     lockFile =
+            FileChannel.open(directory.resolve(SharedMemoryChannel.LOCK_FILE),
+                             StandardOpenOption.CREATE,
+                             StandardOpenOption.WRITE);
+        FileLock        lock;
+        try
+        {
+            lock = lockFile.tryLock();
+        }
+        catch(OverlappingFileLockException e)
+        {
+            lock = null;
+        }
+
+        if(lock == null)
+        {
+            lockFile.close();
+            throw new IOException("shared memory directory " + directory +
+                                  " is in use");
+        }
+
+        WatchService    watcher = null;
+        try
+        {
+            removeStaleFiles(directory);
+            watcher = FileSystems.getDefault().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+        }
+        catch(IOException e)
+        {
+            if(watcher != null)
+                watcher.close();
+            lockFile.close();
+            throw e;
+        }
+
+        return new SharedMemoryListener(address, lockFile, lock, watcher);
+    }
+
+    /** Removes connection files from a directory. */
+    private static void removeStaleFiles(Path directory) throws IOException
+    {
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                "*{" + SharedMemoryChannel.OFFERED_SUFFIX + "," +
+                SharedMemoryChannel.PREPARED_SUFFIX + "}"))
+        {
+            for(Path file : files)
+                Files.deleteIfExists(file);
+        }
+    }
+
+    /** Waits for a stub to offer a connection, and accepts it. Files that
+        are not connection files are removed and skipped.
+
+        @throws AsynchronousCloseException If the listener is closed while
+                                           waiting.
+     */
+    @Override
+    public SocketChannel accept() throws IOException
+    {
+        try
+        {
+            while(true)
+            {
+                if(!isOpen())
+                    throw new ClosedChannelException();
+
+                Path    file = offered.poll();
+                if(file != null)
+                {
+                    SharedMemoryChannel channel;
+                    try
+                    {
+                        channel = SharedMemoryChannel.accept(address, file);
+                    }
+                    catch(IOException e)
+                    {
+                        if(!isOpen())
+                            throw e;
+                        continue;
+                    }
+
+                    if(channel != null)
+                        return channel;
+                    continue;
+                }
+
+                scan();
+                if(!offered.isEmpty())
+                    continue;
+
+                WatchKey    key =
+                    watcher.poll(SCAN_INTERVAL_MILLISECONDS,
+                                 TimeUnit.MILLISECONDS);
+                if(key != null)
+                {
+                    key.pollEvents();
+                    key.reset();
+                }
+            }
+        }
+        catch(ClosedWatchServiceException e)
+        {
+            throw new AsynchronousCloseException();
+        }
+        catch(InterruptedException e)
+        {
+            close();
+            Thread.currentThread().interrupt();
+            throw new ClosedByInterruptException();
+        }
+    }
+
+    /** Queues the connection files in the directory. */
+    private void scan() throws IOException
+    {
+        try(DirectoryStream<Path> files =
+                Files.newDirectoryStream(address.getDirectory(),
+                                         "*" + SharedMemoryChannel.OFFERED_SUFFIX))
+        {
+            for(Path file : files)
+                offered.add(file);
+        }
+    }
+
+    /** Stops listening. The lock file is removed, and stubs can no longer
+        connect. Connections already accepted are unaffected. */
+    @Override
+    protected void implCloseSelectableChannel() throws IOException
+    {
+        watcher.close();
+        Files.deleteIfExists(address.getDirectory()
+                             .resolve(SharedMemoryChannel.LOCK_FILE));
+        try
+        {
+            lock.release();
+        }
+        finally
+        {
+            lockFile.close();
+        }
+    }
+
+    @Override
+    protected void implConfigureBlocking(boolean block) throws IOException
+    {
+        if(!block)
+            throw new IOException("shared memory listeners are blocking only");
+    }
+
+    @Override
+    public ServerSocketChannel bind(SocketAddress local, int backlog)
+    {
+        throw new AlreadyBoundException();
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() throws IOException
+    {
+        if(!isOpen())
+            throw new ClosedChannelException();
+        return address;
+    }
+
+    @Override
+    public ServerSocket socket()
+    {
+        throw new UnsupportedOperationException("no socket for shared memory " +
+                                                "listeners");
+    }
+
+    @Override
+    public Set<SocketOption<?>> supportedOptions()
+    {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public <V> ServerSocketChannel setOption(SocketOption<V> name, V value)
+    {
+        throw new UnsupportedOperationException("'" + name + "' not supported");
+    }
+
+    @Override
+    public <V> V getOption(SocketOption<V> name)
+    {
+        throw new UnsupportedOperationException("'" + name + "' not supported");
+    }
+}
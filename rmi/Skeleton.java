@@ -1,13 +1,31 @@
 package rmi;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 /**
  * Created by saurabh on 17/04/16.
  */
@@ -32,16 +50,120 @@ import java.util.Set;
  The skeleton's response to these exceptions can be customized by deriving
  a class from <code>Skeleton</code> and overriding <code>listen_error</code>
  or <code>service_error</code>.
+
+ <p>
+ Connections are served by one of two engines, selected with
+ <code>setEngine</code> before the skeleton is started. The default
+ <code>BLOCKING</code> engine dedicates a thread to each connection. The
+ <code>NIO</code> engine serves all connections from a small number of
+ selector threads, which suits skeletons with many mostly idle connections.
+ With either engine, each call is executed in a worker thread of its own,
+ unless a bounded worker pool is configured with <code>setWorkerPool</code>.
+
+ <p>
+ A skeleton may also listen on a Unix domain socket, given with
+ <code>setUnixSocket</code>. Stubs for the skeleton on the same host then
+ connect through the socket rather than loopback TCP. For the lowest
+ latency between processes on the same host, a skeleton may also accept
+ connections through memory-mapped files in a directory given with
+ <code>setSharedMemory</code>.
+
+ <p>
+ Calls to methods marked <code>Idempotent</code> can also be accepted in
+ UDP datagrams, with <code>setDatagramCalls</code>, saving small calls the
+ cost of a connection.
+
+ <p>
+ Stubs in the same process can be allowed to call the skeleton directly,
+ without a connection, with <code>setLocalCalls</code>.
+
+ <p>
+ Remote objects returned by calls are exported from the skeleton for as long
+ as stubs for them are held by clients. Clients renew leases on the objects
+ while they hold the stubs; objects whose leases expire, or are released, are
+ unexported. See <code>setLeaseDuration</code>.
  */
 public class Skeleton<T>
 {
+    /** Kinds of thread used to run connection handlers and calls. */
+    public enum ThreadMode
+    {
+        /** Each connection handler and call runs on a platform thread. */
+        PLATFORM,
+        /** Each connection handler and call runs on a virtual thread. Idle
+         connections and blocked calls then do not tie up platform threads.
+         Requires a Java runtime with virtual thread support. */
+        VIRTUAL
+    }
+
+    /** Server engines available to a skeleton. */
+    public enum Engine
+    {
+        /** A listening thread accepts connections, and each connection is
+         served by its own thread using blocking I/O. */
+        BLOCKING,
+        /** Connections are accepted and served by a small number of event
+         loop threads using non-blocking I/O. */
+        NIO
+    }
+
+    /** Handling of calls from stubs in the same process as the skeleton. */
+    public enum LocalCalls
+    {
+        /** Calls are made over a connection, as for stubs in other
+         processes. */
+        NETWORK,
+        /** Calls are made directly on the calling thread. Arguments and
+         results are copied through the codec, so that the caller and the
+         server never share objects. */
+        COPY,
+        /** As <code>COPY</code>, except that arguments and results that
+         cannot be modified are not copied (see <code>Immutable</code>). */
+        SHARE_IMMUTABLE
+    }
+
     private Class<T> classObject;
     private T serverObject;
     private InetSocketAddress socketAddress;
     private boolean addressFlag;
     private ListeningThread listeningThread;
-    private ServerSocket serverListener;
-    private final Set<ClientHandler> clientHandlers = new HashSet<>();
+    private ServerSocketChannel serverListener;
+    private UnixDomainSocketAddress unixSocket;
+    private ListeningThread unixListeningThread;
+    private ServerSocketChannel unixListener;
+    private SharedMemoryAddress sharedMemory;
+    private ListeningThread sharedMemoryListeningThread;
+    private SharedMemoryListener sharedMemoryListener;
+    private boolean datagramCalls;
+    private volatile DatagramServer datagramServer;
+    private final Set<ClientHandler> clientHandlers = ConcurrentHashMap.newKeySet();
+    private Engine engine = Engine.BLOCKING;
+    private int eventLoopThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private NioEngine nioEngine;
+    private ThreadFactory threadFactory = PLATFORM_THREADS;
+    private volatile LocalCalls localCalls = LocalCalls.NETWORK;
+    private final ObjectTable objects;
+    private final String[] signatures;
+    private int workerThreads;
+    private int workerQueueCapacity;
+    private RejectionPolicy rejectionPolicy;
+    private volatile ThreadPoolExecutor workers;
+    private final AtomicLong rejectedCalls = new AtomicLong();
+    private ScheduledFuture<?> reaping;
+
+    /** Unexports objects with expired leases, for all skeletons. */
+    private static ScheduledExecutorService reaper;
+
+    /** Idle time after which a pooled worker thread exits. */
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
+    /** Creates a platform thread for each connection handler and call. */
+    private static final ThreadFactory PLATFORM_THREADS = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable);
+        }
+    };
     /** Creates a <code>Skeleton</code> with no initial server address. The
      address will be determined by the system when <code>start</code> is
      called. Equivalent to using <code>Skeleton(null)</code>.
@@ -96,9 +218,7 @@ public class Skeleton<T>
 
     public Skeleton(Class<T> c, T server)
     {
-        checkInputs(c, server);
-        this.classObject = c;
-        this.serverObject = server;
+        this(c, server, null);
     }
 
     /** Creates a <code>Skeleton</code> with the given initial server address.
@@ -125,7 +245,8 @@ public class Skeleton<T>
         this.classObject = c;
         this.serverObject = server;
         this.socketAddress = address;
-
+        this.objects = new ObjectTable(server, c);
+        this.signatures = MethodTable.of(c).signatures;
     }
 
 
@@ -152,15 +273,9 @@ public class Skeleton<T>
     {
         while (!clientHandlers.isEmpty()) {
             try {
-                Thread t;
-                synchronized (clientHandlers) {
-                    if (!clientHandlers.isEmpty()) {
-                        t = clientHandlers.iterator().next();
-                    } else {
-                        return;
-                    }
+                for (ClientHandler handler : clientHandlers) {
+                    handler.thread.join();
                 }
-                t.join();
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -198,6 +313,308 @@ public class Skeleton<T>
     {
     }
 
+    /** Sets a Unix domain socket on which the skeleton listens when started,
+     in addition to its TCP address.
+
+     <p>
+     Stubs created from the skeleton, and stubs for objects it exports,
+     connect through the socket when their TCP address belongs to the local
+     host and the socket exists. Stubs may also address the socket directly
+     (see <code>Stub.create(Class, UnixDomainSocketAddress)</code>). A socket
+     file left at the path by a skeleton that has exited is replaced. The
+     file is removed when the skeleton stops.
+
+     @param path The path of the socket, or <code>null</code> to listen on
+     TCP only, which is the default.
+     @throws IllegalStateException If the skeleton is running.
+     */
+    public synchronized void setUnixSocket(Path path)
+    {
+        checkNotRunning();
+        this.unixSocket = path == null ? null : UnixDomainSocketAddress.of(path);
+    }
+
+    /** Returns the Unix domain socket on which the skeleton listens, or
+     <code>null</code> if it listens on TCP only. */
+    public UnixDomainSocketAddress getUnixSocketAddress()
+    {
+        return unixSocket;
+    }
+
+    /** Sets a directory in which the skeleton accepts shared memory
+     connections when started, in addition to its TCP address.
+
+     <p>
+     Stubs on the same host created with
+     <code>Stub.create(Class, SharedMemoryAddress)</code> exchange calls with
+     the skeleton through a memory-mapped file per connection, holding a
+     pair of ring buffers (see <code>SharedMemoryChannel</code>). Calls then
+     avoid the kernel's socket path entirely. Threads at either end of a
+     connection poll for data, waiting between polls according to the given
+     strategy; with <code>BUSY_SPIN</code>, each connection occupies a
+     processor at each end while it is open.
+
+     <p>
+     Shared memory connections are served by a thread each, whichever engine
+     is selected. The directory is created if necessary. Only one skeleton
+     can accept connections in a directory at a time.
+
+     @param directory The directory, or <code>null</code> to accept
+     connections over sockets only, which is the default.
+     @param strategy The wait strategy of the skeleton's end of connections.
+     Ignored if <code>directory</code> is <code>null</code>.
+     @throws NullPointerException If a directory is given without a wait
+     strategy.
+     @throws IllegalStateException If the skeleton is running.
+     */
+    public synchronized void setSharedMemory(Path directory, WaitStrategy strategy)
+    {
+        checkNotRunning();
+        this.sharedMemory = directory == null ? null : new SharedMemoryAddress(directory, strategy);
+    }
+
+    /** Returns the directory in which the skeleton accepts shared memory
+     connections, with the skeleton's wait strategy, or <code>null</code>
+     if it accepts connections over sockets only. */
+    public SharedMemoryAddress getSharedMemoryAddress()
+    {
+        return sharedMemory;
+    }
+
+    /** Selects whether the skeleton accepts calls to idempotent methods in
+     UDP datagrams when started.
+
+     <p>
+     The skeleton then receives datagrams on the UDP port with the same
+     number as its TCP port, or on another port if that one is in use, and
+     advertises the port to stubs in the method table of each connection
+     (see <code>Frame.METHODS</code>). A stub's first call to the skeleton is
+     therefore always made over a connection. Later calls to methods marked
+     <code>Idempotent</code> are sent in datagrams by stubs that connect to
+     the skeleton over TCP, whenever the call and its reply each fit in a
+     datagram (see <code>DatagramCalls</code>). Calls made through
+     asynchronous stubs and batches are always made over a connection.
+
+     <p>
+     Datagram calls are received by a thread of their own, whichever engine
+     is selected, and are executed as calls received over connections are.
+
+     @param enabled <code>true</code> to accept datagram calls, or
+     <code>false</code> to accept calls over connections only, which is the
+     default.
+     @throws IllegalStateException If the skeleton is running.
+     */
+    public synchronized void setDatagramCalls(boolean enabled)
+    {
+        checkNotRunning();
+        this.datagramCalls = enabled;
+    }
+
+    /** Returns the UDP port on which the skeleton accepts datagram calls, or
+     0 if it is not running or does not accept them. */
+    public int getDatagramPort()
+    {
+        DatagramServer server = datagramServer;
+        return server == null ? 0 : server.port();
+    }
+
+    /** Selects how calls from stubs in the same process are made.
+
+     <p>
+     By default, all calls are made over a connection. Otherwise, while the
+     skeleton runs, stubs in the same process that address it by its TCP
+     port on a local address, or by its Unix domain socket, call the server
+     object directly on the calling thread. Such calls are neither encoded
+     nor sent, and are not subject to the worker pool. Arguments and results
+     are still copied, and remote objects returned by the server are still
+     exported and returned as stubs, so the caller observes the same
+     behavior as over a connection.
+
+     <p>
+     One-way calls, calls with streamed arguments or results, and calls
+     passing byte buffers or file regions are always made over a
+     connection. So are calls made through asynchronous stubs and batches.
+
+     @param mode The handling of calls from stubs in the same process.
+     @throws NullPointerException If <code>mode</code> is <code>null</code>.
+     @throws IllegalStateException If the skeleton is running.
+     */
+    public synchronized void setLocalCalls(LocalCalls mode)
+    {
+        if (mode == null) throw new NullPointerException("Local call mode is null.\n");
+        checkNotRunning();
+        this.localCalls = mode;
+    }
+
+    /** Selects the engine used to serve connections.
+
+     @param engine The engine.
+     @throws NullPointerException If <code>engine</code> is <code>null</code>.
+     @throws IllegalStateException If the skeleton is running.
+     */
+    public synchronized void setEngine(Engine engine)
+    {
+        if (engine == null) throw new NullPointerException("Engine is null.\n");
+        checkNotRunning();
+        this.engine = engine;
+    }
+
+    /** Sets the number of event loop threads used by the <code>NIO</code>
+     engine. The default is half the number of available processors, and at
+     least one.
+
+     @param threads The number of event loop threads.
+     @throws IllegalArgumentException If <code>threads</code> is not
+     positive.
+     @throws IllegalStateException If the skeleton is running.
+     */
+    public synchronized void setEventLoopThreads(int threads)
+    {
+        if (threads < 1) throw new IllegalArgumentException("Event loop thread count must be positive.\n");
+        checkNotRunning();
+        this.eventLoopThreads = threads;
+    }
+
+    /** Selects the kind of thread used to run connection handlers and calls.
+
+     <p>
+     The programming model is the same in either mode: handlers and server
+     methods may block. In <code>VIRTUAL</code> mode, blocking releases the
+     underlying carrier thread, so a skeleton can hold many more mostly idle
+     connections. The listening thread and the event loops of the
+     <code>NIO</code> engine always run on platform threads.
+
+     @param mode The thread mode.
+     @throws NullPointerException If <code>mode</code> is <code>null</code>.
+     @throws UnsupportedOperationException If <code>mode</code> is
+     <code>VIRTUAL</code> and the Java runtime does not support virtual
+     threads.
+     @throws IllegalStateException If the skeleton is running.
+     */
+    public synchronized void setThreadMode(ThreadMode mode)
+    {
+        if (mode == null) throw new NullPointerException("Thread mode is null.\n");
+        checkNotRunning();
+        threadFactory = mode == ThreadMode.VIRTUAL ? virtualThreads() : PLATFORM_THREADS;
+    }
+
+    /** Bounds the number of threads executing calls.
+
+     <p>
+     By default, each call is executed in a new thread, so a burst of calls
+     can create an unbounded number of threads. With a worker pool, at most
+     <code>threads</code> calls execute at once, and up to
+     <code>queueCapacity</code> further calls wait in a queue. Calls arriving
+     while the queue is full are handed to <code>policy</code>, which either
+     waits for room in the queue or refuses the call. Refused calls fail at
+     the stub with an <code>RMIException</code>. Waiting is only possible
+     with the <code>BLOCKING</code> engine (see
+     <code>RejectionPolicy.BLOCK</code>).
+
+     <p>
+     Worker threads are created according to the thread mode, and exit after
+     being idle for a while.
+
+     @param threads The largest number of calls executing at once, or zero
+     to execute each call in a new thread.
+     @param queueCapacity The largest number of calls waiting for a worker.
+     @param policy The policy applied to calls that do not fit in the queue,
+     such as <code>RejectionPolicy.REJECT</code> or
+     <code>RejectionPolicy.BLOCK</code>.
+     @throws IllegalArgumentException If <code>threads</code> or
+     <code>queueCapacity</code> is negative, or <code>threads</code> is
+     positive and <code>queueCapacity</code> is zero.
+     @throws NullPointerException If <code>threads</code> is positive and
+     <code>policy</code> is <code>null</code>.
+     @throws IllegalStateException If the skeleton is running.
+     */
+    public synchronized void setWorkerPool(int threads, int queueCapacity, RejectionPolicy policy)
+    {
+        if (threads < 0) throw new IllegalArgumentException("Worker thread count is negative.\n");
+        if (queueCapacity < 0 || (threads > 0 && queueCapacity == 0))
+            throw new IllegalArgumentException("Worker queue capacity must be positive.\n");
+        if (threads > 0 && policy == null) throw new NullPointerException("Rejection policy is null.\n");
+        checkNotRunning();
+        this.workerThreads = threads;
+        this.workerQueueCapacity = queueCapacity;
+        this.rejectionPolicy = policy;
+    }
+
+    /** Sets the lease duration granted to clients holding stubs for objects
+     exported by the skeleton.
+
+     <p>
+     Clients renew their leases about twice per lease duration. An exported
+     object is unexported once no client has renewed its lease within the
+     lease duration, or once every client has released it. Shorter leases
+     reclaim objects sooner after a client fails, at the cost of more
+     renewal traffic. The default is one minute.
+
+     @param milliseconds The lease duration, in milliseconds.
+     @throws IllegalArgumentException If <code>milliseconds</code> is not
+     positive.
+     @throws IllegalStateException If the skeleton is running.
+     */
+    public synchronized void setLeaseDuration(long milliseconds)
+    {
+        if (milliseconds <= 0) throw new IllegalArgumentException("Lease duration must be positive.\n");
+        checkNotRunning();
+        objects.setLeaseDuration(milliseconds);
+    }
+
+    /** Returns the number of calls waiting for a worker thread. This is
+     always zero if no worker pool is configured. */
+    public int getQueueDepth() {
+        ThreadPoolExecutor pool = workers;
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    /** Returns the number of worker threads currently executing calls, or
+     zero if no worker pool is configured. */
+    public int getActiveWorkers() {
+        ThreadPoolExecutor pool = workers;
+        return pool == null ? 0 : pool.getActiveCount();
+    }
+
+    /** Returns the number of calls refused by the rejection policy since the
+     skeleton was created. */
+    public long getRejectedCalls() {
+        return rejectedCalls.get();
+    }
+
+    /** Returns <code>true</code> if the Java runtime supports
+     <code>ThreadMode.VIRTUAL</code>. */
+    public static boolean virtualThreadsSupported() {
+        try {
+            virtualThreads();
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /** Returns a factory for virtual threads. The factory is obtained
+     reflectively, so that the skeleton can also be built and run on Java
+     runtimes that predate virtual threads. */
+    private static ThreadFactory virtualThreads() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this Java runtime.\n", e);
+        }
+    }
+
+    private boolean running() {
+        return (listeningThread != null && listeningThread.isAlive())
+                || (nioEngine != null && nioEngine.running());
+    }
+
+    private void checkNotRunning() {
+        if (running()) throw new IllegalStateException("Skeleton is running.\n");
+    }
+
     /** Starts the skeleton server.
 
      <p>
@@ -208,14 +625,21 @@ public class Skeleton<T>
 
      @throws RMIException When the listening socket cannot be created or
      bound, when the listening thread cannot be created,
-     or when the server has already been started and has
-     not since stopped.
+     when the server has already been started and has
+     not since stopped, or when the <code>NIO</code> engine
+     is selected together with a worker pool using
+     <code>RejectionPolicy.BLOCK</code>.
      */
     public synchronized void start() throws RMIException
     {
-        if (listeningThread!=null && listeningThread.isAlive()){
+        if (running()){
             throw new RMIException("Listening server is already running!\n");
         }
+        if (engine == Engine.NIO && workerThreads > 0 && rejectionPolicy == RejectionPolicy.BLOCK) {
+            // Waiting for a worker would stop an event loop, and with it
+            // every connection the loop serves.
+            throw new RMIException("The BLOCK rejection policy cannot be used with the NIO engine.\n");
+        }
 
 
         if (socketAddress == null) {
@@ -223,8 +647,8 @@ public class Skeleton<T>
             try {
                 String ip = InetAddress.getLocalHost().getHostAddress();
                 try {
-                    serverListener = new ServerSocket(0);
-                    socketAddress = new InetSocketAddress(ip, serverListener.getLocalPort());
+                    serverListener = listen(0);
+                    socketAddress = new InetSocketAddress(ip, serverListener.socket().getLocalPort());
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -236,7 +660,7 @@ public class Skeleton<T>
         } else {
             addressFlag = true;
             try {
-                serverListener = new ServerSocket(socketAddress.getPort());
+                serverListener = listen(socketAddress.getPort());
             } catch (IOException e) {
                 throw new RMIException("Cannot create listening socket!\n");
             }
@@ -244,9 +668,104 @@ public class Skeleton<T>
 
         // If serverListener is still null:
         if (serverListener==null) throw new RMIException("Cannot create listening socket!\n");
-        listeningThread = new ListeningThread();
+        unixListener = null;
+        if (unixSocket != null) {
+            try {
+                unixListener = UnixSockets.listen(unixSocket);
+            } catch (IOException e) {
+                try {
+                    serverListener.close();
+                } catch (IOException err) {
+                    err.printStackTrace();
+                }
+                throw new RMIException("Cannot create Unix domain socket!\n", e);
+            }
+        }
+        sharedMemoryListener = null;
+        if (sharedMemory != null) {
+            try {
+                sharedMemoryListener = SharedMemoryListener.listen(sharedMemory);
+            } catch (IOException e) {
+                try {
+                    serverListener.close();
+                } catch (IOException err) {
+                    err.printStackTrace();
+                }
+                closeUnixListener();
+                throw new RMIException("Cannot listen for shared memory connections!\n", e);
+            }
+        }
+        if (datagramCalls) {
+            try {
+                datagramServer = new DatagramServer(this, serverListener.socket().getLocalPort());
+            } catch (IOException e) {
+                try {
+                    serverListener.close();
+                } catch (IOException err) {
+                    err.printStackTrace();
+                }
+                closeUnixListener();
+                closeSharedMemoryListener();
+                throw new RMIException("Cannot open datagram socket!\n", e);
+            }
+        }
+        startWorkers();
+        startReaping();
+        if (localCalls != LocalCalls.NETWORK) {
+            LocalSkeletons.register(this, serverListener.socket().getLocalPort(), unixListener == null ? null : unixSocket);
+        }
+        if (engine == Engine.NIO) {
+            List<ServerSocketChannel> listeners = new ArrayList<>();
+            listeners.add(serverListener);
+            if (unixListener != null) listeners.add(unixListener);
+            try {
+                nioEngine = new NioEngine(this, listeners, eventLoopThreads);
+                nioEngine.start();
+            } catch (IOException e) {
+                nioEngine = null;
+                LocalSkeletons.unregister(this);
+                stopWorkers();
+                stopReaping();
+                try {
+                    serverListener.close();
+                } catch (IOException err) {
+                    err.printStackTrace();
+                }
+                closeUnixListener();
+                closeSharedMemoryListener();
+                closeDatagramServer();
+                throw new RMIException("Cannot start event loops!\n", e);
+            }
+            startSharedMemoryListener();
+            startDatagramServer();
+            return;
+        }
+        listeningThread = new ListeningThread(serverListener);
         listeningThread.start();
+        unixListeningThread = null;
+        if (unixListener != null) {
+            unixListeningThread = new ListeningThread(unixListener);
+            unixListeningThread.start();
+        }
+        startSharedMemoryListener();
+        startDatagramServer();
+    }
+
+    /** Starts the thread accepting shared memory connections, if any. The
+     connections are served by connection handler threads with either
+     engine. */
+    private void startSharedMemoryListener() {
+        sharedMemoryListeningThread = null;
+        if (sharedMemoryListener != null) {
+            sharedMemoryListeningThread = new ListeningThread(sharedMemoryListener);
+            sharedMemoryListeningThread.start();
+        }
+    }
 
+    /** Starts the thread receiving datagram calls, if the skeleton accepts
+     them. */
+    private void startDatagramServer() {
+        if (datagramServer != null) datagramServer.start();
     }
 
     /** Stops the skeleton server, if it is already running.
@@ -260,12 +779,42 @@ public class Skeleton<T>
      */
     public synchronized void stop()  {
 //        System.out.println("Stop function is called!");
+        stopReaping();
+        LocalSkeletons.unregister(this);
+        if (nioEngine != null) {
+            nioEngine.stop();
+            nioEngine = null;
+            closeUnixListener();
+            closeDatagramServer();
+            if (sharedMemoryListeningThread != null) {
+                sharedMemoryListeningThread.interrupt = true;
+                closeSharedMemoryListener();
+                try {
+                    sharedMemoryListeningThread.join();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                retireClientHandlers();
+            }
+            stopWorkers();
+            stopped(null);
+            return;
+        }
         if (listeningThread.isAlive()) listeningThread.interrupt = true;
+        if (unixListeningThread != null) unixListeningThread.interrupt = true;
+        if (sharedMemoryListeningThread != null) sharedMemoryListeningThread.interrupt = true;
 
         try {
             serverListener.close();
+            closeUnixListener();
+            closeSharedMemoryListener();
+            closeDatagramServer();
             try {
                 listeningThread.join();
+                if (unixListeningThread != null) unixListeningThread.join();
+                if (sharedMemoryListeningThread != null) sharedMemoryListeningThread.join();
+                retireClientHandlers();
+                stopWorkers();
                 stopped(null); // Close all workers first
             } catch (InterruptedException e) {
                 e.printStackTrace();
@@ -281,6 +830,44 @@ public class Skeleton<T>
 
     }
 
+    /** Closes the Unix domain socket listener, if any, and removes its
+     socket file. */
+    private void closeUnixListener() {
+        if (unixListener != null) UnixSockets.close(unixListener, unixSocket);
+    }
+
+    /** Stops accepting shared memory connections, if the skeleton accepts
+     them, and removes the directory's lock file. */
+    private void closeSharedMemoryListener() {
+        if (sharedMemoryListener == null) return;
+        try {
+            sharedMemoryListener.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Stops receiving datagram calls, if the skeleton accepts them. */
+    private void closeDatagramServer() {
+        DatagramServer server = datagramServer;
+        if (server == null) return;
+        datagramServer = null;
+        server.close();
+    }
+
+    /** Opens a channel listening on the given port. */
+    private static ServerSocketChannel listen(int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
     private void checkInputs(Class<T> c, T server){
         if (c==null) throw new NullPointerException("Class is null.\n");
 
@@ -290,9 +877,28 @@ public class Skeleton<T>
         if (!checkInterface(c)){
             throw new Error("The class does not represent a remote interface - an interface whose methods are all marked as throwing RMIException.\n");
         }
+
+        for (Method method : c.getMethods()) {
+            if (method.isAnnotationPresent(OneWay.class) && method.getReturnType() != void.class) {
+                throw new Error("One-way method " + method.getName() + " does not return void.\n");
+            }
+            if (Upload.count(method) > 1) {
+                throw new Error("Method " + method.getName() + " has more than one streamed parameter.\n");
+            }
+            if (method.isAnnotationPresent(OneWay.class) && Upload.count(method) > 0) {
+                throw new Error("One-way method " + method.getName() + " has a streamed parameter.\n");
+            }
+        }
     }
 
     private boolean checkInterface(Class<T> c){
+        return isRemoteInterface(c);
+    }
+
+    /** Returns <code>true</code> if <code>c</code> is a remote interface: an
+     interface whose methods are all marked as throwing
+     <code>RMIException</code>. */
+    static boolean isRemoteInterface(Class<?> c){
         if (!c.isInterface()) return false;
         Method[] methods = c.getDeclaredMethods();
         for (Method method : methods){
@@ -302,17 +908,34 @@ public class Skeleton<T>
         return true;
     }
 
+    /** Stops all connections from accepting further calls. Each connection is
+     closed once the calls it has already accepted complete. */
+    private void retireClientHandlers(){
+        for (ClientHandler handler : clientHandlers){
+            handler.retire();
+        }
+    }
+
     public InetSocketAddress getSocketAddress(){
         return this.socketAddress;
     }
 
+    /** Accepts connections from one listening channel: the TCP socket, the
+     Unix domain socket, or the shared memory directory. If any listening
+     thread fails, all stop. */
     private class ListeningThread extends Thread{
+        private final ServerSocketChannel listener;
         private volatile boolean interrupt = false;
+
+        ListeningThread(ServerSocketChannel listener) {
+            this.listener = listener;
+        }
+
         public void run() {
             while (!interrupt) {
                 try {
-                    Socket s = serverListener.accept();
-                    (new ClientHandler(s)).start();
+                    SocketChannel s = listener.accept();
+                    (new ClientHandler(s)).thread.start();
                 } catch (IOException e) {
                     if (interrupt){
                         Thread.currentThread().interrupt();
@@ -321,6 +944,16 @@ public class Skeleton<T>
                         if (listen_error(e)){
                             continue;
                         } else {
+                            for (ListeningThread other : Arrays.asList(listeningThread, unixListeningThread, sharedMemoryListeningThread)) {
+                                if (other != null && other != this) other.interrupt = true;
+                            }
+                            closeUnixListener();
+                            closeSharedMemoryListener();
+                            closeDatagramServer();
+                            LocalSkeletons.unregister(Skeleton.this);
+                            retireClientHandlers();
+                            stopWorkers();
+                            stopReaping();
                             stopped(e);
                             try{
                                 serverListener.close();
@@ -336,63 +969,671 @@ public class Skeleton<T>
     }
 
 
-    private class ClientHandler extends Thread{
-        private Socket socket;
-        public ClientHandler(Socket socket){
+    /** Executes a call or batch of calls received over a connection and
+     returns the reply.
+
+     <p>
+     Problems that prevent a call from being executed, such as a request
+     for a method not in the remote interface, are reported to
+     <code>service_error</code> and answered with a <code>FAILURE</code>
+     frame, or a <code>FAILURE</code> outcome within a batch.
+
+     @return The reply, or <code>null</code> if the call is one-way.
+     */
+    Frame serve(Frame call) {
+        return serve(call, null);
+    }
+
+    /** Executes a call received over a connection and returns the reply.
+
+     @param upload The stream of the call's streamed argument, if the call
+     was sent in an <code>UPLOAD</code> frame, or <code>null</code>.
+     @return The reply, or <code>null</code> if the call is one-way.
+     */
+    Frame serve(Frame call, UploadStream upload) {
+        if (call.type == Frame.ONEWAY) {
+            serveOneWay(call);
+            return null;
+        }
+        try {
+            if (call.type == Frame.BATCH) return serveBatch(call);
+            try {
+                if (PrimitiveCall.flagged(Frame.methodId(call.payload))) {
+                    return new Frame(Frame.RETURN, call.requestId, invokePrimitive(call.payload, false), call.codec);
+                }
+                Object result = invoke(call.codec, call.payload, false, null, 0, upload, call.attachments);
+                if (Bulk.isBulkValue(result)) {
+                    // The buffer or region follows the reply, which names it
+                    // by its index.
+                    return new Frame(Frame.RETURN, call.requestId, call.codec.encode(0), call.codec,
+                                     new Object[] {result});
+                }
+                return new Frame(Frame.RETURN, call.requestId, call.codec.encode(result), call.codec);
+            }
+            catch (InvocationTargetException e){
+                return new Frame(Frame.EXCEPTION, call.requestId, call.codec.encode(e.getTargetException()), call.codec);
+            }
+        }
+        catch (Exception e) {
+            RMIException error = new RMIException(e);
+            service_error(error);
+            return failure(call.requestId, error, call.codec);
+        }
+    }
+
+    /** Executes the calls in a batch in order, and returns their outcomes in
+     a single frame. A call that fails does not prevent later calls from
+     being executed.
+
+     <p>
+     Calls may be pipelined: a call may name as its target the remote object
+     returned by an earlier call in the same batch. The earlier call's result
+     is then called directly, without the client first receiving a stub for
+     it. */
+    private Frame serveBatch(Frame batch) throws Exception {
+        Object[] requests = (Object[]) batch.decode();
+        byte[] types = new byte[requests.length];
+        Object[] values = new Object[requests.length];
+        ObjectTable.Entry[] pipeline = new ObjectTable.Entry[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            try {
+                values[i] = invoke(batch.codec, (byte[]) requests[i], false, pipeline, i, null, null);
+                types[i] = Frame.RETURN;
+            } catch (InvocationTargetException e) {
+                values[i] = e.getTargetException();
+                types[i] = Frame.EXCEPTION;
+            } catch (Exception e) {
+                RMIException error = new RMIException(e);
+                service_error(error);
+                values[i] = error;
+                types[i] = Frame.FAILURE;
+            }
+        }
+        return new Frame(Frame.BATCH, batch.requestId, batch.codec.encode(new Object[]{types, values}), batch.codec);
+    }
+
+    /** Executes a call to a one-way method. Since no reply is sent, all
+     problems, including exceptions thrown by the method, are reported to
+     <code>service_error</code>. */
+    private void serveOneWay(Frame call) {
+        try {
+            if (PrimitiveCall.flagged(Frame.methodId(call.payload))) invokePrimitive(call.payload, true);
+            else invoke(call.codec, call.payload, true, null, 0, null, call.attachments);
+        } catch (InvocationTargetException e) {
+            service_error(new RMIException(e.getTargetException()));
+        } catch (Exception e) {
+            service_error(new RMIException(e));
+        }
+    }
+
+    /** Returns <code>true</code> if a call payload names, by its method
+     ID, a method marked <code>Idempotent</code> of an exported object. Only
+     such calls are accepted in datagrams. */
+    boolean idempotent(byte[] call) {
+        if (call.length < 8) return false;
+        int objectId = Frame.objectId(call);
+        ObjectTable.Entry target = objectId >= 0 ? objects.get(objectId) : null;
+        int id = Frame.methodId(call);
+        if (target == null || id == Frame.NO_METHOD_ID) return false;
+        id &= ~PrimitiveCall.FLAG;
+        return id >= 0 && id < target.invokers.length && target.invokers[id].idempotent;
+    }
+
+    /** Executes a call payload and returns its result.
+
+     <p>
+     The method is found by indexing the invoker array with the call's
+     method ID. Calls from stubs whose interface differs from the
+     skeleton's may instead name a method; it is then looked up in the
+     remote interface, so that methods outside the interface cannot be
+     called.
+
+     @param codec The codec with which the call is encoded.
+     @param oneWay <code>true</code> if the request was sent as a one-way
+     call. The method must then be marked <code>OneWay</code>.
+     @throws InvocationTargetException If the method throws an exception.
+     @throws Exception If the method cannot be called.
+     */
+    private Object invoke(Codec codec, byte[] call, boolean oneWay) throws Exception {
+        return invoke(codec, call, oneWay, null, 0, null, null);
+    }
+
+    /** Executes a call payload that may be part of a batch.
+
+     @param pipeline The remote objects returned by the earlier calls of the
+     batch, which pipelined calls may target, or <code>null</code> if the
+     call is not part of a batch. If the call returns a remote object, the
+     object is stored at <code>pipeline[index]</code>.
+     @param index The index of the call in its batch.
+     @param upload The stream of the call's streamed argument, or
+     <code>null</code> if the call was not sent in an <code>UPLOAD</code>
+     frame.
+     @param attachments The byte buffers and file regions received with the
+     call, or <code>null</code>. The call names them by their indices.
+     */
+    private Object invoke(Codec codec, byte[] call, boolean oneWay, ObjectTable.Entry[] pipeline, int index,
+                          UploadStream upload, Object[] attachments) throws Exception {
+        int objectId = Frame.objectId(call);
+        ObjectTable.Entry target = objectId >= 0 ? objects.get(objectId) : pipelined(pipeline, index, objectId);
+        if (target == null) throw new RMIException("No such object " + objectId + ".\n");
+        int id = Frame.methodId(call);
+        Invoker invoker;
+        Object[] args;
+        if (id == Frame.NO_METHOD_ID) {
+            Object[] request = (Object[]) Frame.decodeCall(codec, call);
+            String methodName = (String) request[0];
+            Class params[] = (Class[]) request[1];
+            invoker = invoker(target, methodName, params);
+            args = (Object[]) request[2];
+        } else {
+            if (id < 0 || id >= target.invokers.length) throw new RMIException("Unknown method ID " + id + ".\n");
+            invoker = target.invokers[id];
+            args = (Object[]) Frame.decodeCall(codec, call);
+        }
+        if (oneWay && !invoker.oneWay) {
+            throw new RMIException("Method " + invoker.method.getName() + " is not one-way.\n");
+        }
+        if (upload != null) {
+            if (invoker.upload < 0) {
+                throw new RMIException("Method " + invoker.method.getName() + " has no streamed parameter.\n");
+            }
+            args[invoker.upload] = upload.argument(invoker.method.getParameterTypes()[invoker.upload]);
+        }
+        if (invoker.bulkArguments) Bulk.insert(invoker.method, args, attachments);
+        Object result = invoker.invoke(target.server, args);
+        if (result != null && invoker.remoteResult) {
+            Class<?> remoteInterface = invoker.method.getReturnType();
+            if (pipeline != null) {
+                pipeline[index] = new ObjectTable.Entry(Frame.pipelinedId(index), result, remoteInterface);
+            }
+            result = export(result, remoteInterface);
+        } else if (result != null && invoker.streamedResult) {
+            result = stream(result);
+        }
+        return result;
+    }
+
+    /** Returns the reply to a call whose result is streamed: the first
+     elements of the result, and a stub for a cursor over the rest, or
+     <code>null</code> if there are no more elements. See
+     <code>StreamedResult</code>.
+
+     @throws InvocationTargetException If the result's iterator or stream
+     throws an exception.
+     */
+    private Object[] stream(Object result) throws InvocationTargetException {
+        ResultCursor cursor = new ResultCursor(result);
+        Object[] first;
+        try {
+            first = cursor.next(ResultCursor.FIRST_CHUNK);
+        } catch (RuntimeException | Error e) {
+            throw new InvocationTargetException(e);
+        }
+        return new Object[] {first, cursor.exhausted() ? null : export(cursor, RemoteCursor.class)};
+    }
+
+    /** Executes a call made directly by a stub in the same process (see
+     <code>setLocalCalls</code>).
+
+     @param objectId The ID of the called object.
+     @param method The method, from the stub's remote interface.
+     @param args The arguments, or <code>null</code> if there are none.
+     They are copied before the server sees them.
+     @return A copy of the result.
+     @throws InvocationTargetException If the method throws an exception. The
+     exception is a copy of the one thrown.
+     @throws Exception If the method cannot be called, or the arguments,
+     result or exception cannot be copied.
+     */
+    Object invokeLocal(int objectId, Method method, Object[] args) throws Exception {
+        ObjectTable.Entry target = objects.get(objectId);
+        if (target == null) throw new RMIException("No such object " + objectId + ".\n");
+        int id = target.methods.id(method);
+        Invoker invoker = id >= 0 ? target.invokers[id] : invoker(target, method.getName(), method.getParameterTypes());
+        boolean share = localCalls == LocalCalls.SHARE_IMMUTABLE;
+        Object[] copied = args == null ? null : (Object[]) LocalSkeletons.copy(args, share);
+        Object result;
+        try {
+            result = invoker.invoke(target.server, copied);
+        } catch (InvocationTargetException e) {
+            throw new InvocationTargetException((Throwable) LocalSkeletons.copy(e.getTargetException(), share));
+        }
+        if (result != null && invoker.remoteResult) result = export(result, invoker.method.getReturnType());
+        return LocalSkeletons.copy(result, share);
+    }
+
+    /** Returns the invoker of the method of a remote object with the given
+     name and parameter types, for calls made through a stub whose interface
+     does not assign the method an ID, such as a sub- or super-interface of
+     the object's remote interface.
+
+     @throws NoSuchMethodException If the remote interface has no such
+     method.
+     */
+    private static Invoker invoker(ObjectTable.Entry target, String name, Class<?>[] params)
+            throws NoSuchMethodException {
+        Method method = target.remoteInterface.getMethod(name, params);
+        return target.invokers[target.methods.id(method)];
+    }
+
+    /** Executes a call payload encoded by <code>PrimitiveCall</code>, and
+     returns the payload of the <code>RETURN</code> frame answering it.
+     Such calls are never part of a batch.
+
+     @throws InvocationTargetException If the method throws an exception.
+     @throws Exception If the method cannot be called.
+     */
+    private byte[] invokePrimitive(byte[] call, boolean oneWay) throws Exception {
+        int objectId = Frame.objectId(call);
+        ObjectTable.Entry target = objects.get(objectId);
+        if (target == null) throw new RMIException("No such object " + objectId + ".\n");
+        int id = Frame.methodId(call) & ~PrimitiveCall.FLAG;
+        if (id >= target.invokers.length) throw new RMIException("Unknown method ID " + id + ".\n");
+        Invoker invoker = target.invokers[id];
+        if (invoker.primitive == null) {
+            throw new RMIException("Method " + invoker.method.getName() + " cannot be called without a codec.\n");
+        }
+        if (oneWay && !invoker.oneWay) {
+            throw new RMIException("Method " + invoker.method.getName() + " is not one-way.\n");
+        }
+        return invoker.primitive.invoke(target.server, call, invoker);
+    }
+
+    /** Returns the target of a pipelined call: the remote object returned by
+     an earlier call of the same batch. */
+    private static ObjectTable.Entry pipelined(ObjectTable.Entry[] pipeline, int index, int objectId)
+            throws RMIException {
+        int source = Frame.pipelinedIndex(objectId);
+        if (pipeline == null || source >= index) {
+            throw new RMIException("No such object " + objectId + ".\n");
+        }
+        if (pipeline[source] == null) {
+            throw new RMIException("Pipelined call " + source + " did not return a remote object.\n");
+        }
+        return pipeline[source];
+    }
+
+    /** Returns a stub through which a remote object returned by a call can
+     be reached. Objects that are already stubs are returned unchanged.
+     Other objects are exported from this skeleton, so that calls to them
+     share its listening socket and connections. */
+    private Object export(Object result, Class<?> remoteInterface) {
+        if (Stub.isStub(result)) return result;
+        ObjectTable.Entry entry = objects.export(result, remoteInterface);
+        return Stub.create(remoteInterface, exportAddress(), unixSocket, entry.id, entry.methods.hash,
+                           objects.leaseDuration());
+    }
+
+    /** Returns the address given to stubs for exported objects. A skeleton
+     listening on all interfaces is reached through the local host's
+     address, as for a skeleton started without an address. */
+    private InetSocketAddress exportAddress() {
+        InetSocketAddress address = socketAddress;
+        if (address.getAddress() != null && address.getAddress().isAnyLocalAddress()) {
+            try {
+                return new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), address.getPort());
+            } catch (UnknownHostException e) {
+                // Keep the wildcard address, which reaches this host locally.
+            }
+        }
+        return address;
+    }
+
+    /** Returns the number of objects exported by the skeleton, not counting
+     its own server object. */
+    public int getExportedObjectCount() {
+        return objects.exportedCount();
+    }
+
+    /** Returns the number of exported objects unexported since the skeleton
+     was created, because their leases expired or were released. Sampling
+     this count together with <code>getExportedObjectCount</code> shows
+     whether exported objects are being reclaimed as fast as they are
+     created. */
+    public long getReclaimedObjectCount() {
+        return objects.reclaimedCount();
+    }
+
+    /** Applies a <code>RENEW</code> or <code>RELEASE</code> frame received
+     over a connection. Lease frames are cheap to apply, so they are applied
+     by the thread that read them, and are not counted as calls.
+
+     @throws IOException If the frame is malformed.
+     */
+    void lease(Frame frame) throws IOException {
+        int[] objectIds = Frame.leaseObjects(frame.payload);
+        long client = Frame.leaseClient(frame.payload);
+        if (frame.type == Frame.RENEW) objects.renew(client, objectIds);
+        else objects.release(client, objectIds);
+    }
+
+    /** Schedules the removal of exported objects whose leases expire. */
+    private void startReaping() {
+        long period = Math.max(10, objects.leaseDuration() / 4);
+        reaping = reaper().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                objects.reap();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops removing exported objects. Objects whose leases expire while
+     the skeleton is stopped are removed once it is started again. */
+    private void stopReaping() {
+        if (reaping != null) reaping.cancel(false);
+        reaping = null;
+    }
+
+    /** Returns the executor shared by all skeletons for removing exported
+     objects, creating it if necessary. */
+    private static synchronized ScheduledExecutorService reaper() {
+        if (reaper == null) {
+            reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "rmi-lease-reaper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return reaper;
+    }
+
+    /** Returns the <code>METHODS</code> frame sent at the start of each
+     connection. The frame offers all codecs registered at the time, and
+     the port on which datagram calls are accepted, if any. */
+    Frame methodTableFrame() {
+        try {
+            return new Frame(Frame.METHODS, 0, Codecs.JAVA.encode(new Object[]{signatures, Codecs.names(),
+                                                                                getDatagramPort()}));
+        } catch (IOException impossible) {
+            throw new IllegalStateException(impossible);
+        }
+    }
+
+    /** Creates a <code>FAILURE</code> frame for the given error, encoded
+     with the connection's codec. */
+    static Frame failure(int requestId, RMIException error, Codec codec) {
+        try {
+            return new Frame(Frame.FAILURE, requestId, codec.encode(error), codec);
+        } catch (IOException e) {
+            // The cause of the error is not serializable; send its
+            // description instead.
+            try {
+                return new Frame(Frame.FAILURE, requestId,
+                                 codec.encode(new RMIException(error.toString())), codec);
+            } catch (IOException impossible) {
+                throw new IllegalStateException(impossible);
+            }
+        }
+    }
+
+    /** Creates the worker pool, if one is configured. */
+    private void startWorkers() {
+        if (workerThreads == 0) return;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workerThreads, workerThreads,
+                WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(workerQueueCapacity), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        workers = pool;
+    }
+
+    /** Shuts the worker pool down. Calls already accepted still run. */
+    private void stopWorkers() {
+        ThreadPoolExecutor pool = workers;
+        if (pool != null) pool.shutdown();
+        workers = null;
+    }
+
+    /** Executes a call on a worker thread.
+
+     <p>
+     If the worker pool is saturated, the call is handed to the rejection
+     policy. <code>RejectionPolicy.BLOCK</code> is applied only where the
+     caller allows it: the threads that receive calls must not wait when
+     other connections, or calls already executing, depend on them reading
+     further frames, and such calls are refused instead.
+
+     @param call The call.
+     @param mayBlock <code>true</code> if the calling thread may wait for
+     room in the worker pool's queue.
+     @throws RMIException If the worker pool is saturated and its rejection
+     policy refuses the call. The call is then not executed, and the caller
+     must answer it with a <code>FAILURE</code> frame.
+     */
+    void dispatch(Runnable call, boolean mayBlock) throws RMIException {
+        ThreadPoolExecutor pool = workers;
+        if (pool == null) {
+            threadFactory.newThread(call).start();
+            return;
+        }
+        try {
+            pool.execute(call);
+        } catch (RejectedExecutionException e) {
+            if (pool.isShutdown()) {
+                rejectedCalls.incrementAndGet();
+                throw new RMIException("Skeleton is stopping: call rejected.\n", e);
+            }
+            RejectionPolicy policy = rejectionPolicy;
+            if (!mayBlock && policy == RejectionPolicy.BLOCK) policy = RejectionPolicy.REJECT;
+            try {
+                policy.rejected(call, pool.getQueue());
+            } catch (RMIException refused) {
+                rejectedCalls.incrementAndGet();
+                throw refused;
+            }
+        }
+        // A blocking policy may have queued the call after the pool was shut
+        // down, in which case no worker will run it.
+        if (pool.isShutdown() && pool.getQueue().remove(call)) {
+            rejectedCalls.incrementAndGet();
+            throw new RMIException("Skeleton is stopping: call rejected.\n");
+        }
+    }
+
+    private class ClientHandler implements Runnable{
+        private static final byte[] EMPTY = new byte[0];
+
+        private final SocketChannel socket;
+        private final Thread thread;
+        private ChannelOutput out;
+        /** Codec chosen by the stub. Used only by the handler thread. */
+        private Codec codec = Codecs.forConnection(Codecs.JAVA);
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final ReentrantLock callLock = new ReentrantLock();
+        private final Condition callsDone = callLock.newCondition();
+        private int inFlight;
+        private volatile boolean retiring;
+        /** Streams of the streamed arguments of calls in progress, by request
+         ID. */
+        private final Map<Integer, UploadStream> uploads = new ConcurrentHashMap<>();
+        /** Sends the <code>CREDIT</code> frames of uploads. */
+        private final Consumer<Frame> credits = new Consumer<Frame>() {
+            @Override
+            public void accept(Frame frame) {
+                send(frame);
+            }
+        };
+
+        public ClientHandler(SocketChannel socket){
             this.socket = socket;
+            this.thread = threadFactory.newThread(this);
             clientHandlers.add(this);
         }
+
+        /** Stops the handler from accepting further calls. Calls already
+         accepted run to completion, after which the connection is closed.
+
+         <p>
+         Shutting down the input side of the channel wakes the handler
+         thread if it is blocked reading the next frame. */
+        void retire() {
+            retiring = true;
+            try {
+                socket.shutdownInput();
+            } catch (IOException e) {
+                // The connection is already closed.
+            }
+        }
+
         @Override
         public void run() {
-            ObjectOutputStream out = null;
-            ObjectInputStream in = null;
+            int lastAccepted = -1;
             try {
-                out = new ObjectOutputStream(socket.getOutputStream());
-                out.flush();
-                in = new ObjectInputStream(socket.getInputStream());
-                Object[] objects = (Object[]) in.readObject();
-                String methodName = (String) objects[0];
-                Object[] args = (Object[]) objects[1];
-                Class params[] = (Class[]) objects[2];
-                Method method = null;
-                method = classObject.getMethod(methodName, params);
-                Object result = null;
-                try {
-                    result = method.invoke(serverObject, args);
-                    out.writeObject(true);
-                    Class returnType = method.getReturnType();
-                    if (!returnType.equals(Void.TYPE)){
-                        if (!checkInterface(returnType)){
-                            out.writeObject(result);
-                        } else {
-                            Skeleton newSkeleton = new Skeleton(returnType, result);
-                            newSkeleton.start();
-                            out.writeObject(Stub.create(returnType, newSkeleton.getSocketAddress()));
-                        }
+                UnixSockets.setNoDelay(socket);
+                ChannelInput in = new ChannelInput(socket);
+                out = new ChannelOutput(socket);
+                Frame.readMagic(in);
+                send(methodTableFrame());
+                // Accept calls until the stub closes the connection or the
+                // skeleton is stopped. Each call runs in its own thread, so
+                // replies are sent as calls complete, in any order.
+                Frame frame;
+                List<Object> attachments = new ArrayList<>();
+                while ((frame = Frame.read(in, codec)) != null && !retiring) {
+                    if (frame.type == Frame.BULK) {
+                        attachments.add(new Bulk.Receiver(frame).receive(in));
+                        continue;
+                    }
+                    if (!attachments.isEmpty()) {
+                        frame = frame.attach(attachments.toArray());
+                        attachments.clear();
+                    }
+                    if (frame.type == Frame.CODEC) {
+                        codec = Codecs.forConnection(frame.decodeCodec());
+                        continue;
+                    }
+                    if (Frame.isLease(frame.type)) {
+                        lease(frame);
+                        continue;
+                    }
+                    if (frame.type == Frame.DATA) {
+                        UploadStream upload = uploads.get(frame.requestId);
+                        if (upload != null) upload.receive(frame.payload);
+                        continue;
+                    }
+                    if (!Frame.isRequest(frame.type)) {
+                        throw new IOException("unexpected frame type " + frame.type);
+                    }
+                    lastAccepted = frame.requestId;
+                    callStarted();
+                    // An upload in progress waits for this thread to read its
+                    // data, so the thread must not wait for a worker.
+                    boolean mayBlock = uploads.isEmpty();
+                    UploadStream upload = null;
+                    if (frame.type == Frame.UPLOAD) {
+                        upload = new UploadStream(frame.requestId, credits);
+                        uploads.put(frame.requestId, upload);
+                    }
+                    try {
+                        dispatch(new Call(frame, upload), mayBlock);
+                    } catch (RMIException e) {
+                        uploads.remove(frame.requestId);
+                        if (frame.attachments != null) Bulk.closeRegions(frame.attachments);
+                        send(failure(frame.requestId, e, codec));
+                        callFinished();
                     }
-                }
-                catch (InvocationTargetException e){
-                    out.writeObject(false);
-                    out.writeObject(e.getTargetException());
                 }
             }
             catch (Exception e){
-                service_error(new RMIException(e));
+                if (!retiring) service_error(new RMIException(e));
             }
             finally {
+                if (retiring && out != null) {
+                    // Tell the stub which calls will still be answered.
+                    send(new Frame(Frame.GOAWAY, lastAccepted, EMPTY));
+                }
+                // No further data arrives for uploads still in progress.
+                for (UploadStream upload : uploads.values()) {
+                    upload.fail(new EOFException("connection closed during upload"));
+                }
+                awaitCalls();
                 clientHandlers.remove(this);
                 try {
-                    if (out!=null) {
-                        out.flush();
-                        out.close();
-                    }
-                    if (in != null) in.close();
                     socket.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
         }
+
+        /** Writes a frame to the connection. Failures usually mean the stub
+         has closed the connection, and it will not read the frame. A failure
+         to read a frame's attachment may instead leave the frame partly
+         written, so the connection is closed either way. */
+        private void send(Frame frame) {
+            writeLock.lock();
+            try {
+                frame.write(out);
+                out.flush();
+            } catch (IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException closing) {
+                    // Already closed.
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void callStarted() {
+            callLock.lock();
+            try {
+                inFlight++;
+            } finally {
+                callLock.unlock();
+            }
+        }
+
+        private void callFinished() {
+            callLock.lock();
+            try {
+                if (--inFlight == 0) callsDone.signalAll();
+            } finally {
+                callLock.unlock();
+            }
+        }
+
+        /** Waits for all accepted calls to be answered. */
+        private void awaitCalls() {
+            callLock.lock();
+            try {
+                while (inFlight > 0) callsDone.awaitUninterruptibly();
+            } finally {
+                callLock.unlock();
+            }
+        }
+
+        /** Executes one call and sends its reply. */
+        private class Call implements Runnable {
+            private final Frame frame;
+            private final UploadStream upload;
+
+            Call(Frame frame, UploadStream upload) {
+                this.frame = frame;
+                this.upload = upload;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    Frame reply = serve(frame, upload);
+                    if (reply != null) send(reply);
+                    // Returned file regions are closed once sent.
+                    if (reply != null && reply.attachments != null) Bulk.closeRegions(reply.attachments);
+                } finally {
+                    if (upload != null) {
+                        // Data still arriving for the call is discarded.
+                        uploads.remove(frame.requestId);
+                        upload.close();
+                    }
+                    callFinished();
+                }
+            }
+        }
     }
 
 
@@ -0,0 +1,86 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/** Encoding of results returned in chunks.
+
+    <p>
+    A remote method whose declared return type is <code>Iterator</code> or
+    <code>Stream</code> does not send its whole result with its reply. The
+    skeleton takes the first <code>ResultCursor.FIRST_CHUNK</code> elements
+    from the returned iterator or stream, and replies with an array of two
+    values: the elements, and, if there are more, a stub for a
+    <code>RemoteCursor</code> over the rest. If the result has no more
+    elements, the second value is <code>null</code> and nothing is exported,
+    so that short results take a single call, as before. Exceptions thrown
+    while producing the first chunk are reported by the call, like
+    exceptions thrown by the method itself.
+
+    <p>
+    The stub returns to its caller an iterator or a stream, as declared,
+    which reads further chunks from the cursor as the elements are consumed.
+    Each chunk is requested while the previous one is consumed, and no
+    further chunk is requested until then, so the skeleton produces elements
+    at the rate at which the client consumes them, and neither end holds
+    more than two chunks of the result. Closing the stream, or the iterator
+    (which implements <code>AutoCloseable</code>), before its end closes the
+    cursor and the server's stream, or its iterator if it implements
+    <code>AutoCloseable</code>. An iterator abandoned without being
+    closed is closed by the skeleton when the client's lease on the cursor
+    lapses.
+
+    <p>
+    Elements are encoded by the connection's codec like any other values. A
+    <code>null</code> result is returned as <code>null</code>.
+ */
+final class StreamedResult
+{
+    /** Prevents instantiation. */
+    private StreamedResult()
+    {
+    }
+
+    /** Returns <code>true</code> if results of the given declared type are
+        streamed. */
+    static boolean isStreamed(Class<?> type)
+    {
+        return type == Iterator.class || type == Stream.class;
+    }
+
+    /** Opens a streamed result received by a stub.
+
+        @param method The remote method.
+        @param value The value received from the skeleton: <code>null</code>,
+                     or an array of the first elements and the cursor.
+        @return An <code>Iterator</code> or a <code>Stream</code>, as declared
+                by the method, or <code>null</code>.
+     */
+    static Object open(Method method, Object value)
+    {
+        if(value == null)
+            return null;
+
+        Object[]                reply = (Object[])value;
+        final RemoteIterator    iterator =
+            new RemoteIterator((Object[])reply[0], (RemoteCursor)reply[1]);
+        if(method.getReturnType() == Iterator.class)
+            return iterator;
+
+        Stream<Object>          stream = StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED),
+            false);
+        return stream.onClose(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                iterator.close();
+            }
+        });
+    }
+}
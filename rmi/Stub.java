@@ -2,16 +2,20 @@ package rmi;
 import rmi.RMIException;
 import rmi.Skeleton;
 
+import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 /**
  * Created by Saurabh and Siddhartha on 17/04/16.
@@ -61,7 +65,7 @@ public class Stub {
 
         try
         {
-            InvocationHandler handler = new MyInvocationHandler(skeleton.getSocketAddress(),classObject);
+            InvocationHandler handler = new MyInvocationHandler<T>(skeleton.getSocketAddress(), skeleton.getUnixSocketAddress(), classObject);
             T proxy = (T) Proxy.newProxyInstance(
                     classObject.getClassLoader(),
                     new Class[]{classObject},
@@ -93,7 +97,7 @@ public class Stub {
         try
         {
             InetSocketAddress address = new InetSocketAddress(hostname, skeleton.getSocketAddress().getPort());
-            InvocationHandler handler = new MyInvocationHandler(address,classObject);
+            InvocationHandler handler = new MyInvocationHandler<T>(address, skeleton.getUnixSocketAddress(), classObject);
             T proxy = (T) Proxy.newProxyInstance(
                     classObject.getClassLoader(),
                     new Class[]{classObject},
@@ -106,6 +110,186 @@ public class Stub {
             throw new Error("Error creating Stub for Remote Interface "+ classObject.getCanonicalName() + ": " + e);
         }
     }
+    /** Creates a stub for a skeleton listening on a Unix domain socket on
+        this host (see <code>Skeleton.setUnixSocket</code>).
+
+        @param classObject The remote interface.
+        @param address The skeleton's Unix domain socket.
+        @return The stub.
+        @throws NullPointerException If either argument is
+                                     <code>null</code>.
+        @throws Error If <code>classObject</code> does not represent a remote
+                      interface.
+     */
+    public static<T> T create(Class<T> classObject, UnixDomainSocketAddress address)
+    {
+        if(classObject==null || address==null)
+        {
+            throw new NullPointerException("Server Create Error: Either Object or Socket Address is null");
+        }
+
+        validateClassObject(classObject);
+
+        InvocationHandler handler = new MyInvocationHandler<T>(null, address, classObject);
+        return classObject.cast(Proxy.newProxyInstance(classObject.getClassLoader(), new Class<?>[]{classObject}, handler));
+    }
+
+    /** Creates a stub for a skeleton accepting shared memory connections on
+        this host (see <code>Skeleton.setSharedMemory</code>).
+
+        <p>
+        The stub's connections exchange calls with the skeleton through
+        memory-mapped files, and its threads wait for replies using the
+        address's wait strategy. Stubs for remote objects returned by the
+        skeleton connect over its sockets, as do stubs created from the
+        skeleton itself.
+
+        @param classObject The remote interface.
+        @param address The skeleton's shared memory directory.
+        @return The stub.
+        @throws NullPointerException If either argument is
+                                     <code>null</code>.
+        @throws Error If <code>classObject</code> does not represent a remote
+                      interface.
+     */
+    public static<T> T create(Class<T> classObject, SharedMemoryAddress address)
+    {
+        if(classObject==null || address==null)
+        {
+            throw new NullPointerException("Server Create Error: Either Object or Shared Memory Address is null");
+        }
+
+        validateClassObject(classObject);
+
+        InvocationHandler handler = new MyInvocationHandler<T>(address, classObject);
+        return classObject.cast(Proxy.newProxyInstance(classObject.getClassLoader(), new Class<?>[]{classObject}, handler));
+    }
+
+    /** Creates an asynchronous stub for the remote object at the given
+        address.
+
+        <p>
+        Calls made through the returned object complete a
+        <code>CompletableFuture</code> instead of blocking the calling thread.
+        See <code>AsyncStub</code>.
+
+        @param classObject The remote interface.
+        @param address The address of the skeleton serving the remote object.
+        @return The asynchronous stub.
+        @throws NullPointerException If either argument is <code>null</code>.
+        @throws Error If <code>classObject</code> is not a remote interface.
+     */
+    public static<T> AsyncStub<T> createAsync(Class<T> classObject, InetSocketAddress address)
+    {
+        return new AsyncStub<T>(classObject, create(classObject, address));
+    }
+
+    /** Creates an asynchronous stub for the remote object served by the given
+        skeleton.
+
+        @param classObject The remote interface.
+        @param skeleton The skeleton serving the remote object.
+        @return The asynchronous stub.
+        @throws NullPointerException If either argument is <code>null</code>.
+        @throws IllegalStateException If the skeleton has no address.
+        @throws Error If <code>classObject</code> is not a remote interface.
+     */
+    public static<T> AsyncStub<T> createAsync(Class<T> classObject, Skeleton<T> skeleton)
+    {
+        return new AsyncStub<T>(classObject, create(classObject, skeleton));
+    }
+
+    /** Starts a call through a stub without waiting for its reply.
+
+        @param stub A stub created by this class.
+        @param method The remote method.
+        @param args The arguments, or <code>null</code> if there are none.
+        @return A future for the call's result.
+     */
+    static CompletableFuture<Object> invokeAsync(Object stub, Method method, Object[] args)
+    {
+        return ((MyInvocationHandler<?>) Proxy.getInvocationHandler(stub)).invokeAsync(method, args);
+    }
+
+    /** Creates a batch of calls to the remote object of the given stub.
+
+        <p>
+        Calls added to the batch are sent to the skeleton together, in one
+        request, when the batch is executed. See <code>Batch</code>.
+
+        @param stub A stub created by this class.
+        @return An empty batch.
+        @throws NullPointerException If <code>stub</code> is
+                                     <code>null</code>.
+        @throws IllegalArgumentException If <code>stub</code> was not created
+                                         by this class.
+     */
+    @SuppressWarnings("unchecked")
+    public static<T> Batch<T> createBatch(T stub)
+    {
+        if(stub == null)
+            throw new NullPointerException("Stub is null");
+
+        if(!isStub(stub))
+        {
+            throw new IllegalArgumentException("Not a stub: " + stub);
+        }
+
+        MyInvocationHandler<?> handler = (MyInvocationHandler<?>) Proxy.getInvocationHandler(stub);
+        return new Batch<T>((Class<T>) handler.getImplementationClass(), stub);
+    }
+
+    /** Creates a stub for an object exported by a skeleton.
+
+        @param classObject The object's remote interface.
+        @param address The skeleton's address.
+        @param unixSocket The skeleton's Unix domain socket, or
+                          <code>null</code> if it has none.
+        @param objectId The object's ID in the skeleton's object table.
+        @param tableHash The hash of the skeleton's method table for
+                         <code>classObject</code>.
+        @param leaseDuration The lease duration granted by the skeleton to
+                             holders of the stub, in milliseconds.
+     */
+    static<T> T create(Class<T> classObject, InetSocketAddress address, UnixDomainSocketAddress unixSocket,
+                       int objectId, int tableHash, long leaseDuration)
+    {
+        InvocationHandler handler = new MyInvocationHandler<T>(address, unixSocket, classObject, objectId, tableHash,
+                                                               leaseDuration);
+        return classObject.cast(Proxy.newProxyInstance(classObject.getClassLoader(), new Class<?>[]{classObject}, handler));
+    }
+
+    /** Returns <code>true</code> if <code>object</code> is a stub created by
+        this class. */
+    static boolean isStub(Object object)
+    {
+        return Proxy.isProxyClass(object.getClass()) &&
+               Proxy.getInvocationHandler(object) instanceof MyInvocationHandler;
+    }
+
+    /** Encodes a call to be made through a stub over the given
+        connection. */
+    static byte[] encodeCall(Object stub, Connection connection, Method method, Object[] args) throws IOException
+    {
+        return ((MyInvocationHandler) Proxy.getInvocationHandler(stub)).encodeCall(connection, method, args);
+    }
+
+    /** Sends a request frame through a stub and returns the reply. */
+    static Frame exchange(Object stub, byte type, Payload request) throws Exception
+    {
+        return ((MyInvocationHandler) Proxy.getInvocationHandler(stub)).exchange(type, request, false);
+    }
+
+    /** Returns the exception a stub throws for the given error: the error
+        itself if the method declares it, or else an
+        <code>RMIException</code>. */
+    static Throwable wrap(RemoteMethod remote, Throwable error)
+    {
+        if(remote.declares(error.getClass()))
+            return error;
+        return new RMIException(error);
+    }
+
     //Validate if all functions of class throws RMIException
     public static <T> boolean validateClassObject(Class<T> classObject)
     {
@@ -116,9 +300,125 @@ public class Stub {
                 throw new Error("Method "+ m.getName() + " of the class " + classObject.getCanonicalName()
                         + " doesn't throw RMIException. (Requirement of a remote interface)");
             }
+            if(m.isAnnotationPresent(OneWay.class) && m.getReturnType() != void.class)
+            {
+                throw new Error("One-way method "+ m.getName() + " of the class " + classObject.getCanonicalName()
+                        + " doesn't return void.");
+            }
+            if(Upload.count(m) > 1)
+            {
+                throw new Error("Method "+ m.getName() + " of the class " + classObject.getCanonicalName()
+                        + " has more than one streamed parameter.");
+            }
+            if(m.isAnnotationPresent(OneWay.class) && Upload.count(m) > 0)
+            {
+                throw new Error("One-way method "+ m.getName() + " of the class " + classObject.getCanonicalName()
+                        + " has a streamed parameter.");
+            }
         }
         return true;
     }
+
+    /** Enables or disables keep-alive connections for all stubs.
+
+        <p>
+        With keep-alive enabled (the default), connections to each skeleton
+        address are kept in a pool and shared by all calls to that address,
+        including concurrent calls, which are multiplexed over the same
+        connection. With keep-alive disabled, every call opens and closes its
+        own connection.
+
+        @param enabled <code>true</code> to keep connections open between
+                       calls.
+     */
+    public static void setKeepAlive(boolean enabled)
+    {
+        ConnectionPool.setKeepAlive(enabled);
+    }
+
+    /** Sets the maximum number of connections opened to each skeleton
+        address.
+
+        <p>
+        A second connection to an address is opened only when the existing
+        connections each carry the number of concurrent calls set by
+        <code>setMaxCallsPerConnection</code>.
+
+        @param connections The maximum number of pooled connections per
+                           address.
+        @throws IllegalArgumentException If <code>connections</code> is not
+                                         positive.
+     */
+    public static void setMaxPooledConnections(int connections)
+    {
+        ConnectionPool.setMaxConnections(connections);
+    }
+
+    /** Sets the number of concurrent calls carried by a pooled connection
+        before another connection to the same address is opened.
+
+        @param calls The number of calls.
+        @throws IllegalArgumentException If <code>calls</code> is not positive.
+     */
+    public static void setMaxCallsPerConnection(int calls)
+    {
+        ConnectionPool.setMaxCalls(calls);
+    }
+
+    /** Sets the time after which an unused pooled connection is closed.
+
+        @param milliseconds The idle timeout, in milliseconds.
+        @throws IllegalArgumentException If <code>milliseconds</code> is not
+                                         positive.
+     */
+    public static void setPoolIdleTimeout(long milliseconds)
+    {
+        ConnectionPool.setIdleTimeout(milliseconds);
+    }
+
+    /** Sets the number of event loop threads serving the connections of all
+        stubs in the process.
+
+        <p>
+        Socket connections are not read by threads of their own. Instead, a
+        fixed number of event loops read the replies of all connections, and
+        write out calls that the calling threads could not write at once.
+        Calling threads wait for replies without holding a connection of
+        their own, so a client making many concurrent calls, to any number
+        of skeletons, uses no threads beyond the callers and the loops. The
+        default is half the number of available processors, and at least
+        one.
+
+        @param threads The number of event loop threads.
+        @throws IllegalArgumentException If <code>threads</code> is not
+                                         positive.
+        @throws IllegalStateException If a connection has already been
+                                      opened, which starts the loops.
+     */
+    public static void setEventLoopThreads(int threads)
+    {
+        ClientLoops.setThreads(threads);
+    }
+
+    /** Sets the number of elements of a streamed result requested from the
+        skeleton at a time.
+
+        <p>
+        Remote methods returning an <code>Iterator</code> or a
+        <code>Stream</code> return their elements in chunks (see
+        <code>StreamedResult</code>). While the elements of one chunk are
+        consumed, the next chunk is requested, so that at most two chunks of
+        each result are held by the client. Larger chunks take fewer calls;
+        smaller chunks take less memory at each end.
+
+        @param elements The chunk size, 256 by default.
+        @throws IllegalArgumentException If <code>elements</code> is not
+                                         positive, or is larger than 4096.
+     */
+    public static void setStreamChunkSize(int elements)
+    {
+        RemoteIterator.setChunkSize(elements);
+    }
 /*
     public static void main(String[] args) {
         InetSocketAddress address = new InetSocketAddress("localhost", 5000);
@@ -129,17 +429,143 @@ public class Stub {
 */
 
     private static class MyInvocationHandler<T> implements InvocationHandler, Serializable {
+        /** Number of times a call refused by a draining connection is sent
+            again before giving up. */
+        private static final int MAX_RETRIES = 3;
+
+        /** TCP address of the skeleton, or <code>null</code> if the stub
+            addresses only its Unix domain socket. */
         private InetSocketAddress address;
+        /** Unix domain socket of the skeleton, or <code>null</code> if it
+            has none. */
+        private UnixDomainSocketAddress unixSocket;
+        /** Shared memory directory of the skeleton, if the stub addresses
+            only that. */
+        private SharedMemoryAddress sharedMemory;
         private Class<T> implementationClass;
+        /** ID of the remote object in its skeleton's object table. */
+        private int objectId;
+        /** Hash of the method table of the remote object's interface, as
+            known to the skeleton. Unused for primary objects, whose method
+            table is sent on each connection. */
+        private int tableHash;
+        /** Lease duration granted by the skeleton for an exported object, in
+            milliseconds. Unused for primary objects, which are not
+            leased. */
+        private long leaseDuration;
+        /** Address through which the stub connects, chosen on first use (see
+            <code>UnixSockets.route</code>). */
+        private transient volatile SocketAddress route;
 
         public MyInvocationHandler(InetSocketAddress address,Class implementationClass){
+            this(address, null, implementationClass);
+        }
+
+        MyInvocationHandler(SharedMemoryAddress sharedMemory, Class<T> implementationClass){
+            this(null, null, implementationClass);
+            this.sharedMemory = sharedMemory;
+        }
+
+        MyInvocationHandler(InetSocketAddress address, UnixDomainSocketAddress unixSocket, Class<T> implementationClass){
+            this(address, unixSocket, implementationClass, ObjectTable.PRIMARY_ID, 0, 0);
+        }
+
+        MyInvocationHandler(InetSocketAddress address, UnixDomainSocketAddress unixSocket, Class<T> implementationClass,
+                            int objectId, int tableHash, long leaseDuration){
             this.address = address;
+            this.unixSocket = unixSocket;
             this.implementationClass = implementationClass;
+            this.objectId = objectId;
+            this.tableHash = tableHash;
+            this.leaseDuration = leaseDuration;
+        }
+
+        /** Deserializes the handler. A stub for an exported object received
+            from elsewhere holds a lease on the object for as long as the
+            stub is reachable. */
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+        {
+            in.defaultReadObject();
+            if(objectId != ObjectTable.PRIMARY_ID)
+                LeaseRenewer.register(this, route(), objectId, leaseDuration);
         }
 
-        public InetSocketAddress getImplementationAddress()
+        /** Encodes a call for sending over the given connection. */
+        byte[] encodeCall(Connection connection, Method method, Object[] args) throws IOException
         {
-            return address;
+            return Frame.encodeCall(connection.codec, objectId, methodId(connection, method), method, args);
+        }
+
+        /** Returns the ID of a method for calls over the given connection.
+
+            <p>
+            A skeleton's primary object is called using the method table the
+            skeleton sends on each connection. Exported objects are called
+            using the local table of the stub's interface, provided that it
+            matches the skeleton's table. Otherwise, methods are named in
+            full. */
+        private int methodId(Connection connection, Method method)
+        {
+            if(objectId == ObjectTable.PRIMARY_ID)
+                return connection.methodId(method);
+
+            MethodTable     table = MethodTable.of(implementationClass);
+            if(table.hash != tableHash)
+                return Frame.NO_METHOD_ID;
+
+            return table.id(method);
+        }
+
+        /** Returns the address identifying the skeleton: its TCP address,
+            or else its Unix domain socket or shared memory directory. */
+        public SocketAddress getImplementationAddress()
+        {
+            if(address != null)
+                return address;
+            return unixSocket != null ? unixSocket : sharedMemory;
+        }
+
+        /** Returns the address through which the stub connects: the
+            skeleton's Unix domain socket if the skeleton is on this host,
+            and otherwise its TCP address. A stub addressing the skeleton's
+            shared memory directory always connects through it. */
+        private SocketAddress route()
+        {
+            SocketAddress   target = route;
+            if(target == null)
+            {
+                if(sharedMemory != null)
+                    target = sharedMemory;
+                else
+                    target = address == null ? unixSocket : UnixSockets.route(address, unixSocket);
+                route = target;
+            }
+
+            return target;
+        }
+
+        /** Acquires a pooled connection to the skeleton.
+
+            <p>
+            The stub connects through the skeleton's Unix domain socket when
+            the skeleton is on this host. If that fails, and the stub also
+            has the skeleton's TCP address, the stub uses TCP from then on.
+         */
+        private ConnectionPool.Reservation acquire() throws IOException
+        {
+            SocketAddress   target = route();
+            try
+            {
+                return ConnectionPool.acquire(target);
+            }
+            catch(IOException e)
+            {
+                if(address == null || target == address)
+                    throw e;
+
+                route = address;
+                return ConnectionPool.acquire(address);
+            }
         }
 
         public Class getImplementationClass()
@@ -150,76 +576,507 @@ public class Stub {
         @Override
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
 
-            //check if the function called was equal
-            if(method.equals(Object.class.getMethod("equals", Object.class)))
+            // Stubs implement equals, hashCode and toString locally. These are
+            // the only methods of Object that a proxy forwards to its handler.
+            if(method.getDeclaringClass() == Object.class)
+            {
+                return objectMethod(method, args);
+            }
+
+            RemoteMethod remote = RemoteMethod.of(method);
+            try
+            {
+                if(remote.oneWay)
+                {
+                    remotePost(remote, args);
+                    return null;
+                }
+
+                if(uploads(remote, args))
+                    return remoteUpload(remote, args);
+
+                if(remote.local)
+                {
+                    Skeleton<?> skeleton = LocalSkeletons.find(address, unixSocket);
+                    if(skeleton != null)
+                        return localCall(skeleton, method, args);
+                }
+
+                return remoteCall(remote, args);
+            }
+            catch (Exception e)
+            {
+                if(remote.declares(e.getClass())) throw e;
+                throw new RMIException(e);
+            }
+
+        }
+
+        /** Implements a method of <code>Object</code> for the stub. Stubs
+            are equal if they are for the same remote interface and skeleton
+            address. */
+        private Object objectMethod(Method method, Object[] args)
+        {
+            switch(method.getName())
             {
-                if (args[0] instanceof Proxy) {
+            case "equals":
+                if (args[0] instanceof Proxy && Proxy.getInvocationHandler(args[0]) instanceof MyInvocationHandler) {
                     MyInvocationHandler second_handler = (MyInvocationHandler) Proxy.getInvocationHandler(args[0]);
-                    return (implementationClass.equals(second_handler.getImplementationClass()) && address.equals(second_handler.getImplementationAddress()));
+                    return (implementationClass.equals(second_handler.getImplementationClass()) && getImplementationAddress().equals(second_handler.getImplementationAddress())
+                            && objectId == second_handler.objectId);
                 }
                 return false;
+            case "hashCode":
+                return implementationClass.hashCode() * getImplementationAddress().hashCode() + objectId;
+            case "toString":
+                return implementationClass.getCanonicalName() + " " + getImplementationAddress().toString()
+                        + (objectId == ObjectTable.PRIMARY_ID ? "" : " #" + objectId);
+            default:
+                throw new UnsupportedOperationException(method.getName());
             }
+        }
 
-            //Overiding hashCode function of OBJeCT classes
-            if(method.equals(Object.class.getMethod("hashCode")))
+        /** Calls a skeleton in the same process directly, and returns the
+            result. Exceptions thrown by the method are thrown as they would
+            be by a call over a connection. */
+        private Object localCall(Skeleton<?> skeleton, Method method, Object[] args) throws Exception
+        {
+            try
+            {
+                return skeleton.invokeLocal(objectId, method, args);
+            }
+            catch(InvocationTargetException e)
             {
-                return implementationClass.hashCode() * address.hashCode();
+                Throwable   thrown = e.getTargetException();
+                if(thrown instanceof Exception)
+                    throw (Exception)thrown;
+                throw new RMIException(thrown);
             }
+        }
 
-            if(method.equals(Object.class.getMethod("toString")))
+        /** Sends a call request to the skeleton and returns the result. */
+        private Object remoteCall(RemoteMethod remote, Object[] args) throws Exception
+        {
+            CallPayload request = new CallPayload(remote, args);
+            if(remote.datagram)
             {
-                return implementationClass.getCanonicalName() + " " + address.toString();
+                Frame   reply = datagramExchange(remote.method, request);
+                if(reply != null)
+                    return result(request, reply);
             }
 
+            return result(request,
+                          exchange(Frame.CALL, request, remote.idempotent));
+        }
+
+        /** Sends a call to an idempotent method in datagrams, if the stub
+            connects to the skeleton over TCP and the skeleton accepts them,
+            and returns the reply.
+
+            @return The reply, or <code>null</code> if the call must be made
+                    over a connection instead.
+         */
+        private Frame datagramExchange(Method method, CallPayload request)
+            throws IOException
+        {
+            if(address == null || route() != address)
+                return null;
+
+            DatagramCalls.Endpoint  endpoint = DatagramCalls.endpoint(address);
+            if(endpoint == null)
+                return null;
+
+            int     id = methodId(endpoint.connection, method);
+            if(id == Frame.NO_METHOD_ID)
+                return null;
+
+            return DatagramCalls.call(endpoint, request.encode(Codecs.JAVA, id));
+        }
+
+        /** Returns the result of a call, given its reply. */
+        private Object result(CallPayload request, Frame reply) throws Exception
+        {
+            Object      result = request.decode(reply);
+
+            // Check if method was run successfully
+            if(reply.type != Frame.RETURN)
+                throw (Exception)result;
+
+            return result;
+        }
+
+        /** Starts a call without waiting for its reply, and returns a future
+            for its result. */
+        CompletableFuture<Object> invokeAsync(Method method, Object[] args)
+        {
+            RemoteMethod                remote = RemoteMethod.of(method);
+            CompletableFuture<Object>   result = new CompletableFuture<>();
+            if(uploads(remote, args))
+                uploadAsync(remote, args, result);
+            else
+                sendAsync(remote, new CallPayload(remote, args), 0, result);
+            return result;
+        }
+
+        /** Returns <code>true</code> if a call streams one of its arguments
+            to the skeleton. A <code>null</code> streamed argument is sent as
+            <code>null</code>, in an ordinary call. */
+        boolean uploads(RemoteMethod remote, Object[] args)
+        {
+            int     index = remote.upload;
+            return index >= 0 && args[index] != null;
+        }
+
+        /** Sends a call with a streamed argument and returns the result.
+
+            <p>
+            The call is sent in an <code>UPLOAD</code> frame, after which the
+            calling thread sends the argument (see <code>Upload</code>). The
+            call is sent again under the same conditions as in
+            <code>exchange</code>, but only if the argument has not yet been
+            read from.
+         */
+        private Object remoteUpload(RemoteMethod remote, Object[] args) throws Exception
+        {
+            CallPayload request = new CallPayload(remote, args);
+            Upload      upload = new Upload(args[remote.upload]);
+            boolean     resend = remote.idempotent;
+            Frame       reply = null;
+
+            for(int attempt = 0; reply == null; ++attempt)
+            {
+                ConnectionPool.Reservation  reservation = acquire();
+                Connection  connection = reservation.connection;
+                boolean     idle = reservation.reusedIdle;
+
+                try
+                {
+                    CompletableFuture<Frame>    pending =
+                        connection.upload(request.encode(connection),
+                                          request.attachments(), upload);
+                    upload.send();
+                    reply = Connection.await(pending);
+                }
+                catch(Connection.Retry e)
+                {
+                    if(attempt >= MAX_RETRIES || upload.started())
+                        throw e;
+                }
+                catch(IOException e)
+                {
+                    if(!resend || !idle || attempt > 0 || upload.started())
+                        throw e;
+                }
+                finally
+                {
+                    ConnectionPool.release(connection);
+                }
+            }
+
+            return result(request, reply);
+        }
+
+        /** Makes a call with a streamed argument without blocking the
+            calling thread. The argument is read, and the call made, on the
+            shared upload pool (see <code>Upload.executor</code>), since
+            reading the argument may block. */
+        void uploadAsync(final RemoteMethod remote, final Object[] args,
+                         final CompletableFuture<Object> result)
+        {
+            Upload.executor().execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        result.complete(remoteUpload(remote, args));
+                    }
+                    catch(Exception e)
+                    {
+                        result.completeExceptionally(wrap(remote, e));
+                    }
+                }
+            });
+        }
+
+        /** Sends a call to a one-way method without waiting for it to be
+            executed. The call is sent again over another connection under
+            the same conditions as in <code>exchange</code>. */
+        private void remotePost(RemoteMethod remote, Object[] args) throws Exception
+        {
+            CallPayload request = new CallPayload(remote, args);
+            boolean     resend = remote.idempotent;
+
+            for(int attempt = 0; ; ++attempt)
+            {
+                ConnectionPool.Reservation  reservation = acquire();
+                Connection  connection = reservation.connection;
+                boolean     idle = reservation.reusedIdle;
+
+                try
+                {
+                    connection.post(Frame.ONEWAY, request.encode(connection), request.attachments());
+                    return;
+                }
+                catch(Connection.Retry e)
+                {
+                    if(attempt >= MAX_RETRIES)
+                        throw e;
+                }
+                catch(IOException e)
+                {
+                    if(!resend || !idle || attempt > 0)
+                        throw e;
+                }
+                finally
+                {
+                    ConnectionPool.release(connection);
+                }
+            }
+        }
+
+        /** Sends a request frame to the skeleton and returns the reply.
+
+            <p>
+            The request is sent over a shared pooled connection. If the
+            connection is found closed or draining before the request is
+            sent, or the skeleton refuses the request because it is shutting
+            the connection down, the request has not been executed, and it is
+            sent again over another connection. Any other failure may occur
+            after the skeleton has executed the request. The request is then
+            sent again only if executing it twice is harmless, and only once,
+            when the connection had been idle before the request and may
+            have been closed by the skeleton meanwhile.
+
+            @param type The frame type.
+            @param request The request.
+            @param resend <code>true</code> if the request may be executed
+                          more than once (see <code>Idempotent</code>).
+         */
+        Frame exchange(byte type, Payload request, boolean resend)
+            throws Exception
+        {
+            Frame       reply = null;
+
+            for(int attempt = 0; reply == null; ++attempt)
+            {
+                ConnectionPool.Reservation  reservation = acquire();
+                Connection  connection = reservation.connection;
+                boolean     idle = reservation.reusedIdle;
+
+                try
+                {
+                    reply = Connection.await(
+                        connection.send(type, request.encode(connection),
+                                        request.attachments()));
+                }
+                catch(Connection.Retry e)
+                {
+                    if(attempt >= MAX_RETRIES)
+                        throw e;
+                }
+                catch(IOException e)
+                {
+                    if(!resend || !idle || attempt > 0)
+                        throw e;
+                }
+                finally
+                {
+                    ConnectionPool.release(connection);
+                }
+            }
+
+            return reply;
+        }
+
+        /** Sends a call request and arranges for the reply to complete a
+            future, retrying under the same conditions as
+            <code>remoteCall</code>. The calling thread does not wait for the
+            reply. */
+        void sendAsync(final RemoteMethod remote, final CallPayload request,
+                       final int attempt,
+                       final CompletableFuture<Object> result)
+        {
+            final ConnectionPool.Reservation    reservation;
             try
             {
-                Socket socket = new Socket(address.getHostName(), address.getPort());
-                ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+                reservation = acquire();
+            }
+            catch(IOException e)
+            {
+                result.completeExceptionally(wrap(remote, e));
+                return;
+            }
 
-                Class params[] = method.getParameterTypes();
-                Object[] objects = new Object[]{method.getName(), args, params};
-                out.writeObject(objects);
-                out.flush();
+            final Connection    connection = reservation.connection;
+            final boolean       idle = reservation.reusedIdle;
+            CompletableFuture<Frame>    reply;
+            try
+            {
+                reply = connection.send(Frame.CALL, request.encode(connection),
+                                        request.attachments());
+            }
+            catch(IOException e)
+            {
+                ConnectionPool.release(connection);
+                retryOrFail(remote, request, attempt, idle, e, result);
+                return;
+            }
 
-                // Check if method was run successfully
-                Object isTrue = in.readObject();
+            // The reply arrives on an event loop thread, which must not
+            // block: the connection is released, the call possibly sent
+            // again, and the result delivered on a callback thread.
+            reply.whenCompleteAsync(new BiConsumer<Frame, Throwable>()
+            {
+                @Override
+                public void accept(Frame frame, Throwable error)
+                {
+                    ConnectionPool.release(connection);
+                    if(error != null)
+                    {
+                        retryOrFail(remote, request, attempt, idle, error,
+                                    result);
+                        return;
+                    }
 
-                if (isTrue.equals(false)) {
-                    Object error = in.readObject();
-                    in.close();
-                    out.close();
-                    socket.close();
-                    throw (Exception) error;
+                    try
+                    {
+                        Object  value = request.decode(frame);
+                        if(frame.type == Frame.RETURN)
+                            result.complete(value);
+                        else
+                            result.completeExceptionally(
+                                wrap(remote, (Throwable)value));
+                    }
+                    catch(Exception e)
+                    {
+                        result.completeExceptionally(wrap(remote, e));
+                    }
                 }
+            }, ClientLoops.callbacks());
+        }
 
-                Object result = null;
+        /** Sends a failed call again if it was not executed, or otherwise
+            completes its future with the error. */
+        private void retryOrFail(RemoteMethod remote, CallPayload request,
+                                 int attempt, boolean idle, Throwable error,
+                                 CompletableFuture<Object> result)
+        {
+            if((error instanceof Connection.Retry && attempt < MAX_RETRIES) ||
+               (error instanceof IOException && idle && attempt == 0 &&
+                remote.idempotent))
+            {
+                sendAsync(remote, request, attempt + 1, result);
+                return;
+            }
+
+            result.completeExceptionally(wrap(remote, error));
+        }
 
-                if(!method.getReturnType().equals(Void.TYPE))
+        /** Payload of a single call. The encoding is kept, since a call sent
+            again after a retry normally has the same method ID and codec.
+
+            <p>
+            Calls to methods whose values are all primitives, strings or
+            primitive arrays are encoded by <code>PrimitiveCall</code> when the
+            method's ID is known, and their results are then decoded by it as
+            well. Streamed results are opened as iterators or streams over
+            their remote cursors. Streamed arguments are sent after the call,
+            and are encoded as <code>null</code>. Byte buffers and file
+            regions are sent as attachments of the call (see
+            <code>Bulk</code>).
+         */
+        final class CallPayload implements Payload
+        {
+            private final Method        method;
+            private final Object[]      args;
+            private final PrimitiveCall primitive;
+            private final boolean       streamed;
+            /** Byte buffers and file regions sent with the call, or
+                <code>null</code>. */
+            private final Object[]      attachments;
+            private int                 encodedId;
+            private Codec               encodedCodec;
+            private byte[]              encoded;
+            private boolean             encodedPrimitive;
+
+            CallPayload(RemoteMethod remote, Object[] args)
+            {
+                if(remote.upload >= 0 && args[remote.upload] != null)
                 {
-                result = in.readObject();
+                    // The streamed argument follows the call.
+                    args = args.clone();
+                    args[remote.upload] = null;
                 }
 
-                in.close();
-                out.close();
-                socket.close();
-                return result;
+                if(remote.bulkArguments)
+                {
+                    args = args.clone();
+                    attachments = Bulk.extract(remote.method, args);
+                }
+                else
+                    attachments = null;
 
-//                if(result != null && result instanceof Exception) {
-//                    if (method.getReturnType().isAssignableFrom(Exception.class)) return result;
-//                    throw (Exception) result;
-//                }
-//                else
-//                {
-//                    return result;
-//                }
+                this.method = remote.method;
+                this.args = args;
+                this.primitive = remote.primitive;
+                this.streamed = remote.streamedResult;
             }
-            catch (Exception e)
+
+            @Override
+            public byte[] encode(Connection connection) throws IOException
             {
-                if(Arrays.asList(method.getExceptionTypes()).contains(e.getClass())) throw e;
-                throw new RMIException(e);
+                return encode(connection.codec, methodId(connection, method));
             }
 
+            /** Encodes the call with the given codec and method ID. */
+            byte[] encode(Codec codec, int id) throws IOException
+            {
+                if(encoded == null || id != encodedId || codec != encodedCodec)
+                {
+                    encodedPrimitive = primitive != null && id != Frame.NO_METHOD_ID;
+                    if(encodedPrimitive)
+                        encoded = primitive.encodeCall(objectId, id, args);
+                    else
+                        encoded = Frame.encodeCall(codec, objectId, id, method, args);
+                    encodedId = id;
+                    encodedCodec = codec;
+                }
+
+                return encoded;
+            }
+
+            @Override
+            public Object[] attachments()
+            {
+                return attachments;
+            }
+
+            /** Decodes the reply to the call as last encoded. */
+            Object decode(Frame reply) throws IOException, ClassNotFoundException, RMIException
+            {
+                if(encodedPrimitive && reply.type == Frame.RETURN)
+                    return primitive.decodeResult(reply.payload);
+
+                Object  value = reply.decode();
+                if(reply.attachments != null && reply.type == Frame.RETURN)
+                    return Bulk.attachment(value, reply.attachments);
+                if(streamed && reply.type == Frame.RETURN)
+                    return StreamedResult.open(method, value);
+                return value;
+            }
         }
     }
+
+    /** Request payload, encoded for the connection over which it is sent. */
+    interface Payload
+    {
+        /** Encodes the payload for the given connection. */
+        byte[] encode(Connection connection) throws IOException;
+
+        /** Returns the byte buffers and file regions sent with the payload,
+            or <code>null</code>. */
+        Object[] attachments();
+    }
 }
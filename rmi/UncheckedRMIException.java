@@ -0,0 +1,28 @@
+package rmi;
+
+/** Unchecked exception wrapping an <code>RMIException</code>.
+
+    <p>
+    Thrown by the iterators and streams returned for streamed results (see
+    <code>StreamedResult</code>) when further elements cannot be read from
+    the skeleton, since the methods of <code>Iterator</code> do not declare
+    checked exceptions.
+ */
+public class UncheckedRMIException extends RuntimeException
+{
+    private static final long   serialVersionUID = 1L;
+
+    /** Creates an <code>UncheckedRMIException</code> from the given
+        cause. */
+    public UncheckedRMIException(RMIException cause)
+    {
+        super(cause);
+    }
+
+    /** Returns the <code>RMIException</code> wrapped by this exception. */
+    @Override
+    public RMIException getCause()
+    {
+        return (RMIException)super.getCause();
+    }
+}
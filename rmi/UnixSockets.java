@@ -0,0 +1,205 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Unix domain socket support for stubs and skeletons on the same host.
+
+    <p>
+    A skeleton may listen on a Unix domain socket in addition to its TCP
+    address (see <code>Skeleton.setUnixSocket</code>). Frames are exchanged
+    over either kind of socket in the same way; only opening the channel
+    differs. A Unix domain socket avoids the loopback TCP stack, which
+    shortens calls between processes on the same host.
+
+    <p>
+    Stubs created from such a skeleton, or for objects it exports, carry the
+    socket's address along with the TCP address. They connect through the
+    socket whenever the TCP address belongs to the local host and the socket
+    exists. Otherwise, and if connecting through the socket fails, they use
+    TCP.
+ */
+final class UnixSockets
+{
+    /** Milliseconds after which an attempt to connect over TCP is abandoned,
+        so that an unreachable host cannot hold up the caller
+        indefinitely. */
+    static final int    CONNECT_TIMEOUT = 10000;
+
+    /** Results of <code>isLocal</code>, by address. Interfaces rarely
+        change, so results are kept for the life of the process. */
+    private static final Map<InetAddress, Boolean>  local =
+        new ConcurrentHashMap<>();
+
+    /** Prevents instantiation. */
+    private UnixSockets()
+    {
+    }
+
+    /** Opens a connected channel to a TCP or Unix domain socket address.
+        Connecting over TCP fails after <code>CONNECT_TIMEOUT</code>
+        milliseconds.
+
+        @throws IOException If the channel cannot be opened or connected.
+     */
+    static SocketChannel connect(SocketAddress address) throws IOException
+    {
+        boolean         unix = address instanceof UnixDomainSocketAddress;
+        SocketChannel   channel = unix ?
+            SocketChannel.open(StandardProtocolFamily.UNIX) :
+            SocketChannel.open();
+
+        try
+        {
+            // Unix domain sockets connect at once, or fail, and have no
+            // socket adaptor through which to give a timeout.
+            if(unix)
+                channel.connect(address);
+            else
+                channel.socket().connect(address, CONNECT_TIMEOUT);
+            setNoDelay(channel);
+        }
+        catch(IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+
+        return channel;
+    }
+
+    /** Disables Nagle's algorithm on a TCP channel. Unix domain sockets have
+        no such option, and are left unchanged. */
+    static void setNoDelay(SocketChannel channel) throws IOException
+    {
+        if(channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY))
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /** Opens a channel listening on a Unix domain socket.
+
+        <p>
+        A socket file left at the address by a process that has exited is
+        removed first. A socket at which another skeleton is still listening
+        is not.
+
+        @throws IOException If the address is in use, or the channel cannot
+                            be bound.
+     */
+    static ServerSocketChannel listen(UnixDomainSocketAddress address)
+        throws IOException
+    {
+        if(Files.exists(address.getPath()))
+        {
+            boolean     listening;
+            try
+            {
+                connect(address).close();
+                listening = true;
+            }
+            catch(IOException e)
+            {
+                listening = false;
+            }
+
+            if(listening)
+            {
+                throw new IOException("Unix domain socket " + address +
+                                      " is in use");
+            }
+
+            Files.deleteIfExists(address.getPath());
+        }
+
+        ServerSocketChannel channel =
+            ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try
+        {
+            channel.bind(address);
+        }
+        catch(IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+
+        return channel;
+    }
+
+    /** Closes a channel listening on a Unix domain socket, and removes the
+        socket file. Failures are ignored. */
+    static void close(ServerSocketChannel channel,
+                      UnixDomainSocketAddress address)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch(IOException e) { }
+
+        try
+        {
+            Files.deleteIfExists(address.getPath());
+        }
+        catch(IOException e) { }
+    }
+
+    /** Returns the address through which a stub should connect to a
+        skeleton.
+
+        @param address The skeleton's TCP address.
+        @param socket The skeleton's Unix domain socket, or
+                      <code>null</code> if it has none.
+        @return <code>socket</code> if it is given, exists, and
+                <code>address</code> is an address of the local host, and
+                otherwise <code>address</code>.
+     */
+    static SocketAddress route(InetSocketAddress address,
+                               UnixDomainSocketAddress socket)
+    {
+        if(socket == null || address.isUnresolved() ||
+           !isLocal(address.getAddress()) || !Files.exists(socket.getPath()))
+        {
+            return address;
+        }
+
+        return socket;
+    }
+
+    /** Returns <code>true</code> if an address belongs to the local
+        host. */
+    static boolean isLocal(InetAddress address)
+    {
+        if(address.isLoopbackAddress() || address.isAnyLocalAddress())
+            return true;
+
+        Boolean     known = local.get(address);
+        if(known == null)
+        {
+            try
+            {
+                known = NetworkInterface.getByInetAddress(address) != null;
+            }
+            catch(SocketException e)
+            {
+                known = false;
+            }
+
+            local.put(address, known);
+        }
+
+        return known;
+    }
+}
@@ -0,0 +1,328 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Sender of a streamed argument, used by a stub for one call.
+
+    <p>
+    A remote method may take one parameter of type <code>InputStream</code> or
+    <code>ReadableByteChannel</code>. The stub does not read the argument
+    before sending the call. Instead, it sends the call in an
+    <code>UPLOAD</code> frame, and then the calling thread reads the argument
+    in chunks of at most <code>CHUNK</code> bytes, sending each chunk in a
+    <code>DATA</code> frame as soon as it is read. The server method receives
+    an <code>UploadStream</code>, or a channel over one, which returns the
+    bytes as they arrive.
+
+    <p>
+    Uploads are flow-controlled. The stub may send <code>WINDOW</code> bytes
+    before the server method reads any; after that, it sends only as many
+    bytes as the skeleton grants in <code>CREDIT</code> frames, which the
+    skeleton sends as the server method consumes the data. Neither end
+    therefore holds more than <code>WINDOW</code> bytes of an upload, however
+    large it is, and an upload that the server reads slowly does not hold up
+    the other calls on the connection.
+
+    <p>
+    If the call completes before the argument has been sent in full, the
+    rest of the argument is not read. The argument is not closed by the stub.
+    If reading the argument fails, the stub tells the skeleton, whose stream
+    then throws an <code>IOException</code> to the server method, and the
+    call fails at the stub with an <code>RMIException</code> caused by the
+    read failure.
+
+    <p>
+    A call that has begun reading its argument cannot be sent again, so such
+    calls are not retried when their connection fails. Uploads cannot be
+    made by one-way methods, which receive no reply to end them, or in
+    batches. Asynchronous calls with streamed arguments read their arguments
+    on a pool of at most <code>THREADS</code> threads shared by all stubs
+    (see <code>executor</code>); further such calls wait for a thread. A
+    skeleton that is stopped fails the uploads in progress on its
+    connections.
+ */
+final class Upload
+{
+    /** Number of bytes a stub may send before receiving any credit. */
+    static final int    WINDOW = 256 << 10;
+    /** Largest number of bytes carried by one <code>DATA</code> frame. */
+    static final int    CHUNK = 32 << 10;
+    /** Largest number of asynchronous uploads in progress at once. */
+    static final int    THREADS = 8;
+
+    /** State of a <code>DATA</code> frame carrying bytes of the argument. */
+    static final byte   MORE = 0;
+    /** State of the <code>DATA</code> frame ending the argument. */
+    static final byte   END = 1;
+    /** State of the <code>DATA</code> frame sent when reading the argument
+        fails. */
+    static final byte   ABORT = 2;
+
+    private static ThreadPoolExecutor   executor;
+
+    private final InputStream   source;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition     changed = lock.newCondition();
+
+    // Guarded by lock.
+    private int                 credit = WINDOW;
+    private boolean             stopped;
+
+    // Set when the call is sent, before the upload is visible to the thread
+    // reading the connection.
+    private Connection          connection;
+    private int                 requestId;
+
+    /** <code>true</code> once the argument has been read from. Accessed only
+        by the calling thread. */
+    private boolean             started;
+
+    /** Returns the pool on which asynchronous calls with streamed
+        arguments are made. Its daemon threads exit when idle. */
+    static synchronized Executor executor()
+    {
+        if(executor == null)
+        {
+            executor = new ThreadPoolExecutor(THREADS, THREADS, 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory()
+                {
+                    private int     created;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable runnable)
+                    {
+                        Thread  thread =
+                            new Thread(runnable, "rmi-upload-" + created++);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        return executor;
+    }
+
+    /** Creates the upload of an argument.
+
+        @param argument An <code>InputStream</code> or a
+                        <code>ReadableByteChannel</code>.
+     */
+    Upload(Object argument)
+    {
+        if(argument instanceof InputStream)
+            source = (InputStream)argument;
+        else
+            source = Channels.newInputStream((ReadableByteChannel)argument);
+    }
+
+    /** Returns <code>true</code> if arguments of the given declared type are
+        streamed. */
+    static boolean isUpload(Class<?> type)
+    {
+        return type == InputStream.class || type == ReadableByteChannel.class;
+    }
+
+    /** Returns the index of a method's streamed parameter, or -1 if it has
+        none. */
+    static int parameter(Method method)
+    {
+        Class<?>[]  types = method.getParameterTypes();
+        for(int index = 0; index < types.length; ++index)
+        {
+            if(isUpload(types[index]))
+                return index;
+        }
+
+        return -1;
+    }
+
+    /** Returns the number of streamed parameters of a method. */
+    static int count(Method method)
+    {
+        int     count = 0;
+        for(Class<?> type : method.getParameterTypes())
+        {
+            if(isUpload(type))
+                ++count;
+        }
+
+        return count;
+    }
+
+    /** Records the connection and request ID with which the call was sent.
+        Called by <code>Connection</code> under its write lock. A call sent
+        again over another connection starts with a fresh window. */
+    void opened(Connection connection, int requestId)
+    {
+        this.connection = connection;
+        this.requestId = requestId;
+
+        lock.lock();
+        try
+        {
+            credit = WINDOW;
+            stopped = false;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Returns <code>true</code> if the argument has been read from, so that
+        the call can no longer be sent again. */
+    boolean started()
+    {
+        return started;
+    }
+
+    /** Adds to the number of bytes the stub may send. Called by the thread
+        reading the connection. */
+    void grant(int bytes)
+    {
+        lock.lock();
+        try
+        {
+            credit += bytes;
+            changed.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Stops sending the argument, because the call has been answered or the
+        connection has closed. */
+    void stop()
+    {
+        lock.lock();
+        try
+        {
+            stopped = true;
+            changed.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Reads the argument and sends it to the skeleton. Returns once the
+        argument has ended, or the call has been answered or its connection
+        has closed.
+
+        @throws IOException If the connection fails.
+        @throws RMIException If reading the argument fails, or the calling
+                             thread is interrupted.
+     */
+    void send() throws IOException, RMIException
+    {
+        byte[]  buffer = new byte[1 + CHUNK];
+        buffer[0] = MORE;
+
+        while(true)
+        {
+            int     allowed = awaitCredit();
+            if(allowed == 0)
+                return;
+
+            int     count;
+            started = true;
+            try
+            {
+                count = source.read(buffer, 1, Math.min(allowed, CHUNK));
+            }
+            catch(IOException e)
+            {
+                abort(e);
+                throw new RMIException("unable to read streamed argument", e);
+            }
+
+            if(count < 0)
+            {
+                connection.data(requestId, new byte[] {END});
+                return;
+            }
+
+            if(count == 0)
+                continue;
+
+            consume(count);
+            connection.data(requestId, Arrays.copyOf(buffer, 1 + count));
+        }
+    }
+
+    /** Waits until the stub may send further bytes.
+
+        @return The number of bytes the stub may send, or zero if the upload
+                has stopped.
+        @throws RMIException If the calling thread is interrupted.
+     */
+    private int awaitCredit() throws RMIException
+    {
+        lock.lock();
+        try
+        {
+            while(!stopped && credit == 0)
+                changed.await();
+
+            return stopped ? 0 : credit;
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RMIException("interrupted while uploading", e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Deducts bytes about to be sent from the credit. */
+    private void consume(int bytes)
+    {
+        lock.lock();
+        try
+        {
+            credit -= bytes;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Tells the skeleton that reading the argument failed. Failures to do
+        so are ignored: the call fails in any case. */
+    private void abort(IOException cause)
+    {
+        byte[]  message = String.valueOf(cause).getBytes(
+            StandardCharsets.UTF_8);
+        byte[]  payload = new byte[1 + message.length];
+        payload[0] = ABORT;
+        System.arraycopy(message, 0, payload, 1, message.length);
+
+        try
+        {
+            connection.data(requestId, payload);
+        }
+        catch(IOException e) { }
+    }
+}
@@ -0,0 +1,234 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/** Stream through which a server method reads a streamed argument.
+
+    <p>
+    The connection that received the call appends the payloads of the
+    call's <code>DATA</code> frames to the stream as they arrive, without
+    blocking. The server method reads them in order. Each time the method has
+    consumed <code>Upload.CHUNK</code> bytes, the stream grants them back to
+    the stub in a <code>CREDIT</code> frame, so that the stub never sends more
+    than <code>Upload.WINDOW</code> bytes ahead of the reader (see
+    <code>Upload</code>).
+
+    <p>
+    Reads throw an <code>IOException</code> if the stub failed to read the
+    argument, if the connection fails before the argument ends, or if the
+    call has already completed. Closing the stream discards the data not yet
+    read, and any further data the stub sends.
+ */
+final class UploadStream extends InputStream
+{
+    private final int               requestId;
+    /** Sends frames to the stub over the connection that received the
+        call. */
+    private final Consumer<Frame>   sender;
+
+    private final ReentrantLock     lock = new ReentrantLock();
+    private final Condition         arrived = lock.newCondition();
+
+    // Guarded by lock.
+    private final ArrayDeque<byte[]>    chunks = new ArrayDeque<>();
+    /** Offset of the next byte in the first chunk, after the state byte. */
+    private int                     position = 1;
+    private boolean                 ended;
+    private boolean                 closed;
+    private IOException             failure;
+    /** Bytes read since credit was last granted. */
+    private int                     consumed;
+
+    /** Creates the stream for a call.
+
+        @param requestId The request ID of the call.
+        @param sender Sends frames over the call's connection.
+     */
+    UploadStream(int requestId, Consumer<Frame> sender)
+    {
+        this.requestId = requestId;
+        this.sender = sender;
+    }
+
+    /** Appends the payload of a <code>DATA</code> frame. Called by the thread
+        reading the connection.
+
+        @throws IOException If the payload is malformed.
+     */
+    void receive(byte[] payload) throws IOException
+    {
+        if(payload.length == 0)
+            throw new IOException("malformed upload data");
+
+        lock.lock();
+        try
+        {
+            if(closed || ended || failure != null)
+                return;
+
+            switch(payload[0])
+            {
+            case Upload.MORE:
+                if(payload.length > 1)
+                    chunks.add(payload);
+                break;
+            case Upload.END:
+                ended = true;
+                break;
+            case Upload.ABORT:
+                failure = new IOException("upload aborted by the client: " +
+                    new String(payload, 1, payload.length - 1,
+                               StandardCharsets.UTF_8));
+                break;
+            default:
+                throw new IOException("malformed upload data");
+            }
+
+            arrived.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Fails reads that cannot be satisfied from the data already received,
+        because the connection has failed or the call has completed. */
+    void fail(IOException cause)
+    {
+        lock.lock();
+        try
+        {
+            if(failure == null && !ended)
+                failure = cause;
+            arrived.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte[]  single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException
+    {
+        if(offset < 0 || length < 0 || length > buffer.length - offset)
+            throw new IndexOutOfBoundsException();
+        if(length == 0)
+            return 0;
+
+        int     granted = 0;
+        int     count = 0;
+
+        lock.lock();
+        try
+        {
+            while(chunks.isEmpty())
+            {
+                if(closed)
+                    throw new IOException("stream closed");
+                if(ended)
+                    return -1;
+                if(failure != null)
+                    throw failure;
+
+                arrived.awaitUninterruptibly();
+            }
+
+            while(count < length && !chunks.isEmpty())
+            {
+                byte[]  chunk = chunks.peek();
+                int     taken = Math.min(length - count,
+                                         chunk.length - position);
+                System.arraycopy(chunk, position, buffer, offset + count,
+                                 taken);
+                count += taken;
+                position += taken;
+                if(position == chunk.length)
+                {
+                    chunks.poll();
+                    position = 1;
+                }
+            }
+
+            consumed += count;
+            if(consumed >= Upload.CHUNK && !ended)
+            {
+                granted = consumed;
+                consumed = 0;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if(granted > 0)
+        {
+            sender.accept(new Frame(Frame.CREDIT, requestId,
+                                    Frame.encodeCredit(granted)));
+        }
+
+        return count;
+    }
+
+    @Override
+    public int available()
+    {
+        lock.lock();
+        try
+        {
+            int     available = 0;
+            for(byte[] chunk : chunks)
+                available += chunk.length - 1;
+            return chunks.isEmpty() ? 0 : available - (position - 1);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Discards the data not yet read. The stub is granted no further
+        credit, and stops sending once the call completes. */
+    @Override
+    public void close()
+    {
+        lock.lock();
+        try
+        {
+            closed = true;
+            chunks.clear();
+            position = 1;
+            arrived.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the argument passed to a server method for a streamed
+        parameter of the given type: the stream itself, or a channel reading
+        from it. */
+    Object argument(Class<?> type)
+    {
+        if(type == InputStream.class)
+            return this;
+        return Channels.newChannel(this);
+    }
+}
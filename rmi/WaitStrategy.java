@@ -0,0 +1,70 @@
+package rmi;
+
+import java.util.concurrent.locks.LockSupport;
+
+/** How a thread waits for the other end of a shared memory connection.
+
+    <p>
+    Shared memory connections (see <code>Skeleton.setSharedMemory</code>)
+    have no kernel object to block on. A thread waiting for data, or for
+    room to write, instead polls the ring buffer, and idles between polls in
+    the manner chosen here. The strategies trade processor time for latency:
+    a spinning thread notices new data within nanoseconds but occupies a
+    processor for as long as it waits, including while the connection is
+    idle.
+ */
+public enum WaitStrategy
+{
+    /** Polls continuously. Gives the lowest latency, but each waiting thread
+        keeps a processor busy. Suited to hosts with processors dedicated to
+        the caller and the skeleton. */
+    BUSY_SPIN
+    {
+        @Override
+        void idle(int attempt)
+        {
+            Thread.onSpinWait();
+        }
+    },
+
+    /** Yields the processor between polls. Other threads can run while
+        connections wait, but waiting threads still remain runnable. */
+    YIELD
+    {
+        @Override
+        void idle(int attempt)
+        {
+            Thread.yield();
+        }
+    },
+
+    /** Spins briefly, then parks for increasing intervals, up to about a
+        millisecond. Idle connections cost little processor time, at the
+        price of slower responses after a pause. */
+    PARK
+    {
+        @Override
+        void idle(int attempt)
+        {
+            if(attempt < SPINS)
+                Thread.onSpinWait();
+            else
+                LockSupport.parkNanos(MIN_PARK_NANOS <<
+                                      Math.min(attempt - SPINS, MAX_DOUBLINGS));
+        }
+    };
+
+    /** Polls made by <code>PARK</code> before it first parks. */
+    private static final int    SPINS = 100;
+    /** Shortest interval for which <code>PARK</code> parks. */
+    private static final long   MIN_PARK_NANOS = 1000;
+    /** Number of times the <code>PARK</code> interval doubles. */
+    private static final int    MAX_DOUBLINGS = 10;
+
+    /** Idles once between polls.
+
+        @param attempt The number of polls that have found nothing since the
+                       thread started waiting.
+     */
+    abstract void idle(int attempt);
+}
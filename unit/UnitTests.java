@@ -8,6 +8,29 @@ import test.*;
     Tests run are:
     <ul>
     <li>{@link rmi.SampleUnitTest}</li>
+    <li>{@link rmi.ConnectionPoolTest}</li>
+    <li>{@link rmi.MultiplexTest}</li>
+    <li>{@link rmi.NioEngineTest}</li>
+    <li>{@link rmi.WorkerPoolTest}</li>
+    <li>{@link rmi.AsyncStubTest}</li>
+    <li>{@link rmi.BatchTest}</li>
+    <li>{@link rmi.OneWayTest}</li>
+    <li>{@link rmi.MethodTableTest}</li>
+    <li>{@link rmi.InvokerTest}</li>
+    <li>{@link rmi.ExportTest}</li>
+    <li>{@link rmi.LeaseTest}</li>
+    <li>{@link rmi.PipelineTest}</li>
+    <li>{@link rmi.CodecTest}</li>
+    <li>{@link rmi.PrimitiveCallTest}</li>
+    <li>{@link rmi.JavaStreamCodecTest}</li>
+    <li>{@link rmi.StreamTest}</li>
+    <li>{@link rmi.UploadTest}</li>
+    <li>{@link rmi.BulkTest}</li>
+    <li>{@link rmi.UnixSocketTest}</li>
+    <li>{@link rmi.LocalCallTest}</li>
+    <li>{@link rmi.SharedMemoryTest}</li>
+    <li>{@link rmi.ClientLoopTest}</li>
+    <li>{@link rmi.DatagramTest}</li>
     </ul>
  */
 public class UnitTests
@@ -21,7 +44,30 @@ public class UnitTests
         // Create the test list, the series object, and run the test series.
         @SuppressWarnings("unchecked")
         Class<? extends Test>[]     tests =
-            new Class[] {rmi.SampleUnitTest.class};
+            new Class[] {rmi.SampleUnitTest.class,
+                         rmi.ConnectionPoolTest.class,
+                         rmi.MultiplexTest.class,
+                         rmi.NioEngineTest.class,
+                         rmi.WorkerPoolTest.class,
+                         rmi.AsyncStubTest.class,
+                         rmi.BatchTest.class,
+                         rmi.OneWayTest.class,
+                         rmi.MethodTableTest.class,
+                         rmi.InvokerTest.class,
+                         rmi.ExportTest.class,
+                         rmi.LeaseTest.class,
+                         rmi.PipelineTest.class,
+                         rmi.CodecTest.class,
+                         rmi.PrimitiveCallTest.class,
+                         rmi.JavaStreamCodecTest.class,
+                         rmi.StreamTest.class,
+                         rmi.UploadTest.class,
+                         rmi.BulkTest.class,
+                         rmi.UnixSocketTest.class,
+                         rmi.LocalCallTest.class,
+                         rmi.SharedMemoryTest.class,
+                         rmi.ClientLoopTest.class,
+                         rmi.DatagramTest.class};
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
 
@@ -0,0 +1,172 @@
+package rmi;
+
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/** Unit test for asynchronous stubs.
+
+    <p>
+    The test starts several calls from a single thread. The calls can only
+    complete once all of them are executing in the server at the same time,
+    so the thread must not wait for any reply before starting the next call.
+    The test checks that the futures are completed on callback threads
+    rather than on the event loops reading replies. It then checks that an
+    exception declared by a remote method completes the call's future with
+    the same exception type.
+ */
+public class AsyncStubTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking asynchronous stubs";
+
+    /** Number of concurrent calls. */
+    private static final int    CALLS = 8;
+
+    private Skeleton<AsyncTestInterface>    skeleton = null;
+    private AsyncStub<AsyncTestInterface>   stub;
+    private final CyclicBarrier             barrier = new CyclicBarrier(CALLS);
+
+    /** Starts the skeleton and creates the stub used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<AsyncTestInterface>(AsyncTestInterface.class,
+                                                    new AsyncTestServer());
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.createAsync(AsyncTestInterface.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("starting " + CALLS + " calls from one thread");
+        List<CompletableFuture<Integer>>    results = new ArrayList<>();
+        List<CompletableFuture<String>>     threads = new ArrayList<>();
+        for(int index = 0; index < CALLS; ++index)
+        {
+            final int   value = index;
+            CompletableFuture<Integer>  result = stub.call(s -> s.meet(value));
+            results.add(result);
+            // No call completes before the last one starts, so for all but
+            // the last call, this runs on the thread completing the future.
+            threads.add(result.thenApply(
+                completed -> Thread.currentThread().getName()));
+        }
+
+        try
+        {
+            for(int index = 0; index < CALLS; ++index)
+            {
+                // Waiting on the result itself would let this thread run
+                // the dependent action, so the dependent future is waited on
+                // first.
+                String  thread = threads.get(index).get(2, TimeUnit.SECONDS);
+                if(index < CALLS - 1 &&
+                   !thread.startsWith("rmi-client-callback-"))
+                {
+                    throw new TestFailed("call completed on thread " +
+                                         thread);
+                }
+
+                if(results.get(index).get() != index * 2)
+                    throw new TestFailed("incorrect result from call");
+            }
+        }
+        catch(TimeoutException | InterruptedException | ExecutionException e)
+        {
+            throw new TestFailed("asynchronous call failed", e);
+        }
+
+        task("completing a call with a declared exception");
+        CompletableFuture<Void>         failed = stub.call(s -> { s.fail(); return null; });
+        try
+        {
+            failed.get(2, TimeUnit.SECONDS);
+            throw new TestFailed("call that throws completed normally");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof FileNotFoundException))
+                throw new TestFailed("unexpected exception from call", e);
+        }
+        catch(TimeoutException | InterruptedException e)
+        {
+            throw new TestFailed("call that throws did not complete", e);
+        }
+
+        task("checking that a function must make exactly one call");
+        try
+        {
+            stub.call(s -> null);
+            throw new TestFailed("function making no call was accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        barrier.reset();
+
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Remote interface used by the test. */
+    interface AsyncTestInterface
+    {
+        int meet(int value) throws RMIException;
+        void fail() throws RMIException, FileNotFoundException;
+    }
+
+    /** Server used by the test. */
+    private class AsyncTestServer implements AsyncTestInterface
+    {
+        @Override
+        public int meet(int value)
+        {
+            try
+            {
+                barrier.await(2, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException | BrokenBarrierException |
+                  TimeoutException e)
+            {
+                return -1;
+            }
+
+            return value * 2;
+        }
+
+        @Override
+        public void fail() throws FileNotFoundException
+        {
+            throw new FileNotFoundException("expected");
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package rmi;
+
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/** Unit test for batched calls.
+
+    <p>
+    The test adds a sequence of calls to a batch, including one that throws a
+    declared exception, and executes the batch. It checks that each call
+    receives its own outcome, that the calls were executed in order, and that
+    they were all executed by the same server thread - that is, as part of
+    the same request.
+ */
+public class BatchTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking batched calls";
+
+    /** Number of calls added to the batch before and after the failing
+        call. */
+    private static final int    CALLS = 10;
+
+    private Skeleton<BatchTestInterface>    skeleton = null;
+    private BatchTestInterface              stub;
+
+    /** Starts the skeleton and creates the stub used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<BatchTestInterface>(BatchTestInterface.class,
+                                                    new BatchTestServer());
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(BatchTestInterface.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("adding calls to a batch");
+        Batch<BatchTestInterface>       batch = Stub.createBatch(stub);
+        List<CompletableFuture<Long>>   before = new ArrayList<>();
+        List<CompletableFuture<Long>>   after = new ArrayList<>();
+
+        for(int index = 0; index < CALLS; ++index)
+        {
+            final int   value = index;
+            before.add(batch.add(s -> s.append(value)));
+        }
+
+        CompletableFuture<Void>         failed =
+            batch.add(s -> { s.fail(); return null; });
+
+        for(int index = 0; index < CALLS; ++index)
+        {
+            final int   value = CALLS + index;
+            after.add(batch.add(s -> s.append(value)));
+        }
+
+        if(before.get(0).isDone())
+            throw new TestFailed("call completed before batch was executed");
+
+        task("executing the batch");
+        try
+        {
+            batch.execute();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to execute batch", e);
+        }
+
+        if(batch.size() != 0)
+            throw new TestFailed("executed batch is not empty");
+
+        task("checking the outcome of each call");
+        try
+        {
+            // Each call returns the thread ID in its high bits and the
+            // number of values appended so far in its low bits.
+            long    thread = before.get(0).get() >>> 32;
+            for(int index = 0; index < CALLS; ++index)
+            {
+                check(before.get(index).get(), thread, index + 1);
+                check(after.get(index).get(), thread, CALLS + index + 1);
+            }
+        }
+        catch(InterruptedException | ExecutionException e)
+        {
+            throw new TestFailed("call in batch failed", e);
+        }
+
+        try
+        {
+            failed.get();
+            throw new TestFailed("failing call in batch completed normally");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof FileNotFoundException))
+                throw new TestFailed("unexpected exception from call", e);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while checking failing call");
+        }
+
+        task();
+    }
+
+    /** Checks one call's result. */
+    private void check(long result, long thread, int count) throws TestFailed
+    {
+        if(result >>> 32 != thread)
+            throw new TestFailed("batch executed by several threads");
+
+        if((int)result != count)
+            throw new TestFailed("batch not executed in order");
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Remote interface used by the test. */
+    interface BatchTestInterface
+    {
+        long append(int value) throws RMIException;
+        void fail() throws RMIException, FileNotFoundException;
+    }
+
+    /** Server used by the test. */
+    private static class BatchTestServer implements BatchTestInterface
+    {
+        private int     next = 0;
+
+        @Override
+        public synchronized long append(int value)
+        {
+            if(value != next)
+                return -1;
+
+            ++next;
+            return (Thread.currentThread().getId() << 32) | next;
+        }
+
+        @Override
+        public void fail() throws FileNotFoundException
+        {
+            throw new FileNotFoundException("expected");
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Unit test for byte buffer and file region arguments and results.
+
+    <p>
+    The test passes buffers and file regions to, and returns them from,
+    skeletons using both engines. It checks that the bytes arrive intact, that
+    the sender's buffer is not changed, that buffers arrive as direct buffers,
+    that regions in the middle of a file and large regions are sent in full,
+    that several attachments of one call arrive in order, and that
+    <code>null</code> values are passed as <code>null</code>. It also checks
+    that such calls cannot be batched.
+ */
+public class BulkTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking byte buffer and file region transfer";
+
+    /** Size of the large file region. */
+    private static final int    LARGE = 64 << 20;
+
+    private Skeleton<BulkInterface>     blocking = null;
+    private Skeleton<BulkInterface>     nio = null;
+    private Path                        file = null;
+
+    /** Starts the skeletons and creates the file used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        BulkServer  server = new BulkServer();
+        blocking = new Skeleton<BulkInterface>(BulkInterface.class, server);
+        nio = new Skeleton<BulkInterface>(BulkInterface.class, server);
+        nio.setEngine(Skeleton.Engine.NIO);
+
+        try
+        {
+            file = Files.createTempFile("bulk-test-", null);
+            try(FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.WRITE))
+            {
+                ByteBuffer  data = pattern(0, LARGE);
+                while(data.hasRemaining())
+                    channel.write(data);
+            }
+
+            blocking.start();
+            nio.start();
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create test file", e);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            check(Stub.create(BulkInterface.class, blocking));
+            check(Stub.create(BulkInterface.class, nio));
+
+            task("batching a call with a buffer argument");
+            Batch<BulkInterface>    batch =
+                Stub.createBatch(Stub.create(BulkInterface.class, blocking));
+            try
+            {
+                batch.add(s -> s.sum(ByteBuffer.allocate(10)));
+                throw new TestFailed("buffer call added to a batch");
+            }
+            catch(IllegalArgumentException e) { }
+
+            try
+            {
+                batch.add(s -> s.generate(10));
+                throw new TestFailed("buffer result added to a batch");
+            }
+            catch(IllegalArgumentException e) { }
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected failure", e);
+        }
+
+        task();
+    }
+
+    /** Performs the checks common to both engines. */
+    private void check(BulkInterface stub) throws Exception
+    {
+        task("passing a heap buffer");
+        ByteBuffer      heap = pattern(0, 100000);
+        heap.position(10);
+        if(stub.sum(heap) != sum(10, 100000))
+            throw new TestFailed("incorrect buffer contents");
+        if(heap.position() != 10 || heap.limit() != 100000)
+            throw new TestFailed("sender's buffer changed");
+
+        task("passing a direct buffer and returning it");
+        ByteBuffer      direct = ByteBuffer.allocateDirect(5000);
+        direct.put(pattern(0, 5000));
+        direct.flip();
+        ByteBuffer      echoed = stub.echo(direct);
+        if(!echoed.equals(pattern(0, 5000)))
+            throw new TestFailed("incorrect echoed buffer");
+        if(!echoed.isDirect())
+            throw new TestFailed("buffer not received as a direct buffer");
+
+        task("returning a generated buffer");
+        if(!stub.generate(300000).equals(pattern(0, 300000)))
+            throw new TestFailed("incorrect generated buffer");
+
+        task("passing a region in the middle of a file");
+        try(FileChannel channel = FileChannel.open(file))
+        {
+            if(stub.checksum(new FileRegion(channel, 1000, 20000))
+               != sum(1000, 21000))
+            {
+                throw new TestFailed("incorrect file region contents");
+            }
+
+            task("passing a large file region");
+            if(stub.checksum(new FileRegion(channel, 0, LARGE))
+               != sum(0, LARGE))
+            {
+                throw new TestFailed("incorrect large region contents");
+            }
+
+            task("passing a buffer and a region in one call");
+            if(stub.combined(pattern(0, 10), 7,
+                             new FileRegion(channel, 0, 30)) != 47)
+            {
+                throw new TestFailed("incorrect combined sizes");
+            }
+        }
+
+        task("returning a large file region");
+        try(FileRegion  region = stub.open(LARGE))
+        {
+            if(region.count() != LARGE)
+                throw new TestFailed("incorrect returned region size");
+            if(checksum(region) != sum(0, LARGE))
+                throw new TestFailed("incorrect returned region contents");
+        }
+
+        task("passing a null buffer and region");
+        if(!stub.isNull(null, null))
+            throw new TestFailed("null values not passed as null");
+        if(stub.open(-1) != null)
+            throw new TestFailed("null region not returned as null");
+    }
+
+    /** Stops the skeletons and deletes the test file. */
+    @Override
+    protected void clean()
+    {
+        if(blocking != null)
+            blocking.stop();
+        if(nio != null)
+            nio.stop();
+
+        if(file != null)
+        {
+            try
+            {
+                Files.deleteIfExists(file);
+            }
+            catch(IOException e) { }
+        }
+    }
+
+    /** Returns a heap buffer holding the pattern bytes from
+        <code>start</code> to <code>end</code>. */
+    private static ByteBuffer pattern(int start, int end)
+    {
+        ByteBuffer  buffer = ByteBuffer.allocate(end - start);
+        for(int index = start; index < end; ++index)
+            buffer.put((byte)index);
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Returns the sum of the pattern bytes from <code>start</code> to
+        <code>end</code>. */
+    private static long sum(long start, long end)
+    {
+        long    total = 0;
+        for(long index = start; index < end; ++index)
+            total += (byte)index;
+        return total;
+    }
+
+    /** Returns the sum of the remaining bytes of a buffer. */
+    private static long sum(ByteBuffer buffer)
+    {
+        long    total = 0;
+        while(buffer.hasRemaining())
+            total += buffer.get();
+        return total;
+    }
+
+    /** Returns the sum of the bytes of a file region. */
+    private static long checksum(FileRegion region) throws IOException
+    {
+        ByteBuffer  buffer = ByteBuffer.allocate(1 << 16);
+        long        position = region.position();
+        long        end = position + region.count();
+        long        total = 0;
+        while(position < end)
+        {
+            buffer.clear();
+            buffer.limit((int)Math.min(buffer.capacity(), end - position));
+            int     read = region.channel().read(buffer, position);
+            if(read < 0)
+                throw new IOException("file region extends past the end");
+            position += read;
+            buffer.flip();
+            total += sum(buffer);
+        }
+
+        return total;
+    }
+
+    /** Interface used by the test. */
+    interface BulkInterface
+    {
+        long sum(ByteBuffer data) throws RMIException;
+        ByteBuffer echo(ByteBuffer data) throws RMIException;
+        ByteBuffer generate(int size) throws RMIException;
+        long checksum(FileRegion region) throws RMIException, IOException;
+        int combined(ByteBuffer first, int middle, FileRegion last)
+            throws RMIException;
+        FileRegion open(int size) throws RMIException, IOException;
+        boolean isNull(ByteBuffer data, FileRegion region)
+            throws RMIException;
+    }
+
+    /** Server used by the test. */
+    private class BulkServer implements BulkInterface
+    {
+        @Override
+        public long sum(ByteBuffer data)
+        {
+            return BulkTest.sum(data);
+        }
+
+        @Override
+        public ByteBuffer echo(ByteBuffer data)
+        {
+            return data;
+        }
+
+        @Override
+        public ByteBuffer generate(int size)
+        {
+            return pattern(0, size);
+        }
+
+        @Override
+        public long checksum(FileRegion region) throws IOException
+        {
+            try(FileRegion received = region)
+            {
+                return BulkTest.checksum(received);
+            }
+        }
+
+        @Override
+        public int combined(ByteBuffer first, int middle, FileRegion last)
+        {
+            try(FileRegion received = last)
+            {
+                return first.remaining() + middle + (int)received.count();
+            }
+            catch(IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public FileRegion open(int size) throws IOException
+        {
+            if(size < 0)
+                return null;
+
+            return new FileRegion(FileChannel.open(file), 0, size);
+        }
+
+        @Override
+        public boolean isNull(ByteBuffer data, FileRegion region)
+        {
+            return data == null && region == null;
+        }
+    }
+}
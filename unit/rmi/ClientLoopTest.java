@@ -0,0 +1,274 @@
+package rmi;
+
+import test.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/** Unit test for the event loops serving stub connections.
+
+    <p>
+    The test calls a number of skeletons, concurrently from many threads, and
+    checks that the calls are answered correctly without any connection
+    having a reader thread of its own, and using no more event loop threads
+    than configured. It also sends and receives values larger than socket
+    buffers, which the event loops write out over several attempts, and
+    checks that the number of loops cannot be changed once they have
+    started. Finally, it fails the loops while a new connection is being
+    registered with one of them, and checks that a call over that connection
+    completes rather than waiting for a reply that no loop reads.
+ */
+public class ClientLoopTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking client event loops";
+
+    /** Number of skeletons called. */
+    private static final int    SKELETONS = 16;
+    /** Number of concurrent calling threads. */
+    private static final int    CALLERS = 64;
+
+    private final List<Skeleton<LoopInterface>> skeletons = new ArrayList<>();
+    private ExecutorService                     callers = null;
+
+    /** Starts the skeletons. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            for(int index = 0; index < SKELETONS; ++index)
+            {
+                Skeleton<LoopInterface>     skeleton =
+                    new Skeleton<LoopInterface>(LoopInterface.class,
+                                                new LoopServer(index));
+                skeleton.start();
+                skeletons.add(skeleton);
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        callers = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            task("calling many skeletons from many threads");
+            List<Future<Boolean>>   results = new ArrayList<>();
+            for(int caller = 0; caller < CALLERS; ++caller)
+            {
+                final int   number = caller;
+                results.add(callers.submit(() -> call(number)));
+            }
+
+            for(Future<Boolean> result : results)
+            {
+                if(!result.get())
+                    throw new TestFailed("incorrect result");
+            }
+
+            task("using no reader threads");
+            int     loops = 0;
+            for(Thread thread : Thread.getAllStackTraces().keySet())
+            {
+                String  name = thread.getName();
+                if(name.startsWith("rmi-client-loop-"))
+                    ++loops;
+                else if(name.startsWith("rmi-connection-") &&
+                        !name.equals("rmi-connection-evictor"))
+                {
+                    throw new TestFailed("connection has a reader thread: " +
+                                         name);
+                }
+            }
+
+            int     expected =
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            if(loops == 0 || loops > expected)
+                throw new TestFailed(loops + " event loop threads running");
+
+            task("sending and receiving values larger than socket buffers");
+            LoopInterface   stub =
+                Stub.create(LoopInterface.class, skeletons.get(0));
+            byte[]          large = new byte[8 << 20];
+            large[large.length - 1] = 7;
+            byte[]          echoed = stub.echo(large);
+            if(echoed.length != large.length ||
+               echoed[large.length - 1] != 7)
+            {
+                throw new TestFailed("incorrect large result");
+            }
+
+            task("changing the number of loops once started");
+            try
+            {
+                Stub.setEventLoopThreads(0);
+                throw new TestFailed("non-positive thread count accepted");
+            }
+            catch(IllegalArgumentException e) { }
+
+            try
+            {
+                Stub.setEventLoopThreads(2);
+                throw new TestFailed("thread count changed after start");
+            }
+            catch(IllegalStateException e) { }
+
+            task("failing a loop while a connection is being registered");
+            failLoopsDuringRegistration(expected);
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected failure", e);
+        }
+
+        task();
+    }
+
+    /** Holds every event loop, queues a task that fails it, and opens a
+        connection whose registration is queued behind that task. The call
+        over the connection must complete once the loops fail, either over
+        another connection or with an exception, instead of never receiving
+        its reply.
+
+        @param loops The number of event loops.
+     */
+    private void failLoopsDuringRegistration(int loops) throws Exception
+    {
+        final CountDownLatch    held = new CountDownLatch(1);
+        for(int index = 0; index < loops; ++index)
+        {
+            ClientLoops.Loop    loop = ClientLoops.next();
+            loop.execute(() ->
+            {
+                try
+                {
+                    held.await();
+                }
+                catch(InterruptedException e) { }
+            });
+            loop.execute(() ->
+            {
+                throw new IllegalStateException("loop failed by the test");
+            });
+        }
+
+        ConnectionPool.setKeepAlive(false);
+        try
+        {
+            final LoopInterface stub =
+                Stub.create(LoopInterface.class, skeletons.get(1));
+            long                opened = ConnectionPool.opened();
+            Future<Integer>     call = callers.submit(() -> stub.add(1));
+
+            // Wait for the connection to be opened, and its registration
+            // queued, before letting the loops fail.
+            long                deadline = System.currentTimeMillis() + 2000;
+            while(ConnectionPool.opened() == opened &&
+                  System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+
+            held.countDown();
+
+            try
+            {
+                call.get(5, TimeUnit.SECONDS);
+            }
+            catch(ExecutionException e) { }
+            catch(TimeoutException e)
+            {
+                throw new TestFailed("call over a connection registered " +
+                                     "with a failed loop never completed");
+            }
+        }
+        finally
+        {
+            held.countDown();
+            ConnectionPool.setKeepAlive(true);
+        }
+    }
+
+    /** Calls every skeleton several times.
+
+        @return <code>true</code> if every result is correct.
+     */
+    private boolean call(int caller) throws RMIException
+    {
+        for(int round = 0; round < 4; ++round)
+        {
+            for(int index = 0; index < SKELETONS; ++index)
+            {
+                LoopInterface   stub =
+                    Stub.create(LoopInterface.class, skeletons.get(index));
+                if(stub.add(caller) != caller + index)
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /** Stops the skeletons and the calling threads. */
+    @Override
+    protected void clean()
+    {
+        if(callers != null)
+            callers.shutdownNow();
+
+        for(Skeleton<LoopInterface> skeleton : skeletons)
+            skeleton.stop();
+    }
+
+    /** Interface used by the test. */
+    interface LoopInterface
+    {
+        int add(int value) throws RMIException;
+        byte[] echo(byte[] bytes) throws RMIException;
+    }
+
+    /** Server used by the test. Adds its index to each value. */
+    private static class LoopServer implements LoopInterface
+    {
+        private final int   index;
+
+        LoopServer(int index)
+        {
+            this.index = index;
+        }
+
+        @Override
+        public int add(int value)
+        {
+            return value + index;
+        }
+
+        @Override
+        public byte[] echo(byte[] bytes)
+        {
+            return bytes;
+        }
+    }
+}
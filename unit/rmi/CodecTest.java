@@ -0,0 +1,328 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Unit test for codecs.
+
+    <p>
+    The test encodes and decodes values of many types with the binary codec,
+    including registered classes and values that fall back on Java
+    serialization, and checks that malformed encodings are rejected. It then
+    checks that stubs negotiate the preferred codec with a skeleton, and that
+    calls succeed with each codec.
+ */
+public class CodecTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking codecs";
+
+    /** ID under which the test registers its data class. */
+    private static final int    POINT_ID = 1000;
+
+    private Skeleton<CodecTestInterface>    skeleton = null;
+
+    /** Starts the skeleton used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        Codecs.BINARY.register(POINT_ID, Point.class);
+        Codecs.BINARY.register(POINT_ID + 1, Color.class);
+
+        skeleton = new Skeleton<CodecTestInterface>(CodecTestInterface.class,
+                                                    new CodecTestServer());
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("encoding values with the binary codec");
+        List<Object>    list = new ArrayList<>(Arrays.asList("a", 1));
+        Object[]        values =
+            {null, true, false, (byte)-3, (short)-300, 'x', '\u20ac', 0, -1,
+             Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE, 1L << 40,
+             1.5f, -2.25, Double.NaN, "", "ping", "caf\u00e9 \u20ac",
+             new byte[] {1, -2, 3}, new int[] {0, -5, 1 << 30},
+             new long[] {-1L, 1L << 50}, new double[] {0.5, -1e300},
+             new boolean[] {true, false}, new char[] {'a', '\u00e9'},
+             new short[] {-1, 2}, new float[] {1.25f},
+             new String[] {"a", null, "b"}, new int[][] {{1}, {2, 3}},
+             new Object[] {1, "two", 3.0, null, new Object[] {4L}},
+             Color.GREEN, Thread.State.RUNNABLE, String.class, int.class,
+             CodecTest.class, new Point(3, -4, "p", Color.RED),
+             new Point[] {new Point(1, 2, null, null), null}, list,
+             new RMIException("failure")};
+
+        for(Object value : values)
+        {
+            Object  decoded = roundTrip(value);
+            if(!same(value, decoded))
+            {
+                throw new TestFailed("value " + describe(value) +
+                                     " decoded as " + describe(decoded));
+            }
+        }
+
+        task("comparing encoded sizes");
+        Object[]        arguments = {42, "ping"};
+        try
+        {
+            int     binary = Codecs.BINARY.encode(arguments).length;
+            int     java = Codecs.JAVA.encode(arguments).length;
+            if(binary * 4 > java)
+            {
+                throw new TestFailed("binary encoding is " + binary +
+                                     " bytes, Java serialization " + java);
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to encode arguments", e);
+        }
+
+        task("rejecting malformed encodings");
+        byte[]          encoded;
+        try
+        {
+            encoded = Codecs.BINARY.encode(new Object[] {"truncated", 1L});
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to encode value", e);
+        }
+
+        for(int length = 0; length < encoded.length; ++length)
+            expectMalformed(Arrays.copyOf(encoded, length));
+        expectMalformed(new byte[] {99});
+        expectMalformed(new byte[] {14, (byte)0xff, 0x7f});
+
+        task("negotiating codecs");
+        try
+        {
+            checkCalls(Codecs.BINARY, "binary", "java");
+            checkCalls(Codecs.JAVA, "java");
+            checkCalls(Codecs.JAVA, "unknown");
+        }
+        finally
+        {
+            Codecs.setPreference("binary", "java");
+        }
+
+        task();
+    }
+
+    /** Sets the codec preference, and checks that a new connection uses the
+        expected codec and that calls succeed over it. */
+    private void checkCalls(Codec expected, String... preference)
+        throws TestFailed
+    {
+        Codecs.setPreference(preference);
+
+        Connection  connection;
+        try
+        {
+            connection = new Connection(skeleton.getSocketAddress());
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to connect to skeleton", e);
+        }
+
+        connection.close(new IOException("test complete"));
+        // Connections using Java serialization have a codec of their own.
+        if(!connection.codec.name().equals(expected.name()))
+        {
+            throw new TestFailed("negotiated " + connection.codec.name() +
+                                 ", expected " + expected.name());
+        }
+
+        // Stubs share pooled connections, which keep the codec negotiated
+        // when they were opened.
+        Stub.setKeepAlive(false);
+        try
+        {
+            CodecTestInterface  stub =
+                Stub.create(CodecTestInterface.class, skeleton);
+            Point               moved =
+                stub.move(new Point(1, 2, "start", Color.RED), 10);
+
+            if(moved.x != 11 || moved.y != 12 ||
+               !"start moved".equals(moved.label) || moved.color != Color.BLUE)
+            {
+                throw new TestFailed("incorrect result with " +
+                                     expected.name() + " codec");
+            }
+
+            try
+            {
+                stub.fail("expected");
+                throw new TestFailed("exception not thrown");
+            }
+            catch(IllegalStateException e)
+            {
+                if(!"expected".equals(e.getMessage()))
+                    throw new TestFailed("incorrect exception message");
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed with " + expected.name() +
+                                 " codec", e);
+        }
+        finally
+        {
+            Stub.setKeepAlive(true);
+        }
+    }
+
+    /** Encodes and decodes a value with the binary codec. */
+    private static Object roundTrip(Object value) throws TestFailed
+    {
+        try
+        {
+            byte[]  encoded = Codecs.BINARY.encode(value);
+            return Codecs.BINARY.decode(encoded, 0, encoded.length);
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to encode " + describe(value), e);
+        }
+    }
+
+    /** Checks that decoding an encoding fails with an
+        <code>IOException</code>. */
+    private static void expectMalformed(byte[] encoded) throws TestFailed
+    {
+        try
+        {
+            Codecs.BINARY.decode(encoded, 0, encoded.length);
+        }
+        catch(IOException e)
+        {
+            return;
+        }
+        catch(ClassNotFoundException e)
+        {
+            throw new TestFailed("unexpected exception", e);
+        }
+
+        throw new TestFailed("malformed encoding " + Arrays.toString(encoded) +
+                             " accepted");
+    }
+
+    /** Compares a value with its decoded copy. */
+    private static boolean same(Object value, Object decoded)
+    {
+        if(value instanceof RMIException)
+        {
+            return decoded instanceof RMIException &&
+                   ((RMIException)value).getMessage().equals(
+                       ((RMIException)decoded).getMessage());
+        }
+
+        if(value != null && decoded != null &&
+           value.getClass() != decoded.getClass())
+        {
+            return false;
+        }
+
+        return Arrays.deepEquals(new Object[] {value}, new Object[] {decoded});
+    }
+
+    /** Describes a value for an error message. */
+    private static String describe(Object value)
+    {
+        return Arrays.deepToString(new Object[] {value});
+    }
+
+    /** Remote interface used by the test. */
+    interface CodecTestInterface
+    {
+        Point move(Point point, int distance) throws RMIException;
+        void fail(String message) throws RMIException, IllegalStateException;
+    }
+
+    /** Server used by the test. */
+    private static class CodecTestServer implements CodecTestInterface
+    {
+        @Override
+        public Point move(Point point, int distance)
+        {
+            return new Point(point.x + distance, point.y + distance,
+                             point.label + " moved", Color.BLUE);
+        }
+
+        @Override
+        public void fail(String message)
+        {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    /** Enum registered with the binary codec. */
+    enum Color
+    {
+        RED, GREEN, BLUE
+    }
+
+    /** Data class registered with the binary codec. It is also
+        serializable, so that it can be sent with Java serialization. */
+    static class Point implements Serializable
+    {
+        private static final long   serialVersionUID = 1L;
+
+        int             x;
+        long            y;
+        String          label;
+        Color           color;
+        transient int   ignored = 7;
+
+        Point()
+        {
+        }
+
+        Point(int x, long y, String label, Color color)
+        {
+            this.x = x;
+            this.y = y;
+            this.label = label;
+            this.color = color;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if(!(other instanceof Point))
+                return false;
+
+            Point   point = (Point)other;
+            return x == point.x && y == point.y && color == point.color &&
+                   (label == null ? point.label == null
+                                  : label.equals(point.label));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return x * 31 + (int)y;
+        }
+    }
+}
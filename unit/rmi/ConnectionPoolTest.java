@@ -0,0 +1,114 @@
+package rmi;
+
+import test.*;
+
+/** Unit test for <code>ConnectionPool</code>.
+
+    <p>
+    The test checks that sequential calls made through a stub share a single
+    kept-alive connection, and that a pooled connection closed by a stopped
+    skeleton is detected and replaced when the skeleton is restarted.
+ */
+public class ConnectionPoolTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking client connection pooling";
+
+    /** Number of sequential calls made by the test. */
+    private static final int    CALLS = 10;
+
+    private Skeleton<PoolTestInterface> skeleton = null;
+    private PoolTestInterface           stub;
+
+    /** Starts the skeleton and creates the stub used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<PoolTestInterface>(PoolTestInterface.class,
+                                                   new PoolTestServer());
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(PoolTestInterface.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("making sequential calls over a kept-alive connection");
+        long    opened = ConnectionPool.opened();
+        call();
+        if(ConnectionPool.opened() - opened != 1)
+        {
+            throw new TestFailed("sequential calls did not share a single " +
+                                 "connection");
+        }
+
+        task("restarting the skeleton under a pooled connection");
+        skeleton.stop();
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to restart skeleton", e);
+        }
+
+        call();
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Makes <code>CALLS</code> calls to the stub and checks their results. */
+    private void call() throws TestFailed
+    {
+        for(int call = 0; call < CALLS; ++call)
+        {
+            try
+            {
+                if(stub.echo(call) != call)
+                    throw new TestFailed("incorrect result from remote call");
+            }
+            catch(RMIException e)
+            {
+                throw new TestFailed("remote call failed", e);
+            }
+        }
+    }
+
+    /** Remote interface used by the test. */
+    interface PoolTestInterface
+    {
+        int echo(int value) throws RMIException;
+    }
+
+    /** Server used by the test. */
+    private static class PoolTestServer implements PoolTestInterface
+    {
+        @Override
+        public int echo(int value)
+        {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package rmi;
+
+import test.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for calls to idempotent methods in datagrams.
+
+    <p>
+    The test calls a skeleton accepting datagram calls, and checks that calls
+    to idempotent methods are answered in datagrams once the stub has
+    connected, while other calls, and calls whose request or reply does not
+    fit in a datagram, are made over a connection. It checks that a call
+    outlasting the stub's first timeout is sent again but executed once, and
+    that the skeleton refuses datagram calls to methods not marked
+    idempotent.
+ */
+public class DatagramTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking datagram calls";
+
+    private final IdempotentServer      server = new IdempotentServer();
+    private Skeleton<DatagramInterface> skeleton = null;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<DatagramInterface>(DatagramInterface.class,
+                                                   server);
+        skeleton.setDatagramCalls(true);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            task("advertising the datagram port");
+            if(skeleton.getDatagramPort() == 0)
+                throw new TestFailed("skeleton has no datagram port");
+
+            DatagramInterface   stub =
+                Stub.create(DatagramInterface.class, skeleton);
+
+            task("calling idempotent methods in datagrams");
+            // The first call connects, and learns the datagram port.
+            if(stub.ping(1) != 2)
+                throw new TestFailed("incorrect result");
+
+            long                answered = DatagramCalls.answered();
+            if(stub.ping(2) != 3 || !stub.lookup("key").equals("value:key"))
+                throw new TestFailed("incorrect result");
+            if(DatagramCalls.answered() != answered + 2)
+                throw new TestFailed("calls not answered in datagrams");
+
+            try
+            {
+                stub.fail();
+                throw new TestFailed("exception not thrown");
+            }
+            catch(IllegalStateException e) { }
+            if(DatagramCalls.answered() != answered + 3)
+                throw new TestFailed("exception not thrown in a datagram");
+
+            task("calling other methods over a connection");
+            answered = DatagramCalls.answered();
+            if(stub.increment() != 1)
+                throw new TestFailed("incorrect result");
+            if(DatagramCalls.answered() != answered)
+                throw new TestFailed("non-idempotent call sent in a datagram");
+
+            task("falling back to a connection for large calls");
+            byte[]              large = new byte[4000];
+            large[large.length - 1] = 5;
+            if(stub.echo(large)[large.length - 1] != 5)
+                throw new TestFailed("incorrect large result");
+            if(stub.zeros(4000).length != 4000)
+                throw new TestFailed("incorrect large result");
+            if(DatagramCalls.answered() != answered)
+                throw new TestFailed("large call answered in a datagram");
+
+            task("sending slow calls again without executing them twice");
+            long                resent = DatagramCalls.resent();
+            int                 before = server.slowCalls.get();
+            if(stub.slow(7) != 7)
+                throw new TestFailed("incorrect result");
+            if(DatagramCalls.resent() == resent)
+                throw new TestFailed("slow call not sent again");
+            if(server.slowCalls.get() != before + 1)
+            {
+                throw new TestFailed("slow call executed " +
+                                     (server.slowCalls.get() - before) +
+                                     " times");
+            }
+
+            task("refusing datagram calls to other methods");
+            DatagramCalls.Endpoint  endpoint =
+                DatagramCalls.endpoint(skeleton.getSocketAddress());
+            int                 id = endpoint.connection.methodId(
+                DatagramInterface.class.getMethod("increment"));
+            Frame               reply =
+                DatagramCalls.call(endpoint,
+                                   Frame.encodeCall(Codecs.JAVA,
+                                                    ObjectTable.PRIMARY_ID, id,
+                                                    null, new Object[0]));
+            if(reply == null || reply.type != Frame.FAILURE)
+                throw new TestFailed("datagram call to increment accepted");
+            if(server.counter.get() != 1)
+                throw new TestFailed("datagram call to increment executed");
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected failure", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Interface used by the test. */
+    interface DatagramInterface
+    {
+        @Idempotent
+        int ping(int value) throws RMIException;
+        @Idempotent
+        String lookup(String key) throws RMIException;
+        @Idempotent
+        void fail() throws IllegalStateException, RMIException;
+        @Idempotent
+        byte[] echo(byte[] bytes) throws RMIException;
+        @Idempotent
+        byte[] zeros(int length) throws RMIException;
+        @Idempotent
+        int slow(int value) throws RMIException;
+        int increment() throws RMIException;
+    }
+
+    /** Server used by the test. */
+    private static class IdempotentServer implements DatagramInterface
+    {
+        final AtomicInteger     counter = new AtomicInteger();
+        final AtomicInteger     slowCalls = new AtomicInteger();
+
+        @Override
+        public int ping(int value)
+        {
+            return value + 1;
+        }
+
+        @Override
+        public String lookup(String key)
+        {
+            return "value:" + key;
+        }
+
+        @Override
+        public void fail()
+        {
+            throw new IllegalStateException("failed");
+        }
+
+        @Override
+        public byte[] echo(byte[] bytes)
+        {
+            return bytes;
+        }
+
+        @Override
+        public byte[] zeros(int length)
+        {
+            return new byte[length];
+        }
+
+        @Override
+        public int slow(int value) throws RMIException
+        {
+            slowCalls.incrementAndGet();
+            try
+            {
+                Thread.sleep(3 * DatagramCalls.FIRST_TIMEOUT);
+            }
+            catch(InterruptedException e)
+            {
+                throw new RMIException(e);
+            }
+            return value;
+        }
+
+        @Override
+        public int increment()
+        {
+            return counter.incrementAndGet();
+        }
+    }
+}
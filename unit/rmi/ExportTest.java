@@ -0,0 +1,181 @@
+package rmi;
+
+import test.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/** Unit test for objects exported through a skeleton's object table.
+
+    <p>
+    The test calls a factory that returns remote objects. It checks that the
+    returned stubs reach the right objects over the factory skeleton's
+    existing connection, that an object returned twice is exported once, and
+    that a returned stub can be serialized and still reach its object.
+ */
+public class ExportTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking exported remote objects";
+
+    /** Number of objects created through the factory. */
+    private static final int    OBJECTS = 50;
+
+    private Skeleton<FactoryInterface>  skeleton = null;
+    private FactoryInterface            factory;
+
+    /** Starts the skeleton and creates the stub used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<FactoryInterface>(FactoryInterface.class,
+                                                  new FactoryServer());
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        factory = Stub.create(FactoryInterface.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            task("creating remote objects through a factory");
+            factory.shared();
+            long                opened = ConnectionPool.opened();
+
+            CounterInterface[]  counters = new CounterInterface[OBJECTS];
+            for(int index = 0; index < OBJECTS; ++index)
+            {
+                counters[index] = factory.create(index);
+                counters[index].increment();
+            }
+
+            for(int index = 0; index < OBJECTS; ++index)
+            {
+                if(counters[index].increment() != index + 2)
+                    throw new TestFailed("call reached the wrong object");
+            }
+
+            if(ConnectionPool.opened() != opened)
+            {
+                throw new TestFailed("calls to exported objects opened new " +
+                                     "connections");
+            }
+
+            if(counters[0].equals(counters[1]))
+                throw new TestFailed("stubs for different objects are equal");
+
+            task("returning the same object twice");
+            CounterInterface    first = factory.shared();
+            CounterInterface    second = factory.shared();
+            if(!first.equals(second) || first.hashCode() != second.hashCode())
+                throw new TestFailed("stubs for the same object differ");
+
+            if(skeleton.getExportedObjectCount() != OBJECTS + 1)
+                throw new TestFailed("objects exported more than once");
+
+            task("serializing a stub for an exported object");
+            CounterInterface    copy = copy(counters[3]);
+            if(!copy.equals(counters[3]) || copy.increment() != 6)
+                throw new TestFailed("serialized stub lost its object");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call to exported object failed", e);
+        }
+
+        task();
+    }
+
+    /** Serializes and deserializes a stub. */
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(T stub) throws TestFailed
+    {
+        try
+        {
+            ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+            ObjectOutputStream      out = new ObjectOutputStream(bytes);
+            out.writeObject(stub);
+            out.close();
+
+            ObjectInputStream       in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+            return (T)in.readObject();
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to serialize stub", e);
+        }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Factory interface used by the test. */
+    interface FactoryInterface
+    {
+        CounterInterface create(int start) throws RMIException;
+        CounterInterface shared() throws RMIException;
+    }
+
+    /** Interface of the objects returned by the factory. */
+    interface CounterInterface
+    {
+        int increment() throws RMIException;
+    }
+
+    /** Factory used by the test. */
+    private static class FactoryServer implements FactoryInterface
+    {
+        private final CounterServer     shared = new CounterServer(0);
+
+        @Override
+        public CounterInterface create(int start)
+        {
+            return new CounterServer(start);
+        }
+
+        @Override
+        public CounterInterface shared()
+        {
+            return shared;
+        }
+    }
+
+    /** Object returned by the factory. */
+    private static class CounterServer implements CounterInterface
+    {
+        private int     value;
+
+        CounterServer(int value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public synchronized int increment()
+        {
+            return ++value;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package rmi;
+
+import test.*;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/** Unit test for <code>Invoker</code>.
+
+    <p>
+    The test calls methods of several arities, with and without results,
+    through invokers created by <code>Invoker.create</code>. It checks that
+    exceptions thrown by a method are wrapped in
+    <code>InvocationTargetException</code>, and that arguments of the wrong
+    type are refused before the method is called.
+ */
+public class InvokerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking method invokers";
+
+    private final InvokerTestServer     server = new InvokerTestServer();
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("calling methods with and without results");
+        expect("count", new Class<?>[0], new Object[0], 0);
+        expect("touch", new Class<?>[] {int.class}, new Object[] {5}, null);
+        expect("count", new Class<?>[0], null, 5);
+        expect("add", new Class<?>[] {int.class, long.class},
+               new Object[] {2, 3L}, 5L);
+        expect("join", new Class<?>[] {String.class, char.class,
+                                       boolean.class},
+               new Object[] {"a", 'b', true}, "abtrue");
+        expect("sum", new Class<?>[] {int.class, int.class, int.class,
+                                      int.class, int.class},
+               new Object[] {1, 2, 3, 4, 5}, 15);
+
+        task("calling a method that throws an exception");
+        try
+        {
+            invoker("fail", new Class<?>[0]).invoke(server, null);
+            throw new TestFailed("exception was not thrown");
+        }
+        catch(InvocationTargetException e)
+        {
+            if(!(e.getCause() instanceof IllegalStateException))
+                throw new TestFailed("wrong exception wrapped", e);
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("exception was not wrapped", e);
+        }
+
+        task("passing arguments of the wrong type");
+        refuse("touch", new Class<?>[] {int.class}, new Object[] {5L});
+        refuse("touch", new Class<?>[] {int.class}, new Object[] {null});
+        refuse("touch", new Class<?>[] {int.class}, new Object[0]);
+        refuse("join", new Class<?>[] {String.class, char.class,
+                                       boolean.class},
+               new Object[] {1, 'b', true});
+
+        task();
+    }
+
+    /** Creates an invoker for a method of the test interface. */
+    private Invoker invoker(String name, Class<?>[] parameters)
+        throws TestFailed
+    {
+        try
+        {
+            Method  method =
+                InvokerTestInterface.class.getMethod(name, parameters);
+            return Invoker.create(method, false);
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("no method " + name, e);
+        }
+    }
+
+    /** Calls a method and checks its result. */
+    private void expect(String name, Class<?>[] parameters, Object[] arguments,
+                        Object expected) throws TestFailed
+    {
+        Object      result;
+        try
+        {
+            result = invoker(name, parameters).invoke(server, arguments);
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("call to " + name + " failed", e);
+        }
+
+        if(expected == null ? result != null : !expected.equals(result))
+        {
+            throw new TestFailed("call to " + name + " returned " + result +
+                                 ", expected " + expected);
+        }
+    }
+
+    /** Checks that a method cannot be called with the given arguments. */
+    private void refuse(String name, Class<?>[] parameters,
+                        Object[] arguments) throws TestFailed
+    {
+        int         before = server.calls;
+        try
+        {
+            invoker(name, parameters).invoke(server, arguments);
+            throw new TestFailed("call to " + name + " with bad arguments " +
+                                 "succeeded");
+        }
+        catch(IllegalArgumentException e) { }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected exception from call to " + name,
+                                 e);
+        }
+
+        if(server.calls != before)
+            throw new TestFailed("method called with bad arguments");
+    }
+
+    /** Interface used by the test. */
+    public interface InvokerTestInterface
+    {
+        int count() throws RMIException;
+        void touch(int value) throws RMIException;
+        long add(int first, long second) throws RMIException;
+        String join(String first, char second, boolean third)
+            throws RMIException;
+        int sum(int a, int b, int c, int d, int e) throws RMIException;
+        void fail() throws RMIException;
+    }
+
+    /** Server used by the test. */
+    private static class InvokerTestServer implements InvokerTestInterface
+    {
+        int     calls = 0;
+        int     touched = 0;
+
+        @Override
+        public int count()
+        {
+            ++calls;
+            return touched;
+        }
+
+        @Override
+        public void touch(int value)
+        {
+            ++calls;
+            touched = value;
+        }
+
+        @Override
+        public long add(int first, long second)
+        {
+            ++calls;
+            return first + second;
+        }
+
+        @Override
+        public String join(String first, char second, boolean third)
+        {
+            ++calls;
+            return first + second + third;
+        }
+
+        @Override
+        public int sum(int a, int b, int c, int d, int e)
+        {
+            ++calls;
+            return a + b + c + d + e;
+        }
+
+        @Override
+        public void fail()
+        {
+            throw new IllegalStateException("expected");
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/** Unit test for the per-connection Java serialization codec.
+
+    <p>
+    The test encodes payloads with one codec and decodes them with another,
+    passing class descriptors between them as a connection would. It checks
+    that descriptors are sent once, that later payloads are smaller than with
+    <code>JavaCodec</code>, that payloads can be decoded in any order, that
+    payloads do not refer back to one another, and that a decoded payload is
+    not kept reachable by the codec. Finally, it makes calls over a
+    connection on which Java serialization is negotiated.
+ */
+public class JavaStreamCodecTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking the per-connection Java serialization codec";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            JavaStreamCodec     sender = new JavaStreamCodec();
+            JavaStreamCodec     receiver = new JavaStreamCodec();
+
+            task("sending class descriptors once");
+            Object[]    first = {new Point(1, 2), "label", 3};
+            Object[]    second = {new Point(4, 5), "other", 6};
+            byte[]      firstBytes = sender.encode(first);
+            long        sent = JavaStreamCodec.descriptorsSent();
+            long        saved = JavaStreamCodec.bytesSaved();
+            byte[]      secondBytes = sender.encode(second);
+
+            if(JavaStreamCodec.descriptorsSent() != sent)
+                throw new TestFailed("descriptor sent twice");
+            if(JavaStreamCodec.bytesSaved() <= saved)
+                throw new TestFailed("saved descriptor bytes not counted");
+
+            int         full = Codecs.JAVA.encode(second).length;
+            if(secondBytes.length * 2 > full)
+            {
+                throw new TestFailed("payload of " + secondBytes.length +
+                                     " bytes, against " + full + " bytes " +
+                                     "with full descriptors");
+            }
+
+            byte[]      definitions = sender.takeDefinitions();
+            if(definitions == null)
+                throw new TestFailed("no descriptors queued");
+            if(sender.takeDefinitions() != null)
+                throw new TestFailed("descriptors queued twice");
+            receiver.define(definitions);
+
+            task("decoding payloads in any order");
+            check(second, receiver.decode(secondBytes, 0, secondBytes.length));
+            check(first, receiver.decode(firstBytes, 0, firstBytes.length));
+
+            task("decoding a payload with an unknown descriptor");
+            byte[]      third = sender.encode(new Object[] {new Line()});
+            try
+            {
+                receiver.decode(third, 0, third.length);
+                throw new TestFailed("payload decoded without its " +
+                                     "descriptors");
+            }
+            catch(IOException e) { }
+
+            receiver.define(sender.takeDefinitions());
+            if(!(((Object[])receiver.decode(third, 0, third.length))[0]
+                    instanceof Line))
+            {
+                throw new TestFailed("incorrect value after descriptors " +
+                                     "received");
+            }
+
+            task("keeping payloads independent");
+            Point       shared = new Point(7, 8);
+            byte[]      once = sender.encode(shared);
+            byte[]      again = sender.encode(shared);
+            if(!Arrays.equals(once, again))
+                throw new TestFailed("payload refers to an earlier payload");
+
+            Object      decoded = receiver.decode(once, 0, once.length);
+            if(decoded == receiver.decode(again, 0, again.length))
+                throw new TestFailed("decoded payloads share an object");
+
+            WeakReference<Object>   reference = new WeakReference<>(decoded);
+            decoded = null;
+            for(int attempt = 0; reference.get() != null; ++attempt)
+            {
+                if(attempt == 50)
+                    throw new TestFailed("decoded payload kept reachable");
+                System.gc();
+                Thread.sleep(10);
+            }
+
+            task("encoding a payload within another");
+            Nested      nested = new Nested(sender);
+            Nested      copy = (Nested)decode(sender, receiver,
+                                              sender.encode(nested));
+            check(new Object[] {new Point(9, 9)},
+                  receiver.decode(copy.inner, 0, copy.inner.length));
+
+            task("calling a skeleton over Java serialization");
+            checkCalls();
+        }
+        catch(IOException | ClassNotFoundException | InterruptedException e)
+        {
+            throw new TestFailed("unexpected failure", e);
+        }
+
+        task();
+    }
+
+    /** Decodes a payload, passing any queued descriptors on first. */
+    private static Object decode(JavaStreamCodec sender,
+                                 JavaStreamCodec receiver, byte[] payload)
+        throws IOException, ClassNotFoundException
+    {
+        byte[]      definitions = sender.takeDefinitions();
+        if(definitions != null)
+            receiver.define(definitions);
+        return receiver.decode(payload, 0, payload.length);
+    }
+
+    /** Checks that a decoded array equals the original. */
+    private static void check(Object[] expected, Object actual)
+        throws TestFailed
+    {
+        if(!Arrays.equals(expected, (Object[])actual))
+        {
+            throw new TestFailed("expected " + Arrays.toString(expected) +
+                                 ", got " + actual);
+        }
+    }
+
+    /** Makes calls to a skeleton with Java serialization preferred, and
+        checks that descriptors are not sent with every call. */
+    private void checkCalls() throws TestFailed
+    {
+        Skeleton<EchoInterface>     skeleton =
+            new Skeleton<EchoInterface>(EchoInterface.class, new EchoServer());
+        Codecs.setPreference(JavaCodec.NAME);
+        try
+        {
+            skeleton.start();
+            EchoInterface   stub = Stub.create(EchoInterface.class, skeleton);
+
+            stub.echo(new Point(0, 0));
+            long            sent = JavaStreamCodec.descriptorsSent();
+            long            saved = JavaStreamCodec.bytesSaved();
+            for(int call = 1; call <= 10; ++call)
+            {
+                if(!stub.echo(new Point(call, -call)).equals(
+                        new Point(call, -call)))
+                {
+                    throw new TestFailed("incorrect result");
+                }
+            }
+
+            if(JavaStreamCodec.descriptorsSent() != sent)
+                throw new TestFailed("descriptors sent with every call");
+            if(JavaStreamCodec.bytesSaved() <= saved)
+                throw new TestFailed("saved descriptor bytes not counted");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected failure", e);
+        }
+        finally
+        {
+            Codecs.setPreference(Codecs.BINARY.name(), JavaCodec.NAME);
+            skeleton.stop();
+        }
+    }
+
+    /** Interface used for calls. */
+    interface EchoInterface
+    {
+        Point echo(Point point) throws RMIException;
+    }
+
+    /** Server used for calls. */
+    private static class EchoServer implements EchoInterface
+    {
+        @Override
+        public Point echo(Point point)
+        {
+            return point;
+        }
+    }
+
+    /** Serializable class encoded by the test. */
+    private static class Point implements Serializable
+    {
+        private static final long   serialVersionUID = 1L;
+
+        final int   x;
+        final int   y;
+
+        Point(int x, int y)
+        {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof Point && ((Point)other).x == x &&
+                   ((Point)other).y == y;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * x + y;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "(" + x + ", " + y + ")";
+        }
+    }
+
+    /** Class encoded only after the first descriptors are sent. */
+    private static class Line implements Serializable
+    {
+        private static final long   serialVersionUID = 1L;
+
+        Point       start = new Point(0, 0);
+        Point       end = new Point(1, 1);
+    }
+
+    /** Class that encodes another payload while it is being encoded. */
+    private static class Nested implements Serializable
+    {
+        private static final long   serialVersionUID = 1L;
+
+        private transient JavaStreamCodec   codec;
+        byte[]                              inner;
+
+        Nested(JavaStreamCodec codec)
+        {
+            this.codec = codec;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException
+        {
+            inner = codec.encode(new Object[] {new Point(9, 9)});
+            out.defaultWriteObject();
+        }
+    }
+}
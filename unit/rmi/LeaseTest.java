@@ -0,0 +1,185 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+/** Unit test for leases on exported remote objects.
+
+    <p>
+    The test exports objects with a short lease duration. It checks that a
+    held stub keeps its object exported across several lease periods, that
+    an object is unexported once its stub has been garbage collected, and
+    that an object whose stub never reaches a client is unexported once the
+    lease granted by the export expires.
+ */
+public class LeaseTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking leases on exported objects";
+
+    /** Lease duration used by the test, in milliseconds. */
+    private static final long   LEASE = 200;
+    /** Time allowed for an object to be unexported, in milliseconds. */
+    private static final long   TIMEOUT = 10000;
+
+    private Skeleton<FactoryInterface>  skeleton = null;
+    private FactoryInterface            factory;
+
+    /** Starts the skeleton and creates the stub used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<FactoryInterface>(FactoryInterface.class,
+                                                  new FactoryServer());
+        skeleton.setLeaseDuration(LEASE);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        factory = Stub.create(FactoryInterface.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            task("holding a stub across several lease periods");
+            CounterInterface    counter = factory.create();
+            counter.increment();
+            Thread.sleep(5 * LEASE);
+
+            if(skeleton.getExportedObjectCount() != 1)
+                throw new TestFailed("held object was unexported");
+            if(counter.increment() != 2)
+                throw new TestFailed("incorrect result from held object");
+
+            task("dropping the stub");
+            counter = null;
+            awaitUnexported(1);
+
+            task("exporting an object that no client receives");
+            exportUnreceived();
+            if(skeleton.getExportedObjectCount() != 1)
+                throw new TestFailed("object was not exported");
+            awaitUnexported(2);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call to exported object failed", e);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for leases");
+        }
+
+        task();
+    }
+
+    /** Waits until all exported objects have been unexported, collecting
+        garbage so that dropped stubs release their leases. */
+    private void awaitUnexported(long reclaimed)
+        throws TestFailed, InterruptedException
+    {
+        long    deadline = System.currentTimeMillis() + TIMEOUT;
+        while(skeleton.getExportedObjectCount() != 0)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("object was not unexported");
+
+            System.gc();
+            Thread.sleep(LEASE / 4);
+        }
+
+        if(skeleton.getReclaimedObjectCount() != reclaimed)
+            throw new TestFailed("incorrect count of reclaimed objects");
+    }
+
+    /** Calls the factory over a raw connection, without decoding the stub
+        in the reply. */
+    private void exportUnreceived() throws TestFailed
+    {
+        Connection  connection = null;
+        try
+        {
+            connection = new Connection(skeleton.getSocketAddress());
+            Method  method = FactoryInterface.class.getMethod("create");
+            byte[]  call = Frame.encodeCall(connection.codec,
+                                            ObjectTable.PRIMARY_ID,
+                                            connection.methodId(method),
+                                            method, new Object[0]);
+
+            Frame   reply = Connection.await(connection.send(Frame.CALL,
+                                                             call));
+            if(reply.type != Frame.RETURN)
+                throw new TestFailed("call to factory failed");
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to call factory", e);
+        }
+        finally
+        {
+            if(connection != null)
+                connection.close(new IOException("test complete"));
+        }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Factory interface used by the test. */
+    interface FactoryInterface
+    {
+        CounterInterface create() throws RMIException;
+    }
+
+    /** Interface of the objects returned by the factory. */
+    interface CounterInterface
+    {
+        int increment() throws RMIException;
+    }
+
+    /** Factory used by the test. */
+    private static class FactoryServer implements FactoryInterface
+    {
+        @Override
+        public CounterInterface create()
+        {
+            return new CounterServer();
+        }
+    }
+
+    /** Object returned by the factory. */
+    private static class CounterServer implements CounterInterface
+    {
+        private int     value;
+
+        @Override
+        public synchronized int increment()
+        {
+            return ++value;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Unit test for direct calls to skeletons in the same process.
+
+    <p>
+    The test starts skeletons that accept direct calls, and calls them
+    through stubs created from the skeletons. It checks that the calls run on
+    the calling thread without opening connections, that arguments, results
+    and exceptions are copied, that immutable values are shared only when the
+    skeleton allows it, that exceptions are thrown as over a connection, and
+    that returned remote objects are also called directly. It also checks
+    that stubs fall back to connections for skeletons that do not accept
+    direct calls, and fail once the skeleton has stopped.
+ */
+public class LocalCallTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking direct calls in-process";
+
+    private Skeleton<LocalInterface>    copying = null;
+    private Skeleton<LocalInterface>    sharing = null;
+    private Skeleton<LocalInterface>    network = null;
+
+    /** Starts the skeletons used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        copying = start(Skeleton.LocalCalls.COPY);
+        sharing = start(Skeleton.LocalCalls.SHARE_IMMUTABLE);
+        network = start(Skeleton.LocalCalls.NETWORK);
+    }
+
+    /** Starts a skeleton with the given local call mode. */
+    private Skeleton<LocalInterface> start(Skeleton.LocalCalls mode)
+        throws TestFailed
+    {
+        Skeleton<LocalInterface>    skeleton =
+            new Skeleton<LocalInterface>(LocalInterface.class,
+                                         new LocalServer());
+        skeleton.setLocalCalls(mode);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        return skeleton;
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            LocalInterface  stub = Stub.create(LocalInterface.class, copying);
+            long            opened = ConnectionPool.opened();
+
+            task("calling on the calling thread");
+            if(stub.thread() != Thread.currentThread().getId())
+                throw new TestFailed("call ran on another thread");
+
+            task("copying arguments and results");
+            int[]           values = {1, 2, 3};
+            int[]           doubled = stub.doubled(values);
+            if(!Arrays.equals(values, new int[] {1, 2, 3}))
+                throw new TestFailed("server modified the caller's argument");
+            if(!Arrays.equals(doubled, new int[] {2, 4, 6}))
+                throw new TestFailed("incorrect result");
+
+            List<String>    held = stub.held();
+            held.add("changed");
+            if(stub.held().size() != 1)
+                throw new TestFailed("caller modified the server's result");
+
+            Value           value = new Value(5);
+            if(stub.echo(value) == value)
+                throw new TestFailed("immutable value shared while copying");
+
+            task("throwing exceptions");
+            try
+            {
+                stub.fail();
+                throw new TestFailed("exception not thrown");
+            }
+            catch(IOException e)
+            {
+                if(e == LocalServer.FAILURE)
+                    throw new TestFailed("server's exception not copied");
+            }
+
+            try
+            {
+                stub.crash();
+                throw new TestFailed("exception not thrown");
+            }
+            catch(RMIException e)
+            {
+                if(!(e.getCause() instanceof IllegalStateException))
+                    throw new TestFailed("incorrect exception cause", e);
+            }
+
+            if(ConnectionPool.opened() != opened)
+                throw new TestFailed("direct calls opened connections");
+
+            // A returned remote object is leased, and the lease renewal may
+            // open a connection, so connections are not counted from here.
+            task("calling a returned remote object");
+            LocalInterface  child = stub.child();
+            if(child.thread() != Thread.currentThread().getId())
+                throw new TestFailed("returned object called remotely");
+
+
+            task("sharing immutable values");
+            LocalInterface  shared = Stub.create(LocalInterface.class, sharing);
+            if(shared.echo(value) != value)
+                throw new TestFailed("immutable value copied");
+            List<String>    list = new ArrayList<>();
+            if(shared.echo(list) == list)
+                throw new TestFailed("mutable value shared");
+
+            task("calling a skeleton that does not accept direct calls");
+            LocalInterface  remote = Stub.create(LocalInterface.class, network);
+            if(remote.thread() == Thread.currentThread().getId())
+                throw new TestFailed("call made directly");
+
+            task("calling a stopped skeleton");
+            copying.stop();
+            try
+            {
+                stub.thread();
+                throw new TestFailed("call to a stopped skeleton succeeded");
+            }
+            catch(RMIException e) { }
+            finally
+            {
+                copying = null;
+            }
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected failure", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeletons. */
+    @Override
+    protected void clean()
+    {
+        if(copying != null)
+            copying.stop();
+        if(sharing != null)
+            sharing.stop();
+        if(network != null)
+            network.stop();
+    }
+
+    /** Interface used by the test. */
+    interface LocalInterface
+    {
+        long thread() throws RMIException;
+        int[] doubled(int[] values) throws RMIException;
+        List<String> held() throws RMIException;
+        Object echo(Object value) throws RMIException;
+        void fail() throws RMIException, IOException;
+        void crash() throws RMIException;
+        LocalInterface child() throws RMIException;
+    }
+
+    /** Immutable value used by the test. */
+    @Immutable
+    private static final class Value implements Serializable
+    {
+        private static final long   serialVersionUID = 1L;
+
+        final int   number;
+
+        Value(int number)
+        {
+            this.number = number;
+        }
+    }
+
+    /** Server used by the test. */
+    private static class LocalServer implements LocalInterface
+    {
+        /** Exception thrown by <code>fail</code>, which the caller must
+            receive a copy of. */
+        static final IOException    FAILURE = new IOException("failed");
+
+        private final List<String>  held = new ArrayList<>(Arrays.asList("a"));
+
+        @Override
+        public long thread()
+        {
+            return Thread.currentThread().getId();
+        }
+
+        @Override
+        public int[] doubled(int[] values)
+        {
+            for(int index = 0; index < values.length; ++index)
+                values[index] *= 2;
+            return values;
+        }
+
+        @Override
+        public List<String> held()
+        {
+            return held;
+        }
+
+        @Override
+        public Object echo(Object value)
+        {
+            return value;
+        }
+
+        @Override
+        public void fail() throws IOException
+        {
+            throw FAILURE;
+        }
+
+        @Override
+        public void crash()
+        {
+            throw new IllegalStateException("crashed");
+        }
+
+        @Override
+        public LocalInterface child()
+        {
+            return new LocalServer();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package rmi;
+
+import test.*;
+
+/** Unit test for <code>MethodTable</code>.
+
+    <p>
+    The test checks that the table of an interface with overloaded and
+    inherited methods lists each signature once, in sorted order. It then
+    calls overloaded methods through a stub, which identifies them by their
+    IDs in the skeleton's table.
+ */
+public class MethodTableTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking method tables";
+
+    /** Expected signatures, in table order. */
+    private static final String[]   SIGNATURES =
+        {"echo(int)", "echo(java.lang.String)", "echo(long,int[])", "name()"};
+
+    private Skeleton<TableTestInterface>    skeleton = null;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("building the table of an interface");
+        MethodTable     table = MethodTable.of(TableTestInterface.class);
+        if(table.signatures.length != SIGNATURES.length)
+            throw new TestFailed("table has the wrong number of methods");
+
+        for(int id = 0; id < SIGNATURES.length; ++id)
+        {
+            if(!SIGNATURES[id].equals(table.signatures[id]) ||
+               table.id(SIGNATURES[id]) != id ||
+               !SIGNATURES[id].equals(
+                    MethodTable.signature(table.methods[id])))
+            {
+                throw new TestFailed("method " + SIGNATURES[id] + " does " +
+                                     "not have ID " + id);
+            }
+        }
+
+        if(table.id("missing()") != -1)
+            throw new TestFailed("table has an ID for a missing method");
+
+        if(MethodTable.of(TableTestInterface.class) != table)
+            throw new TestFailed("table was not cached");
+
+        task("calling overloaded methods by ID");
+        skeleton = new Skeleton<TableTestInterface>(TableTestInterface.class,
+                                                    new TableTestServer());
+        try
+        {
+            skeleton.start();
+
+            TableTestInterface  stub =
+                Stub.create(TableTestInterface.class, skeleton);
+            if(!stub.echo(3).equals("int 3") ||
+               !stub.echo("x").equals("String x") ||
+               !stub.echo(4L, new int[] {1, 2}).equals("long 4 2") ||
+               !stub.name().equals("server"))
+            {
+                throw new TestFailed("call reached the wrong method");
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call by method ID failed", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Base interface, redeclared by the interface used by the test. */
+    interface NamedInterface
+    {
+        String name() throws RMIException;
+    }
+
+    /** Remote interface used by the test. */
+    interface TableTestInterface extends NamedInterface
+    {
+        @Override
+        String name() throws RMIException;
+        String echo(String value) throws RMIException;
+        String echo(long value, int[] values) throws RMIException;
+        String echo(int value) throws RMIException;
+    }
+
+    /** Server used by the test. */
+    private static class TableTestServer implements TableTestInterface
+    {
+        @Override
+        public String name()
+        {
+            return "server";
+        }
+
+        @Override
+        public String echo(String value)
+        {
+            return "String " + value;
+        }
+
+        @Override
+        public String echo(long value, int[] values)
+        {
+            return "long " + value + " " + values.length;
+        }
+
+        @Override
+        public String echo(int value)
+        {
+            return "int " + value;
+        }
+    }
+}
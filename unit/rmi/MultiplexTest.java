@@ -0,0 +1,137 @@
+package rmi;
+
+import test.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Unit test for multiplexed calls.
+
+    <p>
+    The test makes a call that blocks in the server until a second, concurrent
+    call from another thread releases it. Both calls must travel over the same
+    connection, and the second call's reply must overtake the first.
+ */
+public class MultiplexTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking out-of-order replies on a shared connection";
+
+    private Skeleton<MultiplexTestInterface>    skeleton = null;
+    private MultiplexTestInterface              stub;
+    private final CountDownLatch                entered = new CountDownLatch(1);
+    private final CountDownLatch                released = new CountDownLatch(1);
+
+    /** Starts the skeleton and creates the stub used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<MultiplexTestInterface>(
+            MultiplexTestInterface.class, new MultiplexTestServer());
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(MultiplexTestInterface.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        long        opened = ConnectionPool.opened();
+
+        task("making a call that waits for a second call");
+        Thread      blocked = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        if(!stub.block())
+                            failure(new TestFailed("blocked call timed out"));
+                    }
+                    catch(Throwable t)
+                    {
+                        failure(new TestFailed("blocked call failed", t));
+                    }
+                }
+            });
+        blocked.start();
+
+        task("releasing the first call from a second call");
+        try
+        {
+            stub.release();
+            blocked.join();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("releasing call failed", t);
+        }
+
+        if(ConnectionPool.opened() - opened != 1)
+            throw new TestFailed("concurrent calls did not share a connection");
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        entered.countDown();
+        released.countDown();
+    }
+
+    /** Remote interface used by the test. */
+    interface MultiplexTestInterface
+    {
+        boolean block() throws RMIException;
+        void release() throws RMIException;
+    }
+
+    /** Server used by the test. */
+    private class MultiplexTestServer implements MultiplexTestInterface
+    {
+        @Override
+        public boolean block()
+        {
+            entered.countDown();
+            try
+            {
+                return released.await(2, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                return false;
+            }
+        }
+
+        @Override
+        public void release()
+        {
+            try
+            {
+                entered.await(2, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException e) { }
+
+            released.countDown();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package rmi;
+
+import test.*;
+
+import java.util.Arrays;
+
+/** Unit test for <code>NioEngine</code>.
+
+    <p>
+    The test serves a skeleton from a single event loop thread. It makes
+    concurrent calls from several client threads, passes an argument larger
+    than the engine's read buffer, and checks that the skeleton can be stopped
+    and restarted.
+ */
+public class NioEngineTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the NIO skeleton engine";
+
+    /** Number of concurrent client threads. */
+    private static final int    THREADS = 8;
+    /** Number of calls made by each client thread. */
+    private static final int    CALLS = 25;
+
+    private Skeleton<NioTestInterface>  skeleton = null;
+    private NioTestInterface            stub;
+
+    /** Starts the skeleton and creates the stub used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<NioTestInterface>(NioTestInterface.class,
+                                                  new NioTestServer());
+        skeleton.setEngine(Skeleton.Engine.NIO);
+        skeleton.setEventLoopThreads(1);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(NioTestInterface.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("making concurrent calls from " + THREADS + " threads");
+        Thread[]    threads = new Thread[THREADS];
+        for(int index = 0; index < THREADS; ++index)
+        {
+            threads[index] = new Thread(new Client(index));
+            threads[index].start();
+        }
+
+        for(Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while waiting for clients");
+            }
+        }
+
+        task("passing an argument larger than the read buffer");
+        byte[]      large = new byte[100000];
+        Arrays.fill(large, (byte)7);
+        try
+        {
+            if(stub.sum(large) != 700000)
+                throw new TestFailed("incorrect result for large argument");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call with large argument failed", e);
+        }
+
+        task("restarting the skeleton");
+        skeleton.stop();
+        try
+        {
+            skeleton.start();
+            if(stub.add(2, 3) != 5)
+                throw new TestFailed("incorrect result after restart");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call after restart failed", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Client thread making a sequence of calls. */
+    private class Client implements Runnable
+    {
+        private final int   base;
+
+        Client(int base)
+        {
+            this.base = base;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for(int call = 0; call < CALLS; ++call)
+                {
+                    if(stub.add(base, call) != base + call)
+                    {
+                        failure(new TestFailed("incorrect result from " +
+                                               "concurrent call"));
+                        return;
+                    }
+                }
+            }
+            catch(Throwable t)
+            {
+                failure(new TestFailed("concurrent call failed", t));
+            }
+        }
+    }
+
+    /** Remote interface used by the test. */
+    interface NioTestInterface
+    {
+        int add(int first, int second) throws RMIException;
+        int sum(byte[] values) throws RMIException;
+    }
+
+    /** Server used by the test. */
+    private static class NioTestServer implements NioTestInterface
+    {
+        @Override
+        public int add(int first, int second)
+        {
+            return first + second;
+        }
+
+        @Override
+        public int sum(byte[] values)
+        {
+            int     sum = 0;
+            for(byte value : values)
+                sum += value;
+            return sum;
+        }
+    }
+}
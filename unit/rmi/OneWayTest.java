@@ -0,0 +1,145 @@
+package rmi;
+
+import test.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Unit test for one-way methods.
+
+    <p>
+    The test calls a one-way method that blocks in the server, and checks
+    that the stub returns without waiting for it. It then calls a one-way
+    method that throws an exception, and checks that the exception is
+    reported to the skeleton's <code>service_error</code> method.
+ */
+public class OneWayTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking one-way methods";
+
+    private Skeleton<OneWayTestInterface>   skeleton = null;
+    private OneWayTestInterface             stub;
+    private final CountDownLatch            released = new CountDownLatch(1);
+    private final CountDownLatch            published = new CountDownLatch(1);
+    private final CountDownLatch            reported = new CountDownLatch(1);
+
+    /** Starts the skeleton and creates the stub used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<OneWayTestInterface>(OneWayTestInterface.class,
+                                                     new OneWayTestServer())
+        {
+            @Override
+            protected void service_error(RMIException exception)
+            {
+                if(exception.getCause() instanceof IllegalStateException)
+                    reported.countDown();
+            }
+        };
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(OneWayTestInterface.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("calling a one-way method that blocks");
+        try
+        {
+            stub.publish(1);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("one-way call failed", e);
+        }
+
+        if(published.getCount() == 0)
+            throw new TestFailed("one-way call waited for the server");
+
+        released.countDown();
+        await(published, "one-way call was not executed");
+
+        task("calling a one-way method that throws an exception");
+        try
+        {
+            stub.explode();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("one-way call failed", e);
+        }
+
+        await(reported, "exception was not reported to service_error");
+
+        task();
+    }
+
+    /** Waits for a latch to be released. */
+    private void await(CountDownLatch latch, String message) throws TestFailed
+    {
+        try
+        {
+            if(!latch.await(2, TimeUnit.SECONDS))
+                throw new TestFailed(message);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for server");
+        }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        released.countDown();
+
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Remote interface used by the test. */
+    interface OneWayTestInterface
+    {
+        @OneWay
+        void publish(int event) throws RMIException;
+        @OneWay
+        void explode() throws RMIException;
+    }
+
+    /** Server used by the test. */
+    private class OneWayTestServer implements OneWayTestInterface
+    {
+        @Override
+        public void publish(int event)
+        {
+            try
+            {
+                if(released.await(2, TimeUnit.SECONDS))
+                    published.countDown();
+            }
+            catch(InterruptedException e) { }
+        }
+
+        @Override
+        public void explode()
+        {
+            throw new IllegalStateException("expected");
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package rmi;
+
+import test.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/** Unit test for pipelined calls in batches.
+
+    <p>
+    The test makes chains of calls in which each call targets the remote
+    object returned by the previous one, all in one batch. It checks the
+    results of the calls, that the stubs returned by the calls reach the same
+    objects as the pipelined calls, and that a call pipelined on a call that
+    fails or returns <code>null</code> fails as well.
+ */
+public class PipelineTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking pipelined calls";
+
+    private Skeleton<FactoryInterface>  skeleton = null;
+    private FactoryInterface            factory;
+
+    /** Starts the skeleton and creates the stub used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<FactoryInterface>(FactoryInterface.class,
+                                                  new FactoryServer());
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        factory = Stub.create(FactoryInterface.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            task("pipelining a chain of calls");
+            Batch<FactoryInterface>             batch =
+                Stub.createBatch(factory);
+            CompletableFuture<CounterInterface> counter =
+                batch.add(f -> f.create(5));
+            CompletableFuture<Integer>          first =
+                batch.add(counter, c -> c.increment());
+            CompletableFuture<Integer>          second =
+                batch.add(counter, c -> c.increment());
+            CompletableFuture<CounterInterface> next =
+                batch.add(counter, c -> c.next());
+            CompletableFuture<Integer>          third =
+                batch.add(next, c -> c.increment());
+            batch.execute();
+
+            if(first.get() != 6 || second.get() != 7 || third.get() != 108)
+                throw new TestFailed("incorrect result from pipelined call");
+
+            if(counter.get().increment() != 8 || next.get().increment() != 109)
+            {
+                throw new TestFailed("returned stub does not reach pipelined " +
+                                     "object");
+            }
+
+            task("pipelining on a call that returns null");
+            CompletableFuture<CounterInterface> missing =
+                batch.add(f -> f.create(-1));
+            CompletableFuture<Integer>          orphan =
+                batch.add(missing, c -> c.increment());
+            batch.execute();
+            expectFailure(orphan);
+
+            task("pipelining on a call that fails");
+            CompletableFuture<CounterInterface> failed =
+                batch.add(f -> f.fail());
+            orphan = batch.add(failed, c -> c.increment());
+            batch.execute();
+            expectFailure(failed);
+            expectFailure(orphan);
+
+            task("pipelining on an invalid target");
+            try
+            {
+                batch.add(counter, c -> c.increment());
+                throw new TestFailed("pipelined call accepted on a call " +
+                                     "already executed");
+            }
+            catch(IllegalArgumentException e) { }
+
+            try
+            {
+                CompletableFuture<Integer>  count =
+                    batch.add(f -> f.count());
+                batch.add(count, c -> c.toString());
+                throw new TestFailed("pipelined call accepted on a call " +
+                                     "not returning a remote interface");
+            }
+            catch(IllegalArgumentException e) { }
+        }
+        catch(RMIException | InterruptedException | ExecutionException e)
+        {
+            throw new TestFailed("unexpected failure", e);
+        }
+
+        task();
+    }
+
+    /** Checks that a future completed with an <code>RMIException</code>. */
+    private static void expectFailure(CompletableFuture<?> result)
+        throws TestFailed
+    {
+        try
+        {
+            result.get();
+            throw new TestFailed("call succeeded unexpectedly");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof RMIException))
+                throw new TestFailed("unexpected exception", e.getCause());
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for result");
+        }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Factory interface used by the test. */
+    interface FactoryInterface
+    {
+        CounterInterface create(int start) throws RMIException;
+        CounterInterface fail() throws RMIException;
+        int count() throws RMIException;
+    }
+
+    /** Interface of the objects returned by the factory. */
+    interface CounterInterface
+    {
+        int increment() throws RMIException;
+        CounterInterface next() throws RMIException;
+    }
+
+    /** Factory used by the test. */
+    private static class FactoryServer implements FactoryInterface
+    {
+        private int     created;
+
+        @Override
+        public synchronized CounterInterface create(int start)
+        {
+            if(start < 0)
+                return null;
+
+            ++created;
+            return new CounterServer(start);
+        }
+
+        @Override
+        public CounterInterface fail() throws RMIException
+        {
+            throw new RMIException("factory failed");
+        }
+
+        @Override
+        public synchronized int count()
+        {
+            return created;
+        }
+    }
+
+    /** Object returned by the factory. */
+    private static class CounterServer implements CounterInterface
+    {
+        private int     value;
+
+        CounterServer(int value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public synchronized int increment()
+        {
+            return ++value;
+        }
+
+        @Override
+        public synchronized CounterInterface next()
+        {
+            return new CounterServer(value + 100);
+        }
+    }
+}
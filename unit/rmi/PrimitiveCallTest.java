@@ -0,0 +1,377 @@
+package rmi;
+
+import test.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/** Unit test for calls encoded without a codec.
+
+    <p>
+    The test calls methods whose parameters and results are primitives,
+    strings and primitive arrays through a stub, and checks that every value
+    arrives intact, including extreme values, <code>null</code> strings and
+    arrays, and strings outside ASCII. It also checks that exceptions and
+    one-way calls behave as for other calls, that only eligible methods are
+    encoded this way, and, where the virtual machine can measure it, that
+    executing such a call on the server allocates little more than the reply
+    payload.
+ */
+public class PrimitiveCallTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking calls encoded without a codec";
+
+    /** Number of calls made before and while measuring allocation. */
+    private static final int    ALLOCATION_CALLS = 200000;
+    /** Largest mean number of bytes allocated by a server-side call. */
+    private static final int    ALLOCATION_LIMIT = 64;
+
+    private Skeleton<ValueInterface>    skeleton = null;
+    private ValueInterface              stub;
+    private final ValueServer           server = new ValueServer();
+
+    /** Starts the skeleton and creates the stub used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<ValueInterface>(ValueInterface.class, server);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(ValueInterface.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            task("selecting methods");
+            checkEligible("add", true);
+            checkEligible("describe", true);
+            checkEligible("set", true);
+            checkEligible("boxed", false);
+            checkEligible("strings", false);
+
+            task("passing primitive values");
+            if(stub.add(3, 4) != 7 || stub.add(Integer.MIN_VALUE, -1) !=
+                                      Integer.MAX_VALUE)
+            {
+                throw new TestFailed("incorrect sum");
+            }
+
+            checkDescribe(true, (byte)-1, '\u00e9', (short)-300, -1,
+                          Long.MIN_VALUE, 1.5f, -0.25);
+            checkDescribe(false, Byte.MAX_VALUE, Character.MAX_VALUE,
+                          Short.MIN_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE,
+                          Float.NaN, Double.NEGATIVE_INFINITY);
+
+            task("passing strings");
+            checkString("hello", ", world");
+            checkString("", "");
+            checkString(null, "x");
+            checkString("caf\u00e9 \u4e16\u754c ", "\ud83d\ude00");
+
+            task("passing primitive arrays");
+            checkArray(new boolean[] {true, false, true},
+                       stub.echo(new boolean[] {true, false, true}));
+            checkArray(new byte[] {1, -2, 127, -128},
+                       stub.echo(new byte[] {1, -2, 127, -128}));
+            checkArray(new char[] {'a', '\u0000', '\uffff'},
+                       stub.echo(new char[] {'a', '\u0000', '\uffff'}));
+            checkArray(new short[] {0, -1, Short.MAX_VALUE},
+                       stub.echo(new short[] {0, -1, Short.MAX_VALUE}));
+            checkArray(new int[] {0, -1, Integer.MIN_VALUE, 1 << 20},
+                       stub.echo(new int[] {0, -1, Integer.MIN_VALUE,
+                                            1 << 20}));
+            checkArray(new long[] {Long.MIN_VALUE, 0, 1L << 40},
+                       stub.echo(new long[] {Long.MIN_VALUE, 0, 1L << 40}));
+            checkArray(new float[] {1.5f, -0.0f, Float.MAX_VALUE},
+                       stub.echo(new float[] {1.5f, -0.0f, Float.MAX_VALUE}));
+            checkArray(new double[] {Math.PI, Double.MIN_VALUE},
+                       stub.echo(new double[] {Math.PI, Double.MIN_VALUE}));
+            checkArray(new int[0], stub.echo(new int[0]));
+
+            if(stub.echo((int[])null) != null || stub.echo((byte[])null) != null)
+                throw new TestFailed("null array not returned as null");
+
+            if(stub.sum(new double[] {1, 2, 3.5}, 2) != 13)
+                throw new TestFailed("incorrect sum of array");
+
+            task("calling void and one-way methods");
+            stub.set(42);
+            if(stub.get() != 42)
+                throw new TestFailed("value not set by void method");
+
+            stub.post(43);
+            for(int attempt = 0; server.get() != 43; ++attempt)
+            {
+                if(attempt == 100)
+                    throw new TestFailed("one-way call not executed");
+                Thread.sleep(10);
+            }
+
+            task("throwing exceptions");
+            try
+            {
+                stub.divide(1, 0);
+                throw new TestFailed("exception not thrown");
+            }
+            catch(ArithmeticException e) { }
+
+            if(stub.divide(7, 2) != 3)
+                throw new TestFailed("incorrect quotient");
+
+            task("measuring allocation by the server");
+            checkAllocation();
+        }
+        catch(RMIException | InterruptedException e)
+        {
+            throw new TestFailed("unexpected failure", e);
+        }
+
+        task();
+    }
+
+    /** Checks whether a method of the test interface is encoded without a
+        codec. */
+    private static void checkEligible(String name, boolean eligible)
+        throws TestFailed
+    {
+        for(Method method : ValueInterface.class.getMethods())
+        {
+            if(!method.getName().equals(name))
+                continue;
+
+            if((RemoteMethod.of(method).primitive != null) != eligible)
+            {
+                throw new TestFailed("method " + name + " " +
+                                     (eligible ? "not " : "") + "encoded " +
+                                     "without a codec");
+            }
+        }
+    }
+
+    /** Checks that every primitive argument arrives in its position. */
+    private void checkDescribe(boolean z, byte b, char c, short s, int i,
+                               long l, float f, double d)
+        throws RMIException, TestFailed
+    {
+        String  expected = z + " " + b + " " + c + " " + s + " " + i + " " +
+                           l + " " + f + " " + d;
+        String  actual = stub.describe(z, b, c, s, i, l, f, d);
+        if(!expected.equals(actual))
+        {
+            throw new TestFailed("incorrect primitive arguments: expected \"" +
+                                 expected + "\", got \"" + actual + "\"");
+        }
+    }
+
+    /** Checks that strings arrive intact. */
+    private void checkString(String first, String second)
+        throws RMIException, TestFailed
+    {
+        String  expected = first + second;
+        if(!expected.equals(stub.concat(first, second)))
+            throw new TestFailed("incorrect string arguments or result");
+    }
+
+    /** Checks that an array arrived intact. */
+    private static void checkArray(Object expected, Object actual)
+        throws TestFailed
+    {
+        if(!Arrays.deepEquals(new Object[] {expected}, new Object[] {actual}))
+        {
+            throw new TestFailed("incorrect " +
+                                 expected.getClass().getSimpleName() +
+                                 " argument or result");
+        }
+    }
+
+    /** Checks that a server-side call allocates little more than its reply
+        payload. The check is skipped if the virtual machine does not measure
+        allocation per thread. */
+    private void checkAllocation() throws TestFailed
+    {
+        java.lang.management.ThreadMXBean   bean =
+            ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean))
+            return;
+
+        com.sun.management.ThreadMXBean     threads =
+            (com.sun.management.ThreadMXBean)bean;
+        if(!threads.isThreadAllocatedMemorySupported())
+            return;
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Method          method;
+        try
+        {
+            method = ValueInterface.class.getMethod("add", int.class,
+                                                    int.class);
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("test interface has no add method", e);
+        }
+
+        Invoker         invoker = Invoker.create(method, false);
+        byte[]          call = invoker.primitive.encodeCall(
+            ObjectTable.PRIMARY_ID, 0, new Object[] {1000, 2000});
+        long            thread = Thread.currentThread().getId();
+        int             sink = 0;
+
+        try
+        {
+            for(int index = 0; index < ALLOCATION_CALLS; ++index)
+                sink += invoker.primitive.invoke(server, call, invoker).length;
+
+            long        start = threads.getThreadAllocatedBytes(thread);
+            for(int index = 0; index < ALLOCATION_CALLS; ++index)
+                sink += invoker.primitive.invoke(server, call, invoker).length;
+            long        allocated = threads.getThreadAllocatedBytes(thread) -
+                                    start;
+
+            if(allocated / ALLOCATION_CALLS > ALLOCATION_LIMIT)
+            {
+                throw new TestFailed("server-side call allocates " +
+                                     allocated / ALLOCATION_CALLS +
+                                     " bytes (sink " + sink + ")");
+            }
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to execute call", e);
+        }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Interface used by the test. */
+    interface ValueInterface
+    {
+        int add(int a, int b) throws RMIException;
+        String describe(boolean z, byte b, char c, short s, int i, long l,
+                        float f, double d) throws RMIException;
+        String concat(String first, String second) throws RMIException;
+        boolean[] echo(boolean[] values) throws RMIException;
+        byte[] echo(byte[] values) throws RMIException;
+        char[] echo(char[] values) throws RMIException;
+        short[] echo(short[] values) throws RMIException;
+        int[] echo(int[] values) throws RMIException;
+        long[] echo(long[] values) throws RMIException;
+        float[] echo(float[] values) throws RMIException;
+        double[] echo(double[] values) throws RMIException;
+        double sum(double[] values, float factor) throws RMIException;
+        void set(int value) throws RMIException;
+        int get() throws RMIException;
+        @OneWay
+        void post(int value) throws RMIException;
+        int divide(int a, int b) throws RMIException, ArithmeticException;
+        Integer boxed(Integer value) throws RMIException;
+        String[] strings(String[] values) throws RMIException;
+    }
+
+    /** Server used by the test. */
+    private static class ValueServer implements ValueInterface
+    {
+        private volatile int    value;
+
+        @Override
+        public int add(int a, int b)
+        {
+            return a + b;
+        }
+
+        @Override
+        public String describe(boolean z, byte b, char c, short s, int i,
+                               long l, float f, double d)
+        {
+            return z + " " + b + " " + c + " " + s + " " + i + " " + l + " " +
+                   f + " " + d;
+        }
+
+        @Override
+        public String concat(String first, String second)
+        {
+            return first + second;
+        }
+
+        @Override public boolean[] echo(boolean[] values) { return values; }
+        @Override public byte[] echo(byte[] values) { return values; }
+        @Override public char[] echo(char[] values) { return values; }
+        @Override public short[] echo(short[] values) { return values; }
+        @Override public int[] echo(int[] values) { return values; }
+        @Override public long[] echo(long[] values) { return values; }
+        @Override public float[] echo(float[] values) { return values; }
+        @Override public double[] echo(double[] values) { return values; }
+
+        @Override
+        public double sum(double[] values, float factor)
+        {
+            double  sum = 0;
+            for(double v : values)
+                sum += v;
+            return sum * factor;
+        }
+
+        @Override
+        public void set(int value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public int get()
+        {
+            return value;
+        }
+
+        @Override
+        public void post(int value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public int divide(int a, int b)
+        {
+            return a / b;
+        }
+
+        @Override
+        public Integer boxed(Integer value)
+        {
+            return value;
+        }
+
+        @Override
+        public String[] strings(String[] values)
+        {
+            return values;
+        }
+    }
+}
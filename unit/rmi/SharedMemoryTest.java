@@ -0,0 +1,194 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/** Unit test for shared memory connections.
+
+    <p>
+    The test starts skeletons using both engines that accept shared memory
+    connections, and calls them through stubs using each wait strategy. It
+    checks that values larger than a ring buffer are exchanged intact, that
+    connection files left in the directory are removed, that a second
+    skeleton cannot accept connections in the same directory, and that stubs
+    fail once the skeleton has stopped and its lock file has been removed.
+ */
+public class SharedMemoryTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking shared memory connections";
+
+    private Path                        directory = null;
+    private Skeleton<MemoryInterface>   blocking = null;
+    private Skeleton<MemoryInterface>   nio = null;
+
+    /** Creates the directory holding the skeletons' directories. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            directory = Files.createTempDirectory("rmi-shm-test-");
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create directory", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            task("removing connection files left by stubs");
+            Path        stale = directory.resolve("blocking")
+                                         .resolve("stale.ring");
+            Files.createDirectories(stale.getParent());
+            Files.write(stale, new byte[] {1, 2, 3});
+
+            blocking = start(Skeleton.Engine.BLOCKING, "blocking",
+                             WaitStrategy.PARK);
+            if(Files.exists(stale))
+                throw new TestFailed("connection file not removed");
+
+            nio = start(Skeleton.Engine.NIO, "nio", WaitStrategy.YIELD);
+
+            for(WaitStrategy strategy : WaitStrategy.values())
+            {
+                check(blocking, strategy);
+                check(nio, strategy);
+            }
+
+            task("starting a skeleton in a directory in use");
+            Skeleton<MemoryInterface>   second =
+                new Skeleton<MemoryInterface>(MemoryInterface.class,
+                                              new MemoryServer());
+            second.setSharedMemory(blocking.getSharedMemoryAddress()
+                                           .getDirectory(),
+                                   WaitStrategy.PARK);
+            try
+            {
+                second.start();
+                second.stop();
+                throw new TestFailed("skeleton started in a directory in use");
+            }
+            catch(RMIException e) { }
+
+            task("calling a stopped skeleton");
+            MemoryInterface     stub =
+                Stub.create(MemoryInterface.class,
+                            new SharedMemoryAddress(
+                                blocking.getSharedMemoryAddress()
+                                        .getDirectory(),
+                                WaitStrategy.PARK));
+            stub.echo(new byte[] {1});
+            blocking.stop();
+            blocking = null;
+            try
+            {
+                stub.echo(new byte[] {2});
+                throw new TestFailed("call to a stopped skeleton succeeded");
+            }
+            catch(RMIException e) { }
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected failure", e);
+        }
+
+        task();
+    }
+
+    /** Starts a skeleton accepting shared memory connections in a
+        subdirectory of the test directory. */
+    private Skeleton<MemoryInterface> start(Skeleton.Engine engine,
+                                            String name, WaitStrategy strategy)
+        throws Exception
+    {
+        Skeleton<MemoryInterface>   skeleton =
+            new Skeleton<MemoryInterface>(MemoryInterface.class,
+                                          new MemoryServer());
+        skeleton.setEngine(engine);
+        skeleton.setSharedMemory(directory.resolve(name), strategy);
+        skeleton.start();
+        return skeleton;
+    }
+
+    /** Calls a skeleton through a stub using the given wait strategy. */
+    private void check(Skeleton<MemoryInterface> skeleton,
+                       WaitStrategy strategy) throws Exception
+    {
+        task("calling over shared memory with " + strategy);
+        MemoryInterface     stub =
+            Stub.create(MemoryInterface.class,
+                        new SharedMemoryAddress(skeleton
+                                                .getSharedMemoryAddress()
+                                                .getDirectory(),
+                                                strategy));
+        long                opened = ConnectionPool.opened();
+
+        byte[]              small = {1, 2, 3};
+        if(!Arrays.equals(stub.echo(small), small))
+            throw new TestFailed("incorrect small result");
+
+        // Larger than a ring, so that both ends wait for room.
+        byte[]              large = new byte[1 << 20];
+        for(int index = 0; index < large.length; ++index)
+            large[index] = (byte)(index * 31);
+        if(!Arrays.equals(stub.echo(large), large))
+            throw new TestFailed("incorrect large result");
+
+        if(ConnectionPool.opened() != opened + 1)
+            throw new TestFailed("calls did not share one connection");
+    }
+
+    /** Stops the skeletons and removes the test directory. */
+    @Override
+    protected void clean()
+    {
+        if(blocking != null)
+            blocking.stop();
+        if(nio != null)
+            nio.stop();
+
+        if(directory != null)
+        {
+            try
+            {
+                for(String name : new String[] {"blocking", "nio"})
+                    Files.deleteIfExists(directory.resolve(name));
+                Files.deleteIfExists(directory);
+            }
+            catch(IOException e) { }
+        }
+    }
+
+    /** Interface used by the test. */
+    interface MemoryInterface
+    {
+        byte[] echo(byte[] bytes) throws RMIException;
+    }
+
+    /** Server used by the test. */
+    private static class MemoryServer implements MemoryInterface
+    {
+        @Override
+        public byte[] echo(byte[] bytes)
+        {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package rmi;
+
+import test.*;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/** Unit test for streamed results.
+
+    <p>
+    The test calls methods returning iterators and streams. It checks that
+    short results are returned without exporting a cursor, that long results
+    arrive intact while the server produces elements only slightly ahead of
+    the client, that closing a stream early, or abandoning an iterator,
+    closes the server's stream, that an exception thrown by the server's
+    iterator reaches the client, from the call if it is thrown while
+    producing the first chunk, and that <code>null</code> results are
+    returned as <code>null</code>.
+ */
+public class StreamTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking streamed results";
+
+    /** Chunk size used by the test. */
+    private static final int    CHUNK = 100;
+    /** Lease duration used by the test, in milliseconds. */
+    private static final long   LEASE = 200;
+    /** Time allowed for the server to close a stream, in milliseconds. */
+    private static final long   TIMEOUT = 10000;
+
+    private Skeleton<StreamInterface>   skeleton = null;
+    private StreamInterface             stub;
+    private final StreamServer          server = new StreamServer();
+
+    /** Starts the skeleton and creates the stub used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<StreamInterface>(StreamInterface.class,
+                                                 server);
+        skeleton.setLeaseDuration(LEASE);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(StreamInterface.class, skeleton);
+        Stub.setStreamChunkSize(CHUNK);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            task("returning a short result");
+            checkRange(stub.range(10), 10);
+            if(skeleton.getExportedObjectCount() != 0)
+                throw new TestFailed("cursor exported for a short result");
+            checkRange(stub.range(0), 0);
+
+            task("returning a long result");
+            checkLookahead(stub.range(100000), 100000);
+            checkRange(stub.range(ResultCursor.FIRST_CHUNK + CHUNK),
+                       ResultCursor.FIRST_CHUNK + CHUNK);
+
+            task("collecting a stream");
+            List<String>    words =
+                stub.words(1000).map(String::toUpperCase)
+                                .collect(Collectors.toList());
+            if(words.size() != 1000 || !words.get(999).equals("WORD999"))
+                throw new TestFailed("incorrect stream elements");
+            awaitClosed(1);
+
+            task("closing a stream early");
+            try(Stream<String> stream = stub.words(100000))
+            {
+                if(stream.limit(500).count() != 500)
+                    throw new TestFailed("incorrect number of elements");
+            }
+            awaitClosed(2);
+
+            task("abandoning an iterator");
+            Iterator<Integer>   abandoned = stub.range(100000);
+            abandoned.next();
+            abandoned = null;
+            awaitUnexported();
+
+            task("throwing an exception while iterating");
+            checkFailure(stub.failing(500), 500);
+            try
+            {
+                stub.failing(10);
+                throw new TestFailed("exception in the first chunk not " +
+                                     "thrown by the call");
+            }
+            catch(RMIException e)
+            {
+                if(!(e.getCause() instanceof IllegalStateException))
+                    throw new TestFailed("incorrect exception cause", e);
+            }
+
+            task("returning null");
+            if(stub.nothing() != null)
+                throw new TestFailed("null result not returned as null");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected failure", e);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for the server");
+        }
+
+        task();
+    }
+
+    /** Checks that an iterator returns the integers from zero to
+        <code>count</code>, and then ends. */
+    private static void checkRange(Iterator<Integer> iterator, int count)
+        throws TestFailed
+    {
+        for(int expected = 0; expected < count; ++expected)
+        {
+            if(!iterator.hasNext() || iterator.next() != expected)
+                throw new TestFailed("incorrect element " + expected);
+        }
+
+        if(iterator.hasNext())
+            throw new TestFailed("iterator does not end");
+
+        try
+        {
+            iterator.next();
+            throw new TestFailed("element returned after the end");
+        }
+        catch(NoSuchElementException e) { }
+    }
+
+    /** Checks a long range, and that the server never produces more than
+        about two chunks ahead of the client. */
+    private void checkLookahead(Iterator<Integer> iterator, int count)
+        throws TestFailed
+    {
+        int     limit = ResultCursor.FIRST_CHUNK + 2 * CHUNK;
+        for(int consumed = 0; consumed < count; ++consumed)
+        {
+            int     ahead = server.produced.get() - consumed;
+            if(ahead > limit)
+            {
+                throw new TestFailed("server produced " + ahead +
+                                     " elements ahead of the client");
+            }
+
+            if(iterator.next() != consumed)
+                throw new TestFailed("incorrect element " + consumed);
+        }
+
+        if(iterator.hasNext())
+            throw new TestFailed("iterator does not end");
+    }
+
+    /** Checks that an iterator ends with the exception thrown by the
+        server's iterator after <code>count</code> elements. Elements
+        produced in the same chunk as the exception are not returned. */
+    private static void checkFailure(Iterator<Integer> iterator, int count)
+        throws TestFailed
+    {
+        int     consumed = 0;
+        try
+        {
+            while(iterator.hasNext())
+            {
+                iterator.next();
+                if(++consumed > count)
+                    throw new TestFailed("too many elements returned");
+            }
+
+            throw new TestFailed("exception not thrown");
+        }
+        catch(IllegalStateException e) { }
+
+        if(iterator.hasNext())
+            throw new TestFailed("iterator continues after an exception");
+    }
+
+    /** Waits until the server has closed the given number of streams. */
+    private void awaitClosed(int count)
+        throws TestFailed, InterruptedException
+    {
+        long    deadline = System.currentTimeMillis() + TIMEOUT;
+        while(server.closed.get() != count)
+        {
+            if(server.closed.get() > count)
+                throw new TestFailed("stream closed more than once");
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("stream not closed");
+            Thread.sleep(10);
+        }
+    }
+
+    /** Waits until all cursors have been unexported, collecting garbage so
+        that dropped iterators release their leases, and checks that the
+        server's iterator was closed. */
+    private void awaitUnexported() throws TestFailed, InterruptedException
+    {
+        long    deadline = System.currentTimeMillis() + TIMEOUT;
+        while(skeleton.getExportedObjectCount() != 0)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("cursor was not unexported");
+
+            System.gc();
+            Thread.sleep(LEASE / 4);
+        }
+
+        if(server.closedRanges.get() != 1)
+            throw new TestFailed("abandoned iterator not closed");
+    }
+
+    /** Stops the skeleton and restores the default chunk size. */
+    @Override
+    protected void clean()
+    {
+        Stub.setStreamChunkSize(256);
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Interface used by the test. */
+    interface StreamInterface
+    {
+        Iterator<Integer> range(int count) throws RMIException;
+        Stream<String> words(int count) throws RMIException;
+        Iterator<Integer> failing(int count) throws RMIException;
+        Iterator<Integer> nothing() throws RMIException;
+    }
+
+    /** Server used by the test. */
+    private static class StreamServer implements StreamInterface
+    {
+        /** Number of elements produced by the latest range. */
+        final AtomicInteger     produced = new AtomicInteger();
+        /** Number of streams closed. */
+        final AtomicInteger     closed = new AtomicInteger();
+        /** Number of ranges closed before their end. */
+        final AtomicInteger     closedRanges = new AtomicInteger();
+
+        @Override
+        public Iterator<Integer> range(int count)
+        {
+            produced.set(0);
+            return new Range(count);
+        }
+
+        @Override
+        public Stream<String> words(int count)
+        {
+            return IntStream.range(0, count).mapToObj(index -> "word" + index)
+                            .onClose(closed::incrementAndGet);
+        }
+
+        @Override
+        public Iterator<Integer> failing(final int count)
+        {
+            return new Iterator<Integer>()
+            {
+                private int     next = 0;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return true;
+                }
+
+                @Override
+                public Integer next()
+                {
+                    if(next == count)
+                        throw new IllegalStateException("failed at " + count);
+                    return next++;
+                }
+            };
+        }
+
+        @Override
+        public Iterator<Integer> nothing()
+        {
+            return null;
+        }
+
+        /** Iterator over a range of integers, counting the elements it
+            produces, and whether it is closed before its end. */
+        private class Range implements Iterator<Integer>, AutoCloseable
+        {
+            private final int   count;
+
+            Range(int count)
+            {
+                this.count = count;
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return produced.get() < count;
+            }
+
+            @Override
+            public Integer next()
+            {
+                return produced.getAndIncrement();
+            }
+
+            @Override
+            public void close()
+            {
+                if(produced.get() < count)
+                    closedRanges.incrementAndGet();
+            }
+        }
+    }
+}
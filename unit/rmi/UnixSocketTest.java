@@ -0,0 +1,194 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Unit test for skeletons listening on Unix domain sockets.
+
+    <p>
+    The test starts skeletons using both engines on Unix domain sockets. It
+    checks that stubs can address a socket directly, that stubs created from
+    a skeleton and stubs for objects it exports connect through its socket
+    rather than TCP, and that they fall back to TCP when the socket is gone.
+    It also checks that a stale socket file is replaced, that a socket in use
+    is refused, and that the socket file is removed when the skeleton stops.
+ */
+public class UnixSocketTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking Unix domain sockets";
+
+    private Path                        directory = null;
+    private Skeleton<SocketInterface>   blocking = null;
+    private Skeleton<SocketInterface>   nio = null;
+
+    /** Creates the directory holding the sockets. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            directory = Files.createTempDirectory("rmi-unix-test-");
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create socket directory", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            blocking = start(Skeleton.Engine.BLOCKING, "blocking.sock");
+            nio = start(Skeleton.Engine.NIO, "nio.sock");
+            check(blocking);
+            check(nio);
+
+            task("starting a skeleton on a socket in use");
+            Skeleton<SocketInterface>   second =
+                new Skeleton<SocketInterface>(SocketInterface.class,
+                                              new SocketServer());
+            second.setUnixSocket(blocking.getUnixSocketAddress().getPath());
+            try
+            {
+                second.start();
+                second.stop();
+                throw new TestFailed("skeleton started on a socket in use");
+            }
+            catch(RMIException e) { }
+
+            task("removing the socket when the skeleton stops");
+            Path        path = nio.getUnixSocketAddress().getPath();
+            nio.stop();
+            nio = null;
+            if(Files.exists(path))
+                throw new TestFailed("socket file not removed");
+
+            task("falling back to TCP when the socket is gone");
+            SocketInterface         stub =
+                Stub.create(SocketInterface.class, blocking);
+            Files.delete(blocking.getUnixSocketAddress().getPath());
+            if(stub.ping(3) != 3)
+                throw new TestFailed("incorrect result over TCP");
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected failure", e);
+        }
+
+        task();
+    }
+
+    /** Starts a skeleton on a socket in the test directory. A stale file is
+        first left at the socket's path. */
+    private Skeleton<SocketInterface> start(Skeleton.Engine engine,
+                                            String name) throws Exception
+    {
+        task("starting a skeleton over a stale socket file");
+        Path        path = directory.resolve(name);
+        Files.write(path, new byte[] {1, 2, 3});
+
+        Skeleton<SocketInterface>   skeleton =
+            new Skeleton<SocketInterface>(SocketInterface.class,
+                                          new SocketServer());
+        skeleton.setEngine(engine);
+        skeleton.setUnixSocket(path);
+        skeleton.start();
+        return skeleton;
+    }
+
+    /** Performs the checks common to both engines. */
+    private void check(Skeleton<SocketInterface> skeleton) throws Exception
+    {
+        UnixDomainSocketAddress     socket = skeleton.getUnixSocketAddress();
+
+        task("calling through a directly addressed socket");
+        SocketInterface     direct = Stub.create(SocketInterface.class, socket);
+        if(direct.ping(1) != 1)
+            throw new TestFailed("incorrect result over the socket");
+
+        task("connecting through the socket automatically");
+        long                opened = ConnectionPool.opened();
+        SocketInterface     local = Stub.create(SocketInterface.class, skeleton);
+        if(local.ping(2) != 2)
+            throw new TestFailed("incorrect result from a local stub");
+
+        SocketInterface     exported = local.child();
+        if(exported.ping(4) != 5)
+            throw new TestFailed("incorrect result from an exported object");
+
+        // The stubs share the connection opened by the direct stub.
+        if(ConnectionPool.opened() != opened)
+            throw new TestFailed("local stubs connected over TCP");
+    }
+
+    /** Stops the skeletons and removes the socket directory. */
+    @Override
+    protected void clean()
+    {
+        if(blocking != null)
+            blocking.stop();
+        if(nio != null)
+            nio.stop();
+
+        if(directory != null)
+        {
+            try
+            {
+                for(String name : new String[] {"blocking.sock", "nio.sock"})
+                    Files.deleteIfExists(directory.resolve(name));
+                Files.deleteIfExists(directory);
+            }
+            catch(IOException e) { }
+        }
+    }
+
+    /** Interface used by the test. */
+    interface SocketInterface
+    {
+        int ping(int value) throws RMIException;
+        SocketInterface child() throws RMIException;
+    }
+
+    /** Server used by the test. Its children add one to each value. */
+    private static class SocketServer implements SocketInterface
+    {
+        private final int   offset;
+
+        SocketServer()
+        {
+            this(0);
+        }
+
+        SocketServer(int offset)
+        {
+            this.offset = offset;
+        }
+
+        @Override
+        public int ping(int value)
+        {
+            return value + offset;
+        }
+
+        @Override
+        public SocketInterface child()
+        {
+            return new SocketServer(offset + 1);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Unit test for streamed arguments.
+
+    <p>
+    The test uploads streams and channels to skeletons using both engines. It
+    checks that a large argument arrives intact while the stub reads it no
+    further ahead of the server than the flow control window allows, that
+    other calls proceed while an upload waits for the server, that a server
+    method returning early ends the upload, that a failure to read the
+    argument reaches both ends, and that <code>null</code> arguments are
+    passed as <code>null</code>. It also checks that such calls cannot be
+    batched, but can be made asynchronously.
+ */
+public class UploadTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking streamed arguments";
+
+    /** Size of the large upload. */
+    private static final long   LARGE = 32L << 20;
+    /** Time allowed for a blocked call, in seconds. */
+    private static final long   TIMEOUT = 10;
+
+    private Skeleton<UploadInterface>   blocking = null;
+    private Skeleton<UploadInterface>   nio = null;
+    private final UploadServer          server = new UploadServer();
+
+    /** Starts the skeletons used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        blocking = new Skeleton<UploadInterface>(UploadInterface.class,
+                                                 server);
+        nio = new Skeleton<UploadInterface>(UploadInterface.class, server);
+        nio.setEngine(Skeleton.Engine.NIO);
+
+        try
+        {
+            blocking.start();
+            nio.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            check(Stub.create(UploadInterface.class, blocking));
+            check(Stub.create(UploadInterface.class, nio));
+
+            task("batching a call with a streamed argument");
+            Batch<UploadInterface>  batch =
+                Stub.createBatch(Stub.create(UploadInterface.class, blocking));
+            try
+            {
+                batch.add(s -> s.count(new Source(10)));
+                throw new TestFailed("upload added to a batch");
+            }
+            catch(IllegalArgumentException e) { }
+
+            task("uploading asynchronously");
+            AsyncStub<UploadInterface>  async =
+                Stub.createAsync(UploadInterface.class, nio);
+            CompletableFuture<Long>     counted =
+                async.call(s -> s.count(new Source(1 << 20)));
+            if(counted.get(TIMEOUT, TimeUnit.SECONDS) != 1 << 20)
+                throw new TestFailed("incorrect asynchronous upload size");
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected failure", e);
+        }
+
+        task();
+    }
+
+    /** Performs the checks common to both engines. */
+    private void check(UploadInterface stub) throws Exception
+    {
+        task("uploading a large stream");
+        Source          large = new Source(LARGE);
+        if(stub.count(large) != LARGE)
+            throw new TestFailed("incorrect upload size");
+        if(large.ahead > Upload.WINDOW + Upload.CHUNK)
+        {
+            throw new TestFailed("stub read " + large.ahead +
+                                 " bytes ahead of the server");
+        }
+
+        task("uploading a channel");
+        ReadableByteChannel channel =
+            Channels.newChannel(new Source(100000));
+        if(stub.drain(channel) != 100000)
+            throw new TestFailed("incorrect channel upload size");
+
+        task("calling while an upload waits");
+        server.release = new CountDownLatch(1);
+        final UploadInterface       waiting = stub;
+        final AtomicReference<Object>   outcome = new AtomicReference<>();
+        Thread          uploader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    outcome.set(waiting.blocked(new Source(4 << 20)));
+                }
+                catch(Throwable t)
+                {
+                    outcome.set(t);
+                }
+            }
+        });
+        uploader.start();
+        if(stub.ping(5) != 5)
+            throw new TestFailed("incorrect ping result");
+        server.release.countDown();
+        uploader.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+        if(!Long.valueOf(4 << 20).equals(outcome.get()))
+            throw new TestFailed("blocked upload failed: " + outcome.get());
+
+        task("returning before the end of an upload");
+        Source          unread = new Source(LARGE);
+        if(stub.prefix(unread, 1000) != 1000)
+            throw new TestFailed("incorrect prefix size");
+        if(unread.position == LARGE)
+            throw new TestFailed("stub read an unused argument in full");
+        if(stub.ping(6) != 6)
+            throw new TestFailed("connection unusable after an early return");
+
+        task("failing to read an argument");
+        server.failure.set(null);
+        server.failed = new CountDownLatch(1);
+        try
+        {
+            stub.count(new Source(1 << 20, 300000));
+            throw new TestFailed("read failure not reported");
+        }
+        catch(RMIException e)
+        {
+            if(!(e.getCause() instanceof IOException))
+                throw new TestFailed("incorrect failure cause", e);
+        }
+        if(!server.failed.await(TIMEOUT, TimeUnit.SECONDS))
+            throw new TestFailed("server not told of the failure");
+
+        task("passing a null stream");
+        if(!stub.isNull(null))
+            throw new TestFailed("null stream not passed as null");
+    }
+
+    /** Stops the skeletons. */
+    @Override
+    protected void clean()
+    {
+        if(blocking != null)
+            blocking.stop();
+        if(nio != null)
+            nio.stop();
+    }
+
+    /** Interface used by the test. */
+    interface UploadInterface
+    {
+        long count(InputStream in) throws RMIException, IOException;
+        long drain(ReadableByteChannel channel)
+            throws RMIException, IOException;
+        long blocked(InputStream in) throws RMIException, IOException;
+        long prefix(InputStream in, int length)
+            throws RMIException, IOException;
+        boolean isNull(InputStream in) throws RMIException;
+        int ping(int value) throws RMIException;
+    }
+
+    /** Server used by the test. Bytes are checked against the pattern
+        produced by <code>Source</code>. */
+    private static class UploadServer implements UploadInterface
+    {
+        /** Number of bytes read by the current call. */
+        final AtomicLong                        consumed = new AtomicLong();
+        /** Failure seen by the latest call to <code>count</code>. */
+        final AtomicReference<IOException>      failure =
+            new AtomicReference<>();
+        volatile CountDownLatch                 failed = new CountDownLatch(1);
+        volatile CountDownLatch                 release = new CountDownLatch(0);
+
+        @Override
+        public long count(InputStream in) throws IOException
+        {
+            consumed.set(0);
+            byte[]  buffer = new byte[10000];
+            try
+            {
+                int     read;
+                while((read = in.read(buffer)) >= 0)
+                    check(buffer, read);
+            }
+            catch(IOException e)
+            {
+                failure.set(e);
+                failed.countDown();
+                throw e;
+            }
+
+            return consumed.get();
+        }
+
+        @Override
+        public long drain(ReadableByteChannel channel) throws IOException
+        {
+            consumed.set(0);
+            ByteBuffer  buffer = ByteBuffer.allocate(4096);
+            while(channel.read(buffer) >= 0)
+            {
+                check(buffer.array(), buffer.position());
+                buffer.clear();
+            }
+
+            return consumed.get();
+        }
+
+        @Override
+        public long blocked(InputStream in) throws IOException
+        {
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e)
+            {
+                throw new IOException(e);
+            }
+
+            return count(in);
+        }
+
+        @Override
+        public long prefix(InputStream in, int length) throws IOException
+        {
+            consumed.set(0);
+            byte[]  buffer = new byte[length];
+            int     total = 0;
+            while(total < length)
+            {
+                int     read = in.read(buffer, total, length - total);
+                if(read < 0)
+                    break;
+                total += read;
+            }
+
+            check(buffer, total);
+            return total;
+        }
+
+        @Override
+        public boolean isNull(InputStream in)
+        {
+            return in == null;
+        }
+
+        @Override
+        public int ping(int value)
+        {
+            return value;
+        }
+
+        /** Checks bytes against the pattern, and counts them. */
+        private void check(byte[] buffer, int length) throws IOException
+        {
+            long    offset = consumed.get();
+            for(int index = 0; index < length; ++index)
+            {
+                if(buffer[index] != (byte)(offset + index))
+                    throw new IOException("incorrect byte at " +
+                                          (offset + index));
+            }
+
+            consumed.addAndGet(length);
+        }
+    }
+
+    /** Stream of generated bytes, optionally failing part of the way
+        through. Records how far the stub reads ahead of the server. */
+    private class Source extends InputStream
+    {
+        private final long  length;
+        private final long  failAt;
+        /** Number of bytes read so far. */
+        long                position;
+        /** Largest number of bytes read ahead of the server. */
+        long                ahead;
+
+        Source(long length)
+        {
+            this(length, -1);
+        }
+
+        Source(long length, long failAt)
+        {
+            this.length = length;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public int read()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count)
+            throws IOException
+        {
+            if(failAt >= 0 && position >= failAt)
+                throw new IOException("source failed");
+            if(position == length)
+                return -1;
+
+            int     read = (int)Math.min(count, length - position);
+            for(int index = 0; index < read; ++index)
+                buffer[offset + index] = (byte)(position + index);
+            position += read;
+            ahead = Math.max(ahead, position - server.consumed.get());
+            return read;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package rmi;
+
+import test.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Unit test for the skeleton's bounded worker pool.
+
+    <p>
+    The test serves a skeleton with one worker thread and room for one queued
+    call, and refuses further calls. It occupies the worker and the queue with
+    blocked calls, then checks that a third call is refused with an
+    <code>RMIException</code> and that the skeleton reports the queued and
+    refused calls. Finally, it checks that a skeleton refuses to start with
+    the NIO engine and a policy that waits for room in the queue, which
+    would stop an event loop.
+ */
+public class WorkerPoolTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the bounded worker pool";
+
+    private Skeleton<WorkerPoolTestInterface>   skeleton = null;
+    private WorkerPoolTestInterface             stub;
+    private final CountDownLatch                entered = new CountDownLatch(1);
+    private final CountDownLatch                released = new CountDownLatch(1);
+
+    /** Starts the skeleton and creates the stub used by the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<WorkerPoolTestInterface>(
+            WorkerPoolTestInterface.class, new WorkerPoolTestServer());
+        skeleton.setWorkerPool(1, 1, RejectionPolicy.REJECT);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(WorkerPoolTestInterface.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("occupying the worker thread");
+        Thread      running = new Thread(new Blocked());
+        running.start();
+
+        try
+        {
+            if(!entered.await(1, TimeUnit.SECONDS))
+                throw new TestFailed("first call did not start");
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for first call");
+        }
+
+        task("filling the queue");
+        Thread      queued = new Thread(new Blocked());
+        queued.start();
+
+        long        deadline = System.currentTimeMillis() + 1000;
+        while(skeleton.getQueueDepth() != 1)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("second call was not queued");
+            Thread.yield();
+        }
+
+        task("making a call that does not fit in the queue");
+        try
+        {
+            stub.ping();
+            throw new TestFailed("call to saturated skeleton succeeded");
+        }
+        catch(RMIException e) { }
+
+        if(skeleton.getRejectedCalls() != 1)
+            throw new TestFailed("refused call was not counted");
+
+        task("draining the queue");
+        released.countDown();
+        try
+        {
+            running.join();
+            queued.join();
+            stub.ping();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("call after draining the queue failed", t);
+        }
+
+        task("refusing to block event loops");
+        Skeleton<WorkerPoolTestInterface>   nio =
+            new Skeleton<WorkerPoolTestInterface>(
+                WorkerPoolTestInterface.class, new WorkerPoolTestServer());
+        nio.setEngine(Skeleton.Engine.NIO);
+        nio.setWorkerPool(1, 1, RejectionPolicy.BLOCK);
+        try
+        {
+            nio.start();
+            nio.stop();
+            throw new TestFailed("NIO skeleton started with a blocking " +
+                                 "rejection policy");
+        }
+        catch(RMIException e) { }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        entered.countDown();
+        released.countDown();
+
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Client thread making a call that blocks in the server. */
+    private class Blocked implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                if(!stub.block())
+                    failure(new TestFailed("blocked call timed out"));
+            }
+            catch(Throwable t)
+            {
+                failure(new TestFailed("blocked call failed", t));
+            }
+        }
+    }
+
+    /** Remote interface used by the test. */
+    interface WorkerPoolTestInterface
+    {
+        boolean block() throws RMIException;
+        void ping() throws RMIException;
+    }
+
+    /** Server used by the test. */
+    private class WorkerPoolTestServer implements WorkerPoolTestInterface
+    {
+        @Override
+        public boolean block()
+        {
+            entered.countDown();
+            try
+            {
+                return released.await(2, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                return false;
+            }
+        }
+
+        @Override
+        public void ping()
+        {
+        }
+    }
+}